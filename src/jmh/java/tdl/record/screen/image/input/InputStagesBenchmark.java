@@ -0,0 +1,86 @@
+package tdl.record.screen.image.input;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tdl.record.screen.utils.ImageConversion;
+import tdl.record.screen.utils.ImageQualityHint;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stages a frame goes through before the colour conversion, one benchmark each.
+ * <p>
+ * The capture benchmark measures the synthetic screen alone, subtract it from the others to get the cost of the stage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InputStagesBenchmark {
+
+    @Param({"P720", "P1080", "P1440", "P2160"})
+    public SyntheticScreen.Resolution resolution;
+
+    private ImageInput capture;
+    private BufferedImage captureFrameBuffer;
+    private ImageInput scaled;
+    private BufferedImage scaledFrameBuffer;
+    private ImageInput evenSized;
+    private BufferedImage evenSizedFrameBuffer;
+    private BufferedImage robotImage;
+
+    @Setup
+    public void setUp() throws InputImageGenerationException {
+        capture = new SyntheticScreen(resolution);
+        capture.open();
+        captureFrameBuffer = frameBufferFor(capture);
+
+        scaled = new ScaleToOptimalSizeImage(ImageQualityHint.HIGH, new SyntheticScreen(resolution));
+        scaled.open();
+        scaledFrameBuffer = frameBufferFor(scaled);
+
+        evenSized = new EnsureEvenHeightAndWidth(
+                new SyntheticScreen(resolution.getWidth() - 1, resolution.getHeight() - 1));
+        evenSized.open();
+        evenSizedFrameBuffer = frameBufferFor(evenSized);
+
+        // The robot captures the screen as packed int pixels
+        robotImage = ImageConversion.convertToType(capture.getSampleImage(), BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Benchmark
+    public BufferedImage capture() throws InputImageGenerationException {
+        return capture.readImage(captureFrameBuffer);
+    }
+
+    @Benchmark
+    public BufferedImage scaleToOptimalSize() throws InputImageGenerationException {
+        return scaled.readImage(scaledFrameBuffer);
+    }
+
+    @Benchmark
+    public BufferedImage ensureEvenHeightAndWidth() throws InputImageGenerationException {
+        return evenSized.readImage(evenSizedFrameBuffer);
+    }
+
+    @Benchmark
+    public BufferedImage copyFromRobotImage() {
+        ImageConversion.copy(robotImage, captureFrameBuffer);
+        return captureFrameBuffer;
+    }
+
+    @Benchmark
+    public BufferedImage convertRobotImageToBgr() {
+        return ImageConversion.convertToType(robotImage, BufferedImage.TYPE_3BYTE_BGR);
+    }
+
+    private static BufferedImage frameBufferFor(ImageInput imageInput) {
+        return new BufferedImage(imageInput.getWidth(), imageInput.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+    }
+}
@@ -0,0 +1,138 @@
+package tdl.record.screen.image.input;
+
+import tdl.record.screen.utils.ImageConversion;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * A desktop drawn once at start-up: a title bar, a side panel and lines of text.
+ * Every frame copies the desktop and moves a window across it, so that consecutive frames differ a little, as on a real screen.
+ */
+public class SyntheticScreen implements ImageInput {
+    private static final int LINE_HEIGHT = 18;
+    private static final int WINDOW_SIZE = 200;
+    private static final int WINDOW_STEP = 8;
+    private final int width;
+    private final int height;
+    private BufferedImage desktop;
+    private BufferedImage image;
+    private int frame;
+
+    public SyntheticScreen(Resolution resolution) {
+        this(resolution.width, resolution.height);
+    }
+
+    public SyntheticScreen(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public void open() {
+        desktop = renderDesktop(width, height);
+        image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        frame = 0;
+    }
+
+    @Override
+    public BufferedImage readImage() {
+        return readImage(image);
+    }
+
+    @Override
+    public BufferedImage readImage(BufferedImage frameBuffer) {
+        ImageConversion.copy(desktop, frameBuffer);
+        Graphics2D graphics = frameBuffer.createGraphics();
+        try {
+            int x = (frame * WINDOW_STEP) % Math.max(width - WINDOW_SIZE, 1);
+            int y = (frame * WINDOW_STEP / 2) % Math.max(height - WINDOW_SIZE, 1);
+            graphics.setColor(new Color(0x30, 0x60, 0xa0));
+            graphics.fillRect(x, y, WINDOW_SIZE, WINDOW_SIZE);
+        } finally {
+            graphics.dispose();
+        }
+        frame++;
+        return frameBuffer;
+    }
+
+    /*
+      A copy, the caller may draw on the sample and the desktop is the background of every frame
+     */
+    @Override
+    public BufferedImage getSampleImage() {
+        BufferedImage sample = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        ImageConversion.copy(desktop, sample);
+        return sample;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void close() {
+        desktop = null;
+        image = null;
+    }
+
+    private static BufferedImage renderDesktop(int width, int height) {
+        BufferedImage desktop = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = desktop.createGraphics();
+        try {
+            graphics.setColor(new Color(0xf5, 0xf5, 0xf0));
+            graphics.fillRect(0, 0, width, height);
+            graphics.setColor(new Color(0x3c, 0x3f, 0x41));
+            graphics.fillRect(0, 0, width, 2 * LINE_HEIGHT);
+            graphics.fillRect(0, 0, width / 6, height);
+
+            Random random = new Random(42);
+            for (int y = 3 * LINE_HEIGHT; y + LINE_HEIGHT < height; y += LINE_HEIGHT) {
+                int x = width / 6 + 40 + 16 * random.nextInt(4);
+                while (x < width - 40) {
+                    int wordWidth = 8 * (2 + random.nextInt(8));
+                    graphics.setColor(random.nextInt(5) == 0 ? new Color(0x00, 0x33, 0x99) : new Color(0x20, 0x20, 0x20));
+                    graphics.fillRect(x, y + 4, wordWidth, LINE_HEIGHT - 8);
+                    x += wordWidth + 8;
+                }
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return desktop;
+    }
+
+    /**
+     * The screen sizes the benchmarks are run at.
+     */
+    public enum Resolution {
+        P720(1280, 720),
+        P1080(1920, 1080),
+        P1440(2560, 1440),
+        P2160(3840, 2160);
+
+        private final int width;
+        private final int height;
+
+        Resolution(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package tdl.record.screen.time;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for the next frame of a 60 fps recording with each time source.
+ * <p>
+ * Every operation lasts one interval, 16667 us, plus how late the time source woke up.
+ * The sample mode reports the percentiles, the time above the interval is the jitter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WakeUpBenchmark {
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+
+    @Param({"SYSTEM", "PRECISION"})
+    public String timeSourceType;
+
+    private TimeSource timeSource;
+
+    @Setup
+    public void setUp() {
+        timeSource = timeSourceType.equals("PRECISION") ? new PrecisionTimeSource() : new SystemTimeSource();
+    }
+
+    @Benchmark
+    public long wakeUpAtNextFrame() throws InterruptedException {
+        long target = timeSource.currentTimeNano() + INTERVAL_NANOS;
+        timeSource.wakeUpAt(target, TimeUnit.NANOSECONDS);
+        return timeSource.currentTimeNano() - target;
+    }
+}
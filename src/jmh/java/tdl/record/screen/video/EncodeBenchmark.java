@@ -0,0 +1,124 @@
+package tdl.record.screen.video;
+
+import io.humble.video.MediaPicture;
+import io.humble.video.PixelFormat;
+import io.humble.video.Rational;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import tdl.record.screen.image.input.SyntheticScreen;
+import tdl.record.screen.metrics.VideoRecordingMetricsCollector;
+import tdl.record.screen.sink.BufferedFileSink;
+import tdl.record.screen.sink.VideoSink;
+import tdl.record.screen.time.SystemTimeSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and muxes frames of the synthetic screen to a temporary file, with each encoding profile,
+ * written by the muxer itself or through a {@link BufferedFileSink}.
+ * <p>
+ * The frames are converted ahead of time, so only the encoder and the muxer are measured.
+ * The encoder keeps some frames back, the cost of a frame is only meaningful as an average over many.
+ * The size of the output is reported next to the time, as the bytesPerFrame counter, to compare what each profile trades.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EncodeBenchmark {
+    private static final int SNAPS_PER_SECOND = 4;
+    private static final int TIME_SPEED_UP_FACTOR = 4;
+    private static final int DISTINCT_FRAMES = 16;
+
+    @Param({"P720", "P1080", "P1440", "P2160"})
+    public SyntheticScreen.Resolution resolution;
+
+    @Param({"LOW_CPU_REALTIME", "BALANCED_SCREENCAST", "ARCHIVAL"})
+    public EncodingProfile encodingProfile;
+
+    @Param({"MUXER", "BUFFERED_FILE"})
+    public String sink;
+
+    private Path destination;
+    private EncodingSession session;
+    private MediaPicture[] pictures;
+    private long frameIndex;
+
+    @Setup
+    public void setUp() throws IOException, VideoRecorderException {
+        Rational videoFrameRate = Rational.make(1, SNAPS_PER_SECOND * TIME_SPEED_UP_FACTOR);
+        SyntheticScreen screen = new SyntheticScreen(resolution);
+        screen.open();
+        PictureConverter converter = new ParallelYuv420pConverter(ForkJoinPool.commonPool());
+        pictures = new MediaPicture[DISTINCT_FRAMES];
+        for (int i = 0; i < DISTINCT_FRAMES; i++) {
+            pictures[i] = MediaPicture.make(resolution.getWidth(), resolution.getHeight(), PixelFormat.Type.PIX_FMT_YUV420P);
+            pictures[i].setTimeBase(videoFrameRate);
+            converter.toPicture(pictures[i], screen.readImage(), i);
+        }
+
+        destination = Files.createTempFile("encode-benchmark", ".mp4");
+        StageTimer stageTimer = new StageTimer(new VideoRecordingMetricsCollector(), new SystemTimeSource());
+        VideoSink videoSink = sink.equals("BUFFERED_FILE") ? new BufferedFileSink() : null;
+        session = EncodingSession.open(destination.toString(), resolution.getWidth(), resolution.getHeight(),
+                videoFrameRate, TimeUnit.SECONDS.toMicros(10), encodingProfile, stageTimer, videoSink, null, null);
+        frameIndex = 0;
+    }
+
+    @Benchmark
+    public long encode(EncodedSize encodedSize) {
+        MediaPicture picture = pictures[(int) (frameIndex % DISTINCT_FRAMES)];
+        picture.setTimeStamp(frameIndex++);
+        long bytesWrittenBefore = session.getBytesWritten();
+        session.encode(picture);
+        encodedSize.frameEncoded(session.getBytesWritten() - bytesWrittenBefore);
+        return session.getBytesWritten();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        session.flush();
+        session.close();
+        for (MediaPicture picture : pictures) {
+            picture.delete();
+        }
+        Files.deleteIfExists(destination);
+    }
+
+    /**
+     * The bytes written per frame over an iteration, reported by JMH next to the time.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class EncodedSize {
+        private long frames;
+        private long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            frames = 0;
+            bytes = 0;
+        }
+
+        void frameEncoded(long bytesWritten) {
+            frames++;
+            bytes += bytesWritten;
+        }
+
+        public long bytesPerFrame() {
+            return frames == 0 ? 0 : bytes / frames;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package tdl.record.screen.video;
+
+import io.humble.video.MediaPicture;
+import io.humble.video.PixelFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import tdl.record.screen.image.input.SyntheticScreen;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The conversion of a captured frame to the YUV picture taken by the encoder, with each converter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PictureConversionBenchmark {
+
+    @Param({"P720", "P1080", "P1440", "P2160"})
+    public SyntheticScreen.Resolution resolution;
+
+    @Param({"HUMBLE", "PARALLEL_FIXED_POINT"})
+    public ColourConversion colourConversion;
+
+    private BufferedImage image;
+    private MediaPicture picture;
+    private PictureConverter converter;
+    private long timestamp;
+
+    @Setup
+    public void setUp() {
+        SyntheticScreen screen = new SyntheticScreen(resolution);
+        screen.open();
+        image = screen.readImage();
+        picture = MediaPicture.make(resolution.getWidth(), resolution.getHeight(), PixelFormat.Type.PIX_FMT_YUV420P);
+        converter = colourConversion == ColourConversion.PARALLEL_FIXED_POINT
+                ? new ParallelYuv420pConverter(ForkJoinPool.commonPool())
+                : new HumblePictureConverter(image, picture);
+        timestamp = 0;
+    }
+
+    @Benchmark
+    public MediaPicture toPicture() {
+        converter.toPicture(picture, image, timestamp++);
+        return picture;
+    }
+
+    @TearDown
+    public void tearDown() {
+        picture.delete();
+    }
+}
@@ -0,0 +1,95 @@
+package tdl.record.screen.video;
+
+import com.google.zxing.BarcodeFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import tdl.record.screen.image.input.ImageInput;
+import tdl.record.screen.image.input.InputFromStreamOfBarcodes;
+import tdl.record.screen.image.input.ScaleToOptimalSizeImage;
+import tdl.record.screen.image.input.SyntheticScreen;
+import tdl.record.screen.time.FakeTimeSource;
+import tdl.record.screen.utils.ImageQualityHint;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records ten seconds of a synthetic input from start to finish, through the same path as the command line.
+ * <p>
+ * The fake time source never waits, so the score is the cost of a frame through every stage, not the frame rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecordingBenchmark {
+    private static final int SNAPS_PER_SECOND = 5;
+    private static final int TIME_SPEED_UP_FACTOR = 4;
+    private static final int RECORDING_SECONDS = 10;
+    private static final int FRAMES = SNAPS_PER_SECOND * RECORDING_SECONDS;
+
+    @Param({"P720", "P1080", "P1440", "P2160"})
+    public SyntheticScreen.Resolution resolution;
+
+    @Param({"SCREEN", "BARCODES"})
+    public Input input;
+
+    @Param({"HUMBLE", "PARALLEL_FIXED_POINT"})
+    public ColourConversion colourConversion;
+
+    private Path destination;
+    private VideoRecorder videoRecorder;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws IOException, VideoRecorderException {
+        destination = Files.createTempFile("recording-benchmark", ".mp4");
+        videoRecorder = new VideoRecorder
+                .Builder(new ScaleToOptimalSizeImage(ImageQualityHint.MEDIUM, input.create(resolution)))
+                .withTimeSource(new FakeTimeSource())
+                .withColourConversion(colourConversion)
+                .withEncodingProfile(EncodingProfile.LOW_CPU_REALTIME)
+                .build();
+        videoRecorder.open(destination.toString(), SNAPS_PER_SECOND, TIME_SPEED_UP_FACTOR);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void record() throws VideoRecorderException {
+        videoRecorder.start(Duration.ofSeconds(RECORDING_SECONDS));
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+        videoRecorder.close();
+        Files.deleteIfExists(destination);
+    }
+
+    public enum Input {
+        SCREEN {
+            @Override
+            ImageInput create(SyntheticScreen.Resolution resolution) {
+                return new SyntheticScreen(resolution);
+            }
+        },
+        BARCODES {
+            @Override
+            ImageInput create(SyntheticScreen.Resolution resolution) {
+                return new InputFromStreamOfBarcodes(BarcodeFormat.CODE_39,
+                        resolution.getWidth(), resolution.getHeight(), new FakeTimeSource());
+            }
+        };
+
+        abstract ImageInput create(SyntheticScreen.Resolution resolution);
+    }
+}
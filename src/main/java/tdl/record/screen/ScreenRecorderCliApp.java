@@ -4,19 +4,42 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import tdl.record.screen.image.input.ImageInput;
 import tdl.record.screen.image.input.InputFromScreen;
 import tdl.record.screen.image.input.ScaleToOptimalSizeImage;
+import tdl.record.screen.jfr.FlightRecorderListener;
+import tdl.record.screen.metrics.AsyncVideoRecordingListener;
+import tdl.record.screen.metrics.CompositeVideoRecordingListener;
+import tdl.record.screen.metrics.JmxMetricsExport;
+import tdl.record.screen.metrics.LatencyHistogram;
+import tdl.record.screen.metrics.PrometheusMetricsServer;
+import tdl.record.screen.metrics.RecordingStage;
+import tdl.record.screen.metrics.VideoRecordingListener;
 import tdl.record.screen.metrics.VideoRecordingMetricsCollector;
+import tdl.record.screen.recovery.RecordingRecovery;
+import tdl.record.screen.stream.LiveStream;
+import tdl.record.screen.stream.LiveStreamServer;
 import tdl.record.screen.utils.ImageQualityHint;
+import tdl.record.screen.video.EncodingProfile;
+import tdl.record.screen.video.MultiScreenRecorder;
+import tdl.record.screen.video.RecorderWarmUp;
 import tdl.record.screen.video.VideoRecorder;
 import tdl.record.screen.video.VideoRecorderException;
 
+import javax.management.JMException;
 import java.awt.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 public class ScreenRecorderCliApp {
     private static final Logger log = LoggerFactory.getLogger(ScreenRecorderCliApp.class);
@@ -27,6 +50,30 @@ public class ScreenRecorderCliApp {
     @Parameter(names = {"-d", "--duration"}, description = "Duration of the recording in minutes. Pass -1 for continuous recording.")
     private Integer recordingTime = -1;
 
+    @Parameter(names = {"--segment-duration"}, description = "With continuous recording, the duration of each segment file in minutes.")
+    private Integer segmentDuration = 30;
+
+    @Parameter(names = {"--disk-quota"}, description = "With continuous recording, the space in megabytes kept for segments. The oldest are deleted first. Pass 0 for no limit.")
+    private Long diskQuota = 0L;
+
+    @Parameter(names = {"--all-screens"}, description = "Record every screen at once, one file per screen, instead of asking which screen to record.")
+    private boolean allScreens = false;
+
+    @Parameter(names = {"--capture-bands"}, description = "Capture each screen as this many horizontal bands grabbed in parallel. Helps with high resolution screens.")
+    private Integer captureBands = 1;
+
+    @Parameter(names = {"--stage-metrics"}, description = "Add the latency percentiles of each recording stage to the status printed every 5 seconds.")
+    private boolean stageMetrics = false;
+
+    @Parameter(names = {"--jmx"}, description = "Publish the recording metrics as a JMX MBean.")
+    private boolean jmx = false;
+
+    @Parameter(names = {"--metrics-port"}, description = "Serve the recording metrics in the Prometheus text format on http://localhost:<port>/metrics.")
+    private Integer metricsPort = null;
+
+    @Parameter(names = {"--live-port"}, description = "Stream the recording live on http://localhost:<port>/live.mp4, to watch it with ffplay or VLC. Not available with --all-screens.")
+    private Integer livePort = null;
+
 
     public static void main(String[] args) throws VideoRecorderException {
         log.info("Starting recording app");
@@ -36,18 +83,16 @@ public class ScreenRecorderCliApp {
     }
 
     private void run() throws VideoRecorderException {
-        // Run the sanity check
-        VideoRecorder.runSanityCheck();
-
-        // Process parameters
-        if (recordingTime < 0) {
-            throw new IllegalArgumentException("Continuous recording not implemented");
-        }
+        // Load the native libraries and prime the encoder while looking for the screens, this includes the sanity check
+        RecorderWarmUp warmUp = RecorderWarmUp.start(EncodingProfile.PLATFORM_DEFAULT, true);
 
         // Choose screen in case multiple displays are available
         GraphicsDevice[] screenDevices = GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices();
         GraphicsDevice screenDeviceToRecord;
-        if (screenDevices.length == 1) {
+        if (allScreens && screenDevices.length > 1) {
+            recordAllScreens(screenDevices, warmUp);
+            return;
+        } else if (screenDevices.length == 1) {
             screenDeviceToRecord = screenDevices[0];
         } else if (screenDevices.length > 1) {
             int selectedScreenNumber = askUserToSelectScreen(screenDevices);
@@ -58,13 +103,30 @@ public class ScreenRecorderCliApp {
         Rectangle screenBounds = screenDeviceToRecord.getDefaultConfiguration().getBounds();
         log.info("Recording screen size: " + screenBounds.width + "x" + screenBounds.height);
 
-        InputFromScreen originalImageSource = new InputFromScreen(screenDeviceToRecord);
+        InputFromScreen originalImageSource = new InputFromScreen(screenDeviceToRecord, captureBands);
 
         VideoRecordingMetricsCollector videoRecordingMetricsCollector = new VideoRecordingMetricsCollector();
-        VideoRecorder videoRecorder = new VideoRecorder
+        AsyncVideoRecordingListener recordingListener = new AsyncVideoRecordingListener(videoRecordingMetricsCollector);
+        VideoRecorder.Builder videoRecorderBuilder = new VideoRecorder
                 .Builder(new ScaleToOptimalSizeImage(ImageQualityHint.MEDIUM, originalImageSource))
-                .withRecordingListener(videoRecordingMetricsCollector)
-                .build();
+                .withRecordingListener(withFlightRecorderEvents(recordingListener));
+        boolean continuousRecording = recordingTime < 0;
+        if (continuousRecording) {
+            videoRecorderBuilder.withRollingSegments(
+                    Duration.of(segmentDuration, ChronoUnit.MINUTES), 0, diskQuota * 1024 * 1024);
+        }
+        LiveStreamServer liveStreamServer = null;
+        if (livePort != null) {
+            LiveStream liveStream = new LiveStream();
+            try {
+                liveStreamServer = LiveStreamServer.start(liveStream, livePort);
+                videoRecorderBuilder.withLiveStream(liveStream);
+                System.out.println("Streaming the recording on http://localhost:" + liveStreamServer.getPort() + "/live.mp4");
+            } catch (IOException e) {
+                log.warn("Could not stream the recording on port " + livePort, e);
+            }
+        }
+        VideoRecorder videoRecorder = videoRecorderBuilder.build();
 
         //Issue performance updates
         Timer timer = new Timer();
@@ -74,16 +136,148 @@ public class ScreenRecorderCliApp {
                 System.out.println("Recorded "+ videoRecordingMetricsCollector.getTotalFrames() + " frames"
                         +" at "+ videoRecordingMetricsCollector.getVideoFrameRate().getDenominator() + " fps"
                         +" with a load of " + videoRecordingMetricsCollector.getRenderingTimeRatio());
+                printStageMetrics(videoRecordingMetricsCollector);
             }
         }, 0, 5000);
 
-        registerShutdownHook(videoRecorder, timer);
+        registerShutdownHook(videoRecorder::stop, timer);
+        List<Closeable> metricsExports = exportMetrics(videoRecordingMetricsCollector);
 
+        warmUp.await();
+        recoverInterruptedRecordings();
 
         videoRecorder.open(destinationPath, 4, 4);
-        videoRecorder.start(Duration.of(recordingTime, ChronoUnit.MINUTES));
+        if (continuousRecording) {
+            videoRecorder.startContinuous();
+        } else {
+            videoRecorder.start(Duration.of(recordingTime, ChronoUnit.MINUTES));
+        }
         videoRecorder.close();
+        recordingListener.close();
         timer.cancel();
+        closeAll(metricsExports);
+        if (liveStreamServer != null) {
+            liveStreamServer.close();
+        }
+    }
+
+    /*
+      Recover the recordings left behind by a previous run that did not finish.
+      Only once the warm-up is over: it reports a missing native library, and nothing should touch the videos before that.
+     */
+    private void recoverInterruptedRecordings() {
+        Path outputDirectory = Paths.get(destinationPath).toAbsolutePath().getParent();
+        try {
+            for (RecordingRecovery.Result result : RecordingRecovery.recoverAll(outputDirectory)) {
+                System.out.println("Recovered interrupted recording " + result);
+            }
+        } catch (IOException e) {
+            log.warn("Could not recover the interrupted recordings in " + outputDirectory, e);
+        }
+    }
+
+    private void recordAllScreens(GraphicsDevice[] screenDevices, RecorderWarmUp warmUp) throws VideoRecorderException {
+        List<ImageInput> screens = new ArrayList<>();
+        for (GraphicsDevice screenDevice : screenDevices) {
+            Rectangle screenBounds = screenDevice.getDefaultConfiguration().getBounds();
+            log.info("Recording screen size: " + screenBounds.width + "x" + screenBounds.height);
+            screens.add(new ScaleToOptimalSizeImage(ImageQualityHint.MEDIUM, new InputFromScreen(screenDevice, captureBands)));
+        }
+
+        VideoRecordingMetricsCollector videoRecordingMetricsCollector = new VideoRecordingMetricsCollector();
+        AsyncVideoRecordingListener recordingListener = new AsyncVideoRecordingListener(videoRecordingMetricsCollector);
+        MultiScreenRecorder multiScreenRecorder = new MultiScreenRecorder.Builder(screens)
+                .withRecordingListener(withFlightRecorderEvents(recordingListener))
+                .build();
+
+        //Issue performance updates
+        Timer timer = new Timer();
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                System.out.println("Recorded "+ videoRecordingMetricsCollector.getTotalFrames() + " frames"
+                        +" of " + screens.size() + " screens"
+                        +" with a load of " + videoRecordingMetricsCollector.getRenderingTimeRatio()
+                        +" and a max capture skew of "
+                        + TimeUnit.NANOSECONDS.toMillis(videoRecordingMetricsCollector.getMaxCaptureSkewNanos()) + " ms");
+                printStageMetrics(videoRecordingMetricsCollector);
+            }
+        }, 0, 5000);
+
+        registerShutdownHook(multiScreenRecorder::stop, timer);
+        List<Closeable> metricsExports = exportMetrics(videoRecordingMetricsCollector);
+
+        warmUp.await();
+        recoverInterruptedRecordings();
+        multiScreenRecorder.open(destinationPath, 4, 4);
+        if (recordingTime < 0) {
+            multiScreenRecorder.startContinuous();
+        } else {
+            multiScreenRecorder.start(Duration.of(recordingTime, ChronoUnit.MINUTES));
+        }
+        multiScreenRecorder.close();
+        recordingListener.close();
+        timer.cancel();
+        closeAll(metricsExports);
+    }
+
+    /*
+      The flight recorder events are only built while a flight recording is running, so they are always attached when supported
+     */
+    private static VideoRecordingListener withFlightRecorderEvents(VideoRecordingListener videoRecordingListener) {
+        if (!FlightRecorderListener.isAvailable()) {
+            return videoRecordingListener;
+        }
+        return new CompositeVideoRecordingListener(new FlightRecorderListener(), videoRecordingListener);
+    }
+
+    /*
+      The metrics are a convenience, the recording goes ahead without them if they cannot be published
+     */
+    private List<Closeable> exportMetrics(VideoRecordingMetricsCollector videoRecordingMetricsCollector) {
+        List<Closeable> metricsExports = new ArrayList<>();
+        if (jmx) {
+            String recordingName = Paths.get(destinationPath).getFileName().toString();
+            try {
+                metricsExports.add(JmxMetricsExport.register(videoRecordingMetricsCollector, recordingName));
+            } catch (JMException e) {
+                log.warn("Could not publish the metrics to JMX", e);
+            }
+        }
+        if (metricsPort != null) {
+            try {
+                PrometheusMetricsServer metricsServer = PrometheusMetricsServer.start(videoRecordingMetricsCollector, metricsPort);
+                metricsExports.add(metricsServer);
+                System.out.println("Serving the metrics on http://localhost:" + metricsServer.getPort() + "/metrics");
+            } catch (IOException e) {
+                log.warn("Could not serve the metrics on port " + metricsPort, e);
+            }
+        }
+        return metricsExports;
+    }
+
+    private static void closeAll(List<Closeable> metricsExports) {
+        for (Closeable metricsExport : metricsExports) {
+            try {
+                metricsExport.close();
+            } catch (IOException e) {
+                log.debug("Could not stop exporting the metrics", e);
+            }
+        }
+    }
+
+    private void printStageMetrics(VideoRecordingMetricsCollector videoRecordingMetricsCollector) {
+        if (!stageMetrics) {
+            return;
+        }
+        for (RecordingStage stage : RecordingStage.values()) {
+            LatencyHistogram.Snapshot stageLatency = videoRecordingMetricsCollector.getStageLatency(stage);
+            if (stageLatency.getCount() > 0) {
+                System.out.println("  " + stage + " " + stageLatency);
+            }
+        }
+        System.out.println("  LATENESS " + videoRecordingMetricsCollector.getLateness()
+                + ", " + videoRecordingMetricsCollector.getBytesWritten() / 1024 + " KB written");
     }
 
     private int askUserToSelectScreen(GraphicsDevice[] screenDevices) {
@@ -119,11 +313,11 @@ public class ScreenRecorderCliApp {
     }
 
 
-    private void registerShutdownHook(final VideoRecorder videoRecorder, Timer timer) {
+    private void registerShutdownHook(final Runnable stopRecording, Timer timer) {
         final Thread mainThread = Thread.currentThread();
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             timer.cancel();
-            videoRecorder.stop();
+            stopRecording.run();
             try {
                 mainThread.join();
             } catch (InterruptedException e) {
@@ -0,0 +1,80 @@
+package tdl.record.screen.governor;
+
+import tdl.record.screen.utils.ScalingQuality;
+
+/**
+ * Holds the time spent on each frame under a fraction of the frame interval.
+ * <p>
+ * The load is the processing time divided by the time available for the frame, smoothed over the last frames.
+ * When the load stays above the budget, the governor steps down through a fixed list of adjustments:
+ * first the scaling gets cheaper, then fewer frames are captured.
+ * When the load stays well below the budget for longer, it steps back up one level at a time.
+ */
+public class CpuBudgetGovernor implements RecordingGovernor {
+    private static final RecordingAdjustment[] LEVELS = {
+            RecordingAdjustment.NONE,
+            new RecordingAdjustment(1, ScalingQuality.BILINEAR),
+            new RecordingAdjustment(1, ScalingQuality.NEAREST_NEIGHBOR),
+            new RecordingAdjustment(2, ScalingQuality.NEAREST_NEIGHBOR),
+            new RecordingAdjustment(3, ScalingQuality.NEAREST_NEIGHBOR),
+            new RecordingAdjustment(4, ScalingQuality.NEAREST_NEIGHBOR),
+    };
+    private static final double SMOOTHING_FACTOR = 0.25;
+    private static final double RECOVERY_THRESHOLD = 0.5;
+    private static final int FRAMES_BEFORE_DEGRADING = 3;
+    private static final int FRAMES_BEFORE_RECOVERING = 30;
+    private final double cpuBudget;
+    private int level;
+    private double smoothedLoad;
+    private boolean hasLoad;
+    private int framesOverBudget;
+    private int framesUnderBudget;
+
+    /**
+     * @param cpuBudget the fraction of each frame interval the recording may use, 0.8 leaves 20% of headroom
+     */
+    public CpuBudgetGovernor(double cpuBudget) {
+        if (cpuBudget <= 0) {
+            throw new IllegalArgumentException("The CPU budget must be positive");
+        }
+        this.cpuBudget = cpuBudget;
+        this.level = 0;
+        this.hasLoad = false;
+    }
+
+    @Override
+    public RecordingAdjustment onFrameProcessed(long processingTimeNanos, long frameIntervalNanos) {
+        RecordingAdjustment current = LEVELS[level];
+        double load = processingTimeNanos / (double) (frameIntervalNanos * current.getFrameRateDivisor());
+        smoothedLoad = hasLoad ? smoothedLoad + SMOOTHING_FACTOR * (load - smoothedLoad) : load;
+        hasLoad = true;
+
+        if (smoothedLoad > cpuBudget) {
+            framesOverBudget++;
+            framesUnderBudget = 0;
+        } else if (smoothedLoad < cpuBudget * RECOVERY_THRESHOLD) {
+            framesUnderBudget++;
+            framesOverBudget = 0;
+        } else {
+            framesOverBudget = 0;
+            framesUnderBudget = 0;
+        }
+
+        if (framesOverBudget >= FRAMES_BEFORE_DEGRADING && level < LEVELS.length - 1) {
+            changeLevel(level + 1);
+        } else if (framesUnderBudget >= FRAMES_BEFORE_RECOVERING && level > 0) {
+            changeLevel(level - 1);
+        }
+        return LEVELS[level];
+    }
+
+    /*
+      The load measured at the previous level says little about the new one, so start measuring again.
+     */
+    private void changeLevel(int newLevel) {
+        level = newLevel;
+        hasLoad = false;
+        framesOverBudget = 0;
+        framesUnderBudget = 0;
+    }
+}
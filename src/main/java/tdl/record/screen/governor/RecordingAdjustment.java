@@ -0,0 +1,71 @@
+package tdl.record.screen.governor;
+
+import tdl.record.screen.utils.ScalingQuality;
+
+import java.util.Objects;
+
+/**
+ * The settings a {@link RecordingGovernor} can change while the recording is running.
+ * <p>
+ * The size of the video cannot change once the encoder is open,
+ * so the cost of a frame is reduced through the scaling interpolation and the number of frames captured.
+ */
+public final class RecordingAdjustment {
+    public static final RecordingAdjustment NONE = new RecordingAdjustment(1, ScalingQuality.BICUBIC);
+    private final int frameRateDivisor;
+    private final ScalingQuality scalingQuality;
+
+    /**
+     * @param frameRateDivisor capture one frame slot out of this many, the video keeps the timestamps of the captured frames
+     * @param scalingQuality   the interpolation used when scaling the screen down
+     */
+    public RecordingAdjustment(int frameRateDivisor, ScalingQuality scalingQuality) {
+        if (frameRateDivisor < 1) {
+            throw new IllegalArgumentException("The frame rate divisor must be at least 1");
+        }
+        this.frameRateDivisor = frameRateDivisor;
+        this.scalingQuality = scalingQuality;
+    }
+
+    public int getFrameRateDivisor() {
+        return frameRateDivisor;
+    }
+
+    public ScalingQuality getScalingQuality() {
+        return scalingQuality;
+    }
+
+    /**
+     * The slots skipped by the scheduler count towards the divisor, so the captured frames stay evenly spaced
+     * whether the slots in between were skipped or left out on purpose.
+     *
+     * @param frameIndex             the slot about to start
+     * @param lastCapturedFrameIndex the last slot captured, negative before the first one
+     * @return true if the frame of this slot should be captured
+     */
+    public boolean shouldCapture(long frameIndex, long lastCapturedFrameIndex) {
+        return lastCapturedFrameIndex < 0 || frameIndex - lastCapturedFrameIndex >= frameRateDivisor;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RecordingAdjustment that = (RecordingAdjustment) o;
+        return frameRateDivisor == that.frameRateDivisor &&
+                scalingQuality == that.scalingQuality;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(frameRateDivisor, scalingQuality);
+    }
+
+    @Override
+    public String toString() {
+        return "RecordingAdjustment{" +
+                "frameRateDivisor=" + frameRateDivisor +
+                ", scalingQuality=" + scalingQuality +
+                '}';
+    }
+}
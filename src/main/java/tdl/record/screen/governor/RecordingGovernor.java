@@ -0,0 +1,16 @@
+package tdl.record.screen.governor;
+
+/**
+ * Watches the cost of each frame and decides how the recording should be adjusted to keep up.
+ * A governor is called from the recording thread only.
+ */
+public interface RecordingGovernor {
+
+    /**
+     * @param processingTimeNanos time spent capturing and processing the frame. When the stages are pipelined,
+     *                            the longest of the capture and the last conversion and encoding, as the slowest stage sets the pace
+     * @param frameIntervalNanos  time between two frames at the requested snap rate
+     * @return the adjustment to apply from the next frame on
+     */
+    RecordingAdjustment onFrameProcessed(long processingTimeNanos, long frameIntervalNanos);
+}
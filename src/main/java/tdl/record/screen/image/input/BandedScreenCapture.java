@@ -0,0 +1,123 @@
+package tdl.record.screen.image.input;
+
+import tdl.record.screen.utils.ImageConversion;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Captures an area of the screen as horizontal bands grabbed at the same time, each by its own {@link Robot}.
+ * <p>
+ * A single capture of a large screen blocks for tens of milliseconds, most of it spent reading and converting pixels.
+ * The bands are grabbed in parallel and each one is converted straight into its rows of the frame buffer.
+ * The first band is grabbed on the calling thread, the others on threads kept for the life of the capture.
+ * With one band this is a plain single capture.
+ */
+class BandedScreenCapture {
+    private static final AtomicInteger captureCount = new AtomicInteger();
+    private final Rectangle area;
+    private final List<Band> bands;
+    private final ExecutorService bandPool;
+
+    BandedScreenCapture(GraphicsDevice screenDevice, Rectangle area, int numberOfBands) throws AWTException {
+        if (numberOfBands < 1) {
+            throw new IllegalArgumentException("At least one band is needed");
+        }
+        this.area = new Rectangle(area);
+        this.bands = new ArrayList<>();
+        int bandCount = Math.min(numberOfBands, area.height);
+        for (int i = 0; i < bandCount; i++) {
+            int top = area.height * i / bandCount;
+            int bottom = area.height * (i + 1) / bandCount;
+            bands.add(new Band(new Robot(screenDevice), top, bottom - top));
+        }
+
+        if (bandCount > 1) {
+            int captureNumber = captureCount.incrementAndGet();
+            AtomicInteger threadCount = new AtomicInteger();
+            this.bandPool = Executors.newFixedThreadPool(bandCount - 1, runnable -> {
+                Thread thread = new Thread(runnable,
+                        "screen-capture-" + captureNumber + "-band-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.bandPool = null;
+        }
+    }
+
+    /**
+     * Grab the area into the frame buffer.
+     *
+     * @param frameBuffer a TYPE_3BYTE_BGR image the size of the area
+     * @throws InputImageGenerationException if any of the bands could not be captured
+     */
+    void captureInto(BufferedImage frameBuffer) throws InputImageGenerationException {
+        List<Future<?>> pendingBands = new ArrayList<>();
+        for (Band band : bands.subList(1, bands.size())) {
+            pendingBands.add(bandPool.submit(() -> band.captureInto(frameBuffer)));
+        }
+
+        RuntimeException firstBandFailure = null;
+        try {
+            bands.get(0).captureInto(frameBuffer);
+        } catch (RuntimeException e) {
+            firstBandFailure = e;
+        }
+
+        // Every band is waited for, so that none is still writing into the frame buffer once this returns
+        Throwable failure = firstBandFailure;
+        boolean interrupted = false;
+        for (Future<?> pendingBand : pendingBands) {
+            while (true) {
+                try {
+                    pendingBand.get();
+                    break;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw new InputImageGenerationException(failure);
+        }
+    }
+
+    void close() {
+        if (bandPool != null) {
+            bandPool.shutdownNow();
+        }
+    }
+
+    private class Band {
+        private final Robot robot;
+        private final Rectangle screenArea;
+        private final int top;
+
+        Band(Robot robot, int top, int height) {
+            this.robot = robot;
+            this.screenArea = new Rectangle(area.x, area.y + top, area.width, height);
+            this.top = top;
+        }
+
+        void captureInto(BufferedImage frameBuffer) {
+            BufferedImage screenCapture = robot.createScreenCapture(screenArea);
+            ImageConversion.copy(screenCapture, frameBuffer.getSubimage(0, top, screenArea.width, screenArea.height));
+        }
+    }
+}
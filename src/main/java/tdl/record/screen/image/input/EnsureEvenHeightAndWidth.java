@@ -1,12 +1,14 @@
  package tdl.record.screen.image.input;
 
-import java.awt.*;
+import tdl.record.screen.utils.ScalingQuality;
+
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
-import java.awt.image.WritableRaster;
 
 public class EnsureEvenHeightAndWidth implements ImageInput {
     private final ImageInput originalInputSource;
+    private BufferedImage sourceFrameBuffer;
+    private BufferedImage lastOriginalImage;
+    private BufferedImage lastEvenView;
 
 
     public EnsureEvenHeightAndWidth(ImageInput originalImageSource) {
@@ -23,33 +25,78 @@ public class EnsureEvenHeightAndWidth implements ImageInput {
         return processImage(originalInputSource.readImage());
     }
 
+    /*
+      The original input gets its own full size buffer, allocated once.
+      The even-sized region is returned as a view sharing the pixels of that buffer, so nothing is copied.
+     */
+    @Override
+    public BufferedImage readImage(BufferedImage frameBuffer) throws InputImageGenerationException {
+        if (!isOdd(originalInputSource.getWidth()) && !isOdd(originalInputSource.getHeight())) {
+            return originalInputSource.readImage(frameBuffer);
+        }
+
+        if (sourceFrameBuffer == null) {
+            sourceFrameBuffer = new BufferedImage(
+                    originalInputSource.getWidth(),
+                    originalInputSource.getHeight(),
+                    BufferedImage.TYPE_3BYTE_BGR);
+        }
+        return processImage(originalInputSource.readImage(sourceFrameBuffer));
+    }
+
     @Override
     public BufferedImage getSampleImage() throws InputImageGenerationException {
         return processImage(originalInputSource.getSampleImage());
     }
 
+    /*
+      Inputs usually hand back the same image every time, the view on it is created once and reused.
+     */
     private BufferedImage processImage(BufferedImage originalImage) {
-        if (needsProcessing(originalImage)) {
-            int width = ensureEven(originalImage.getWidth());
-            int height = ensureEven(originalImage.getHeight());
-            Raster data = originalImage.getData(new Rectangle(0, 0, width, height));
-
-            WritableRaster writableRaster = data.createCompatibleWritableRaster();
-            writableRaster.setDataElements(0, 0, data);
-            return new BufferedImage(
-                    originalImage.getColorModel(),
-                    writableRaster,
-                    originalImage.isAlphaPremultiplied(),
-                    null);
-        } else {
+        if (!needsProcessing(originalImage)) {
             return originalImage;
         }
+
+        if (originalImage != lastOriginalImage) {
+            lastOriginalImage = originalImage;
+            lastEvenView = originalImage.getSubimage(0, 0,
+                    ensureEven(originalImage.getWidth()),
+                    ensureEven(originalImage.getHeight()));
+        }
+        return lastEvenView;
     }
 
     private static boolean needsProcessing(BufferedImage originalImage) {
         return isOdd(originalImage.getHeight()) || isOdd(originalImage.getWidth());
     }
 
+    @Override
+    public void setScalingQuality(ScalingQuality scalingQuality) {
+        originalInputSource.setScalingQuality(scalingQuality);
+    }
+
+    @Override
+    public long getLastScalingNanos() {
+        return originalInputSource.getLastScalingNanos();
+    }
+
+    @Override
+    public void setScalingListener(ScalingListener scalingListener) {
+        originalInputSource.setScalingListener(scalingListener);
+    }
+
+    /*
+      The source buffer has the size of the original input, it is allocated again at the new size
+     */
+    @Override
+    public boolean updateSize() throws InputImageGenerationException {
+        if (!originalInputSource.updateSize()) {
+            return false;
+        }
+        sourceFrameBuffer = null;
+        return true;
+    }
+
     @Override
     public int getWidth() {
         return ensureEven(originalInputSource.getWidth());
@@ -1,5 +1,7 @@
 package tdl.record.screen.image.input;
 
+import tdl.record.screen.utils.ScalingQuality;
+
 import java.awt.image.BufferedImage;
 
 public interface ImageInput {
@@ -9,6 +11,20 @@ public interface ImageInput {
     BufferedImage readImage()
             throws InputImageGenerationException;
 
+    /**
+     * Read the next image into a frame buffer owned by the caller.
+     * Inputs that draw into the buffer do not need to allocate a new image for every frame.
+     * Inputs that cannot, return their own image instead.
+     *
+     * @param frameBuffer a TYPE_3BYTE_BGR image with the size given by {@link #getWidth()} and {@link #getHeight()}
+     * @return the image holding the frame, either the frame buffer or an image owned by the input
+     * @throws InputImageGenerationException if there was a problem acquiring the image
+     */
+    default BufferedImage readImage(BufferedImage frameBuffer)
+            throws InputImageGenerationException {
+        return readImage();
+    }
+
     /**
      * Provide a sample of the input. This is required to allow the client to initialize the converters ahead of time
      *
@@ -17,6 +33,47 @@ public interface ImageInput {
      */
     BufferedImage getSampleImage() throws InputImageGenerationException;
 
+    /**
+     * Change the interpolation used by inputs that scale the image. Other inputs ignore it.
+     * Must be called from the thread reading the images.
+     *
+     * @param scalingQuality the interpolation to use from the next image on
+     */
+    default void setScalingQuality(ScalingQuality scalingQuality) {
+    }
+
+    /**
+     * Tell how long the last image read spent being scaled, so that it can be told apart from the capture.
+     * Inputs that do not scale return zero.
+     *
+     * @return the scaling time of the last image, in nanoseconds
+     */
+    default long getLastScalingNanos() {
+        return 0;
+    }
+
+    /**
+     * Be told when the image is scaled, so that the scaling can be timed as a step of its own.
+     * Inputs that do not scale never call it.
+     *
+     * @param scalingListener called on the thread reading the images
+     */
+    default void setScalingListener(ScalingListener scalingListener) {
+    }
+
+    /**
+     * Take a new size of the images, for inputs whose size can change while recording.
+     * A video cannot change size, so the recorder finishes the frames of the old size before calling this
+     * and starts a new video when it returns true. Inputs of a fixed size return false.
+     * Must be called from the thread reading the images.
+     *
+     * @return true if {@link #getWidth()} and {@link #getHeight()} have changed, the next image has the new size
+     * @throws InputImageGenerationException if the input could not be set up for the new size
+     */
+    default boolean updateSize() throws InputImageGenerationException {
+        return false;
+    }
+
     int getWidth();
 
     int getHeight();
@@ -10,15 +10,32 @@ public class InputFromScreen implements ImageInput {
     private Rectangle screenBounds;
     private Robot robot;
     private GraphicsDevice screenDevice;
+    private final int captureBands;
+    private BandedScreenCapture bandedCapture;
 
     public InputFromScreen() {
         this(GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice());
     }
 
     public InputFromScreen(GraphicsDevice screenDevice) {
+        this(screenDevice, 1);
+    }
+
+    /**
+     * Capture the screen as horizontal bands grabbed concurrently, which shortens the capture of high resolution screens.
+     *
+     * @param screenDevice the screen to capture
+     * @param captureBands the number of bands, 1 captures the whole screen in a single call
+     */
+    public InputFromScreen(GraphicsDevice screenDevice, int captureBands) {
+        if (captureBands < 1) {
+            throw new IllegalArgumentException("At least one capture band is needed");
+        }
         this.screenBounds = null;
         this.robot = null;
         this.screenDevice = screenDevice;
+        this.captureBands = captureBands;
+        this.bandedCapture = null;
     }
 
     @Override
@@ -28,17 +45,38 @@ public class InputFromScreen implements ImageInput {
             //OBS: Robot starts an app called AppMain. What is the deal with it ?
             this.robot = new Robot(screenDevice);
             this.screenBounds = screenDevice.getDefaultConfiguration().getBounds();
+            if (captureBands > 1) {
+                this.bandedCapture = new BandedScreenCapture(screenDevice, screenBounds, captureBands);
+            }
         } catch (AWTException e) {
             throw new InputImageGenerationException(e);
         }
     }
 
     @Override
-    public BufferedImage readImage() {
+    public BufferedImage readImage() throws InputImageGenerationException {
+        if (bandedCapture != null) {
+            return readImage(getSampleImage());
+        }
         BufferedImage screenCapture = robot.createScreenCapture(screenBounds);
         return ImageConversion.convertToType(screenCapture, IMAGE_TYPE);
     }
 
+    /*
+      Robot always hands back a freshly allocated capture, usually TYPE_INT_RGB.
+      Converting it straight into the frame buffer avoids allocating a second full screen image.
+     */
+    @Override
+    public BufferedImage readImage(BufferedImage frameBuffer) throws InputImageGenerationException {
+        if (bandedCapture != null) {
+            bandedCapture.captureInto(frameBuffer);
+            return frameBuffer;
+        }
+        BufferedImage screenCapture = robot.createScreenCapture(screenBounds);
+        ImageConversion.copy(screenCapture, frameBuffer);
+        return frameBuffer;
+    }
+
     @Override
     public BufferedImage getSampleImage() {
         return new BufferedImage(screenBounds.width, screenBounds.height, IMAGE_TYPE);
@@ -56,6 +94,8 @@ public class InputFromScreen implements ImageInput {
 
     @Override
     public void close() {
-        //No resources to clear
+        if (bandedCapture != null) {
+            bandedCapture.close();
+        }
     }
 }
@@ -0,0 +1,253 @@
+package tdl.record.screen.image.input;
+
+import tdl.record.screen.utils.ImageConversion;
+import tdl.record.screen.utils.ImageScaler;
+import tdl.record.screen.utils.ScalingQuality;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Captures only some rectangles of a screen, for example an IDE window and a terminal, composited into one frame.
+ * <p>
+ * The regions are given relative to the top-left corner of the screen and are placed side by side in the frame,
+ * left to right in the order given, aligned at the top. Only the regions are grabbed from the screen,
+ * so the cost of the capture and of every later stage follows the area recorded rather than the size of the desktop.
+ * <p>
+ * The regions can be changed while recording. Until {@link #updateSize()} is called, the frame keeps its size:
+ * new regions that do not fit are scaled down, keeping their proportions, and the rest of the frame is left black.
+ * The {@link tdl.record.screen.video.VideoRecorder} calls it between frames and starts a new video at the new size,
+ * as a video cannot change size.
+ */
+public class InputFromScreenRegion implements ImageInput {
+    private static final int IMAGE_TYPE = BufferedImage.TYPE_3BYTE_BGR;
+    private final GraphicsDevice screenDevice;
+    private volatile List<Rectangle> requestedRegions;
+    private List<Rectangle> appliedRegions;
+    private Robot robot;
+    private Rectangle screenBounds;
+    private int width;
+    private int height;
+    private List<RegionCapture> captures;
+    private boolean coversFrame;
+    private ScalingQuality scalingQuality;
+
+    public InputFromScreenRegion(Rectangle... regions) {
+        this(GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice(), regions);
+    }
+
+    public InputFromScreenRegion(GraphicsDevice screenDevice, Rectangle... regions) {
+        this.screenDevice = screenDevice;
+        this.scalingQuality = ScalingQuality.BILINEAR;
+        setRegions(regions);
+    }
+
+    /**
+     * Capture different regions from the next frame on. Can be called from any thread.
+     *
+     * @param regions the rectangles to capture, relative to the top-left corner of the screen
+     */
+    public void setRegions(Rectangle... regions) {
+        if (regions.length == 0) {
+            throw new IllegalArgumentException("At least one region is needed");
+        }
+        List<Rectangle> copy = new ArrayList<>();
+        for (Rectangle region : regions) {
+            copy.add(new Rectangle(region));
+        }
+        requestedRegions = Collections.unmodifiableList(copy);
+    }
+
+    @Override
+    public void open() throws InputImageGenerationException {
+        try {
+            this.robot = new Robot(screenDevice);
+            this.screenBounds = screenDevice.getDefaultConfiguration().getBounds();
+        } catch (AWTException e) {
+            throw new InputImageGenerationException(e);
+        }
+
+        List<Rectangle> regions = clipToScreen(requestedRegions);
+        Dimension layoutSize = layoutSize(regions);
+        width = layoutSize.width;
+        height = layoutSize.height;
+        applyRegions(requestedRegions);
+    }
+
+    @Override
+    public BufferedImage readImage() throws InputImageGenerationException {
+        return readImage(new BufferedImage(width, height, IMAGE_TYPE));
+    }
+
+    @Override
+    public BufferedImage readImage(BufferedImage frameBuffer) throws InputImageGenerationException {
+        List<Rectangle> regions = requestedRegions;
+        if (regions != appliedRegions) {
+            applyRegions(regions);
+        }
+        if (!coversFrame) {
+            clear(frameBuffer);
+        }
+
+        for (RegionCapture capture : captures) {
+            capture.captureInto(frameBuffer);
+        }
+        return frameBuffer;
+    }
+
+    @Override
+    public BufferedImage getSampleImage() {
+        return new BufferedImage(width, height, IMAGE_TYPE);
+    }
+
+    @Override
+    public void setScalingQuality(ScalingQuality scalingQuality) {
+        this.scalingQuality = scalingQuality;
+        for (RegionCapture capture : captures) {
+            capture.setScalingQuality(scalingQuality);
+        }
+    }
+
+    /**
+     * Resize the frame to the regions last given, if they are laid out at a different size.
+     */
+    @Override
+    public boolean updateSize() throws InputImageGenerationException {
+        List<Rectangle> regions = requestedRegions;
+        Dimension layoutSize = layoutSize(clipToScreen(regions));
+        if (layoutSize.width == 0 || (layoutSize.width == width && layoutSize.height == height)) {
+            return false;
+        }
+        width = layoutSize.width;
+        height = layoutSize.height;
+        applyRegions(regions);
+        return true;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void close() {
+        //No resources to clear
+    }
+
+    //~~~~ Layout
+
+    /*
+      A layout larger than the frame is shrunk uniformly to fit, a smaller one keeps its size.
+     */
+    private void applyRegions(List<Rectangle> regions) throws InputImageGenerationException {
+        List<Rectangle> clippedRegions = clipToScreen(regions);
+        if (clippedRegions.isEmpty()) {
+            throw new InputImageGenerationException(
+                    new IllegalArgumentException("None of the regions " + regions + " is on the screen " + screenBounds));
+        }
+
+        Dimension layoutSize = layoutSize(clippedRegions);
+        double scale = Math.min(1, Math.min(width / (double) layoutSize.width, height / (double) layoutSize.height));
+        List<RegionCapture> newCaptures = new ArrayList<>();
+        int layoutX = 0;
+        for (Rectangle region : clippedRegions) {
+            Rectangle placement = new Rectangle(
+                    (int) Math.round(layoutX * scale), 0,
+                    Math.max(1, (int) Math.round(region.width * scale)),
+                    Math.max(1, (int) Math.round(region.height * scale)));
+            placement = placement.intersection(new Rectangle(0, 0, width, height));
+            Rectangle screenArea = new Rectangle(region);
+            screenArea.translate(screenBounds.x, screenBounds.y);
+            newCaptures.add(new RegionCapture(screenArea, placement, scalingQuality));
+            layoutX += region.width;
+        }
+
+        captures = newCaptures;
+        coversFrame = layoutSize.width == width && layoutSize.height == height
+                && clippedRegions.stream().allMatch(region -> region.height == height);
+        appliedRegions = regions;
+    }
+
+    private List<Rectangle> clipToScreen(List<Rectangle> regions) {
+        Rectangle screen = new Rectangle(0, 0, screenBounds.width, screenBounds.height);
+        List<Rectangle> clippedRegions = new ArrayList<>();
+        for (Rectangle region : regions) {
+            Rectangle clipped = region.intersection(screen);
+            if (!clipped.isEmpty()) {
+                clippedRegions.add(clipped);
+            }
+        }
+        return clippedRegions;
+    }
+
+    private static Dimension layoutSize(List<Rectangle> regions) {
+        int layoutWidth = 0;
+        int layoutHeight = 0;
+        for (Rectangle region : regions) {
+            layoutWidth += region.width;
+            layoutHeight = Math.max(layoutHeight, region.height);
+        }
+        return new Dimension(layoutWidth, layoutHeight);
+    }
+
+    /*
+      Each frame buffer of a pipeline still holds its last frame, so the uncovered area is cleared every time.
+     */
+    private void clear(BufferedImage frameBuffer) {
+        Graphics2D graphics = frameBuffer.createGraphics();
+        graphics.setColor(Color.BLACK);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+    }
+
+    /*
+      A region captured at its own size is copied straight into its place in the frame.
+      A scaled region goes through a BGR buffer first, as the scaler only reads BGR images.
+     */
+    private class RegionCapture {
+        private final Rectangle screenArea;
+        private final Rectangle placement;
+        private final ImageScaler scaler;
+        private final BufferedImage bgrCapture;
+
+        RegionCapture(Rectangle screenArea, Rectangle placement, ScalingQuality scalingQuality) {
+            this.screenArea = screenArea;
+            this.placement = placement;
+            if (screenArea.width == placement.width && screenArea.height == placement.height) {
+                this.scaler = null;
+                this.bgrCapture = null;
+            } else {
+                this.scaler = new ImageScaler(screenArea.width, screenArea.height,
+                        placement.width, placement.height, ForkJoinPool.commonPool());
+                this.scaler.setScalingQuality(scalingQuality);
+                this.bgrCapture = new BufferedImage(screenArea.width, screenArea.height, IMAGE_TYPE);
+            }
+        }
+
+        void setScalingQuality(ScalingQuality scalingQuality) {
+            if (scaler != null) {
+                scaler.setScalingQuality(scalingQuality);
+            }
+        }
+
+        void captureInto(BufferedImage frameBuffer) {
+            BufferedImage screenCapture = robot.createScreenCapture(screenArea);
+            BufferedImage target = frameBuffer.getSubimage(placement.x, placement.y, placement.width, placement.height);
+            if (scaler == null) {
+                ImageConversion.copy(screenCapture, target);
+            } else {
+                ImageConversion.copy(screenCapture, bgrCapture);
+                scaler.scale(bgrCapture, target);
+            }
+        }
+    }
+}
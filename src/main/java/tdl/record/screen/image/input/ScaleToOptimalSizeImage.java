@@ -1,29 +1,41 @@
 package tdl.record.screen.image.input;
 
+import tdl.record.screen.utils.ImageConversion;
 import tdl.record.screen.utils.ImageQualityHint;
 import tdl.record.screen.utils.ImageResolution;
 import tdl.record.screen.utils.ImageResolutionPicker;
+import tdl.record.screen.utils.ImageScaler;
+import tdl.record.screen.utils.ScalingQuality;
 
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
 
 public class ScaleToOptimalSizeImage implements ImageInput {
     private final ImageInput originalInputSource;
     private final ImageQualityHint imageQualityHint;
     private ImageResolution maxResolution;
     private BufferedImage targetImage;
-    private AffineTransformOp scaleDownTransform;
-
+    private ImageScaler scaler;
+    private ScalingQuality scalingQuality;
+    private BufferedImage sourceFrameBuffer;
+    private long lastScalingNanos;
+    private ScalingListener scalingListener;
 
     public ScaleToOptimalSizeImage(ImageQualityHint imageQualityHint, ImageInput originalImageSource) {
         this.originalInputSource = originalImageSource;
         this.imageQualityHint = imageQualityHint;
+        this.scalingQuality = ScalingQuality.BICUBIC;
+        this.lastScalingNanos = 0;
+        this.scalingListener = ScalingListener.NONE;
     }
 
     @Override
     public void open() throws InputImageGenerationException {
         originalInputSource.open();
+        fitToSource();
+    }
+
+    private void fitToSource() {
         ImageResolution sourceResolution = ImageResolution.of(originalInputSource.getWidth(), originalInputSource.getHeight());
         maxResolution = sourceResolution;
 
@@ -33,14 +45,16 @@ public class ScaleToOptimalSizeImage implements ImageInput {
 
         if (sourceResolution.getNumPixels() > maxResolution.getNumPixels()) {
             targetImage = new BufferedImage(maxResolution.getWidth(), maxResolution.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-            double sx = maxResolution.getWidth() / (double) originalInputSource.getWidth();
-            double sy = maxResolution.getHeight() / (double) originalInputSource.getHeight();
-            AffineTransform at = new AffineTransform();
-            at.scale(sx, sy);
-            scaleDownTransform = new AffineTransformOp(at, AffineTransformOp.TYPE_BICUBIC);
+            scaler = new ImageScaler(
+                    originalInputSource.getWidth(), originalInputSource.getHeight(),
+                    maxResolution.getWidth(), maxResolution.getHeight(),
+                    ForkJoinPool.commonPool());
+            scaler.setScalingQuality(scalingQuality);
         } else {
+            scaler = null;
             targetImage = new BufferedImage(sourceResolution.getWidth(), sourceResolution.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
         }
+        sourceFrameBuffer = null;
     }
 
     @Override
@@ -48,6 +62,21 @@ public class ScaleToOptimalSizeImage implements ImageInput {
         return processImage(originalInputSource.readImage());
     }
 
+    /*
+      When scaling, the original input reads into a source buffer allocated once
+      and the scaler writes the result straight into the caller's buffer.
+     */
+    @Override
+    public BufferedImage readImage(BufferedImage frameBuffer) throws InputImageGenerationException {
+        if (scaler == null) {
+            return originalInputSource.readImage(frameBuffer);
+        }
+
+        BufferedImage originalImage = originalInputSource.readImage(getSourceFrameBuffer());
+        scale(originalImage, frameBuffer);
+        return frameBuffer;
+    }
+
     @Override
     public BufferedImage getSampleImage() throws InputImageGenerationException {
         return processImage(originalInputSource.getSampleImage());
@@ -55,7 +84,7 @@ public class ScaleToOptimalSizeImage implements ImageInput {
 
     private BufferedImage processImage(BufferedImage originalImage) throws InputImageGenerationException {
         if (originalImage.getWidth() * originalImage.getHeight() > maxResolution.getNumPixels()) {
-            scaleDownTransform.filter(originalImage, targetImage);
+            scale(originalImage, targetImage);
         } else {
             targetImage = originalImage;
         }
@@ -63,6 +92,66 @@ public class ScaleToOptimalSizeImage implements ImageInput {
         return targetImage;
     }
 
+    private void scale(BufferedImage originalImage, BufferedImage destination) {
+        scalingListener.scalingStarted();
+        long scalingStart = System.nanoTime();
+        scaler.scale(asBgr(originalImage), destination);
+        lastScalingNanos = System.nanoTime() - scalingStart;
+        scalingListener.scalingEnded();
+    }
+
+    /*
+      The scaler reads TYPE_3BYTE_BGR pixels only, other images are copied into the source buffer first.
+     */
+    private BufferedImage asBgr(BufferedImage originalImage) {
+        if (originalImage.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            return originalImage;
+        }
+        BufferedImage bgrImage = getSourceFrameBuffer();
+        ImageConversion.copy(originalImage, bgrImage);
+        return bgrImage;
+    }
+
+    private BufferedImage getSourceFrameBuffer() {
+        if (sourceFrameBuffer == null) {
+            sourceFrameBuffer = new BufferedImage(
+                    originalInputSource.getWidth(),
+                    originalInputSource.getHeight(),
+                    BufferedImage.TYPE_3BYTE_BGR);
+        }
+        return sourceFrameBuffer;
+    }
+
+    @Override
+    public void setScalingQuality(ScalingQuality scalingQuality) {
+        this.scalingQuality = scalingQuality;
+        if (scaler != null) {
+            scaler.setScalingQuality(scalingQuality);
+        }
+    }
+
+    /*
+      The optimal size follows the new proportions of the original input
+     */
+    @Override
+    public boolean updateSize() throws InputImageGenerationException {
+        if (!originalInputSource.updateSize()) {
+            return false;
+        }
+        fitToSource();
+        return true;
+    }
+
+    @Override
+    public long getLastScalingNanos() {
+        return lastScalingNanos;
+    }
+
+    @Override
+    public void setScalingListener(ScalingListener scalingListener) {
+        this.scalingListener = scalingListener;
+    }
+
     @Override
     public int getWidth() {
         return targetImage.getWidth();
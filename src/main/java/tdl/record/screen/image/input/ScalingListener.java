@@ -0,0 +1,21 @@
+package tdl.record.screen.image.input;
+
+/**
+ * Told by an input when it scales an image, on the thread reading the images.
+ */
+public interface ScalingListener {
+
+    ScalingListener NONE = new ScalingListener() {
+        @Override
+        public void scalingStarted() {
+        }
+
+        @Override
+        public void scalingEnded() {
+        }
+    };
+
+    void scalingStarted();
+
+    void scalingEnded();
+}
@@ -0,0 +1,239 @@
+package tdl.record.screen.jfr;
+
+import io.humble.video.Rational;
+import jdk.jfr.EventType;
+import tdl.record.screen.metrics.RecordingStage;
+import tdl.record.screen.metrics.VideoRecordingListener;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns the recording events into Java Flight Recorder events, so that a slow frame can be matched
+ * with the GC pauses, safepoints and I/O of the same moment in a single recording file.
+ * <p>
+ * The events are only built when a flight recording with them enabled is running, otherwise a call costs a check
+ * of the event type, looked up once by the constructor.
+ * They are enabled by default, start a recording with <code>jcmd &lt;pid&gt; JFR.start</code>,
+ * or switch them off one by one in the settings, for example <code>tdl.record.screen.FrameCapture#enabled=false</code>.
+ * <p>
+ * Each event begins when the listener is told that the work starts and is committed when it ends,
+ * the scaling done by the input is nested in the capture.
+ * JFR takes the thread and the time of an event from the call, so this listener must be called on the recording threads:
+ * attach it directly or through a {@link tdl.record.screen.metrics.CompositeVideoRecordingListener},
+ * not behind an {@link tdl.record.screen.metrics.AsyncVideoRecordingListener}.
+ * Check {@link #isAvailable()} first on Java 8 runtimes older than 8u262, which do not have the JFR API.
+ */
+public class FlightRecorderListener implements VideoRecordingListener {
+    private final ThreadLocal<RecordingEvents.FrameStageEvent[]> stepsInProgress =
+            ThreadLocal.withInitial(() -> new RecordingEvents.FrameStageEvent[RecordingStage.values().length]);
+    private final ThreadLocal<RecordingEvents.VideoOpen> videoOpening = new ThreadLocal<>();
+    private final ThreadLocal<RecordingEvents.VideoClose> videoClosing = new ThreadLocal<>();
+    private final ThreadLocal<RecordingEvents.FragmentFlush> fragmentFlushing = new ThreadLocal<>();
+    private volatile RecordingEvents.FirstFrame firstFrame;
+    private final EventType[] stageEventTypes;
+    private final EventType frameWrittenType;
+    private final EventType keyFrameType;
+    private final EventType fragmentFlushType;
+    private final EventType videoOpenType;
+    private final EventType firstFrameType;
+    private final EventType videoCloseType;
+
+    public FlightRecorderListener() {
+        stageEventTypes = new EventType[RecordingStage.values().length];
+        for (RecordingStage stage : RecordingStage.values()) {
+            stageEventTypes[stage.ordinal()] = EventType.getEventType(stageEventClass(stage));
+        }
+        frameWrittenType = EventType.getEventType(RecordingEvents.FrameWritten.class);
+        keyFrameType = EventType.getEventType(RecordingEvents.KeyFrame.class);
+        fragmentFlushType = EventType.getEventType(RecordingEvents.FragmentFlush.class);
+        videoOpenType = EventType.getEventType(RecordingEvents.VideoOpen.class);
+        firstFrameType = EventType.getEventType(RecordingEvents.FirstFrame.class);
+        videoCloseType = EventType.getEventType(RecordingEvents.VideoClose.class);
+    }
+
+    /**
+     * @return true if the runtime has the JFR API
+     */
+    public static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void notifyRecordingStart(String destinationFilename, Rational inputFrameRate, Rational videoFrameRate) {
+    }
+
+    @Override
+    public void notifyFrameRenderingStart(long timestamp, TimeUnit unit, long frameIndex) {
+    }
+
+    @Override
+    public void notifyFrameRenderingEnd(long timestamp, TimeUnit unit, long frameIndex) {
+    }
+
+    @Override
+    public void notifyStageStepStarted(long timestamp, TimeUnit unit, long frameIndex, RecordingStage stage) {
+        if (stageEventTypes[stage.ordinal()].isEnabled()) {
+            RecordingEvents.FrameStageEvent event = newStageEvent(stage);
+            event.begin();
+            stepsInProgress.get()[stage.ordinal()] = event;
+        }
+    }
+
+    @Override
+    public void notifyStageStepEnded(long timestamp, TimeUnit unit, long frameIndex, RecordingStage stage) {
+        RecordingEvents.FrameStageEvent[] steps = stepsInProgress.get();
+        RecordingEvents.FrameStageEvent event = steps[stage.ordinal()];
+        if (event != null) {
+            steps[stage.ordinal()] = null;
+            event.frameIndex = frameIndex;
+            event.commit();
+        }
+    }
+
+    private static Class<? extends RecordingEvents.FrameStageEvent> stageEventClass(RecordingStage stage) {
+        switch (stage) {
+            case CAPTURE:
+                return RecordingEvents.FrameCapture.class;
+            case SCALE:
+                return RecordingEvents.FrameScale.class;
+            case COLOUR_CONVERSION:
+                return RecordingEvents.ColourConversion.class;
+            case ENCODE:
+                return RecordingEvents.Encode.class;
+            case MUX_WRITE:
+                return RecordingEvents.MuxWrite.class;
+            default:
+                throw new IllegalArgumentException("No event for the stage " + stage);
+        }
+    }
+
+    private static RecordingEvents.FrameStageEvent newStageEvent(RecordingStage stage) {
+        switch (stage) {
+            case CAPTURE:
+                return new RecordingEvents.FrameCapture();
+            case SCALE:
+                return new RecordingEvents.FrameScale();
+            case COLOUR_CONVERSION:
+                return new RecordingEvents.ColourConversion();
+            case ENCODE:
+                return new RecordingEvents.Encode();
+            case MUX_WRITE:
+                return new RecordingEvents.MuxWrite();
+            default:
+                throw new IllegalArgumentException("No event for the stage " + stage);
+        }
+    }
+
+    @Override
+    public void notifyBytesWritten(long timestamp, TimeUnit unit, long frameIndex, long bytes) {
+        if (frameWrittenType.isEnabled()) {
+            RecordingEvents.FrameWritten event = new RecordingEvents.FrameWritten();
+            event.frameIndex = frameIndex;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void notifyKeyFrameEncoded(long timestamp, TimeUnit unit, long frameIndex) {
+        if (keyFrameType.isEnabled()) {
+            RecordingEvents.KeyFrame event = new RecordingEvents.KeyFrame();
+            event.frameIndex = frameIndex;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void notifyFragmentFlushing(long timestamp, TimeUnit unit, String filename) {
+        if (fragmentFlushType.isEnabled()) {
+            RecordingEvents.FragmentFlush event = new RecordingEvents.FragmentFlush();
+            event.begin();
+            fragmentFlushing.set(event);
+        }
+    }
+
+    @Override
+    public void notifyFragmentFlushed(long timestamp, TimeUnit unit, String filename, long byteOffset, long bytes) {
+        RecordingEvents.FragmentFlush event = fragmentFlushing.get();
+        if (event != null) {
+            fragmentFlushing.remove();
+            event.filename = filename;
+            event.byteOffset = byteOffset;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void notifyVideoOpening(long timestamp, TimeUnit unit, String filename) {
+        if (videoOpenType.isEnabled()) {
+            RecordingEvents.VideoOpen event = new RecordingEvents.VideoOpen();
+            event.begin();
+            videoOpening.set(event);
+        }
+    }
+
+    @Override
+    public void notifyVideoOpened(long timestamp, TimeUnit unit, String filename, int width, int height, long duration) {
+        RecordingEvents.VideoOpen event = videoOpening.get();
+        if (event != null) {
+            videoOpening.remove();
+            event.filename = filename;
+            event.width = width;
+            event.height = height;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void notifyRecorderOpening(long timestamp, TimeUnit unit) {
+        if (firstFrameType.isEnabled()) {
+            RecordingEvents.FirstFrame event = new RecordingEvents.FirstFrame();
+            event.begin();
+            firstFrame = event;
+        }
+    }
+
+    /*
+      The recorder is opened on the thread of the application and the frame encoded on the recording thread,
+      the event in between is handed over through a volatile field rather than a thread local
+     */
+    @Override
+    public void notifyFirstFrameEncoded(long timestamp, TimeUnit unit, long frameIndex, long timeToFirstFrame) {
+        RecordingEvents.FirstFrame event = firstFrame;
+        if (event != null) {
+            firstFrame = null;
+            event.frameIndex = frameIndex;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void notifyVideoClosing(long timestamp, TimeUnit unit, String filename) {
+        if (videoCloseType.isEnabled()) {
+            RecordingEvents.VideoClose event = new RecordingEvents.VideoClose();
+            event.begin();
+            videoClosing.set(event);
+        }
+    }
+
+    @Override
+    public void notifyVideoClosed(long timestamp, TimeUnit unit, String filename, long bytesWritten, long duration) {
+        RecordingEvents.VideoClose event = videoClosing.get();
+        if (event != null) {
+            videoClosing.remove();
+            event.filename = filename;
+            event.bytesWritten = bytesWritten;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void notifyRecordingEnd() {
+    }
+}
@@ -0,0 +1,139 @@
+package tdl.record.screen.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Flight Recorder events of the recording, each can be enabled on its own in the JFR settings.
+ * <p>
+ * Each event spans the work it stands for: it begins when the work starts and is committed when it ends,
+ * on the thread doing it. A stage done in several steps gives one event per step,
+ * the encoding of a frame for example alternates with the muxing of its packets.
+ */
+final class RecordingEvents {
+    private static final String CATEGORY = "Screen Recorder";
+
+    private RecordingEvents() {
+    }
+
+    @Category({CATEGORY, "Frame"})
+    @StackTrace(false)
+    abstract static class FrameStageEvent extends Event {
+        @Label("Frame Index")
+        long frameIndex;
+    }
+
+    @Name("tdl.record.screen.FrameCapture")
+    @Label("Frame Capture")
+    @Description("Reading the screen, or whatever the input is, including the scaling done by the input")
+    static final class FrameCapture extends FrameStageEvent {
+    }
+
+    @Name("tdl.record.screen.FrameScale")
+    @Label("Frame Scale")
+    @Description("Resizing the captured image to the resolution of the video, within the capture")
+    static final class FrameScale extends FrameStageEvent {
+    }
+
+    @Name("tdl.record.screen.ColourConversion")
+    @Label("Colour Conversion")
+    @Description("Turning the RGB image into the YUV picture taken by the encoder")
+    static final class ColourConversion extends FrameStageEvent {
+    }
+
+    @Name("tdl.record.screen.Encode")
+    @Label("Encode")
+    @Description("Compressing the picture, or taking out a packet the encoder was holding back")
+    static final class Encode extends FrameStageEvent {
+    }
+
+    @Name("tdl.record.screen.MuxWrite")
+    @Label("Mux Write")
+    @Description("Handing a compressed packet to the muxer, which writes it to the file")
+    static final class MuxWrite extends FrameStageEvent {
+    }
+
+    @Name("tdl.record.screen.FrameWritten")
+    @Label("Frame Written")
+    @Description("The encoded data of a frame has been given to the muxer")
+    @Category({CATEGORY, "Frame"})
+    @StackTrace(false)
+    static final class FrameWritten extends Event {
+        @Label("Frame Index")
+        long frameIndex;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("tdl.record.screen.KeyFrame")
+    @Label("Key Frame")
+    @Description("The encoder has produced a key frame, the muxer starts a new fragment with it")
+    @Category({CATEGORY, "File"})
+    @StackTrace(false)
+    static final class KeyFrame extends Event {
+        @Label("Frame Index")
+        long frameIndex;
+    }
+
+    @Name("tdl.record.screen.FragmentFlush")
+    @Label("Fragment Flush")
+    @Description("The muxer has written a fragment of the video, only seen when it writes through a sink,"
+            + " the fragment index or the live stream")
+    @Category({CATEGORY, "File"})
+    @StackTrace(false)
+    static final class FragmentFlush extends Event {
+        @Label("File")
+        String filename;
+
+        @Label("Byte Offset")
+        long byteOffset;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("tdl.record.screen.VideoOpen")
+    @Label("Video Open")
+    @Description("A video file has been opened, one per screen and per segment")
+    @Category({CATEGORY, "File"})
+    static final class VideoOpen extends Event {
+        @Label("File")
+        String filename;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+    }
+
+    @Name("tdl.record.screen.FirstFrame")
+    @Label("First Frame")
+    @Description("From the opening of the recorder to the encoding of its first frame")
+    @Category({CATEGORY, "File"})
+    static final class FirstFrame extends Event {
+        @Label("Frame Index")
+        long frameIndex;
+    }
+
+    @Name("tdl.record.screen.VideoClose")
+    @Label("Video Close")
+    @Description("A video file has been finalised")
+    @Category({CATEGORY, "File"})
+    static final class VideoClose extends Event {
+        @Label("File")
+        String filename;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+    }
+}
@@ -0,0 +1,452 @@
+package tdl.record.screen.metrics;
+
+import io.humble.video.Rational;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tdl.record.screen.governor.RecordingAdjustment;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers the events to a listener on a background thread, so that a slow listener does not delay the recording.
+ * <p>
+ * The recording threads copy each event into a slot of a ring allocated up front and return straight away:
+ * they never allocate, lock or wait. The dispatch thread delivers the events in batches, in the order they were sent,
+ * and parks when the ring is empty; the sender of the next event unparks it.
+ * When the ring is full the event is dropped and counted, see {@link #getOverflowedEvents()},
+ * except for the start and the end of the recording, which park until the dispatch thread frees a slot.
+ * <p>
+ * The listener sees the timestamps of the events, not the time they are delivered.
+ * The beginnings of the steps, of the opening of the recorder, of the opening and closing of the videos
+ * and of the writing of the fragments are not forwarded,
+ * they only mean something to a listener timing the work as it happens, see {@link tdl.record.screen.jfr.FlightRecorderListener}.
+ * Use a {@link CompositeVideoRecordingListener} to deliver to several listeners.
+ */
+public class AsyncVideoRecordingListener implements VideoRecordingListener, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(AsyncVideoRecordingListener.class);
+    public static final int DEFAULT_CAPACITY = 4096;
+    private static final int MAX_BATCH_SIZE = 256;
+    private final VideoRecordingListener listener;
+    private final Event[] ring;
+    private final int mask;
+    private final AtomicLong nextSequence;
+    private final AtomicLong deliveredSequence;
+    private final AtomicLong overflowedEvents;
+    private final Thread dispatchThread;
+    private final Queue<Thread> threadsWaitingForSpace;
+    private volatile boolean dispatcherSleeping;
+    private volatile boolean closed;
+
+    public AsyncVideoRecordingListener(VideoRecordingListener listener) {
+        this(listener, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of events that can wait for delivery, rounded up to a power of two
+     */
+    public AsyncVideoRecordingListener(VideoRecordingListener listener, int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("The capacity must be between 1 and 2^30, got " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.listener = listener;
+        this.ring = new Event[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Event();
+        }
+        this.mask = size - 1;
+        this.nextSequence = new AtomicLong(0);
+        this.deliveredSequence = new AtomicLong(0);
+        this.overflowedEvents = new AtomicLong(0);
+        this.threadsWaitingForSpace = new ConcurrentLinkedQueue<>();
+        this.dispatcherSleeping = false;
+        this.closed = false;
+        this.dispatchThread = new Thread(this::dispatch, "recorder-listener-dispatch");
+        this.dispatchThread.setDaemon(true);
+        this.dispatchThread.start();
+    }
+
+    /**
+     * @return number of events dropped because the ring was full
+     */
+    public long getOverflowedEvents() {
+        return overflowedEvents.get();
+    }
+
+    /**
+     * @return number of events delivered to the listener so far
+     */
+    public long getDeliveredEvents() {
+        return deliveredSequence.get();
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * Deliver the events waiting in the ring, then stop the dispatch thread. Events sent afterwards are ignored.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(dispatchThread);
+        threadsWaitingForSpace.forEach(LockSupport::unpark);
+        try {
+            dispatchThread.join();
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while delivering the remaining events", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //~~~~~~~~~~ Recording threads
+
+    @Override
+    public void notifyRecordingStart(String destinationFilename, Rational inputFrameRate, Rational videoFrameRate) {
+        long sequence = claim(true);
+        if (sequence >= 0) {
+            Event event = ring[(int) (sequence & mask)];
+            event.type = EventType.RECORDING_START;
+            event.first = destinationFilename;
+            event.second = inputFrameRate;
+            event.third = videoFrameRate;
+            publish(event, sequence);
+        }
+    }
+
+    @Override
+    public void notifyFrameRenderingStart(long timestamp, TimeUnit unit, long frameIndex) {
+        send(EventType.FRAME_RENDERING_START, timestamp, unit, frameIndex, 0, null);
+    }
+
+    @Override
+    public void notifyFrameRenderingEnd(long timestamp, TimeUnit unit, long frameIndex) {
+        send(EventType.FRAME_RENDERING_END, timestamp, unit, frameIndex, 0, null);
+    }
+
+    @Override
+    public void notifyFrameLateness(long timestamp, TimeUnit unit, long frameIndex, long lateness) {
+        send(EventType.FRAME_LATENESS, timestamp, unit, frameIndex, lateness, null);
+    }
+
+    @Override
+    public void notifyFrameSlotsSkipped(long timestamp, TimeUnit unit, long firstSkippedFrameIndex, long skippedSlots) {
+        send(EventType.FRAME_SLOTS_SKIPPED, timestamp, unit, firstSkippedFrameIndex, skippedSlots, null);
+    }
+
+    @Override
+    public void notifyFrameDropped(long timestamp, TimeUnit unit, long frameIndex) {
+        send(EventType.FRAME_DROPPED, timestamp, unit, frameIndex, 0, null);
+    }
+
+    @Override
+    public void notifyFrameElided(long timestamp, TimeUnit unit, long frameIndex) {
+        send(EventType.FRAME_ELIDED, timestamp, unit, frameIndex, 0, null);
+    }
+
+    @Override
+    public void notifyRecordingAdjusted(long timestamp, TimeUnit unit, long frameIndex, RecordingAdjustment adjustment) {
+        send(EventType.RECORDING_ADJUSTED, timestamp, unit, frameIndex, 0, adjustment);
+    }
+
+    @Override
+    public void notifyCaptureSkew(long timestamp, TimeUnit unit, long frameIndex, long skew) {
+        send(EventType.CAPTURE_SKEW, timestamp, unit, frameIndex, skew, null);
+    }
+
+    @Override
+    public void notifyStageCompleted(long timestamp, TimeUnit unit, long frameIndex, RecordingStage stage, long duration) {
+        send(EventType.STAGE_COMPLETED, timestamp, unit, frameIndex, duration, stage);
+    }
+
+    @Override
+    public void notifyBytesWritten(long timestamp, TimeUnit unit, long frameIndex, long bytes) {
+        send(EventType.BYTES_WRITTEN, timestamp, unit, frameIndex, bytes, null);
+    }
+
+    @Override
+    public void notifyKeyFrameEncoded(long timestamp, TimeUnit unit, long frameIndex) {
+        send(EventType.KEY_FRAME_ENCODED, timestamp, unit, frameIndex, 0, null);
+    }
+
+    @Override
+    public void notifyFragmentFlushed(long timestamp, TimeUnit unit, String filename, long byteOffset, long bytes) {
+        long sequence = claim(false);
+        if (sequence >= 0) {
+            Event event = ring[(int) (sequence & mask)];
+            event.type = EventType.FRAGMENT_FLUSHED;
+            event.timestamp = timestamp;
+            event.unit = unit;
+            event.value = bytes;
+            event.secondValue = byteOffset;
+            event.first = filename;
+            publish(event, sequence);
+        }
+    }
+
+    @Override
+    public void notifyVideoOpened(long timestamp, TimeUnit unit, String filename, int width, int height, long duration) {
+        long sequence = claim(false);
+        if (sequence >= 0) {
+            Event event = ring[(int) (sequence & mask)];
+            event.type = EventType.VIDEO_OPENED;
+            event.timestamp = timestamp;
+            event.unit = unit;
+            event.value = duration;
+            event.secondValue = width;
+            event.thirdValue = height;
+            event.first = filename;
+            publish(event, sequence);
+        }
+    }
+
+    @Override
+    public void notifyFirstFrameEncoded(long timestamp, TimeUnit unit, long frameIndex, long timeToFirstFrame) {
+        send(EventType.FIRST_FRAME_ENCODED, timestamp, unit, frameIndex, timeToFirstFrame, null);
+    }
+
+    @Override
+    public void notifyVideoClosed(long timestamp, TimeUnit unit, String filename, long bytesWritten, long duration) {
+        long sequence = claim(false);
+        if (sequence >= 0) {
+            Event event = ring[(int) (sequence & mask)];
+            event.type = EventType.VIDEO_CLOSED;
+            event.timestamp = timestamp;
+            event.unit = unit;
+            event.value = duration;
+            event.secondValue = bytesWritten;
+            event.first = filename;
+            publish(event, sequence);
+        }
+    }
+
+    @Override
+    public void notifyRecordingEnd() {
+        long sequence = claim(true);
+        if (sequence >= 0) {
+            Event event = ring[(int) (sequence & mask)];
+            event.type = EventType.RECORDING_END;
+            publish(event, sequence);
+        }
+    }
+
+    private void send(EventType type, long timestamp, TimeUnit unit, long frameIndex, long value, Object first) {
+        long sequence = claim(false);
+        if (sequence >= 0) {
+            Event event = ring[(int) (sequence & mask)];
+            event.type = type;
+            event.timestamp = timestamp;
+            event.unit = unit;
+            event.frameIndex = frameIndex;
+            event.value = value;
+            event.first = first;
+            publish(event, sequence);
+        }
+    }
+
+    /*
+      Several threads send events, each claims the next sequence with a compare-and-set.
+      A slot is free once the dispatch thread has moved past it.
+     */
+    private long claim(boolean waitForSpace) {
+        while (!closed) {
+            long sequence = nextSequence.get();
+            if (sequence - deliveredSequence.get() >= ring.length) {
+                if (!waitForSpace) {
+                    overflowedEvents.incrementAndGet();
+                    return -1;
+                }
+                awaitSpace(sequence);
+            } else if (nextSequence.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+        return -1;
+    }
+
+    /*
+      The queue only allocates for the rare sender that finds the ring full, the others never touch it.
+      The ring is checked again once queued, the dispatch thread may have freed the slot in between.
+     */
+    private void awaitSpace(long sequence) {
+        Thread current = Thread.currentThread();
+        threadsWaitingForSpace.add(current);
+        try {
+            while (!closed && sequence - deliveredSequence.get() >= ring.length) {
+                LockSupport.park(this);
+            }
+        } finally {
+            threadsWaitingForSpace.remove(current);
+        }
+    }
+
+    /*
+      The sleeping flag is written before the dispatch thread checks the ring one last time,
+      and read after the event is published, so either the dispatch thread sees the event or the sender sees the flag.
+     */
+    private void publish(Event event, long sequence) {
+        event.publish(sequence);
+        if (dispatcherSleeping) {
+            LockSupport.unpark(dispatchThread);
+        }
+    }
+
+    //~~~~~~~~~~ Dispatch thread
+
+    /*
+      Events are delivered in sequence order, stopping at the first slot not published yet.
+      The slots of a batch are released together, once all its events have been delivered.
+     */
+    private void dispatch() {
+        long next = 0;
+        while (true) {
+            int batchSize = 0;
+            Event event = ring[(int) (next & mask)];
+            while (batchSize < MAX_BATCH_SIZE && event.published == next) {
+                deliver(event);
+                event.clear();
+                next++;
+                batchSize++;
+                event = ring[(int) (next & mask)];
+            }
+
+            if (batchSize > 0) {
+                deliveredSequence.set(next);
+                if (!threadsWaitingForSpace.isEmpty()) {
+                    threadsWaitingForSpace.forEach(LockSupport::unpark);
+                }
+            } else if (closed && nextSequence.get() == next) {
+                return;
+            } else {
+                sleepUntilPublished(next);
+            }
+        }
+    }
+
+    private void sleepUntilPublished(long sequence) {
+        dispatcherSleeping = true;
+        if (ring[(int) (sequence & mask)].published != sequence && !closed) {
+            LockSupport.park(this);
+        }
+        dispatcherSleeping = false;
+    }
+
+    private void deliver(Event event) {
+        try {
+            switch (event.type) {
+                case RECORDING_START:
+                    listener.notifyRecordingStart((String) event.first, (Rational) event.second, (Rational) event.third);
+                    break;
+                case FRAME_RENDERING_START:
+                    listener.notifyFrameRenderingStart(event.timestamp, event.unit, event.frameIndex);
+                    break;
+                case FRAME_RENDERING_END:
+                    listener.notifyFrameRenderingEnd(event.timestamp, event.unit, event.frameIndex);
+                    break;
+                case FRAME_LATENESS:
+                    listener.notifyFrameLateness(event.timestamp, event.unit, event.frameIndex, event.value);
+                    break;
+                case FRAME_SLOTS_SKIPPED:
+                    listener.notifyFrameSlotsSkipped(event.timestamp, event.unit, event.frameIndex, event.value);
+                    break;
+                case FRAME_DROPPED:
+                    listener.notifyFrameDropped(event.timestamp, event.unit, event.frameIndex);
+                    break;
+                case FRAME_ELIDED:
+                    listener.notifyFrameElided(event.timestamp, event.unit, event.frameIndex);
+                    break;
+                case RECORDING_ADJUSTED:
+                    listener.notifyRecordingAdjusted(event.timestamp, event.unit, event.frameIndex,
+                            (RecordingAdjustment) event.first);
+                    break;
+                case CAPTURE_SKEW:
+                    listener.notifyCaptureSkew(event.timestamp, event.unit, event.frameIndex, event.value);
+                    break;
+                case STAGE_COMPLETED:
+                    listener.notifyStageCompleted(event.timestamp, event.unit, event.frameIndex,
+                            (RecordingStage) event.first, event.value);
+                    break;
+                case BYTES_WRITTEN:
+                    listener.notifyBytesWritten(event.timestamp, event.unit, event.frameIndex, event.value);
+                    break;
+                case KEY_FRAME_ENCODED:
+                    listener.notifyKeyFrameEncoded(event.timestamp, event.unit, event.frameIndex);
+                    break;
+                case FRAGMENT_FLUSHED:
+                    listener.notifyFragmentFlushed(event.timestamp, event.unit, (String) event.first,
+                            event.secondValue, event.value);
+                    break;
+                case VIDEO_OPENED:
+                    listener.notifyVideoOpened(event.timestamp, event.unit, (String) event.first,
+                            (int) event.secondValue, (int) event.thirdValue, event.value);
+                    break;
+                case FIRST_FRAME_ENCODED:
+                    listener.notifyFirstFrameEncoded(event.timestamp, event.unit, event.frameIndex, event.value);
+                    break;
+                case VIDEO_CLOSED:
+                    listener.notifyVideoClosed(event.timestamp, event.unit, (String) event.first,
+                            event.secondValue, event.value);
+                    break;
+                case RECORDING_END:
+                    listener.notifyRecordingEnd();
+                    break;
+            }
+        } catch (RuntimeException e) {
+            log.warn("The listener failed to handle " + event.type + " of frame " + event.frameIndex, e);
+        }
+    }
+
+    private enum EventType {
+        RECORDING_START,
+        FRAME_RENDERING_START,
+        FRAME_RENDERING_END,
+        FRAME_LATENESS,
+        FRAME_SLOTS_SKIPPED,
+        FRAME_DROPPED,
+        FRAME_ELIDED,
+        RECORDING_ADJUSTED,
+        CAPTURE_SKEW,
+        STAGE_COMPLETED,
+        BYTES_WRITTEN,
+        KEY_FRAME_ENCODED,
+        FRAGMENT_FLUSHED,
+        VIDEO_OPENED,
+        FIRST_FRAME_ENCODED,
+        VIDEO_CLOSED,
+        RECORDING_END
+    }
+
+    /*
+      The fields are written by the sending thread before the sequence is published,
+      and read by the dispatch thread after it has seen the sequence.
+     */
+    private static final class Event {
+        private volatile long published = -1;
+        private EventType type;
+        private long timestamp;
+        private TimeUnit unit;
+        private long frameIndex;
+        private long value;
+        private long secondValue;
+        private long thirdValue;
+        private Object first;
+        private Object second;
+        private Object third;
+
+        void publish(long sequence) {
+            published = sequence;
+        }
+
+        void clear() {
+            first = null;
+            second = null;
+            third = null;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package tdl.record.screen.metrics;
+
+import io.humble.video.Rational;
+import tdl.record.screen.governor.RecordingAdjustment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passes every event on to several listeners, in the order they were given.
+ * <p>
+ * The listeners run one after the other on the calling thread,
+ * wrap the composite in an {@link AsyncVideoRecordingListener} to keep them off the recording threads.
+ */
+public class CompositeVideoRecordingListener implements VideoRecordingListener {
+    private final List<VideoRecordingListener> listeners;
+
+    public CompositeVideoRecordingListener(VideoRecordingListener... listeners) {
+        this(Arrays.asList(listeners));
+    }
+
+    public CompositeVideoRecordingListener(List<VideoRecordingListener> listeners) {
+        this.listeners = Collections.unmodifiableList(new ArrayList<>(listeners));
+    }
+
+    public List<VideoRecordingListener> getListeners() {
+        return listeners;
+    }
+
+    @Override
+    public void notifyRecordingStart(String destinationFilename, Rational inputFrameRate, Rational videoFrameRate) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyRecordingStart(destinationFilename, inputFrameRate, videoFrameRate);
+        }
+    }
+
+    @Override
+    public void notifyFrameRenderingStart(long timestamp, TimeUnit unit, long frameIndex) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyFrameRenderingStart(timestamp, unit, frameIndex);
+        }
+    }
+
+    @Override
+    public void notifyFrameRenderingEnd(long timestamp, TimeUnit unit, long frameIndex) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyFrameRenderingEnd(timestamp, unit, frameIndex);
+        }
+    }
+
+    @Override
+    public void notifyFrameLateness(long timestamp, TimeUnit unit, long frameIndex, long lateness) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyFrameLateness(timestamp, unit, frameIndex, lateness);
+        }
+    }
+
+    @Override
+    public void notifyFrameSlotsSkipped(long timestamp, TimeUnit unit, long firstSkippedFrameIndex, long skippedSlots) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyFrameSlotsSkipped(timestamp, unit, firstSkippedFrameIndex, skippedSlots);
+        }
+    }
+
+    @Override
+    public void notifyFrameDropped(long timestamp, TimeUnit unit, long frameIndex) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyFrameDropped(timestamp, unit, frameIndex);
+        }
+    }
+
+    @Override
+    public void notifyFrameElided(long timestamp, TimeUnit unit, long frameIndex) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyFrameElided(timestamp, unit, frameIndex);
+        }
+    }
+
+    @Override
+    public void notifyRecordingAdjusted(long timestamp, TimeUnit unit, long frameIndex, RecordingAdjustment adjustment) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyRecordingAdjusted(timestamp, unit, frameIndex, adjustment);
+        }
+    }
+
+    @Override
+    public void notifyCaptureSkew(long timestamp, TimeUnit unit, long frameIndex, long skew) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyCaptureSkew(timestamp, unit, frameIndex, skew);
+        }
+    }
+
+    @Override
+    public void notifyStageCompleted(long timestamp, TimeUnit unit, long frameIndex, RecordingStage stage, long duration) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyStageCompleted(timestamp, unit, frameIndex, stage, duration);
+        }
+    }
+
+    @Override
+    public void notifyStageStepStarted(long timestamp, TimeUnit unit, long frameIndex, RecordingStage stage) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyStageStepStarted(timestamp, unit, frameIndex, stage);
+        }
+    }
+
+    @Override
+    public void notifyStageStepEnded(long timestamp, TimeUnit unit, long frameIndex, RecordingStage stage) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyStageStepEnded(timestamp, unit, frameIndex, stage);
+        }
+    }
+
+    @Override
+    public void notifyBytesWritten(long timestamp, TimeUnit unit, long frameIndex, long bytes) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyBytesWritten(timestamp, unit, frameIndex, bytes);
+        }
+    }
+
+    @Override
+    public void notifyKeyFrameEncoded(long timestamp, TimeUnit unit, long frameIndex) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyKeyFrameEncoded(timestamp, unit, frameIndex);
+        }
+    }
+
+    @Override
+    public void notifyFragmentFlushing(long timestamp, TimeUnit unit, String filename) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyFragmentFlushing(timestamp, unit, filename);
+        }
+    }
+
+    @Override
+    public void notifyFragmentFlushed(long timestamp, TimeUnit unit, String filename, long byteOffset, long bytes) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyFragmentFlushed(timestamp, unit, filename, byteOffset, bytes);
+        }
+    }
+
+    @Override
+    public void notifyRecorderOpening(long timestamp, TimeUnit unit) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyRecorderOpening(timestamp, unit);
+        }
+    }
+
+    @Override
+    public void notifyVideoOpening(long timestamp, TimeUnit unit, String filename) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyVideoOpening(timestamp, unit, filename);
+        }
+    }
+
+    @Override
+    public void notifyVideoOpened(long timestamp, TimeUnit unit, String filename, int width, int height, long duration) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyVideoOpened(timestamp, unit, filename, width, height, duration);
+        }
+    }
+
+    @Override
+    public void notifyFirstFrameEncoded(long timestamp, TimeUnit unit, long frameIndex, long timeToFirstFrame) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyFirstFrameEncoded(timestamp, unit, frameIndex, timeToFirstFrame);
+        }
+    }
+
+    @Override
+    public void notifyVideoClosing(long timestamp, TimeUnit unit, String filename) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyVideoClosing(timestamp, unit, filename);
+        }
+    }
+
+    @Override
+    public void notifyVideoClosed(long timestamp, TimeUnit unit, String filename, long bytesWritten, long duration) {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyVideoClosed(timestamp, unit, filename, bytesWritten, duration);
+        }
+    }
+
+    @Override
+    public void notifyRecordingEnd() {
+        for (VideoRecordingListener listener : listeners) {
+            listener.notifyRecordingEnd();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package tdl.record.screen.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Publishes a {@link VideoRecordingMetricsCollector} to the platform MBean server,
+ * as <code>tdl.record.screen:type=VideoRecording,name=...</code>.
+ * <p>
+ * The attributes are read from the collector when JMX asks for them, the recording threads are not involved.
+ */
+public class JmxMetricsExport implements VideoRecordingMetricsMXBean, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(JmxMetricsExport.class);
+    private final VideoRecordingMetricsCollector collector;
+    private final MBeanServer mBeanServer;
+    private final ObjectName objectName;
+
+    private JmxMetricsExport(VideoRecordingMetricsCollector collector, MBeanServer mBeanServer, ObjectName objectName) {
+        this.collector = collector;
+        this.mBeanServer = mBeanServer;
+        this.objectName = objectName;
+    }
+
+    /**
+     * @param name tells the recordings of one JVM apart, for example the name of the output file
+     * @throws JMException if the name is not valid or is already taken
+     */
+    public static JmxMetricsExport register(VideoRecordingMetricsCollector collector, String name) throws JMException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("tdl.record.screen:type=VideoRecording,name=" + ObjectName.quote(name));
+        JmxMetricsExport export = new JmxMetricsExport(collector, mBeanServer, objectName);
+        mBeanServer.registerMBean(export, objectName);
+        return export;
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    @Override
+    public void close() {
+        try {
+            mBeanServer.unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.warn("Could not unregister " + objectName, e);
+        }
+    }
+
+    //~~~~~~~~~~ Attributes
+
+    @Override
+    public boolean isCurrentlyRecording() {
+        return collector.isCurrentlyRecording();
+    }
+
+    @Override
+    public long getTotalFrames() {
+        return collector.getTotalFrames();
+    }
+
+    @Override
+    public double getRenderingTimeRatio() {
+        return collector.getRenderingTimeRatio();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return collector.getDroppedFrames();
+    }
+
+    @Override
+    public long getSkippedFrameSlots() {
+        return collector.getSkippedFrameSlots();
+    }
+
+    @Override
+    public long getElidedFrames() {
+        return collector.getElidedFrames();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return collector.getBytesWritten();
+    }
+
+    @Override
+    public long getKeyFrames() {
+        return collector.getKeyFrames();
+    }
+
+    @Override
+    public long getFragments() {
+        return collector.getFragments();
+    }
+
+    @Override
+    public long getMaxLatenessNanos() {
+        return collector.getMaxLatenessNanos();
+    }
+
+    @Override
+    public long getMaxCaptureSkewNanos() {
+        return collector.getMaxCaptureSkewNanos();
+    }
+
+    @Override
+    public long getTimeToFirstFrameNanos() {
+        return collector.getTimeToFirstFrameNanos();
+    }
+
+    @Override
+    public long getAdjustments() {
+        return collector.getAdjustments();
+    }
+
+    @Override
+    public int getFrameRateDivisor() {
+        return collector.getCurrentAdjustment().getFrameRateDivisor();
+    }
+
+    @Override
+    public String getScalingQuality() {
+        return collector.getCurrentAdjustment().getScalingQuality().name();
+    }
+
+    @Override
+    public long stageLatencyNanos(String stage, double percentile) {
+        return collector.getStageLatency(RecordingStage.valueOf(stage)).getValueAtPercentile(percentile);
+    }
+}
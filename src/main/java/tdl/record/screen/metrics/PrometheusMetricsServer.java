@@ -0,0 +1,155 @@
+package tdl.record.screen.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import tdl.record.screen.governor.RecordingAdjustment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the metrics of a {@link VideoRecordingMetricsCollector} on <code>http://localhost:port/metrics</code>,
+ * in the Prometheus text format.
+ * <p>
+ * The server only listens on the loopback interface. Each scrape reads the collector on the thread of the server,
+ * the snapshots of the histograms included, so the recording threads are not involved.
+ */
+public class PrometheusMetricsServer implements Closeable {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private PrometheusMetricsServer(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * @param port the port on localhost, 0 to pick a free one
+     * @throws IOException if the port cannot be bound
+     */
+    public static PrometheusMetricsServer start(VideoRecordingMetricsCollector collector, int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "recorder-metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/metrics", exchange -> serve(exchange, collector));
+        server.start();
+        return new PrometheusMetricsServer(server, executor);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private static void serve(HttpExchange exchange, VideoRecordingMetricsCollector collector) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render(collector).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    //~~~~~~~~~~ Text format
+
+    static String render(VideoRecordingMetricsCollector collector) {
+        StringBuilder out = new StringBuilder();
+        gauge(out, "screen_recorder_recording", "1 while a recording is running",
+                collector.isCurrentlyRecording() ? 1 : 0);
+        counter(out, "screen_recorder_frames_total", "Frames processed",
+                collector.getProcessedFrames());
+        counter(out, "screen_recorder_dropped_frames_total", "Frames discarded because the recording pipeline was full",
+                collector.getDroppedFrames());
+        counter(out, "screen_recorder_skipped_frame_slots_total", "Frames not captured because their slot passed while processing an earlier frame",
+                collector.getSkippedFrameSlots());
+        counter(out, "screen_recorder_elided_frames_total", "Frames skipped because they were identical to the previous one",
+                collector.getElidedFrames());
+        counter(out, "screen_recorder_written_bytes_total", "Bytes of encoded video handed to the muxer",
+                collector.getBytesWritten());
+        counter(out, "screen_recorder_key_frames_total", "Key frames encoded, each starts a fragment of the video",
+                collector.getKeyFrames());
+        counter(out, "screen_recorder_fragments_total", "Fragments written by the muxer, cut at the key frames and at the fragment duration",
+                collector.getFragments());
+        gauge(out, "screen_recorder_rendering_time_ratio", "Time spent processing the last frame over the time between frames",
+                collector.getRenderingTimeRatio());
+        gauge(out, "screen_recorder_max_capture_skew_seconds", "Largest time between the captures of the first and the last screen of a frame",
+                toSeconds(collector.getMaxCaptureSkewNanos()));
+        gauge(out, "screen_recorder_time_to_first_frame_seconds", "Time between the opening of the recorder and the end of the encoding of its first frame",
+                toSeconds(collector.getTimeToFirstFrameNanos()));
+
+        RecordingAdjustment adjustment = collector.getCurrentAdjustment();
+        counter(out, "screen_recorder_adjustments_total", "Times the recording governor changed the settings",
+                collector.getAdjustments());
+        gauge(out, "screen_recorder_frame_rate_divisor", "One frame out of this many is captured, as chosen by the recording governor",
+                adjustment.getFrameRateDivisor());
+        header(out, "screen_recorder_scaling_quality", "The interpolation used when scaling the screen down", "gauge");
+        out.append("screen_recorder_scaling_quality{quality=\"")
+                .append(adjustment.getScalingQuality().name().toLowerCase(Locale.ROOT)).append("\"} 1\n");
+
+        header(out, "screen_recorder_stage_duration_seconds", "Time spent by the frames in each stage of the recording", "summary");
+        for (RecordingStage stage : RecordingStage.values()) {
+            summary(out, "screen_recorder_stage_duration_seconds",
+                    "stage=\"" + stage.name().toLowerCase(Locale.ROOT) + "\"", collector.getStageLatency(stage));
+        }
+        header(out, "screen_recorder_frame_lateness_seconds", "Delay between the deadline of a frame and its actual start", "summary");
+        summary(out, "screen_recorder_frame_lateness_seconds", null, collector.getLateness());
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, help, "gauge");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, LatencyHistogram.Snapshot snapshot) {
+        String labelPrefix = labels == null ? "" : labels + ",";
+        for (double quantile : QUANTILES) {
+            out.append(name).append("{").append(labelPrefix).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(toSeconds(snapshot.getValueAtPercentile(quantile * 100))).append('\n');
+        }
+        String labelSet = labels == null ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(labelSet).append(' ').append(toSeconds(snapshot.getTotalNanos())).append('\n');
+        out.append(name).append("_count").append(labelSet).append(' ').append(snapshot.getCount()).append('\n');
+    }
+
+    private static double toSeconds(long nanos) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
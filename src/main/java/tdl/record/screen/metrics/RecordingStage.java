@@ -0,0 +1,27 @@
+package tdl.record.screen.metrics;
+
+/**
+ * The steps a frame goes through, from the screen to the video file.
+ */
+public enum RecordingStage {
+    /**
+     * Reading the screen, or whatever the input is
+     */
+    CAPTURE,
+    /**
+     * Resizing the captured image to the resolution of the video, only for inputs that scale
+     */
+    SCALE,
+    /**
+     * Turning the RGB image into the YUV picture taken by the encoder
+     */
+    COLOUR_CONVERSION,
+    /**
+     * Compressing the picture, including the packets the encoder was holding back
+     */
+    ENCODE,
+    /**
+     * Handing the compressed packets to the muxer, which writes them to the file
+     */
+    MUX_WRITE
+}
@@ -1,6 +1,7 @@
 package tdl.record.screen.metrics;
 
 import io.humble.video.Rational;
+import tdl.record.screen.governor.RecordingAdjustment;
 
 import java.util.concurrent.TimeUnit;
 
@@ -12,5 +13,144 @@ public interface VideoRecordingListener {
 
     void notifyFrameRenderingEnd(long timestamp, TimeUnit unit, long frameIndex);
 
+    /**
+     * The next frame became due, the lateness is negative if the wait ended early
+     *
+     * @param lateness time between the deadline of the frame and the actual start, in the same unit as the timestamp
+     */
+    default void notifyFrameLateness(long timestamp, TimeUnit unit, long frameIndex, long lateness) {
+    }
+
+    /**
+     * Frame slots have passed while processing the previous frame, these frames will not be captured
+     */
+    default void notifyFrameSlotsSkipped(long timestamp, TimeUnit unit, long firstSkippedFrameIndex, long skippedSlots) {
+    }
+
+    /**
+     * A frame has been discarded before being encoded because the recording pipeline was full
+     */
+    default void notifyFrameDropped(long timestamp, TimeUnit unit, long frameIndex) {
+    }
+
+    /**
+     * A frame has been skipped because it was identical to the previous one
+     */
+    default void notifyFrameElided(long timestamp, TimeUnit unit, long frameIndex) {
+    }
+
+    /**
+     * The recording governor changed the settings used from this frame on
+     */
+    default void notifyRecordingAdjusted(long timestamp, TimeUnit unit, long frameIndex, RecordingAdjustment adjustment) {
+    }
+
+    /**
+     * All the screens of a multi-screen recording have captured the frame
+     *
+     * @param skew time between the first and the last screen finishing their capture, in the same unit as the timestamp
+     */
+    default void notifyCaptureSkew(long timestamp, TimeUnit unit, long frameIndex, long skew) {
+    }
+
+    /**
+     * A stage has finished with a frame. The stages can run on different threads, in parallel.
+     *
+     * @param duration time the frame spent in the stage, in the same unit as the timestamp
+     */
+    default void notifyStageCompleted(long timestamp, TimeUnit unit, long frameIndex, RecordingStage stage, long duration) {
+    }
+
+    /**
+     * A stage starts working on a frame, on the calling thread. It may take several steps, the encoding of a frame
+     * for example alternates with the muxing of its packets, {@link #notifyStageCompleted} then reports the total.
+     */
+    default void notifyStageStepStarted(long timestamp, TimeUnit unit, long frameIndex, RecordingStage stage) {
+    }
+
+    /**
+     * The step started last by the calling thread for this stage is done
+     */
+    default void notifyStageStepEnded(long timestamp, TimeUnit unit, long frameIndex, RecordingStage stage) {
+    }
+
+    /**
+     * The muxer has been given the encoded data of a frame
+     *
+     * @param bytes size of the packets written, zero while the encoder holds the frame back
+     */
+    default void notifyBytesWritten(long timestamp, TimeUnit unit, long frameIndex, long bytes) {
+    }
+
+    /**
+     * The encoder has produced a key frame. The muxer starts a new fragment with it,
+     * and also when a fragment reaches its duration, so there can be more fragments than key frames
+     */
+    default void notifyKeyFrameEncoded(long timestamp, TimeUnit unit, long frameIndex) {
+    }
+
+    /**
+     * The muxer starts writing a fragment of the video on the calling thread, {@link #notifyFragmentFlushed}
+     * follows on the same thread once its mdat is written
+     */
+    default void notifyFragmentFlushing(long timestamp, TimeUnit unit, String filename) {
+    }
+
+    /**
+     * The muxer has written a fragment of the video, its moof and its mdat. The fragments are only seen when the muxer
+     * writes through Java, to a sink, or with the fragment index or the live stream on
+     *
+     * @param byteOffset where the moof of the fragment starts in the video
+     * @param bytes      size of the fragment, moof and mdat
+     */
+    default void notifyFragmentFlushed(long timestamp, TimeUnit unit, String filename, long byteOffset, long bytes) {
+    }
+
+    /**
+     * The recorder is being opened on the calling thread, {@link #notifyFirstFrameEncoded} follows on the recording thread
+     * once the first frame has been encoded
+     */
+    default void notifyRecorderOpening(long timestamp, TimeUnit unit) {
+    }
+
+    /**
+     * A video file is being opened on the calling thread, {@link #notifyVideoOpened} follows on the same thread
+     * unless the opening fails
+     */
+    default void notifyVideoOpening(long timestamp, TimeUnit unit, String filename) {
+    }
+
+    /**
+     * A video file is ready to receive frames, the recording opens one per screen and per segment
+     *
+     * @param duration time spent creating the encoder and opening the file, in the same unit as the timestamp
+     */
+    default void notifyVideoOpened(long timestamp, TimeUnit unit, String filename, int width, int height, long duration) {
+    }
+
+    /**
+     * The first frame of the recording has been encoded, reported once per recorder
+     *
+     * @param timeToFirstFrame time between the opening of the recorder and the end of the encoding of the frame,
+     *                         in the same unit as the timestamp
+     */
+    default void notifyFirstFrameEncoded(long timestamp, TimeUnit unit, long frameIndex, long timeToFirstFrame) {
+    }
+
+    /**
+     * A video file is being finalised on the calling thread, {@link #notifyVideoClosed} follows on the same thread
+     * unless the closing fails
+     */
+    default void notifyVideoClosing(long timestamp, TimeUnit unit, String filename) {
+    }
+
+    /**
+     * A video file has been finalised
+     *
+     * @param duration time spent writing the end of the file and releasing it, in the same unit as the timestamp
+     */
+    default void notifyVideoClosed(long timestamp, TimeUnit unit, String filename, long bytesWritten, long duration) {
+    }
+
     void notifyRecordingEnd();
 }
@@ -3,21 +3,39 @@ package tdl.record.screen.metrics;
 import io.humble.video.Rational;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import tdl.record.screen.governor.RecordingAdjustment;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class VideoRecordingMetricsCollector implements VideoRecordingListener {
     private static final Logger log = LoggerFactory.getLogger(VideoRecordingMetricsCollector.class);
     private long expectedTimeBetweenFramesNanos;
     private long timestampBeforeProcessingNanos;
-    private double renderingTimeRatio;
-    private long totalFrames;
+    private volatile double renderingTimeRatio;
+    private volatile long totalFrames;
+    private final AtomicLong processedFrames;
+    private final AtomicLong droppedFrames;
+    private final AtomicLong skippedFrameSlots;
+    private final AtomicLong maxLatenessNanos;
+    private final AtomicLong maxCaptureSkewNanos;
+    private volatile long timeToFirstFrameNanos;
+    private final AtomicLong elidedFrames;
+    private final AtomicLong adjustments;
+    private volatile RecordingAdjustment currentAdjustment;
+    private final Map<RecordingStage, LatencyHistogram> stageLatencies;
+    private final LatencyHistogram lateness;
+    private final AtomicLong bytesWritten;
+    private final AtomicLong keyFrames;
+    private final AtomicLong fragments;
     private Path destinationPath;
     private Rational inputFrameRate;
     private Rational videoFrameRate;
-    private boolean isCurrentlyRecording;
+    private volatile boolean isCurrentlyRecording;
 
 
     public VideoRecordingMetricsCollector() {
@@ -27,6 +45,23 @@ public class VideoRecordingMetricsCollector implements VideoRecordingListener {
         renderingTimeRatio = 0;
         timestampBeforeProcessingNanos = 0;
         totalFrames = 0;
+        processedFrames = new AtomicLong(0);
+        droppedFrames = new AtomicLong(0);
+        skippedFrameSlots = new AtomicLong(0);
+        maxLatenessNanos = new AtomicLong(0);
+        maxCaptureSkewNanos = new AtomicLong(0);
+        timeToFirstFrameNanos = 0;
+        elidedFrames = new AtomicLong(0);
+        adjustments = new AtomicLong(0);
+        currentAdjustment = RecordingAdjustment.NONE;
+        stageLatencies = new EnumMap<>(RecordingStage.class);
+        for (RecordingStage stage : RecordingStage.values()) {
+            stageLatencies.put(stage, new LatencyHistogram());
+        }
+        lateness = new LatencyHistogram();
+        bytesWritten = new AtomicLong(0);
+        keyFrames = new AtomicLong(0);
+        fragments = new AtomicLong(0);
     }
 
     //~~~~~~~~~~ Collectors
@@ -56,6 +91,72 @@ public class VideoRecordingMetricsCollector implements VideoRecordingListener {
         renderingTimeRatio = timeSpendProcessingNanos / (double) expectedTimeBetweenFramesNanos;
         log.debug("renderingTimeRatio: {}", renderingTimeRatio);
         totalFrames = frameIndex;
+        processedFrames.incrementAndGet();
+    }
+
+    @Override
+    public void notifyFrameLateness(long timestamp, TimeUnit unit, long frameIndex, long lateness) {
+        long latenessNanos = unit.toNanos(lateness);
+        // Reported by the stages and the screens from several threads
+        maxLatenessNanos.accumulateAndGet(latenessNanos, Math::max);
+        this.lateness.record(latenessNanos);
+    }
+
+    @Override
+    public void notifyFrameSlotsSkipped(long timestamp, TimeUnit unit, long firstSkippedFrameIndex, long skippedSlots) {
+        log.debug("Skipped {} frame slots from {}", skippedSlots, firstSkippedFrameIndex);
+        skippedFrameSlots.addAndGet(skippedSlots);
+    }
+
+    @Override
+    public void notifyFrameDropped(long timestamp, TimeUnit unit, long frameIndex) {
+        log.debug("Dropped frame {}", frameIndex);
+        droppedFrames.incrementAndGet();
+    }
+
+    @Override
+    public void notifyFrameElided(long timestamp, TimeUnit unit, long frameIndex) {
+        log.debug("Elided frame {}", frameIndex);
+        elidedFrames.incrementAndGet();
+    }
+
+    @Override
+    public void notifyRecordingAdjusted(long timestamp, TimeUnit unit, long frameIndex, RecordingAdjustment adjustment) {
+        log.info("Recording adjusted at frame {}: one frame out of {}, {} scaling",
+                frameIndex, adjustment.getFrameRateDivisor(), adjustment.getScalingQuality());
+        currentAdjustment = adjustment;
+        adjustments.incrementAndGet();
+    }
+
+    @Override
+    public void notifyCaptureSkew(long timestamp, TimeUnit unit, long frameIndex, long skew) {
+        maxCaptureSkewNanos.accumulateAndGet(unit.toNanos(skew), Math::max);
+    }
+
+    @Override
+    public void notifyStageCompleted(long timestamp, TimeUnit unit, long frameIndex, RecordingStage stage, long duration) {
+        stageLatencies.get(stage).record(unit.toNanos(duration));
+    }
+
+    @Override
+    public void notifyBytesWritten(long timestamp, TimeUnit unit, long frameIndex, long bytes) {
+        bytesWritten.addAndGet(bytes);
+    }
+
+    @Override
+    public void notifyKeyFrameEncoded(long timestamp, TimeUnit unit, long frameIndex) {
+        keyFrames.incrementAndGet();
+    }
+
+    @Override
+    public void notifyFragmentFlushed(long timestamp, TimeUnit unit, String filename, long byteOffset, long bytes) {
+        fragments.incrementAndGet();
+    }
+
+    @Override
+    public void notifyFirstFrameEncoded(long timestamp, TimeUnit unit, long frameIndex, long timeToFirstFrame) {
+        timeToFirstFrameNanos = unit.toNanos(timeToFirstFrame);
+        log.info("First frame encoded {} ms after opening the recorder", TimeUnit.NANOSECONDS.toMillis(timeToFirstFrameNanos));
     }
 
     @Override
@@ -91,9 +192,109 @@ public class VideoRecordingMetricsCollector implements VideoRecordingListener {
     }
 
     /**
-     * @return total number of processed frames
+     * @return total number of processed frames, in the current or last recording
      */
     public long getTotalFrames() {
         return totalFrames;
     }
+
+    /**
+     * @return number of frames processed since the collector was created, all recordings and screens together
+     */
+    public long getProcessedFrames() {
+        return processedFrames.get();
+    }
+
+    /**
+     * @return the largest delay between the deadline of a frame and its actual start, in nanoseconds
+     */
+    public long getMaxLatenessNanos() {
+        return maxLatenessNanos.get();
+    }
+
+    /**
+     * @return the distribution of the delays between the deadline of a frame and its actual start, early starts count as zero
+     */
+    public LatencyHistogram.Snapshot getLateness() {
+        return lateness.snapshot();
+    }
+
+    /**
+     * @return the distribution of the time spent by the frames in one stage of the recording, all screens together
+     */
+    public LatencyHistogram.Snapshot getStageLatency(RecordingStage stage) {
+        return stageLatencies.get(stage).snapshot();
+    }
+
+    /**
+     * @return number of bytes of encoded video handed to the muxer
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return number of key frames encoded, all screens together
+     */
+    public long getKeyFrames() {
+        return keyFrames.get();
+    }
+
+    /**
+     * @return number of fragments written by the muxer, all screens together,
+     * only counted when the muxer writes through Java, see {@link VideoRecordingListener#notifyFragmentFlushed}
+     */
+    public long getFragments() {
+        return fragments.get();
+    }
+
+    /**
+     * @return the largest time between the captures of the first and the last screen of a frame, in nanoseconds
+     */
+    public long getMaxCaptureSkewNanos() {
+        return maxCaptureSkewNanos.get();
+    }
+
+    /**
+     * @return the time between the opening of the recorder and the end of the encoding of its first frame,
+     * in nanoseconds, zero until then
+     */
+    public long getTimeToFirstFrameNanos() {
+        return timeToFirstFrameNanos;
+    }
+
+    /**
+     * @return number of frames not captured because their slot passed while processing an earlier frame
+     */
+    public long getSkippedFrameSlots() {
+        return skippedFrameSlots.get();
+    }
+
+    /**
+     * @return number of frames discarded because the recording pipeline was full
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * @return number of frames skipped because they were identical to the previous one
+     */
+    public long getElidedFrames() {
+        return elidedFrames.get();
+    }
+
+    /**
+     * @return the settings chosen by the last recording governor decision
+     */
+    public RecordingAdjustment getCurrentAdjustment() {
+        return currentAdjustment;
+    }
+
+    /**
+     * @return number of times the recording governor changed the settings
+     */
+    public long getAdjustments() {
+        return adjustments.get();
+    }
 }
@@ -0,0 +1,45 @@
+package tdl.record.screen.metrics;
+
+/**
+ * The metrics of a running recording as JMX attributes, see {@link JmxMetricsExport}.
+ * Durations are in nanoseconds, counts cover all the screens together.
+ */
+public interface VideoRecordingMetricsMXBean {
+
+    boolean isCurrentlyRecording();
+
+    long getTotalFrames();
+
+    double getRenderingTimeRatio();
+
+    long getDroppedFrames();
+
+    long getSkippedFrameSlots();
+
+    long getElidedFrames();
+
+    long getBytesWritten();
+
+    long getKeyFrames();
+
+    long getFragments();
+
+    long getMaxLatenessNanos();
+
+    long getMaxCaptureSkewNanos();
+
+    long getTimeToFirstFrameNanos();
+
+    long getAdjustments();
+
+    int getFrameRateDivisor();
+
+    String getScalingQuality();
+
+    /**
+     * @param stage      one of the {@link RecordingStage} names
+     * @param percentile between 0 and 100, for example 99.9
+     * @return the time the frames spent in the stage at that percentile
+     */
+    long stageLatencyNanos(String stage, double percentile);
+}
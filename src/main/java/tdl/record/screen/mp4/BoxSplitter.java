@@ -0,0 +1,152 @@
+package tdl.record.screen.mp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Cuts the bytes of an MP4 into its top-level boxes as the muxer writes them,
+ * so that a video can be followed without reading it back from wherever it is stored.
+ * <p>
+ * The consumer chooses, box by box, whether to get the bytes: they are then copied once, straight from the write
+ * of the muxer into the buffer of the consumer. The media data is usually not wanted and is only counted.
+ * <p>
+ * The muxer appends, apart from a few header fields it patches when the video is closed.
+ * A patch to the box being written is applied to its bytes, the patches to the boxes already handed over are ignored.
+ */
+public class BoxSplitter {
+    private static final int BOX_HEADER_SIZE = 8;
+    private static final int LARGE_BOX_HEADER_SIZE = 16;
+    private final Consumer consumer;
+    private final ByteBuffer header;
+    private long boxStart;
+    private long boxSize;
+    private long received;
+    private String type;
+    private ByteBuffer content;
+    private int contentStart;
+    private boolean stopped;
+
+    /**
+     * Takes the boxes of the video, in the order they are written.
+     */
+    public interface Consumer {
+        /**
+         * @param size the size of the box, header included
+         * @return a buffer to copy the whole box into from its position on, or null to skip the content of the box
+         */
+        ByteBuffer startBox(long offset, String type, long size) throws IOException;
+
+        /**
+         * @param box the buffer given by {@link #startBox}, positioned after the box, or null if the box was skipped
+         */
+        void endBox(long offset, String type, long size, ByteBuffer box) throws IOException;
+    }
+
+    public BoxSplitter(Consumer consumer) {
+        this.consumer = consumer;
+        this.header = ByteBuffer.allocate(LARGE_BOX_HEADER_SIZE);
+        this.boxStart = 0;
+        this.boxSize = -1;
+        this.received = 0;
+        this.stopped = false;
+    }
+
+    /**
+     * @param position where the bytes go in the video
+     * @throws IOException if the bytes do not make boxes or the consumer failed, the splitter then stops
+     */
+    public void write(long position, byte[] bytes, int offset, int length) throws IOException {
+        if (stopped) {
+            throw new IOException("The splitter has stopped");
+        }
+        try {
+            long writtenEnd = boxStart + received;
+            if (position > writtenEnd) {
+                throw new IOException("The muxer skipped from byte " + writtenEnd + " to byte " + position);
+            }
+            int patched = (int) Math.min(writtenEnd - position, length);
+            for (int i = 0; i < patched; i++) {
+                patch(position + i, bytes[offset + i]);
+            }
+            int index = offset + patched;
+            int end = offset + length;
+            while (index < end) {
+                index += append(bytes, index, end - index);
+            }
+        } catch (IOException | RuntimeException e) {
+            stopped = true;
+            throw e;
+        }
+    }
+
+    private void patch(long position, byte value) {
+        if (position < boxStart) {
+            return;
+        }
+        int index = (int) (position - boxStart);
+        if (boxSize < 0) {
+            header.put(index, value);
+        } else if (content != null) {
+            content.put(contentStart + index, value);
+        }
+    }
+
+    private int append(byte[] bytes, int index, int length) throws IOException {
+        if (boxSize < 0) {
+            int headerSize = header.position() >= BOX_HEADER_SIZE && header.getInt(0) == 1
+                    ? LARGE_BOX_HEADER_SIZE : BOX_HEADER_SIZE;
+            int read = Math.min(length, headerSize - header.position());
+            header.put(bytes, index, read);
+            received += read;
+            if (header.position() == headerSize && !(headerSize == BOX_HEADER_SIZE && header.getInt(0) == 1)) {
+                startBox();
+            }
+            return read;
+        }
+
+        int read = (int) Math.min(length, boxSize - received);
+        if (content != null) {
+            content.put(bytes, index, read);
+        }
+        received += read;
+        if (received == boxSize) {
+            endBox();
+        }
+        return read;
+    }
+
+    private void startBox() throws IOException {
+        int headerSize = header.position();
+        long size = headerSize == LARGE_BOX_HEADER_SIZE ? header.getLong(BOX_HEADER_SIZE) : header.getInt(0) & 0xffffffffL;
+        // A size of zero runs to the end of the file, which only a box that was never closed does here
+        if (size < headerSize) {
+            throw new IOException("No box at byte " + boxStart + ", its size is " + size);
+        }
+        byte[] fourCC = new byte[4];
+        for (int i = 0; i < fourCC.length; i++) {
+            fourCC[i] = header.get(4 + i);
+        }
+        type = new String(fourCC, StandardCharsets.ISO_8859_1);
+        boxSize = size;
+        content = consumer.startBox(boxStart, type, boxSize);
+        if (content != null) {
+            contentStart = content.position();
+            header.flip();
+            content.put(header);
+        }
+        if (received == boxSize) {
+            endBox();
+        }
+    }
+
+    private void endBox() throws IOException {
+        ByteBuffer box = content;
+        content = null;
+        consumer.endBox(boxStart, type, boxSize, box);
+        boxStart += boxSize;
+        boxSize = -1;
+        received = 0;
+        header.clear();
+    }
+}
@@ -0,0 +1,78 @@
+package tdl.record.screen.mp4;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads small pieces of a large file through a window of one megabyte.
+ * <p>
+ * A scan that moves forward through the file is served from the window most of the time,
+ * and the window is refilled with one large sequential read when the scan moves past it.
+ */
+public class ChunkedFileReader {
+    static final int CHUNK_SIZE = 1024 * 1024;
+    private final FileChannel channel;
+    private long fileSize;
+    private final ByteBuffer chunk;
+    private long chunkStart;
+
+    public ChunkedFileReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        this.chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        this.chunk.limit(0);
+        this.chunkStart = 0;
+    }
+
+    long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Pick up the bytes appended to the file since the last refresh.
+     */
+    public void refresh() throws IOException {
+        fileSize = channel.size();
+    }
+
+    /**
+     * @return a big-endian buffer holding the bytes from the position, valid until the next read
+     * @throws EOFException if the file ends before the length
+     */
+    ByteBuffer read(long position, int length) throws IOException {
+        if (position + length > fileSize) {
+            throw new EOFException("Can't read " + length + " bytes at " + position + " of a " + fileSize + " bytes file");
+        }
+        if (length > CHUNK_SIZE) {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            readFully(buffer, position);
+            return buffer;
+        }
+
+        if (position < chunkStart || position + length > chunkStart + chunk.limit()) {
+            chunk.clear();
+            chunk.limit((int) Math.min(CHUNK_SIZE, fileSize - position));
+            readFully(chunk, position);
+            chunkStart = position;
+        }
+        ByteBuffer view = chunk.duplicate();
+        view.position((int) (position - chunkStart));
+        view.limit(view.position() + length);
+        return view.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        long readPosition = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, readPosition);
+            if (read < 0) {
+                throw new EOFException("The file ended at " + readPosition);
+            }
+            readPosition += read;
+        }
+        buffer.flip();
+    }
+}
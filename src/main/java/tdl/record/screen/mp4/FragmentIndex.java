@@ -0,0 +1,220 @@
+package tdl.record.screen.mp4;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * The sidecar index of a recording, {@code recording.mp4.idx}, telling where each fragment of the video starts.
+ * <p>
+ * A tool can look up the fragment playing at a given time of the session and serve the video from that byte offset,
+ * after the header at the start of the file, instead of demuxing it from the top.
+ * <p>
+ * The file is a 16 bytes header followed by fixed size entries, one per fragment, in the order of the video.
+ * All the numbers are big-endian:
+ * <pre>
+ * header: magic "FIDX" | version (int) | timescale (int) | entry size (int)
+ * entry:  capture time, ms since the epoch (long) | decode time, in timescale units (long)
+ *         | byte offset of the moof (long) | flags, 1 if the fragment starts with a key frame (int)
+ * </pre>
+ * The first entry stands for the samples stored with the header of the video and points at the start of the file.
+ * Entries are only ever appended, a partial entry at the end is ignored.
+ * The lookups are binary searches reading a few entries from the file, so the index is never loaded whole.
+ */
+public class FragmentIndex implements Closeable {
+    static final int MAGIC = 0x46494458;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 28;
+    static final int KEY_FRAME = 1;
+    public static final String INDEX_SUFFIX = ".idx";
+    private final FileChannel channel;
+    private final ByteBuffer entryBuffer;
+    private long timescale;
+    private int size;
+
+    public static class Entry {
+        private final int position;
+        private final long epochMillis;
+        private final long decodeTime;
+        private final long byteOffset;
+        private final boolean keyFrame;
+
+        Entry(int position, long epochMillis, long decodeTime, long byteOffset, boolean keyFrame) {
+            this.position = position;
+            this.epochMillis = epochMillis;
+            this.decodeTime = decodeTime;
+            this.byteOffset = byteOffset;
+            this.keyFrame = keyFrame;
+        }
+
+        /**
+         * @return the position of the entry in the index, from zero
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        public Instant getCaptureTime() {
+            return Instant.ofEpochMilli(epochMillis);
+        }
+
+        /**
+         * @return the decode time of the first sample, in units of {@link FragmentIndex#getTimescale()}.
+         * The same time base as the demuxer seeks in, whatever the reordering of the frames by the encoder
+         */
+        public long getDecodeTime() {
+            return decodeTime;
+        }
+
+        public long getByteOffset() {
+            return byteOffset;
+        }
+
+        public boolean startsWithKeyFrame() {
+            return keyFrame;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + position + " " + getCaptureTime() + " dts " + decodeTime + " @" + byteOffset
+                    + (keyFrame ? " key" : "");
+        }
+    }
+
+    private FragmentIndex(FileChannel channel) {
+        this.channel = channel;
+        this.entryBuffer = ByteBuffer.allocate(ENTRY_SIZE);
+    }
+
+    public static Path indexFileOf(Path video) {
+        return video.resolveSibling(video.getFileName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Open the index of a video, which may still be being recorded.
+     */
+    public static FragmentIndex open(Path video) throws IOException {
+        FragmentIndex fragmentIndex = new FragmentIndex(FileChannel.open(indexFileOf(video), READ));
+        try {
+            fragmentIndex.refresh();
+        } catch (IOException | RuntimeException e) {
+            fragmentIndex.close();
+            throw e;
+        }
+        return fragmentIndex;
+    }
+
+    /**
+     * Pick up the entries appended since the index was opened.
+     */
+    public void refresh() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < HEADER_SIZE) {
+            size = 0;
+            return;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(12) != ENTRY_SIZE) {
+            throw new IOException("Not a version " + VERSION + " fragment index");
+        }
+        timescale = header.getInt(8) & 0xffffffffL;
+        size = (int) ((fileSize - HEADER_SIZE) / ENTRY_SIZE);
+    }
+
+    public long getTimescale() {
+        return timescale;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Entry get(int position) throws IOException {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("No entry " + position + " in an index of " + size);
+        }
+        entryBuffer.clear();
+        readFully(entryBuffer, HEADER_SIZE + (long) position * ENTRY_SIZE);
+        return new Entry(position, entryBuffer.getLong(0), entryBuffer.getLong(8), entryBuffer.getLong(16),
+                (entryBuffer.getInt(24) & KEY_FRAME) != 0);
+    }
+
+    /**
+     * @return the fragment being recorded at that time, or null if the recording had not started
+     */
+    public Entry findByCaptureTime(Instant captureTime) throws IOException {
+        return floor(captureTime.toEpochMilli(), 0);
+    }
+
+    /**
+     * @param decodeTime in units of {@link #getTimescale()}
+     * @return the fragment playing at that time of the video, or null if the index is empty
+     */
+    public Entry findByDecodeTime(long decodeTime) throws IOException {
+        return floor(decodeTime, 8);
+    }
+
+    /**
+     * @return the closest fragment starting with a key frame at or before the given one, where decoding can start
+     */
+    public Entry findKeyFrameAtOrBefore(Entry entry) throws IOException {
+        Entry candidate = entry;
+        while (candidate != null && !candidate.startsWithKeyFrame()) {
+            candidate = candidate.getPosition() > 0 ? get(candidate.getPosition() - 1) : null;
+        }
+        return candidate;
+    }
+
+    /**
+     * @return where the fragment ends, or -1 if it is the last one indexed and runs to the end of the video
+     */
+    public long endOffsetOf(Entry entry) throws IOException {
+        return entry.getPosition() + 1 < size ? get(entry.getPosition() + 1).getByteOffset() : -1;
+    }
+
+    /*
+      The last entry whose field at the given offset is at most the value. Both fields grow with the position.
+     */
+    private Entry floor(long value, int fieldOffset) throws IOException {
+        int low = 0;
+        int high = size - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            entryBuffer.clear();
+            readFully(entryBuffer, HEADER_SIZE + (long) middle * ENTRY_SIZE);
+            if (entryBuffer.getLong(fieldOffset) <= value) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found < 0 ? null : get(found);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        long readPosition = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, readPosition);
+            if (read < 0) {
+                throw new EOFException("The index ended at " + readPosition);
+            }
+            readPosition += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,144 @@
+package tdl.record.screen.mp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Follows a fragmented MP4 through the bytes of the muxer and appends an entry to its {@link FragmentIndex}
+ * for every fragment completed.
+ * <p>
+ * The writer is given the boxes by a {@link BoxSplitter} tapping the writes of the muxer, so it works whatever the
+ * video is written to and never reads it back. Only the moov and the moofs are kept, long enough to be parsed.
+ * The entries are written once the mdat of their fragment is complete, each batch in one go.
+ * An index written to a file is synced, so after a crash it holds every fragment the muxer completed,
+ * at most followed by a partial entry.
+ */
+public class FragmentIndexWriter implements BoxSplitter.Consumer {
+    private final SeekableByteChannel indexChannel;
+    private final FragmentedMp4 mp4;
+    private final WallClock wallClock;
+    private int indexedFragments;
+    private boolean movieIndexed;
+
+    /**
+     * Maps the decode time of a fragment to the time it was captured. The key frame starting a fragment is presented
+     * at most the reorder delay of the encoder, a couple of frames, after it is decoded.
+     */
+    public interface WallClock {
+        /**
+         * @param decodeTime in units of the timescale
+         * @return the capture time, in milliseconds since the epoch
+         */
+        long toEpochMillis(long decodeTime, long timescale);
+    }
+
+    /**
+     * Index a video the muxer is about to open.
+     *
+     * @param indexChannel an empty channel for the index, closed with the writer
+     */
+    public FragmentIndexWriter(SeekableByteChannel indexChannel, WallClock wallClock) {
+        this.indexChannel = indexChannel;
+        this.mp4 = FragmentedMp4.empty();
+        this.wallClock = wallClock;
+        this.indexedFragments = 0;
+        this.movieIndexed = false;
+    }
+
+    /**
+     * Index a video file the muxer is about to open, next to it.
+     */
+    public static FragmentIndexWriter open(Path video, WallClock wallClock) throws IOException {
+        FileChannel indexChannel = FileChannel.open(FragmentIndex.indexFileOf(video), CREATE, WRITE, TRUNCATE_EXISTING);
+        return new FragmentIndexWriter(indexChannel, wallClock);
+    }
+
+    /*
+      The header and the fragments are parsed, the samples are only counted
+     */
+    @Override
+    public ByteBuffer startBox(long offset, String type, long size) throws IOException {
+        if (!type.equals("moov") && !type.equals("moof")) {
+            return null;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("The " + type + " box at byte " + offset + " is too large to index");
+        }
+        return ByteBuffer.allocate((int) size);
+    }
+
+    /*
+      The samples stored with the moov and the mdat of each fragment close a batch. The moov on its own does not:
+      the first frame of the video, which the wall clock goes by, may not be known when the muxer writes it.
+     */
+    @Override
+    public void endBox(long offset, String type, long size, ByteBuffer box) throws IOException {
+        if (box != null) {
+            box.flip();
+        }
+        if (!mp4.addBox(offset, type, size, box)) {
+            throw new IOException("The " + type + " box at byte " + offset + " does not belong in a fragmented MP4");
+        }
+        if (type.equals("mdat")) {
+            writeEntries();
+        }
+    }
+
+    private void writeEntries() throws IOException {
+        if (!mp4.hasMovie()) {
+            return;
+        }
+        int newEntries = mp4.getFragments().size() - indexedFragments + (movieIndexed ? 0 : 1);
+        if (newEntries == 0) {
+            return;
+        }
+        ByteBuffer entries = ByteBuffer.allocate(
+                (movieIndexed ? 0 : FragmentIndex.HEADER_SIZE) + newEntries * FragmentIndex.ENTRY_SIZE);
+        long timescale = mp4.getTrackTimescale();
+        if (!movieIndexed) {
+            entries.putInt(FragmentIndex.MAGIC).putInt(FragmentIndex.VERSION)
+                    .putInt((int) timescale).putInt(FragmentIndex.ENTRY_SIZE);
+            // The samples stored with the header play from the start of the file
+            putEntry(entries, wallClock.toEpochMillis(0, timescale), 0, 0, true);
+        }
+        for (FragmentedMp4.Fragment fragment : mp4.getFragments().subList(indexedFragments, mp4.getFragments().size())) {
+            putEntry(entries, wallClock.toEpochMillis(fragment.getBaseDecodeTime(), timescale),
+                    fragment.getBaseDecodeTime(), fragment.getMoofOffset(), fragment.startsWithKeyFrame());
+        }
+        entries.flip();
+        while (entries.hasRemaining()) {
+            indexChannel.write(entries);
+        }
+        if (indexChannel instanceof FileChannel) {
+            ((FileChannel) indexChannel).force(false);
+        }
+        movieIndexed = true;
+        indexedFragments = mp4.getFragments().size();
+    }
+
+    private static void putEntry(ByteBuffer entries, long epochMillis, long decodeTime,
+                                 long byteOffset, boolean keyFrame) {
+        entries.putLong(epochMillis)
+                .putLong(decodeTime)
+                .putLong(byteOffset)
+                .putInt(keyFrame ? FragmentIndex.KEY_FRAME : 0);
+    }
+
+    /**
+     * Index what is left, once the muxer has closed the video.
+     */
+    public void close() throws IOException {
+        try {
+            writeEntries();
+        } finally {
+            indexChannel.close();
+        }
+    }
+}
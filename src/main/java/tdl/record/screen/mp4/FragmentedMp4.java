@@ -0,0 +1,475 @@
+package tdl.record.screen.mp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The layout of a fragmented MP4 file, as far as it can be trusted.
+ * <p>
+ * The file is walked box by box from the start. Only the headers of the boxes are read, apart from the small
+ * moov and moof boxes, so the media data is skipped and a multi-gigabyte recording is scanned in a few reads.
+ * The walk stops at the first box that is cut short or does not look like a box. A fragment counts once both its
+ * moof and its mdat are complete, the complete length is where the last complete fragment or box ends.
+ * <p>
+ * The file can be scanned again as it grows, the walk then carries on from the last complete box.
+ * A video followed through the bytes of the muxer rather than read back, see {@link BoxSplitter},
+ * is given its boxes one by one instead.
+ * <p>
+ * The recordings have a single video track, only the first track is looked at.
+ */
+public class FragmentedMp4 {
+    private static final Set<String> TOP_LEVEL_BOXES = new HashSet<>(Arrays.asList(
+            "ftyp", "styp", "moov", "moof", "mdat", "mfra", "sidx", "free", "skip", "wide", "uuid", "meta"));
+    private static final int BOX_HEADER_SIZE = 8;
+    private static final int FULL_BOX_HEADER_SIZE = 4;
+    private static final int TFHD_BASE_DATA_OFFSET_PRESENT = 0x01;
+    private static final int TFHD_SAMPLE_DESCRIPTION_INDEX_PRESENT = 0x02;
+    private static final int TFHD_DEFAULT_SAMPLE_DURATION_PRESENT = 0x08;
+    private static final int TFHD_DEFAULT_SAMPLE_SIZE_PRESENT = 0x10;
+    private static final int TFHD_DEFAULT_SAMPLE_FLAGS_PRESENT = 0x20;
+    private static final int TRUN_DATA_OFFSET_PRESENT = 0x01;
+    private static final int TRUN_FIRST_SAMPLE_FLAGS_PRESENT = 0x04;
+    private static final int TRUN_SAMPLE_DURATION_PRESENT = 0x100;
+    private static final int TRUN_SAMPLE_SIZE_PRESENT = 0x200;
+    private static final int TRUN_SAMPLE_FLAGS_PRESENT = 0x400;
+    private static final int TRUN_SAMPLE_COMPOSITION_TIME_OFFSET_PRESENT = 0x800;
+    private static final int SAMPLE_IS_NON_SYNC_SAMPLE = 0x10000;
+
+    private final List<Fragment> fragments;
+    private long scanPosition;
+    private boolean corrupt;
+    private long pendingMoofOffset;
+    private long[] pendingFragment;
+    private boolean hasMovie;
+    private boolean endsWithRandomAccessIndex;
+    private long completeLength;
+    private long fileSize;
+    private int trackId;
+    private long movieTimescale;
+    private long trackTimescale;
+    private long movieSamplesDuration;
+    private long defaultSampleDuration;
+    private int defaultSampleFlags;
+    private long movieExtendsDurationOffset;
+    private int movieExtendsVersion;
+
+    public static class Fragment {
+        private final long moofOffset;
+        private final long endOffset;
+        private final long baseDecodeTime;
+        private final long duration;
+        private final boolean startsWithKeyFrame;
+
+        Fragment(long moofOffset, long endOffset, long baseDecodeTime, long duration, boolean startsWithKeyFrame) {
+            this.moofOffset = moofOffset;
+            this.endOffset = endOffset;
+            this.baseDecodeTime = baseDecodeTime;
+            this.duration = duration;
+            this.startsWithKeyFrame = startsWithKeyFrame;
+        }
+
+        public long getMoofOffset() {
+            return moofOffset;
+        }
+
+        /**
+         * @return where the mdat of the fragment ends
+         */
+        public long getEndOffset() {
+            return endOffset;
+        }
+
+        /**
+         * @return the decode time of the first sample, in track timescale units
+         */
+        public long getBaseDecodeTime() {
+            return baseDecodeTime;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public boolean startsWithKeyFrame() {
+            return startsWithKeyFrame;
+        }
+    }
+
+    private FragmentedMp4() {
+        this.fragments = new ArrayList<>();
+        this.movieExtendsDurationOffset = -1;
+    }
+
+    public static FragmentedMp4 scan(ChunkedFileReader reader) throws IOException {
+        FragmentedMp4 mp4 = new FragmentedMp4();
+        mp4.scanMore(reader);
+        return mp4;
+    }
+
+    /**
+     * @return the layout of a video yet to be written, to be given its boxes with {@link #addBox}
+     */
+    public static FragmentedMp4 empty() {
+        return new FragmentedMp4();
+    }
+
+    /**
+     * Carry on the walk through the part of the file written since the last scan.
+     *
+     * @return false once the walk has reached a box that will never be valid
+     */
+    public boolean scanMore(ChunkedFileReader reader) throws IOException {
+        fileSize = reader.getFileSize();
+        while (!corrupt && scanPosition + BOX_HEADER_SIZE <= fileSize) {
+            long position = scanPosition;
+            ByteBuffer header = reader.read(position, BOX_HEADER_SIZE);
+            long boxSize = header.getInt() & 0xffffffffL;
+            String type = fourCC(header, 4);
+            int headerSize = BOX_HEADER_SIZE;
+            if (boxSize == 1) {
+                if (position + 16 > fileSize) {
+                    break;
+                }
+                boxSize = reader.read(position + BOX_HEADER_SIZE, 8).getLong();
+                headerSize = 16;
+            }
+            // A size of zero runs to the end of the file, which only a box that was never closed does here
+            if (boxSize < headerSize || !TOP_LEVEL_BOXES.contains(type)) {
+                corrupt = true;
+                break;
+            }
+            if (position + boxSize > fileSize) {
+                break;
+            }
+
+            ByteBuffer box = isParsed(type) && boxSize <= Integer.MAX_VALUE ? reader.read(position, (int) boxSize) : null;
+            if (!walk(position, type, boxSize, headerSize, box)) {
+                break;
+            }
+        }
+        return !corrupt;
+    }
+
+    /**
+     * Carry on the walk with the next box of the video.
+     *
+     * @param box the whole box for a moov or a moof, its header at index zero, the content of the others is not read
+     * @return false once the walk has reached a box that will never be valid
+     */
+    public boolean addBox(long position, String type, long boxSize, ByteBuffer box) {
+        if (corrupt || position != scanPosition) {
+            corrupt = true;
+            return false;
+        }
+        int headerSize = box != null && (box.getInt(0) & 0xffffffffL) == 1 ? 16 : BOX_HEADER_SIZE;
+        if (!TOP_LEVEL_BOXES.contains(type) || (isParsed(type) && box == null)) {
+            corrupt = true;
+            return false;
+        }
+        fileSize = position + boxSize;
+        walk(position, type, boxSize, headerSize, box);
+        return !corrupt;
+    }
+
+    private static boolean isParsed(String type) {
+        return type.equals("moov") || type.equals("moof");
+    }
+
+    /*
+      Takes in a complete box, the moov and moof boxes are given whole
+     */
+    private boolean walk(long position, String type, long boxSize, int headerSize, ByteBuffer box) {
+        long end = position + boxSize;
+        if (type.equals("moof")) {
+            if (pendingFragment != null || box == null) {
+                corrupt = true;
+                return false;
+            }
+            pendingMoofOffset = position;
+            pendingFragment = parseFragment(box, headerSize);
+        } else {
+            if (type.equals("mdat") && pendingFragment != null) {
+                addFragment(pendingMoofOffset, end, pendingFragment);
+                pendingFragment = null;
+            } else if (pendingFragment != null || (type.equals("moov") && box == null)) {
+                corrupt = true;
+                return false;
+            } else if (type.equals("moov")) {
+                parseMovie(box, position, headerSize);
+            }
+            endsWithRandomAccessIndex = type.equals("mfra");
+            completeLength = end;
+        }
+        scanPosition = end;
+        return true;
+    }
+
+    public boolean hasMovie() {
+        return hasMovie;
+    }
+
+    /**
+     * @return true if the whole file is made of complete boxes and ends with the index written when a recording is closed
+     */
+    public boolean isComplete() {
+        return endsWithRandomAccessIndex && completeLength == fileSize;
+    }
+
+    public long getCompleteLength() {
+        return completeLength;
+    }
+
+    public List<Fragment> getFragments() {
+        return Collections.unmodifiableList(fragments);
+    }
+
+    public long getTrackTimescale() {
+        return trackTimescale;
+    }
+
+    /**
+     * @return the duration of the complete part of the track, in track timescale units
+     */
+    public long getTrackDuration() {
+        if (fragments.isEmpty()) {
+            return movieSamplesDuration;
+        }
+        Fragment last = fragments.get(fragments.size() - 1);
+        return last.baseDecodeTime + last.duration;
+    }
+
+    //~~~~~~~~~~ Repair
+
+    /**
+     * @return the offset of the duration of the mehd box, or -1 if the movie has none
+     */
+    public long getMovieExtendsDurationOffset() {
+        return movieExtendsDurationOffset;
+    }
+
+    /**
+     * @return the duration for the mehd box, in movie timescale units and in the width of the field
+     */
+    public ByteBuffer toMovieExtendsDuration() {
+        long movieDuration = trackTimescale == 0 ? 0 : getTrackDuration() * movieTimescale / trackTimescale;
+        ByteBuffer field;
+        if (movieExtendsVersion == 1) {
+            field = ByteBuffer.allocate(8).putLong(movieDuration);
+        } else {
+            field = ByteBuffer.allocate(4).putInt((int) Math.min(movieDuration, 0xffffffffL));
+        }
+        field.flip();
+        return field;
+    }
+
+    /**
+     * The mfra box indexes the moof of every fragment by its start time, for seeking.
+     * Each entry points at the first sample of the first run of the fragment, which the recordings start with a key frame.
+     */
+    public ByteBuffer toRandomAccessIndex() {
+        int tfraSize = BOX_HEADER_SIZE + FULL_BOX_HEADER_SIZE + 12 + fragments.size() * 19;
+        int mfroSize = BOX_HEADER_SIZE + FULL_BOX_HEADER_SIZE + 4;
+        int mfraSize = BOX_HEADER_SIZE + tfraSize + mfroSize;
+        ByteBuffer mfra = ByteBuffer.allocate(mfraSize);
+
+        mfra.putInt(mfraSize).put(bytes("mfra"));
+        mfra.putInt(tfraSize).put(bytes("tfra")).putInt(0x01000000);
+        mfra.putInt(trackId);
+        mfra.putInt(0); // one byte for each of the traf, trun and sample numbers
+        mfra.putInt(fragments.size());
+        for (Fragment fragment : fragments) {
+            mfra.putLong(fragment.baseDecodeTime).putLong(fragment.moofOffset);
+            mfra.put((byte) 1).put((byte) 1).put((byte) 1);
+        }
+        mfra.putInt(mfroSize).put(bytes("mfro")).putInt(0).putInt(mfraSize);
+        mfra.flip();
+        return mfra;
+    }
+
+    //~~~~~~~~~~ Parsing
+
+    private void addFragment(long moofOffset, long endOffset, long[] fragment) {
+        long baseDecodeTime = fragment[0] >= 0 ? fragment[0] : getTrackDuration();
+        fragments.add(new Fragment(moofOffset, endOffset, baseDecodeTime, fragment[1], (fragment[2] & SAMPLE_IS_NON_SYNC_SAMPLE) == 0));
+    }
+
+    private void parseMovie(ByteBuffer moov, long moovOffset, int headerSize) {
+        hasMovie = true;
+        forEachChild(moov, headerSize, moov.limit(), (type, start, end) -> {
+            int version = moov.get(start);
+            switch (type) {
+                case "mvhd":
+                    movieTimescale = uint32(moov, start + (version == 1 ? 20 : 12));
+                    break;
+                case "trak":
+                    if (trackId == 0) {
+                        parseTrack(moov, start, end);
+                    }
+                    break;
+                case "mvex":
+                    forEachChild(moov, start, end, (mvexType, mvexStart, mvexEnd) -> {
+                        if (mvexType.equals("mehd")) {
+                            movieExtendsVersion = moov.get(mvexStart);
+                            movieExtendsDurationOffset = moovOffset + mvexStart + FULL_BOX_HEADER_SIZE;
+                        } else if (mvexType.equals("trex") && defaultSampleDuration == 0) {
+                            defaultSampleDuration = uint32(moov, mvexStart + 12);
+                            defaultSampleFlags = moov.getInt(mvexStart + 20);
+                        }
+                    });
+                    break;
+                default:
+                    break;
+            }
+        });
+    }
+
+    private void parseTrack(ByteBuffer moov, int trakStart, int trakEnd) {
+        forEachChild(moov, trakStart, trakEnd, (type, start, end) -> {
+            if (type.equals("tkhd")) {
+                trackId = (int) uint32(moov, start + (moov.get(start) == 1 ? 20 : 12));
+            } else if (type.equals("mdia")) {
+                forEachChild(moov, start, end, (mdiaType, mdiaStart, mdiaEnd) -> {
+                    if (mdiaType.equals("mdhd")) {
+                        boolean version1 = moov.get(mdiaStart) == 1;
+                        trackTimescale = uint32(moov, mdiaStart + (version1 ? 20 : 12));
+                        movieSamplesDuration = version1 ? moov.getLong(mdiaStart + 24) : uint32(moov, mdiaStart + 16);
+                    }
+                });
+            }
+        });
+    }
+
+    /*
+      Returns the decode time of the fragment, -1 when it has no tfdt, the total duration of its samples
+      and the flags of its first sample.
+     */
+    private long[] parseFragment(ByteBuffer moof, int headerSize) {
+        long[] fragment = {-1, 0, -1};
+        forEachChild(moof, headerSize, moof.limit(), (type, start, end) -> {
+            if (type.equals("traf")) {
+                parseTrackFragment(moof, start, end, fragment);
+            }
+        });
+        return fragment;
+    }
+
+    private void parseTrackFragment(ByteBuffer moof, int trafStart, int trafEnd, long[] fragment) {
+        long[] trackDefaultDuration = {defaultSampleDuration};
+        int[] trackDefaultFlags = {defaultSampleFlags};
+        forEachChild(moof, trafStart, trafEnd, (type, start, end) -> {
+            int version = moof.get(start);
+            int flags = moof.getInt(start) & 0xffffff;
+            switch (type) {
+                case "tfhd":
+                    int position = start + FULL_BOX_HEADER_SIZE + 4;
+                    position += (flags & TFHD_BASE_DATA_OFFSET_PRESENT) != 0 ? 8 : 0;
+                    position += (flags & TFHD_SAMPLE_DESCRIPTION_INDEX_PRESENT) != 0 ? 4 : 0;
+                    if ((flags & TFHD_DEFAULT_SAMPLE_DURATION_PRESENT) != 0) {
+                        trackDefaultDuration[0] = uint32(moof, position);
+                        position += 4;
+                    }
+                    position += (flags & TFHD_DEFAULT_SAMPLE_SIZE_PRESENT) != 0 ? 4 : 0;
+                    if ((flags & TFHD_DEFAULT_SAMPLE_FLAGS_PRESENT) != 0) {
+                        trackDefaultFlags[0] = moof.getInt(position);
+                    }
+                    break;
+                case "tfdt":
+                    fragment[0] = version == 1 ? moof.getLong(start + FULL_BOX_HEADER_SIZE) : uint32(moof, start + FULL_BOX_HEADER_SIZE);
+                    break;
+                case "trun":
+                    if (fragment[2] < 0) {
+                        fragment[2] = firstSampleFlags(moof, start, flags, trackDefaultFlags[0]) & 0xffffffffL;
+                    }
+                    fragment[1] += runDuration(moof, start, flags, trackDefaultDuration[0]);
+                    break;
+                default:
+                    break;
+            }
+        });
+    }
+
+    private static int firstSampleFlags(ByteBuffer moof, int trunStart, int flags, int defaultFlags) {
+        int position = trunStart + FULL_BOX_HEADER_SIZE + 4;
+        position += (flags & TRUN_DATA_OFFSET_PRESENT) != 0 ? 4 : 0;
+        if ((flags & TRUN_FIRST_SAMPLE_FLAGS_PRESENT) != 0) {
+            return moof.getInt(position);
+        }
+        if ((flags & TRUN_SAMPLE_FLAGS_PRESENT) != 0 && uint32(moof, trunStart + FULL_BOX_HEADER_SIZE) > 0) {
+            position += (flags & TRUN_SAMPLE_DURATION_PRESENT) != 0 ? 4 : 0;
+            position += (flags & TRUN_SAMPLE_SIZE_PRESENT) != 0 ? 4 : 0;
+            return moof.getInt(position);
+        }
+        return defaultFlags;
+    }
+
+    private static long runDuration(ByteBuffer moof, int trunStart, int flags, long defaultDuration) {
+        long sampleCount = uint32(moof, trunStart + FULL_BOX_HEADER_SIZE);
+        if ((flags & TRUN_SAMPLE_DURATION_PRESENT) == 0) {
+            return sampleCount * defaultDuration;
+        }
+
+        int position = trunStart + FULL_BOX_HEADER_SIZE + 4;
+        position += (flags & TRUN_DATA_OFFSET_PRESENT) != 0 ? 4 : 0;
+        position += (flags & TRUN_FIRST_SAMPLE_FLAGS_PRESENT) != 0 ? 4 : 0;
+        int sampleFieldsSize = 4;
+        sampleFieldsSize += (flags & TRUN_SAMPLE_SIZE_PRESENT) != 0 ? 4 : 0;
+        sampleFieldsSize += (flags & TRUN_SAMPLE_FLAGS_PRESENT) != 0 ? 4 : 0;
+        sampleFieldsSize += (flags & TRUN_SAMPLE_COMPOSITION_TIME_OFFSET_PRESENT) != 0 ? 4 : 0;
+        long duration = 0;
+        for (long i = 0; i < sampleCount; i++) {
+            duration += uint32(moof, position);
+            position += sampleFieldsSize;
+        }
+        return duration;
+    }
+
+    //~~~~~~~~~~ Boxes
+
+    private interface ChildVisitor {
+        /**
+         * @param start where the content of the box starts, after its header
+         * @param end   where the box ends
+         */
+        void visit(String type, int start, int end);
+    }
+
+    /*
+      Boxes inside moov and moof are small, so the 64-bit size form is not expected.
+      A child that runs past its parent stops the walk of that parent.
+     */
+    private static void forEachChild(ByteBuffer buffer, int from, int to, ChildVisitor visitor) {
+        int position = from;
+        while (position + BOX_HEADER_SIZE <= to) {
+            long size = uint32(buffer, position);
+            if (size < BOX_HEADER_SIZE || position + size > to) {
+                return;
+            }
+            int end = (int) (position + size);
+            visitor.visit(fourCC(buffer, position + 4), position + BOX_HEADER_SIZE, end);
+            position = end;
+        }
+    }
+
+    private static long uint32(ByteBuffer buffer, int index) {
+        return buffer.getInt(index) & 0xffffffffL;
+    }
+
+    private static String fourCC(ByteBuffer buffer, int index) {
+        byte[] type = new byte[4];
+        for (int i = 0; i < type.length; i++) {
+            type[i] = buffer.get(index + i);
+        }
+        return new String(type, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] bytes(String fourCC) {
+        return fourCC.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
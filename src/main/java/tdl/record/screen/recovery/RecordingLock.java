@@ -0,0 +1,124 @@
+package tdl.record.screen.recovery;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * The {@code <video>.lock} file that sits next to a video while it is being written.
+ * <p>
+ * The recording process holds an operating system lock on the file, which goes away with the process however it ends.
+ * A lock file that exists but that nobody holds was left behind by a recording that never finished,
+ * and the video next to it needs to be recovered.
+ */
+public class RecordingLock {
+    private static final String LOCK_SUFFIX = ".lock";
+    /*
+      On some platforms closing any channel to a file releases every lock the process holds on it,
+      so the locks held by this process are never probed, only looked up here.
+     */
+    private static final Set<Path> heldLockFiles = ConcurrentHashMap.newKeySet();
+    private final Path lockFile;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+
+    private RecordingLock(Path lockFile, FileChannel channel, FileLock fileLock) {
+        this.lockFile = lockFile;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Create the lock file of a video and hold it until {@link #release()}.
+     *
+     * @param video the video about to be written
+     * @throws IOException if the video is already being recorded, by this process or another one
+     */
+    public static RecordingLock acquire(Path video) throws IOException {
+        Path lockFile = normalise(lockFileOf(video));
+        if (!heldLockFiles.add(lockFile)) {
+            throw new IOException(video + " is already being recorded");
+        }
+
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(lockFile, CREATE, WRITE);
+            FileLock fileLock = channel.tryLock();
+            if (fileLock == null) {
+                throw new IOException(video + " is being recorded by another process");
+            }
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(ManagementFactory.getRuntimeMXBean().getName().getBytes(StandardCharsets.UTF_8)));
+            return new RecordingLock(lockFile, channel, fileLock);
+        } catch (IOException | RuntimeException e) {
+            heldLockFiles.remove(lockFile);
+            if (channel != null) {
+                channel.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Release the lock and delete the lock file, once the video is complete.
+     */
+    public void release() throws IOException {
+        try {
+            fileLock.release();
+            channel.close();
+        } finally {
+            heldLockFiles.remove(lockFile);
+        }
+        Files.delete(lockFile);
+    }
+
+    public static Path lockFileOf(Path video) {
+        return video.resolveSibling(video.getFileName() + LOCK_SUFFIX);
+    }
+
+    static boolean isLockFile(Path path) {
+        return path.getFileName().toString().endsWith(LOCK_SUFFIX);
+    }
+
+    static Path videoOf(Path lockFile) {
+        String name = lockFile.getFileName().toString();
+        return lockFile.resolveSibling(name.substring(0, name.length() - LOCK_SUFFIX.length()));
+    }
+
+    /**
+     * @return true if the lock file exists and no process holds it
+     */
+    public static boolean isStale(Path lockFile) throws IOException {
+        Path normalisedLockFile = normalise(lockFile);
+        if (heldLockFiles.contains(normalisedLockFile)) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(normalisedLockFile, WRITE)) {
+            FileLock fileLock = channel.tryLock();
+            if (fileLock == null) {
+                return false;
+            }
+            fileLock.release();
+            return true;
+        } catch (NoSuchFileException | OverlappingFileLockException e) {
+            return false;
+        }
+    }
+
+    private static Path normalise(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+}
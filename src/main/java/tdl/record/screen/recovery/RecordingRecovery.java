@@ -0,0 +1,182 @@
+package tdl.record.screen.recovery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tdl.record.screen.mp4.ChunkedFileReader;
+import tdl.record.screen.mp4.FragmentedMp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Brings back the recordings that were interrupted, for example by a crash or a kill -9, and left a stale lock behind.
+ * <p>
+ * The recordings are fragmented MP4 files, so everything up to the last complete fragment is still playable.
+ * The recovery cuts the file at the end of the last complete fragment, fills in the total duration of the movie,
+ * appends the index of the fragments that the muxer writes on close, and then removes the lock.
+ * Nothing is re-encoded and the media data is neither read nor moved.
+ */
+public class RecordingRecovery {
+    private static final Logger log = LoggerFactory.getLogger(RecordingRecovery.class);
+
+    public enum Outcome {
+        /**
+         * The video had been closed properly, only the lock was left
+         */
+        ALREADY_COMPLETE,
+        /**
+         * The video was cut at its last complete fragment and its trailing metadata written
+         */
+        REPAIRED,
+        /**
+         * The video is missing or stopped before its header was written, it was left as it is
+         */
+        NOT_RECOVERABLE
+    }
+
+    public static class Result {
+        private final Path video;
+        private final Outcome outcome;
+        private final long originalBytes;
+        private final long recoveredBytes;
+        private final int fragments;
+        private final Duration duration;
+
+        Result(Path video, Outcome outcome, long originalBytes, long recoveredBytes, int fragments, Duration duration) {
+            this.video = video;
+            this.outcome = outcome;
+            this.originalBytes = originalBytes;
+            this.recoveredBytes = recoveredBytes;
+            this.fragments = fragments;
+            this.duration = duration;
+        }
+
+        public Path getVideo() {
+            return video;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        public long getOriginalBytes() {
+            return originalBytes;
+        }
+
+        public long getRecoveredBytes() {
+            return recoveredBytes;
+        }
+
+        public int getFragments() {
+            return fragments;
+        }
+
+        public Duration getDuration() {
+            return duration;
+        }
+
+        @Override
+        public String toString() {
+            return video + " " + outcome + ", " + fragments + " fragments, " + duration
+                    + ", " + originalBytes + " -> " + recoveredBytes + " bytes";
+        }
+    }
+
+    private RecordingRecovery() {
+    }
+
+    /**
+     * @return the lock files in the directory that no running recording holds
+     */
+    public static List<Path> findStaleLocks(Path directory) throws IOException {
+        List<Path> staleLocks = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (RecordingLock.isLockFile(file) && Files.isRegularFile(file) && RecordingLock.isStale(file)) {
+                    staleLocks.add(file);
+                }
+            }
+        }
+        return staleLocks;
+    }
+
+    /**
+     * Recover every video of the directory that has a stale lock. Meant to be called at startup, before recording.
+     */
+    public static List<Result> recoverAll(Path directory) throws IOException {
+        List<Result> results = new ArrayList<>();
+        for (Path staleLock : findStaleLocks(directory)) {
+            Result result = recover(RecordingLock.videoOf(staleLock));
+            log.info("Recovered {}", result);
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Recover one video and remove its lock.
+     *
+     * @throws IOException if the video is still being recorded, or could not be read or written
+     */
+    public static Result recover(Path video) throws IOException {
+        Path lockFile = RecordingLock.lockFileOf(video);
+        if (Files.exists(lockFile) && !RecordingLock.isStale(lockFile)) {
+            throw new IOException(video + " is still being recorded");
+        }
+
+        Result result;
+        if (Files.isRegularFile(video)) {
+            result = repair(video);
+        } else {
+            log.warn("The video {} of the lock {} does not exist", video, lockFile);
+            result = new Result(video, Outcome.NOT_RECOVERABLE, 0, 0, 0, Duration.ZERO);
+        }
+        Files.deleteIfExists(lockFile);
+        return result;
+    }
+
+    private static Result repair(Path video) throws IOException {
+        try (FileChannel channel = FileChannel.open(video, READ, WRITE)) {
+            long originalBytes = channel.size();
+            FragmentedMp4 mp4 = FragmentedMp4.scan(new ChunkedFileReader(channel));
+            if (!mp4.hasMovie()) {
+                log.warn("The video {} stopped before its header was written, it can't be recovered", video);
+                return new Result(video, Outcome.NOT_RECOVERABLE, originalBytes, originalBytes, 0, Duration.ZERO);
+            }
+
+            Duration duration = mp4.getTrackTimescale() == 0 ? Duration.ZERO : Duration.ofMillis(
+                    TimeUnit.SECONDS.toMillis(mp4.getTrackDuration()) / mp4.getTrackTimescale());
+            int fragments = mp4.getFragments().size();
+            if (mp4.isComplete()) {
+                return new Result(video, Outcome.ALREADY_COMPLETE, originalBytes, originalBytes, fragments, duration);
+            }
+
+            long completeLength = mp4.getCompleteLength();
+            channel.truncate(completeLength);
+            if (mp4.getMovieExtendsDurationOffset() >= 0) {
+                writeFully(channel, mp4.toMovieExtendsDuration(), mp4.getMovieExtendsDurationOffset());
+            }
+            writeFully(channel, mp4.toRandomAccessIndex(), completeLength);
+            channel.force(true);
+            return new Result(video, Outcome.REPAIRED, originalBytes, channel.size(), fragments, duration);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long writePosition = position;
+        while (buffer.hasRemaining()) {
+            writePosition += channel.write(buffer, writePosition);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package tdl.record.screen.sink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Writes the videos to files through a large buffer, so that the many small writes of the muxer
+ * reach the file system as a few large ones.
+ * <p>
+ * The buffer is flushed when it is full, and its flushes start and end on multiples of the alignment,
+ * which lines them up with the pages of the file system cache. A write to another part of the file,
+ * when the muxer patches the header on close, flushes the buffer first and restarts the alignment from there.
+ * <p>
+ * What is on disk lags the muxer by up to one buffer: after a crash the recovery can only keep the fragments written out.
+ * The fragment index and the live stream follow the muxer rather than the disk, so the index of a crashed recording
+ * may list a few fragments the video no longer holds.
+ */
+public class BufferedFileSink implements VideoSink {
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    public static final int ALIGNMENT = 4096;
+    private final int bufferSize;
+    private final AtomicLong fileWrites;
+
+    public BufferedFileSink() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize the size of the buffer of each video, a multiple of {@link #ALIGNMENT}
+     */
+    public BufferedFileSink(int bufferSize) {
+        if (bufferSize < ALIGNMENT || bufferSize % ALIGNMENT != 0) {
+            throw new IllegalArgumentException("The buffer size must be a multiple of " + ALIGNMENT + " bytes");
+        }
+        this.bufferSize = bufferSize;
+        this.fileWrites = new AtomicLong();
+    }
+
+    @Override
+    public SeekableByteChannel open(String filename) throws IOException {
+        return new BufferedFileChannel(FileChannel.open(Paths.get(filename), CREATE, WRITE, TRUNCATE_EXISTING));
+    }
+
+    @Override
+    public boolean writesFiles() {
+        return true;
+    }
+
+    /**
+     * @return the number of writes made to the files, over all the videos
+     */
+    public long getFileWrites() {
+        return fileWrites.get();
+    }
+
+    private class BufferedFileChannel implements SeekableByteChannel {
+        private final FileChannel file;
+        private final ByteBuffer buffer;
+        private long bufferStart;
+        private long position;
+        private long size;
+        private boolean open;
+
+        BufferedFileChannel(FileChannel file) {
+            this.file = file;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+            this.bufferStart = 0;
+            this.position = 0;
+            this.size = 0;
+            this.open = true;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            ensureOpen();
+            if (position != bufferStart + buffer.position()) {
+                flush();
+                restartBufferAt(position);
+            }
+            int written = source.remaining();
+            while (source.hasRemaining()) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                    restartBufferAt(position);
+                }
+                int chunk = Math.min(source.remaining(), buffer.remaining());
+                ByteBuffer slice = source.duplicate();
+                slice.limit(slice.position() + chunk);
+                buffer.put(slice);
+                source.position(source.position() + chunk);
+                position += chunk;
+            }
+            size = Math.max(size, position);
+            return written;
+        }
+
+        /*
+          A buffer starting off the alignment is cut short, so that the next one starts on it
+         */
+        private void restartBufferAt(long start) {
+            bufferStart = start;
+            buffer.clear();
+            buffer.limit(bufferSize - (int) (start % ALIGNMENT));
+        }
+
+        private void flush() throws IOException {
+            if (buffer.position() == 0) {
+                return;
+            }
+            buffer.flip();
+            long writePosition = bufferStart;
+            while (buffer.hasRemaining()) {
+                writePosition += file.write(buffer, writePosition);
+            }
+            fileWrites.incrementAndGet();
+            bufferStart = writePosition;
+            buffer.clear();
+        }
+
+        @Override
+        public long position() throws IOException {
+            ensureOpen();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            ensureOpen();
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position " + newPosition);
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            ensureOpen();
+            return size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long newSize) throws IOException {
+            ensureOpen();
+            flush();
+            restartBufferAt(position);
+            if (newSize < size) {
+                file.truncate(newSize);
+                size = newSize;
+            }
+            position = Math.min(position, newSize);
+            return this;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) {
+            throw new NonReadableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!open) {
+                return;
+            }
+            open = false;
+            try {
+                flush();
+            } finally {
+                file.close();
+            }
+        }
+
+        private void ensureOpen() throws ClosedChannelException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+}
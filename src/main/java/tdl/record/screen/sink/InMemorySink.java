@@ -0,0 +1,135 @@
+package tdl.record.screen.sink;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the videos in memory, for tests and for short recordings that are uploaded rather than stored.
+ * <p>
+ * Nothing is written to the disk, so the videos are not locked and cannot be recovered after a crash.
+ * The fragment index of a video is kept here as well, under the name of the video followed by
+ * {@link tdl.record.screen.mp4.FragmentIndex#INDEX_SUFFIX}. A video opened again under the same name starts empty.
+ */
+public class InMemorySink implements VideoSink {
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private final Map<String, MemoryChannel> videos;
+
+    public InMemorySink() {
+        this.videos = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public SeekableByteChannel open(String filename) {
+        MemoryChannel channel = new MemoryChannel();
+        videos.put(filename, channel);
+        return channel;
+    }
+
+    /**
+     * @return the names of the videos opened so far, in no particular order
+     */
+    public List<String> getFilenames() {
+        return new ArrayList<>(videos.keySet());
+    }
+
+    /**
+     * @return a copy of what has been written to the video so far, null if it was never opened
+     */
+    public byte[] getBytes(String filename) {
+        MemoryChannel channel = videos.get(filename);
+        return channel == null ? null : channel.toByteArray();
+    }
+
+    private static class MemoryChannel implements SeekableByteChannel {
+        private byte[] bytes;
+        private int size;
+        private int position;
+        private volatile boolean open;
+
+        MemoryChannel() {
+            this.bytes = new byte[INITIAL_CAPACITY];
+            this.size = 0;
+            this.position = 0;
+            this.open = true;
+        }
+
+        @Override
+        public synchronized int write(ByteBuffer source) throws ClosedChannelException {
+            ensureOpen();
+            int length = source.remaining();
+            if (position + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + length));
+            }
+            source.get(bytes, position, length);
+            position += length;
+            size = Math.max(size, position);
+            return length;
+        }
+
+        @Override
+        public synchronized long position() throws ClosedChannelException {
+            ensureOpen();
+            return position;
+        }
+
+        @Override
+        public synchronized SeekableByteChannel position(long newPosition) throws ClosedChannelException {
+            ensureOpen();
+            if (newPosition < 0 || newPosition > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Position " + newPosition + " out of the range of a byte array");
+            }
+            if (newPosition > size) {
+                // Like a file, the gap reads as zeroes once something is written after it
+                Arrays.fill(bytes, size, (int) Math.min(newPosition, bytes.length), (byte) 0);
+            }
+            position = (int) newPosition;
+            return this;
+        }
+
+        @Override
+        public synchronized long size() throws ClosedChannelException {
+            ensureOpen();
+            return size;
+        }
+
+        @Override
+        public synchronized SeekableByteChannel truncate(long newSize) throws ClosedChannelException {
+            ensureOpen();
+            size = (int) Math.min(size, newSize);
+            position = Math.min(position, size);
+            return this;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) {
+            throw new NonReadableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        synchronized byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensureOpen() throws ClosedChannelException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package tdl.record.screen.sink;
+
+import tdl.record.screen.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the calls the muxer makes to another sink and how long its writes take.
+ * <p>
+ * Each write call of the muxer is timed, over all the videos of the sink. Compared with the frame rate,
+ * the counts show how many system calls a frame costs, and the histogram whether the storage holds up the encoding thread.
+ */
+public class MeasuredVideoSink implements VideoSink {
+    private final VideoSink sink;
+    private final AtomicLong writeCalls;
+    private final AtomicLong bytesWritten;
+    private final AtomicLong seeks;
+    private final LatencyHistogram writeLatency;
+
+    public MeasuredVideoSink(VideoSink sink) {
+        this.sink = sink;
+        this.writeCalls = new AtomicLong();
+        this.bytesWritten = new AtomicLong();
+        this.seeks = new AtomicLong();
+        this.writeLatency = new LatencyHistogram();
+    }
+
+    @Override
+    public SeekableByteChannel open(String filename) throws IOException {
+        return new MeasuredChannel(sink.open(filename));
+    }
+
+    @Override
+    public boolean writesFiles() {
+        return sink.writesFiles();
+    }
+
+    public long getWriteCalls() {
+        return writeCalls.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return the number of times the muxer moved to another part of a video, to patch what it wrote earlier
+     */
+    public long getSeeks() {
+        return seeks.get();
+    }
+
+    public LatencyHistogram.Snapshot getWriteLatency() {
+        return writeLatency.snapshot();
+    }
+
+    private class MeasuredChannel implements SeekableByteChannel {
+        private final SeekableByteChannel channel;
+
+        MeasuredChannel(SeekableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            long writeStart = System.nanoTime();
+            int written = channel.write(source);
+            writeLatency.record(System.nanoTime() - writeStart);
+            writeCalls.incrementAndGet();
+            bytesWritten.addAndGet(written);
+            return written;
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            if (newPosition != channel.position()) {
+                seeks.incrementAndGet();
+            }
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            return channel.read(destination);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
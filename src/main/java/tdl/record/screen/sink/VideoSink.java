@@ -0,0 +1,34 @@
+package tdl.record.screen.sink;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Where the muxer writes the bytes of the videos, instead of letting the native code open the files itself.
+ * <p>
+ * The recorders open one channel per video file: one per screen, and one per segment with rolling segments.
+ * The muxer mostly appends, but it moves back to patch a few header fields when a video is closed,
+ * so the channel has to support {@link SeekableByteChannel#position(long)}. It is closed by the muxer.
+ * <p>
+ * The fragment index and the live stream follow the bytes on their way to the sink, the index is written next to the video,
+ * or to the sink under the name of the video followed by {@link tdl.record.screen.mp4.FragmentIndex#INDEX_SUFFIX}.
+ * The crash recovery reads the video back from the disk, so only the videos of a sink that {@link #writesFiles()}
+ * are locked while they are recorded, and after a crash only what the sink has written so far can be recovered.
+ */
+public interface VideoSink {
+
+    /**
+     * @param filename the name the recorder gives to the video
+     * @return an empty channel for the video, written by a single thread at a time
+     * @throws IOException if the video cannot be created
+     */
+    SeekableByteChannel open(String filename) throws IOException;
+
+    /**
+     * @return true if the videos end up in files under the names given to {@link #open}, which the recorders then
+     * lock while they write them and index in files next to them
+     */
+    default boolean writesFiles() {
+        return false;
+    }
+}
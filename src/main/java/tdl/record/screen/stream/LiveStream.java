@@ -0,0 +1,245 @@
+package tdl.record.screen.stream;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands the fragmented MP4 of a recording to any number of subscribers while it is being written.
+ * <p>
+ * The publisher gives the init segment (ftyp and moov) once per video file, then every moof/mdat fragment
+ * as soon as it is complete. The last few fragments are kept in a ring. Each fragment is stored once and every
+ * subscriber reads it through its own read-only view, so a fragment is never copied per subscriber.
+ * <p>
+ * A subscriber starts with the init segment, then the newest buffered fragment that starts with a key frame,
+ * so that a player can decode from the first byte it gets. A subscriber reading slower than the recording falls
+ * behind the ring: it then skips to the newest key frame fragment still buffered, and the skipped fragments
+ * are counted. The publisher never waits for a subscriber.
+ * <p>
+ * When the recording moves on to a new file, rolling segments for example, the new init segment is published
+ * and every subscriber receives it before the fragments of the new file.
+ */
+public class LiveStream {
+    public static final int DEFAULT_BUFFERED_FRAGMENTS = 8;
+    private final ByteBuffer[] fragments;
+    private final boolean[] keyFrames;
+    private final long[] initSegmentNumbers;
+    private final ReentrantLock lock;
+    private final Condition published;
+    private final AtomicInteger subscribers;
+    private ByteBuffer initSegment;
+    private long initSegmentNumber;
+    private long firstSequenceOfInitSegment;
+    private long nextSequence;
+    private boolean ended;
+
+    public LiveStream() {
+        this(DEFAULT_BUFFERED_FRAGMENTS);
+    }
+
+    /**
+     * @param bufferedFragments how many fragments a subscriber can fall behind before it skips ahead
+     */
+    public LiveStream(int bufferedFragments) {
+        if (bufferedFragments < 1) {
+            throw new IllegalArgumentException("The stream needs to buffer at least one fragment");
+        }
+        this.fragments = new ByteBuffer[bufferedFragments];
+        this.keyFrames = new boolean[bufferedFragments];
+        this.initSegmentNumbers = new long[bufferedFragments];
+        this.lock = new ReentrantLock();
+        this.published = lock.newCondition();
+        this.subscribers = new AtomicInteger();
+        this.initSegment = null;
+        this.initSegmentNumber = 0;
+        this.firstSequenceOfInitSegment = 0;
+        this.nextSequence = 0;
+        this.ended = false;
+    }
+
+    //~~~~~~~~~~ Publisher
+
+    /**
+     * Start a new video file, the fragments published so far cannot be decoded with the new init segment.
+     *
+     * @param initSegment the ftyp and moov boxes, the buffer must not be modified afterwards
+     */
+    public void publishInitSegment(ByteBuffer initSegment) {
+        lock.lock();
+        try {
+            this.initSegment = initSegment.asReadOnlyBuffer();
+            this.initSegmentNumber++;
+            this.firstSequenceOfInitSegment = nextSequence;
+            published.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param fragment           a moof box followed by its mdat, the buffer must not be modified afterwards
+     * @param startsWithKeyFrame whether a player can start decoding at this fragment
+     */
+    public void publishFragment(ByteBuffer fragment, boolean startsWithKeyFrame) {
+        lock.lock();
+        try {
+            int slot = (int) (nextSequence % fragments.length);
+            fragments[slot] = fragment.asReadOnlyBuffer();
+            keyFrames[slot] = startsWithKeyFrame;
+            initSegmentNumbers[slot] = initSegmentNumber;
+            nextSequence++;
+            published.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The recording is over, the subscribers get what is buffered and then the end of the stream.
+     */
+    public void end() {
+        lock.lock();
+        try {
+            ended = true;
+            published.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //~~~~~~~~~~ Subscribers
+
+    public Subscription subscribe() {
+        subscribers.incrementAndGet();
+        return new Subscription();
+    }
+
+    public int getSubscribers() {
+        return subscribers.get();
+    }
+
+    /**
+     * @return the number of fragments published since the stream was created
+     */
+    public long getPublishedFragments() {
+        lock.lock();
+        try {
+            return nextSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+      The newest buffered fragment of the current file a player can start from, or the next fragment to come.
+      Called with the lock held.
+     */
+    private long latestKeyFrameSequence() {
+        long oldest = Math.max(firstSequenceOfInitSegment, nextSequence - fragments.length);
+        for (long sequence = nextSequence - 1; sequence >= oldest; sequence--) {
+            if (keyFrames[(int) (sequence % fragments.length)]) {
+                return sequence;
+            }
+        }
+        return nextSequence;
+    }
+
+    /**
+     * The view of the stream of one subscriber. It is meant to be read by a single thread.
+     */
+    public class Subscription implements Closeable {
+        private long seenInitSegment;
+        private long nextToRead;
+        private long skippedFragments;
+        private boolean closed;
+
+        private Subscription() {
+            this.seenInitSegment = 0;
+            this.nextToRead = 0;
+            this.skippedFragments = 0;
+            this.closed = false;
+        }
+
+        /**
+         * @return the next init segment or fragment, null once the stream has ended and everything has been read
+         * @throws InterruptedException if interrupted while waiting for the recording
+         */
+        public ByteBuffer take() throws InterruptedException {
+            return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return the next init segment or fragment, null if there was none in time or the stream has ended
+         * @throws InterruptedException if interrupted while waiting for the recording
+         */
+        public ByteBuffer poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long remainingNanos = unit.toNanos(timeout);
+            lock.lock();
+            try {
+                while (!closed) {
+                    if (initSegment != null && seenInitSegment == 0) {
+                        seenInitSegment = initSegmentNumber;
+                        nextToRead = latestKeyFrameSequence();
+                        return initSegment.duplicate();
+                    }
+                    if (seenInitSegment != 0 && nextToRead < nextSequence - fragments.length) {
+                        long catchUp = latestKeyFrameSequence();
+                        skippedFragments += catchUp - nextToRead;
+                        nextToRead = catchUp;
+                    }
+                    if (seenInitSegment != 0 && nextToRead < nextSequence) {
+                        int slot = (int) (nextToRead % fragments.length);
+                        if (initSegmentNumbers[slot] == seenInitSegment) {
+                            nextToRead++;
+                            return fragments[slot].duplicate();
+                        }
+                        if (initSegmentNumbers[slot] == initSegmentNumber) {
+                            seenInitSegment = initSegmentNumber;
+                            return initSegment.duplicate();
+                        }
+                        // A file that came and went while this subscriber was behind, its init segment is gone
+                        skippedFragments++;
+                        nextToRead++;
+                        continue;
+                    }
+                    if (ended || remainingNanos <= 0) {
+                        return null;
+                    }
+                    remainingNanos = published.awaitNanos(remainingNanos);
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the fragments this subscriber missed because it fell too far behind
+         */
+        public long getSkippedFragments() {
+            lock.lock();
+            try {
+                return skippedFragments;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (!closed) {
+                    closed = true;
+                    subscribers.decrementAndGet();
+                    published.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package tdl.record.screen.stream;
+
+import tdl.record.screen.mp4.BoxSplitter;
+import tdl.record.screen.mp4.FragmentedMp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Follows a fragmented MP4 through the bytes of the muxer and publishes it to a {@link LiveStream},
+ * the init segment once the first fragment follows it, then each fragment once its mdat is complete.
+ * <p>
+ * The feed is given the boxes by a {@link BoxSplitter} tapping the writes of the muxer, so it works whatever the
+ * video is written to and never reads it back. Each fragment is copied once, from the write of the muxer into the
+ * buffer shared by all the subscribers.
+ */
+public class LiveStreamFeed implements BoxSplitter.Consumer {
+    private final LiveStream liveStream;
+    private final FragmentedMp4 mp4;
+    private final List<ByteBuffer> initSegmentBoxes;
+    private ByteBuffer moof;
+    private boolean initSegmentPublished;
+
+    /**
+     * Feed a video the muxer is about to open.
+     */
+    public LiveStreamFeed(LiveStream liveStream) {
+        this.liveStream = liveStream;
+        this.mp4 = FragmentedMp4.empty();
+        this.initSegmentBoxes = new ArrayList<>();
+        this.moof = null;
+        this.initSegmentPublished = false;
+    }
+
+    /*
+      Keeps the boxes of the init segment and of the fragments, the mdat of a fragment goes in the same buffer as its moof.
+      The index written when the video is closed is not part of the stream.
+     */
+    @Override
+    public ByteBuffer startBox(long offset, String type, long size) throws IOException {
+        long bufferSize = type.equals("mdat") && moof != null ? moof.remaining() + size : size;
+        if (bufferSize > Integer.MAX_VALUE) {
+            throw new IOException("The " + type + " box at byte " + offset + " is too large to stream");
+        }
+        if (type.equals("mdat") && moof != null) {
+            ByteBuffer fragment = ByteBuffer.allocate((int) bufferSize);
+            fragment.put(moof.duplicate());
+            return fragment;
+        }
+        if (type.equals("moof") || !initSegmentPublished) {
+            return ByteBuffer.allocate((int) bufferSize);
+        }
+        return null;
+    }
+
+    @Override
+    public void endBox(long offset, String type, long size, ByteBuffer box) throws IOException {
+        if (box != null) {
+            box.flip();
+        }
+        boolean isFragmentData = type.equals("mdat") && moof != null;
+        if (!mp4.addBox(offset, type, size, isFragmentData ? null : box)) {
+            throw new IOException("The " + type + " box at byte " + offset + " does not belong in a fragmented MP4");
+        }
+
+        if (type.equals("moof")) {
+            // Everything before the first fragment: ftyp, moov and the samples the muxer may have stored with them
+            if (!initSegmentPublished) {
+                publishInitSegment();
+            }
+            moof = box;
+        } else if (isFragmentData) {
+            List<FragmentedMp4.Fragment> fragments = mp4.getFragments();
+            liveStream.publishFragment(box, fragments.get(fragments.size() - 1).startsWithKeyFrame());
+            moof = null;
+        } else if (!initSegmentPublished) {
+            initSegmentBoxes.add(box);
+        }
+    }
+
+    private void publishInitSegment() {
+        int size = 0;
+        for (ByteBuffer box : initSegmentBoxes) {
+            size += box.remaining();
+        }
+        ByteBuffer initSegment = ByteBuffer.allocate(size);
+        for (ByteBuffer box : initSegmentBoxes) {
+            initSegment.put(box);
+        }
+        initSegment.flip();
+        liveStream.publishInitSegment(initSegment);
+        initSegmentBoxes.clear();
+        initSegmentPublished = true;
+    }
+
+    /**
+     * Publish the init segment of a video closed before its first fragment. The stream itself stays open,
+     * the recording may carry on in another file.
+     */
+    public void close() {
+        if (!initSegmentPublished && !initSegmentBoxes.isEmpty()) {
+            publishInitSegment();
+        }
+    }
+}
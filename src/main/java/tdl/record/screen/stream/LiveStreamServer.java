@@ -0,0 +1,100 @@
+package tdl.record.screen.stream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a {@link LiveStream} on <code>http://localhost:port/live.mp4</code>, as a fragmented MP4 sent with
+ * chunked transfer encoding, which players such as ffplay, mpv or VLC can open while the recording goes on.
+ * <p>
+ * The server only listens on the loopback interface. Every viewer is a subscriber of the stream with a thread of its
+ * own, a viewer on a slow connection falls behind and skips fragments without holding up the recording
+ * or the other viewers.
+ */
+public class LiveStreamServer implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(LiveStreamServer.class);
+    private static final String CONTENT_TYPE = "video/mp4";
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private LiveStreamServer(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * @param port the port on localhost, 0 to pick a free one
+     * @throws IOException if the port cannot be bound
+     */
+    public static LiveStreamServer start(LiveStream liveStream, int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        AtomicInteger viewers = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "recorder-live-stream-" + viewers.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/live.mp4", exchange -> serve(exchange, liveStream));
+        server.start();
+        return new LiveStreamServer(server, executor);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stop accepting viewers and disconnect the current ones.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static void serve(HttpExchange exchange, LiveStream liveStream) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            // A length of zero selects the chunked transfer encoding
+            exchange.sendResponseHeaders(200, 0);
+            try (LiveStream.Subscription subscription = liveStream.subscribe();
+                 OutputStream responseBody = exchange.getResponseBody()) {
+                WritableByteChannel channel = Channels.newChannel(responseBody);
+                ByteBuffer segment;
+                while ((segment = subscription.take()) != null) {
+                    while (segment.hasRemaining()) {
+                        channel.write(segment);
+                    }
+                    responseBody.flush();
+                }
+                log.debug("Live stream viewer done, {} fragments skipped", subscription.getSkippedFragments());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } catch (IOException e) {
+            log.debug("Live stream viewer disconnected", e);
+        } finally {
+            exchange.close();
+        }
+    }
+}
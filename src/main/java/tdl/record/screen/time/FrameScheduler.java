@@ -0,0 +1,73 @@
+package tdl.record.screen.time;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gives every frame a deadline anchored to the start of the recording.
+ * <p>
+ * The deadline of frame N is always start + N * interval, computed in nanoseconds without accumulating rounding errors.
+ * A frame that overruns does not push the following frames back. Instead, the slots that have already passed
+ * are skipped, so the recording stays aligned with the wall clock however long it runs.
+ */
+public class FrameScheduler {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private final TimeSource timeSource;
+    private final long framesPerSecond;
+    private long startTimestampNanos;
+
+    public FrameScheduler(TimeSource timeSource, long framesPerSecond) {
+        if (framesPerSecond < 1) {
+            throw new IllegalArgumentException("The frame rate must be at least one frame per second");
+        }
+        this.timeSource = timeSource;
+        this.framesPerSecond = framesPerSecond;
+    }
+
+    /**
+     * Anchor the schedule, frame 0 is due now.
+     */
+    public void start() {
+        startTimestampNanos = timeSource.currentTimeNano();
+    }
+
+    /**
+     * @param previousFrameIndex the frame that has just been processed
+     * @return the next frame that can still start within its slot, later than previousFrameIndex + 1 if slots were missed
+     */
+    public long nextFrameIndex(long previousFrameIndex) {
+        long currentSlot = slotAt(timeSource.currentTimeNano());
+        return Math.max(previousFrameIndex + 1, currentSlot);
+    }
+
+    /**
+     * @return the time at which the frame is due, in nanoseconds
+     */
+    public long deadlineOf(long frameIndex) {
+        return startTimestampNanos + frameIndex * NANOS_PER_SECOND / framesPerSecond;
+    }
+
+    /**
+     * Wait until the frame is due.
+     *
+     * @return the lateness of the frame in nanoseconds, negative if the time source woke up early
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long awaitDeadline(long frameIndex) throws InterruptedException {
+        long deadline = deadlineOf(frameIndex);
+        if (timeSource.currentTimeNano() < deadline) {
+            timeSource.wakeUpAt(deadline, TimeUnit.NANOSECONDS);
+        }
+        return timeSource.currentTimeNano() - deadline;
+    }
+
+    /**
+     * @return the nominal time between two frames in nanoseconds
+     */
+    public long getFrameIntervalNanos() {
+        return NANOS_PER_SECOND / framesPerSecond;
+    }
+
+    private long slotAt(long timestampNanos) {
+        return (timestampNanos - startTimestampNanos) * framesPerSecond / NANOS_PER_SECOND;
+    }
+}
@@ -0,0 +1,95 @@
+package tdl.record.screen.time;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A time source that wakes up within microseconds of the requested time.
+ * <p>
+ * {@link Thread#sleep(long)} regularly oversleeps by a millisecond or two, which becomes visible jitter at higher frame rates.
+ * This time source sleeps until shortly before the target, parks the thread for most of the remaining time
+ * and spin-waits for the final microseconds.
+ * The spinning costs CPU, so the spin threshold should stay small.
+ */
+public class PrecisionTimeSource implements TimeSource {
+    private static final Logger log = LoggerFactory.getLogger(PrecisionTimeSource.class);
+    private static final long DEFAULT_SLEEP_MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long DEFAULT_SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final MethodHandle ON_SPIN_WAIT = findOnSpinWait();
+    private final long sleepMarginNanos;
+    private final long spinThresholdNanos;
+
+    public PrecisionTimeSource() {
+        this(DEFAULT_SLEEP_MARGIN_NANOS, DEFAULT_SPIN_THRESHOLD_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param sleepMargin    stop sleeping this long before the target, the rest of the wait is parked or spun
+     * @param spinThreshold  spin-wait instead of parking when less than this is left
+     * @param timeUnit       the unit of both thresholds
+     */
+    public PrecisionTimeSource(long sleepMargin, long spinThreshold, TimeUnit timeUnit) {
+        if (spinThreshold > sleepMargin) {
+            throw new IllegalArgumentException("The spin threshold cannot be larger than the sleep margin");
+        }
+        this.sleepMarginNanos = timeUnit.toNanos(sleepMargin);
+        this.spinThresholdNanos = timeUnit.toNanos(spinThreshold);
+    }
+
+    @Override
+    public long currentTimeNano() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void wakeUpAt(long timestamp, TimeUnit timeUnit) throws InterruptedException {
+        long targetTimestampNano = timeUnit.toNanos(timestamp);
+
+        long remainingNanos = targetTimestampNano - currentTimeNano();
+        if (remainingNanos > sleepMarginNanos) {
+            long timeToSleepNanos = remainingNanos - sleepMarginNanos;
+            log.debug("Sleep for: {} nanos", timeToSleepNanos);
+            Thread.sleep(TimeUnit.NANOSECONDS.toMillis(timeToSleepNanos), (int) (timeToSleepNanos % 1_000_000));
+        }
+
+        while ((remainingNanos = targetTimestampNano - currentTimeNano()) > spinThresholdNanos) {
+            LockSupport.parkNanos(this, remainingNanos - spinThresholdNanos);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+
+        while (targetTimestampNano - currentTimeNano() > 0) {
+            onSpinWait();
+        }
+    }
+
+    //~~~~~~~~~~ Spinning
+
+    /*
+      Thread.onSpinWait only exists from Java 9, on Java 8 the spin loop simply runs without the hint.
+     */
+    private static MethodHandle findOnSpinWait() {
+        try {
+            return MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static void onSpinWait() {
+        if (ON_SPIN_WAIT != null) {
+            try {
+                ON_SPIN_WAIT.invokeExact();
+            } catch (Throwable e) {
+                throw new IllegalStateException("Could not call Thread.onSpinWait", e);
+            }
+        }
+    }
+}
@@ -1,6 +1,13 @@
 package tdl.record.screen.utils;
 
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 
 public class ImageConversion {
 
@@ -33,4 +40,119 @@ public class ImageConversion {
 
         return image;
     }
+
+    /**
+     * Copy the content of an image into an existing TYPE_3BYTE_BGR image.
+     * The destination can be smaller than the source, in which case only the top-left region is copied.
+     * BGR and packed int sources are copied row by row without allocating, any other source type is drawn into the destination.
+     * Either image can be a view into a larger image, for example to copy a capture into part of a frame.
+     *
+     * @param sourceImage      the image to be copied
+     * @param destinationImage the image receiving the pixels
+     */
+    public static void copy(BufferedImage sourceImage, BufferedImage destinationImage) {
+        int width = destinationImage.getWidth();
+        int height = destinationImage.getHeight();
+        if (destinationImage.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            drawInto(sourceImage, destinationImage);
+            return;
+        }
+        Raster destinationRaster = destinationImage.getRaster();
+        byte[] destination = ((DataBufferByte) destinationRaster.getDataBuffer()).getData();
+        int destinationStride = scanlineStride(destinationRaster);
+        int destinationOffset = firstPixelOffset(destinationRaster);
+        int rowBytes = width * 3;
+
+        Raster sourceRaster = sourceImage.getRaster();
+        if (sourceImage.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            byte[] source = ((DataBufferByte) sourceRaster.getDataBuffer()).getData();
+            int sourceStride = scanlineStride(sourceRaster);
+            int sourceOffset = firstPixelOffset(sourceRaster);
+            if (sourceStride == rowBytes && destinationStride == rowBytes) {
+                System.arraycopy(source, sourceOffset, destination, destinationOffset, rowBytes * height);
+            } else {
+                for (int y = 0; y < height; y++) {
+                    System.arraycopy(source, sourceOffset + y * sourceStride,
+                            destination, destinationOffset + y * destinationStride, rowBytes);
+                }
+            }
+        } else if (isPackedInt(sourceImage)) {
+            int[] source = ((DataBufferInt) sourceRaster.getDataBuffer()).getData();
+            boolean isBgrOrder = sourceImage.getType() == BufferedImage.TYPE_INT_BGR;
+            int sourceStride = scanlineStride(sourceRaster);
+            int sourceOffset = firstPixelOffset(sourceRaster);
+            for (int y = 0; y < height; y++) {
+                int sourceIndex = sourceOffset + y * sourceStride;
+                int destinationIndex = destinationOffset + y * destinationStride;
+                for (int x = 0; x < width; x++) {
+                    int pixel = source[sourceIndex++];
+                    byte red = (byte) (pixel >> 16);
+                    byte blue = (byte) pixel;
+                    destination[destinationIndex++] = isBgrOrder ? red : blue;
+                    destination[destinationIndex++] = (byte) (pixel >> 8);
+                    destination[destinationIndex++] = isBgrOrder ? blue : red;
+                }
+            }
+        } else {
+            drawInto(sourceImage, destinationImage);
+        }
+    }
+
+    /**
+     * @return true if the image is a TYPE_3BYTE_BGR image whose pixels fill its whole data buffer, without row padding.
+     * Converters that read the data buffer directly need such an image, a view into a larger image will not do.
+     */
+    public static boolean isCompactBgr(BufferedImage image) {
+        Raster raster = image.getRaster();
+        return image.getType() == BufferedImage.TYPE_3BYTE_BGR
+                && firstPixelOffset(raster) == 0
+                && scanlineStride(raster) == image.getWidth() * 3
+                && raster.getDataBuffer().getSize() == image.getWidth() * image.getHeight() * 3;
+    }
+
+    /**
+     * @return the index, in the data array, of the first element of the top-left pixel of the raster.
+     * A raster that is a view into a larger one starts further into the shared array.
+     */
+    public static int firstPixelOffset(Raster raster) {
+        return raster.getDataBuffer().getOffset()
+                - raster.getSampleModelTranslateY() * scanlineStride(raster)
+                - raster.getSampleModelTranslateX() * pixelStride(raster);
+    }
+
+    /**
+     * @return the number of data array elements between the start of two consecutive rows of the raster
+     */
+    public static int scanlineStride(Raster raster) {
+        SampleModel sampleModel = raster.getSampleModel();
+        if (sampleModel instanceof ComponentSampleModel) {
+            return ((ComponentSampleModel) sampleModel).getScanlineStride();
+        } else if (sampleModel instanceof SinglePixelPackedSampleModel) {
+            return ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+        }
+        throw new IllegalArgumentException("Unsupported sample model " + sampleModel.getClass().getSimpleName());
+    }
+
+    private static int pixelStride(Raster raster) {
+        SampleModel sampleModel = raster.getSampleModel();
+        if (sampleModel instanceof ComponentSampleModel) {
+            return ((ComponentSampleModel) sampleModel).getPixelStride();
+        }
+        return 1;
+    }
+
+    private static void drawInto(BufferedImage sourceImage, BufferedImage destinationImage) {
+        Graphics2D graphics = destinationImage.createGraphics();
+        graphics.drawImage(sourceImage, 0, 0, null);
+        graphics.dispose();
+    }
+
+    /*
+      Robot captures are returned as packed int images, the alpha channel, if any, is ignored
+     */
+    private static boolean isPackedInt(BufferedImage image) {
+        int type = image.getType();
+        return (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_BGR)
+                && image.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel;
+    }
 }
@@ -0,0 +1,361 @@
+package tdl.record.screen.utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scales TYPE_3BYTE_BGR images of a fixed size to a fixed target size, usually a smaller one.
+ * <p>
+ * The interpolation matches the one of {@link java.awt.image.AffineTransformOp} for the same {@link ScalingQuality},
+ * but the filter is applied as two separable passes with integer weights.
+ * The weights and source indices of every output row and column are computed once per quality and cached.
+ * When both ratios are whole numbers, the bicubic and bilinear qualities average each block of source pixels instead,
+ * which is cheaper and does not alias.
+ * <p>
+ * The target is split in horizontal stripes scaled in parallel on a ForkJoin pool.
+ */
+public class ImageScaler {
+    private static final int WEIGHT_BITS = 12;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+    private static final int INTERMEDIATE_SHIFT = 4;
+    private static final int OUTPUT_SHIFT = 2 * WEIGHT_BITS - INTERMEDIATE_SHIFT;
+    private static final int MIN_ROWS_PER_STRIPE = 8;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int targetWidth;
+    private final int targetHeight;
+    private final ForkJoinPool pool;
+    private final Map<ScalingQuality, Kernel> horizontalKernels;
+    private final Map<ScalingQuality, Kernel> verticalKernels;
+    private final ThreadLocal<int[]> rowBuffers;
+    private ScalingQuality scalingQuality;
+
+    public ImageScaler(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight, ForkJoinPool pool) {
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.pool = pool;
+        this.horizontalKernels = new EnumMap<>(ScalingQuality.class);
+        this.verticalKernels = new EnumMap<>(ScalingQuality.class);
+        this.rowBuffers = ThreadLocal.withInitial(() -> new int[sourceWidth * 3]);
+        this.scalingQuality = ScalingQuality.BICUBIC;
+    }
+
+    public void setScalingQuality(ScalingQuality scalingQuality) {
+        this.scalingQuality = scalingQuality;
+    }
+
+    /**
+     * @param source a TYPE_3BYTE_BGR image of the source size, can be a view into a larger image
+     * @param target a TYPE_3BYTE_BGR image of the target size
+     */
+    public void scale(BufferedImage source, BufferedImage target) {
+        if (source.getType() != BufferedImage.TYPE_3BYTE_BGR || target.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            throw new IllegalArgumentException("Only TYPE_3BYTE_BGR images can be scaled");
+        }
+        if (source.getWidth() != sourceWidth || source.getHeight() != sourceHeight
+                || target.getWidth() != targetWidth || target.getHeight() != targetHeight) {
+            throw new IllegalArgumentException("The images do not match the size of the scaler");
+        }
+
+        Pixels sourcePixels = new Pixels(source);
+        Pixels targetPixels = new Pixels(target);
+        if (scalingQuality != ScalingQuality.NEAREST_NEIGHBOR && isIntegerRatio()) {
+            pool.invoke(new BoxStripe(sourcePixels, targetPixels, 0, targetHeight));
+            return;
+        }
+
+        Kernel horizontal = horizontalKernels.computeIfAbsent(scalingQuality,
+                quality -> Kernel.of(quality, sourceWidth, targetWidth));
+        Kernel vertical = verticalKernels.computeIfAbsent(scalingQuality,
+                quality -> Kernel.of(quality, sourceHeight, targetHeight));
+        if (scalingQuality == ScalingQuality.NEAREST_NEIGHBOR) {
+            pool.invoke(new NearestStripe(sourcePixels, targetPixels, horizontal, vertical, 0, targetHeight));
+        } else {
+            pool.invoke(new FilterStripe(sourcePixels, targetPixels, horizontal, vertical, 0, targetHeight));
+        }
+    }
+
+    private boolean isIntegerRatio() {
+        return sourceWidth % targetWidth == 0 && sourceHeight % targetHeight == 0;
+    }
+
+    //~~~~~~~~~~ Kernels
+
+    /*
+      For every output index, the source indices it reads from and their weights, scaled to WEIGHT_ONE.
+      Indices outside the image are clamped to the edge, as AffineTransformOp does.
+     */
+    private static class Kernel {
+        final int taps;
+        final int[] indices;
+        final int[] weights;
+
+        private Kernel(int taps, int outputSize) {
+            this.taps = taps;
+            this.indices = new int[taps * outputSize];
+            this.weights = new int[taps * outputSize];
+        }
+
+        static Kernel of(ScalingQuality quality, int sourceSize, int targetSize) {
+            double scale = sourceSize / (double) targetSize;
+            int taps = quality == ScalingQuality.BICUBIC ? 4 : quality == ScalingQuality.BILINEAR ? 2 : 1;
+            Kernel kernel = new Kernel(taps, targetSize);
+            double[] exactWeights = new double[taps];
+            for (int i = 0; i < targetSize; i++) {
+                double center = (i + 0.5) * scale - 0.5;
+                int first;
+                if (quality == ScalingQuality.NEAREST_NEIGHBOR) {
+                    first = (int) Math.floor((i + 0.5) * scale);
+                    exactWeights[0] = 1;
+                } else if (quality == ScalingQuality.BILINEAR) {
+                    first = (int) Math.floor(center);
+                    double fraction = center - first;
+                    exactWeights[0] = 1 - fraction;
+                    exactWeights[1] = fraction;
+                } else {
+                    first = (int) Math.floor(center) - 1;
+                    for (int t = 0; t < taps; t++) {
+                        exactWeights[t] = cubic(center - (first + t));
+                    }
+                }
+
+                int remaining = WEIGHT_ONE;
+                for (int t = 0; t < taps; t++) {
+                    int weight = t == taps - 1 ? remaining : (int) Math.round(exactWeights[t] * WEIGHT_ONE);
+                    remaining -= weight;
+                    kernel.indices[i * taps + t] = Math.min(Math.max(first + t, 0), sourceSize - 1);
+                    kernel.weights[i * taps + t] = weight;
+                }
+            }
+            return kernel;
+        }
+
+        /*
+          The cubic convolution kernel with a = -0.5
+         */
+        private static double cubic(double distance) {
+            double x = Math.abs(distance);
+            if (x < 1) {
+                return (1.5 * x - 2.5) * x * x + 1;
+            } else if (x < 2) {
+                return ((-0.5 * x + 2.5) * x - 4) * x + 2;
+            }
+            return 0;
+        }
+    }
+
+    //~~~~~~~~~~ Stripes
+
+    /*
+      The raster can be a view into a larger image, so rows are addressed through the sample model.
+     */
+    private static class Pixels {
+        final byte[] data;
+        final int firstPixelOffset;
+        final int scanlineStride;
+
+        Pixels(BufferedImage image) {
+            Raster raster = image.getRaster();
+            this.data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            this.scanlineStride = ImageConversion.scanlineStride(raster);
+            this.firstPixelOffset = ImageConversion.firstPixelOffset(raster);
+        }
+
+        int rowOffset(int y) {
+            return firstPixelOffset + y * scanlineStride;
+        }
+    }
+
+    private abstract static class Stripe extends RecursiveAction {
+        final int firstRow;
+        final int endRow;
+
+        Stripe(int firstRow, int endRow) {
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = endRow - firstRow;
+            if (rows > MIN_ROWS_PER_STRIPE) {
+                int middle = firstRow + rows / 2;
+                invokeAll(split(firstRow, middle), split(middle, endRow));
+                return;
+            }
+
+            for (int y = firstRow; y < endRow; y++) {
+                scaleRow(y);
+            }
+        }
+
+        abstract Stripe split(int firstRow, int endRow);
+
+        abstract void scaleRow(int targetY);
+    }
+
+    /*
+      Each target row is first filtered vertically over the full source width, then horizontally.
+      This way a stripe only needs one row of intermediate values, kept per thread.
+     */
+    private class FilterStripe extends Stripe {
+        private final Pixels source;
+        private final Pixels target;
+        private final Kernel horizontal;
+        private final Kernel vertical;
+
+        FilterStripe(Pixels source, Pixels target, Kernel horizontal, Kernel vertical, int firstRow, int endRow) {
+            super(firstRow, endRow);
+            this.source = source;
+            this.target = target;
+            this.horizontal = horizontal;
+            this.vertical = vertical;
+        }
+
+        @Override
+        Stripe split(int firstRow, int endRow) {
+            return new FilterStripe(source, target, horizontal, vertical, firstRow, endRow);
+        }
+
+        @Override
+        void scaleRow(int targetY) {
+            int[] row = rowBuffers.get();
+            int rowLength = sourceWidth * 3;
+            int verticalTaps = vertical.taps;
+            int kernelStart = targetY * verticalTaps;
+            int firstSourceRow = source.rowOffset(vertical.indices[kernelStart]);
+            int firstWeight = vertical.weights[kernelStart];
+            for (int i = 0; i < rowLength; i++) {
+                row[i] = (source.data[firstSourceRow + i] & 0xff) * firstWeight;
+            }
+            for (int t = 1; t < verticalTaps; t++) {
+                int sourceRow = source.rowOffset(vertical.indices[kernelStart + t]);
+                int weight = vertical.weights[kernelStart + t];
+                for (int i = 0; i < rowLength; i++) {
+                    row[i] += (source.data[sourceRow + i] & 0xff) * weight;
+                }
+            }
+            for (int i = 0; i < rowLength; i++) {
+                row[i] = (row[i] + (1 << (INTERMEDIATE_SHIFT - 1))) >> INTERMEDIATE_SHIFT;
+            }
+
+            byte[] targetData = target.data;
+            int targetIndex = target.rowOffset(targetY);
+            int horizontalTaps = horizontal.taps;
+            for (int x = 0; x < targetWidth; x++) {
+                int blue = 0, green = 0, red = 0;
+                for (int t = x * horizontalTaps, end = t + horizontalTaps; t < end; t++) {
+                    int sourceIndex = horizontal.indices[t] * 3;
+                    int weight = horizontal.weights[t];
+                    blue += row[sourceIndex] * weight;
+                    green += row[sourceIndex + 1] * weight;
+                    red += row[sourceIndex + 2] * weight;
+                }
+                targetData[targetIndex++] = clamp(blue);
+                targetData[targetIndex++] = clamp(green);
+                targetData[targetIndex++] = clamp(red);
+            }
+        }
+
+        private byte clamp(int value) {
+            int result = (value + (1 << (OUTPUT_SHIFT - 1))) >> OUTPUT_SHIFT;
+            return (byte) (result < 0 ? 0 : result > 255 ? 255 : result);
+        }
+    }
+
+    /*
+      A single tap per row and column, the pixels are copied without any arithmetic.
+     */
+    private class NearestStripe extends Stripe {
+        private final Pixels source;
+        private final Pixels target;
+        private final Kernel horizontal;
+        private final Kernel vertical;
+
+        NearestStripe(Pixels source, Pixels target, Kernel horizontal, Kernel vertical, int firstRow, int endRow) {
+            super(firstRow, endRow);
+            this.source = source;
+            this.target = target;
+            this.horizontal = horizontal;
+            this.vertical = vertical;
+        }
+
+        @Override
+        Stripe split(int firstRow, int endRow) {
+            return new NearestStripe(source, target, horizontal, vertical, firstRow, endRow);
+        }
+
+        @Override
+        void scaleRow(int targetY) {
+            byte[] sourceData = source.data;
+            byte[] targetData = target.data;
+            int sourceRow = source.rowOffset(vertical.indices[targetY]);
+            int targetIndex = target.rowOffset(targetY);
+            for (int x = 0; x < targetWidth; x++) {
+                int sourceIndex = sourceRow + horizontal.indices[x] * 3;
+                targetData[targetIndex++] = sourceData[sourceIndex];
+                targetData[targetIndex++] = sourceData[sourceIndex + 1];
+                targetData[targetIndex++] = sourceData[sourceIndex + 2];
+            }
+        }
+    }
+
+    /*
+      Sums each block of source pixels and divides through a fixed-point reciprocal.
+     */
+    private class BoxStripe extends Stripe {
+        private final Pixels source;
+        private final Pixels target;
+
+        BoxStripe(Pixels source, Pixels target, int firstRow, int endRow) {
+            super(firstRow, endRow);
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        Stripe split(int firstRow, int endRow) {
+            return new BoxStripe(source, target, firstRow, endRow);
+        }
+
+        @Override
+        void scaleRow(int targetY) {
+            int blockWidth = sourceWidth / targetWidth;
+            int blockHeight = sourceHeight / targetHeight;
+            int[] sums = rowBuffers.get();
+            int rowLength = targetWidth * 3;
+            Arrays.fill(sums, 0, rowLength, 0);
+
+            for (int dy = 0; dy < blockHeight; dy++) {
+                int sourceIndex = source.rowOffset(targetY * blockHeight + dy);
+                for (int x = 0; x < rowLength; x += 3) {
+                    int blue = 0, green = 0, red = 0;
+                    for (int dx = 0; dx < blockWidth; dx++) {
+                        blue += source.data[sourceIndex++] & 0xff;
+                        green += source.data[sourceIndex++] & 0xff;
+                        red += source.data[sourceIndex++] & 0xff;
+                    }
+                    sums[x] += blue;
+                    sums[x + 1] += green;
+                    sums[x + 2] += red;
+                }
+            }
+
+            int blockSize = blockWidth * blockHeight;
+            int reciprocal = ((1 << 24) + blockSize / 2) / blockSize;
+            byte[] targetData = target.data;
+            int targetIndex = target.rowOffset(targetY);
+            for (int i = 0; i < rowLength; i++) {
+                targetData[targetIndex + i] = (byte) (((long) sums[i] * reciprocal + (1 << 23)) >> 24);
+            }
+        }
+    }
+}
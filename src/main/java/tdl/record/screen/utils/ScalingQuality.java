@@ -0,0 +1,22 @@
+package tdl.record.screen.utils;
+
+import java.awt.image.AffineTransformOp;
+
+/**
+ * Interpolation used when scaling the screen down, from the sharpest and most expensive to the cheapest.
+ */
+public enum ScalingQuality {
+    BICUBIC(AffineTransformOp.TYPE_BICUBIC),
+    BILINEAR(AffineTransformOp.TYPE_BILINEAR),
+    NEAREST_NEIGHBOR(AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
+
+    private final int interpolationType;
+
+    ScalingQuality(int interpolationType) {
+        this.interpolationType = interpolationType;
+    }
+
+    public int getInterpolationType() {
+        return interpolationType;
+    }
+}
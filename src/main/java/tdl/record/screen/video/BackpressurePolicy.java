@@ -0,0 +1,25 @@
+package tdl.record.screen.video;
+
+/**
+ * Decides what the capture stage does when all the frame slots of a pipelined recording are in use.
+ */
+public enum BackpressurePolicy {
+    /**
+     * Wait for the conversion and encoding stages to release a slot. No frames are lost,
+     * but the capture of the next frame can be delayed.
+     */
+    BLOCK,
+
+    /**
+     * Skip the capture of the new frame, the screen is not read and the frame is reported as dropped.
+     * The frames already queued are kept, so the video holds on to the older frames.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Discard the oldest frame still waiting for conversion and capture the new frame into its slot,
+     * so the video keeps up with the screen. If every slot is already being converted or encoded,
+     * the capture of the new frame is skipped instead, as with {@link #DROP_NEWEST}.
+     */
+    DROP_OLDEST
+}
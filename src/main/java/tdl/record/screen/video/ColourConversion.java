@@ -0,0 +1,17 @@
+package tdl.record.screen.video;
+
+/**
+ * Selects how the captured BGR frames are converted to the YUV420P pictures expected by the encoder.
+ */
+public enum ColourConversion {
+    /**
+     * The generic converter provided by humble-video.
+     */
+    HUMBLE,
+
+    /**
+     * A dedicated converter that reads the BGR bytes directly and writes the planes of the picture,
+     * using fixed-point BT.601 coefficients and splitting the frame in stripes converted in parallel.
+     */
+    PARALLEL_FIXED_POINT
+}
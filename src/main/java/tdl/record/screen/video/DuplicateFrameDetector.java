@@ -0,0 +1,103 @@
+package tdl.record.screen.video;
+
+import tdl.record.screen.utils.ImageConversion;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.util.Arrays;
+
+/**
+ * Detects frames that are identical to the previous one, so that they can be skipped by the encoder.
+ * <p>
+ * The frame is split in square tiles and each tile is reduced to a 64-bit FNV-1a hash.
+ * A frame is a duplicate if all its tile hashes match the ones of the previous frame.
+ * Only the hashes are kept between frames, the detector never copies pixels.
+ * <p>
+ * To keep the video seekable and the fragments flowing, a frame is always reported as changed
+ * after a configured number of consecutive duplicates.
+ */
+class DuplicateFrameDetector {
+    private static final int TILE_SIZE = 32;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private final int maxConsecutiveDuplicates;
+    private long[] previousTileHashes;
+    private long[] currentTileHashes;
+    private int tileColumns;
+    private boolean hasPreviousFrame;
+    private int consecutiveDuplicates;
+
+    DuplicateFrameDetector(int maxConsecutiveDuplicates) {
+        this.maxConsecutiveDuplicates = maxConsecutiveDuplicates;
+        this.previousTileHashes = new long[0];
+        this.currentTileHashes = new long[0];
+        this.tileColumns = 0;
+        this.hasPreviousFrame = false;
+        this.consecutiveDuplicates = 0;
+    }
+
+    /**
+     * @param image a TYPE_3BYTE_BGR frame
+     * @return true if the frame can be skipped because it shows the same content as the previous one
+     */
+    boolean isDuplicate(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            hasPreviousFrame = false;
+            return false;
+        }
+
+        computeTileHashes(image);
+        boolean sameContent = hasPreviousFrame && Arrays.equals(currentTileHashes, previousTileHashes);
+        long[] swap = previousTileHashes;
+        previousTileHashes = currentTileHashes;
+        currentTileHashes = swap;
+        hasPreviousFrame = true;
+
+        if (sameContent && consecutiveDuplicates < maxConsecutiveDuplicates) {
+            consecutiveDuplicates++;
+            return true;
+        } else {
+            consecutiveDuplicates = 0;
+            return false;
+        }
+    }
+
+    /*
+      Walk the raster row by row, which keeps the reads sequential, and fold each row segment into the hash of its tile.
+      The raster can be a view into a larger image, so rows are addressed through the sample model.
+     */
+    private void computeTileHashes(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        if (currentTileHashes.length != columns * rows || tileColumns != columns) {
+            currentTileHashes = new long[columns * rows];
+            previousTileHashes = new long[columns * rows];
+            tileColumns = columns;
+            hasPreviousFrame = false;
+        }
+        Arrays.fill(currentTileHashes, FNV_OFFSET_BASIS);
+
+        Raster raster = image.getRaster();
+        byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+        int scanlineStride = ImageConversion.scanlineStride(raster);
+        int firstPixelOffset = ImageConversion.firstPixelOffset(raster);
+        int tileRowBytes = TILE_SIZE * 3;
+        for (int y = 0; y < height; y++) {
+            int tileRowStart = (y / TILE_SIZE) * columns;
+            int rowStart = firstPixelOffset + y * scanlineStride;
+            int rowEnd = rowStart + width * 3;
+            for (int column = 0; column < columns; column++) {
+                int start = rowStart + column * tileRowBytes;
+                int end = Math.min(start + tileRowBytes, rowEnd);
+                long hash = currentTileHashes[tileRowStart + column];
+                for (int i = start; i < end; i++) {
+                    hash = (hash ^ (data[i] & 0xff)) * FNV_PRIME;
+                }
+                currentTileHashes[tileRowStart + column] = hash;
+            }
+        }
+    }
+}
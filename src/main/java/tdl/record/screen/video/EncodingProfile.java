@@ -0,0 +1,90 @@
+package tdl.record.screen.video;
+
+import io.humble.video.KeyValueBag;
+import io.humble.video.Rational;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Named sets of codec options, trading the CPU spent encoding against the size of the video.
+ * <p>
+ * The options target the x264 encoder picked by default for MP4. With a different platform codec,
+ * the options it does not recognise are ignored and logged when the encoder is opened.
+ * The key frame interval is expressed in seconds of video, so the GOP length follows the output frame rate.
+ */
+public enum EncodingProfile {
+    /**
+     * Leave every option to the platform codec, the behaviour of previous versions.
+     */
+    PLATFORM_DEFAULT(null, null, null, 0, -1, -1),
+
+    /**
+     * Cheapest encoding for slow machines, single threaded so that the capture keeps the other cores.
+     * No B-frames, so every frame can be written as soon as it is encoded.
+     */
+    LOW_CPU_REALTIME("ultrafast", "zerolatency", 28, 10, 0, 1),
+
+    /**
+     * Tuned for flat colours and sharp edges, with a key frame every 10 seconds.
+     */
+    BALANCED_SCREENCAST("veryfast", "animation", 23, 10, 2, 0),
+
+    /**
+     * Smallest files for recordings that are kept, at several times the CPU cost of the balanced profile.
+     * Long GOPs work well because a screen of code changes little between key frames.
+     */
+    ARCHIVAL("slow", "stillimage", 20, 30, 3, 0);
+
+    private final String preset;
+    private final String tune;
+    private final Integer constantRateFactor;
+    private final int keyFrameIntervalSeconds;
+    private final int bFrames;
+    private final int threads;
+
+    EncodingProfile(String preset, String tune, Integer constantRateFactor,
+                    int keyFrameIntervalSeconds, int bFrames, int threads) {
+        this.preset = preset;
+        this.tune = tune;
+        this.constantRateFactor = constantRateFactor;
+        this.keyFrameIntervalSeconds = keyFrameIntervalSeconds;
+        this.bFrames = bFrames;
+        this.threads = threads;
+    }
+
+    /**
+     * @param videoFramesPerSecond the frame rate of the video, used to turn the key frame interval into a GOP length
+     * @return the codec options, in the form accepted by ffmpeg. Empty for {@link #PLATFORM_DEFAULT}
+     */
+    Map<String, String> getCodecOptions(int videoFramesPerSecond) {
+        Map<String, String> options = new LinkedHashMap<>();
+        if (preset != null) {
+            options.put("preset", preset);
+        }
+        if (tune != null) {
+            options.put("tune", tune);
+        }
+        if (constantRateFactor != null) {
+            options.put("crf", String.valueOf(constantRateFactor));
+        }
+        if (keyFrameIntervalSeconds > 0) {
+            options.put("g", String.valueOf(keyFrameIntervalSeconds * videoFramesPerSecond));
+        }
+        if (bFrames >= 0) {
+            options.put("bf", String.valueOf(bFrames));
+        }
+        if (threads >= 0) {
+            options.put("threads", String.valueOf(threads));
+        }
+        return options;
+    }
+
+    KeyValueBag toCodecOptions(Rational videoFrameRate) {
+        KeyValueBag bag = KeyValueBag.make();
+        for (Map.Entry<String, String> option : getCodecOptions(videoFrameRate.getDenominator()).entrySet()) {
+            bag.setValue(option.getKey(), option.getValue());
+        }
+        return bag;
+    }
+}
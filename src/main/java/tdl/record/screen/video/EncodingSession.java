@@ -0,0 +1,344 @@
+package tdl.record.screen.video;
+
+import io.humble.video.*;
+import io.humble.video.customio.HumbleIO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tdl.record.screen.metrics.RecordingStage;
+import tdl.record.screen.mp4.FragmentIndex;
+import tdl.record.screen.mp4.FragmentIndexWriter;
+import tdl.record.screen.recovery.RecordingLock;
+import tdl.record.screen.sink.VideoSink;
+import tdl.record.screen.stream.LiveStream;
+import tdl.record.screen.stream.LiveStreamFeed;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * The encoder and the muxer writing one video file.
+ * <p>
+ * The muxer writes the file itself, or hands the bytes to a {@link VideoSink} through the custom I/O of humble-video.
+ * A {@link RecordingLock} sits next to a video written to a file for as long as the session is open.
+ * When asked, the fragments are indexed by a {@link FragmentIndexWriter} and published to a {@link LiveStream}
+ * by a {@link LiveStreamFeed}, both tapping the bytes the muxer writes.
+ * The timestamps of the pictures are shifted so that the video starts at zero, whatever the first frame of the session,
+ * which is frame zero unless {@link #startAt} says otherwise. A session can so be opened before its first frame is known.
+ * The time spent encoding and muxing each frame goes to the {@link StageTimer}.
+ */
+class EncodingSession implements FrameOutput {
+    private static final Logger log = LoggerFactory.getLogger(EncodingSession.class);
+    private static volatile Codec mp4Codec;
+    private final String filename;
+    private final Muxer muxer;
+    private final SinkProtocolHandler sinkHandler;
+    private final Encoder encoder;
+    private final RecordingLock lock;
+    private final StageTimer stageTimer;
+    private FragmentIndexWriter indexWriter;
+    private LiveStreamFeed liveStreamFeed;
+    private final MediaPacket packet;
+    private long firstFrameIndex;
+    private long lastFrameIndex;
+    private long bytesWritten;
+
+    private EncodingSession(String filename, Muxer muxer, SinkProtocolHandler sinkHandler, Encoder encoder, RecordingLock lock,
+                            StageTimer stageTimer) {
+        this.filename = filename;
+        this.muxer = muxer;
+        this.sinkHandler = sinkHandler;
+        this.encoder = encoder;
+        this.lock = lock;
+        this.stageTimer = stageTimer;
+        this.indexWriter = null;
+        this.liveStreamFeed = null;
+        this.packet = MediaPacket.make();
+        this.firstFrameIndex = 0;
+        this.lastFrameIndex = -1;
+        this.bytesWritten = 0;
+    }
+
+    /**
+     * @param sink            where the muxer writes the video, null to let it write the file itself
+     * @param recordingClock  the clock to index the fragments against, null to write no index
+     * @param liveStream      where to publish the fragments as they are written, null to only write the file
+     */
+    static EncodingSession open(String filename, int width, int height, Rational videoFrameRate,
+                                long fragmentationMicros, EncodingProfile encodingProfile, StageTimer stageTimer,
+                                VideoSink sink, RecordingClock recordingClock, LiveStream liveStream)
+            throws VideoRecorderException {
+        long openStart = stageTimer.videoOpening(filename);
+        // The muxer either opens the file or writes to a channel mapped to a humble: URL,
+        // the channel of the sink or of the file when the fragment index or the live stream follow the bytes
+        String url = filename;
+        SinkProtocolHandler sinkHandler = null;
+        if (sink != null || recordingClock != null || liveStream != null) {
+            try {
+                SeekableByteChannel channel = sink != null
+                        ? sink.open(filename)
+                        : FileChannel.open(Paths.get(filename), CREATE, WRITE, TRUNCATE_EXISTING);
+                sinkHandler = new SinkProtocolHandler(filename, channel);
+                url = HumbleIO.map(HumbleIO.generateUniqueName(channel, ".mp4"), sinkHandler);
+            } catch (IOException e) {
+                throw new VideoRecorderException("Failed to open destination", e);
+            }
+        }
+
+        // A muxer is responsible for combining multiple streams (video, audio, subtitle)
+        Muxer muxer = createMP4MuxerWithFragmentation(url, fragmentationMicros, liveStream != null);
+
+        // An encoder is responsible for putting together all the frames from one stream
+        Encoder encoder = Encoder.make(getMP4Codec());
+        encoder.setWidth(width);
+        encoder.setHeight(height);
+        encoder.setPixelFormat(PixelFormat.Type.PIX_FMT_YUV420P);
+        encoder.setTimeBase(videoFrameRate);
+
+        // For extra safety, some formats need global rather than per-stream headers
+        if (muxer.getFormat().getFlag(MuxerFormat.Flag.GLOBAL_HEADER)) {
+            encoder.setFlag(Encoder.Flag.FLAG_GLOBAL_HEADER, true);
+        }
+
+        // Open the stream and the muxer
+        KeyValueBag unsetOptions = KeyValueBag.make();
+        encoder.open(encodingProfile.toCodecOptions(videoFrameRate), unsetOptions);
+        for (int i = 0; i < unsetOptions.getNumKeys(); i++) {
+            log.warn("The codec ignored the option {} of the {} profile", unsetOptions.getKey(i), encodingProfile);
+        }
+        muxer.addNewStream(encoder);
+
+        //create *.lock file, only a video written to a file can be recovered
+        RecordingLock lock = null;
+        if (sink == null || sink.writesFiles()) {
+            try {
+                lock = RecordingLock.acquire(Paths.get(filename));
+            } catch (IOException e) {
+                if (sinkHandler != null) {
+                    HumbleIO.unmap(url);
+                    sinkHandler.close();
+                }
+                throw new VideoRecorderException("Failed to open destination", e);
+            }
+        }
+
+        EncodingSession session = new EncodingSession(filename, muxer, sinkHandler, encoder, lock, stageTimer);
+        if (sinkHandler != null) {
+            sinkHandler.tap("fragment metrics", new FragmentReporter(filename, stageTimer));
+        }
+        if (liveStream != null) {
+            session.liveStreamFeed = new LiveStreamFeed(liveStream);
+            sinkHandler.tap("live stream", session.liveStreamFeed);
+        }
+        if (recordingClock != null) {
+            try {
+                session.indexWriter = openIndex(filename, sink,
+                        recordingClock.forVideoStartingAt(session::getFirstFrameIndex));
+                sinkHandler.tap("fragment index", session.indexWriter);
+            } catch (IOException e) {
+                log.warn("Could not create the fragment index of " + filename + ", recording without it", e);
+            }
+        }
+
+        try {
+            muxer.open(null, null);
+        } catch (InterruptedException | IOException e) {
+            if (sinkHandler != null) {
+                HumbleIO.unmap(url);
+                sinkHandler.close();
+            }
+            if (session.indexWriter != null) {
+                try {
+                    session.indexWriter.close();
+                } catch (IOException closeException) {
+                    e.addSuppressed(closeException);
+                }
+            }
+            if (lock != null) {
+                try {
+                    lock.release();
+                } catch (IOException releaseException) {
+                    e.addSuppressed(releaseException);
+                }
+            }
+            throw new VideoRecorderException("Failed to open destination", e);
+        }
+
+        stageTimer.videoOpened(filename, width, height, openStart);
+        return session;
+    }
+
+    /*
+      The index of a video written to a file is a file next to it, the index of any other video goes to the same sink
+     */
+    private static FragmentIndexWriter openIndex(String filename, VideoSink sink, FragmentIndexWriter.WallClock wallClock)
+            throws IOException {
+        if (sink == null || sink.writesFiles()) {
+            return FragmentIndexWriter.open(Paths.get(filename), wallClock);
+        }
+        return new FragmentIndexWriter(sink.open(filename + FragmentIndex.INDEX_SUFFIX), wallClock);
+    }
+
+    /**
+     * The mov/mp4/ismv muxer supports fragmentation. Normally, a MOV/MP4
+     * file has all the metadata about all packets stored in one location at the end.
+     * A fragmented file consists of a number of fragments, where packets and metadata
+     * about these packets are stored together. Writing a fragmented
+     * file has the advantage that the file is decodable even if the
+     * writing is interrupted (while a normal MOV/MP4 is undecodable if
+     * it is not properly finished), and it requires less memory when writing
+     * very long files (since writing normal MOV/MP4 files stores info about
+     * every single packet in memory until the file is closed). The downside
+     * is that it is less compatible with other applications.*
+     * <p>
+     * We are going to enable fragmentation, this will write moof/mdat pairs:
+     * -movflags frag_keyframe*
+     * <p>
+     * We are going to split the fragment by duration:
+     * -frag_duration @var{duration}
+     * Create fragments that are @var{duration} microseconds long.*
+     * <p>
+     * When streaming live, the moov is written straight away without samples, so that it can be sent as the
+     * init segment before the first fragment is complete:
+     * -movflags empty_moov
+     * <p>
+     * To inspect the moov atoms you can use:
+     * qtfaststart -l recording.mp4
+     */
+    private static Muxer createMP4MuxerWithFragmentation(String url, long fragmentationMicros, boolean emptyMovie) {
+        Muxer muxer = Muxer.make(url, null, "mp4");
+        muxer.setProperty("movflags", emptyMovie ? "frag_keyframe+empty_moov" : "frag_keyframe");
+        muxer.setProperty("frag_duration", fragmentationMicros);
+        return muxer;
+    }
+
+    /**
+     * The codec is looked up once, then shared by the encoders of all the recordings, see {@link RecorderWarmUp}.
+     * Two threads may both look it up the first time, they find the same codec.
+     */
+    static Codec getMP4Codec() {
+        Codec codec = mp4Codec;
+        if (codec == null) {
+            // We are using the default format, which right on OSX defaults to CODEC_ID_H264
+            // WARNING! The coded selection is system dependent and will use JNI to retrieve the local codec
+            final MuxerFormat format = MuxerFormat.guessFormat("mp4", null, null);
+            codec = Codec.findEncodingCodec(format.getDefaultVideoCodecId());
+            mp4Codec = codec;
+        }
+        return codec;
+    }
+
+    /**
+     * @param firstFrameIndex the index of the first frame written to this file, it gets timestamp zero.
+     *                        Call before encoding the first frame.
+     */
+    void startAt(long firstFrameIndex) {
+        this.firstFrameIndex = firstFrameIndex;
+        this.lastFrameIndex = firstFrameIndex - 1;
+    }
+
+    /*
+      Flush the packet, the convention is to write until we get a new (incomplete) packet
+     */
+    @Override
+    public void encode(MediaPicture picture) {
+        lastFrameIndex = picture.getTimeStamp();
+        picture.setTimeStamp(lastFrameIndex - firstFrameIndex);
+        write(picture);
+        stageTimer.frameEncoded(lastFrameIndex);
+    }
+
+    /*
+      Flush the encoder by writing data until we get a new (incomplete) packet
+     */
+    @Override
+    public void flush() {
+        log.info("Flushing remaining frames");
+        write(null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        long closeStart = stageTimer.videoClosing(filename);
+        muxer.close();
+        if (indexWriter != null) {
+            try {
+                indexWriter.close();
+            } catch (IOException e) {
+                log.warn("Could not complete the fragment index of " + filename + ", it stops at the last fragment written", e);
+            }
+        }
+        if (liveStreamFeed != null) {
+            liveStreamFeed.close();
+        }
+        //delete lock file after closing writing
+        if (lock != null) {
+            lock.release();
+        }
+        stageTimer.videoClosed(filename, bytesWritten, closeStart);
+    }
+
+    /*
+      The muxer starts a fragment at every key frame, see frag_keyframe, and when a fragment reaches frag_duration
+     */
+    private void write(MediaPicture picture) {
+        long encodeNanos = 0;
+        long muxWriteNanos = 0;
+        long frameBytes = 0;
+        do {
+            stageTimer.stepStarted(RecordingStage.ENCODE, lastFrameIndex);
+            long encodeStart = System.nanoTime();
+            encoder.encode(packet, picture);
+            encodeNanos += System.nanoTime() - encodeStart;
+            stageTimer.stepEnded(RecordingStage.ENCODE, lastFrameIndex);
+            if (packet.isComplete()) {
+                frameBytes += packet.getSize();
+                if (packet.isKeyPacket()) {
+                    stageTimer.keyFrameEncoded(lastFrameIndex);
+                }
+                stageTimer.stepStarted(RecordingStage.MUX_WRITE, lastFrameIndex);
+                long muxWriteStart = System.nanoTime();
+                muxer.write(packet, false);
+                muxWriteNanos += System.nanoTime() - muxWriteStart;
+                stageTimer.stepEnded(RecordingStage.MUX_WRITE, lastFrameIndex);
+            }
+        } while (packet.isComplete());
+
+        bytesWritten += frameBytes;
+        stageTimer.stageTook(RecordingStage.ENCODE, lastFrameIndex, encodeNanos);
+        stageTimer.stageTook(RecordingStage.MUX_WRITE, lastFrameIndex, muxWriteNanos);
+        stageTimer.bytesWritten(lastFrameIndex, frameBytes);
+    }
+
+    String getFilename() {
+        return filename;
+    }
+
+    long getFirstFrameIndex() {
+        return firstFrameIndex;
+    }
+
+    /**
+     * @return the index of the last frame encoded, or one less than the first frame if nothing has been encoded yet
+     */
+    long getLastFrameIndex() {
+        return lastFrameIndex;
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return the size of the video file, once the session is closed
+     */
+    long getFileSize() throws IOException {
+        return sinkHandler != null ? sinkHandler.getSize() : Files.size(Paths.get(filename));
+    }
+}
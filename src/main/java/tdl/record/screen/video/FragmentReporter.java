@@ -0,0 +1,45 @@
+package tdl.record.screen.video;
+
+import tdl.record.screen.mp4.BoxSplitter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reports each fragment of a video as the muxer writes it, from the start of its moof to the end of its mdat.
+ * <p>
+ * The muxer cuts a fragment at every key frame and whenever a fragment reaches its duration, so the fragments
+ * can only be counted from the boxes written. Nothing is copied, the boxes are only counted.
+ */
+class FragmentReporter implements BoxSplitter.Consumer {
+    private static final long NO_FRAGMENT = -1;
+    private final String filename;
+    private final StageTimer stageTimer;
+    private long moofOffset;
+
+    FragmentReporter(String filename, StageTimer stageTimer) {
+        this.filename = filename;
+        this.stageTimer = stageTimer;
+        this.moofOffset = NO_FRAGMENT;
+    }
+
+    @Override
+    public ByteBuffer startBox(long offset, String type, long size) {
+        if (type.equals("moof")) {
+            stageTimer.fragmentFlushing(filename);
+        }
+        return null;
+    }
+
+    /*
+      The samples stored with the moov are not a fragment, only an mdat following a moof is
+     */
+    @Override
+    public void endBox(long offset, String type, long size, ByteBuffer box) {
+        if (type.equals("moof")) {
+            moofOffset = offset;
+        } else if (type.equals("mdat") && moofOffset != NO_FRAGMENT) {
+            stageTimer.fragmentFlushed(filename, moofOffset, offset + size - moofOffset);
+            moofOffset = NO_FRAGMENT;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package tdl.record.screen.video;
+
+import io.humble.video.MediaPicture;
+
+import java.io.IOException;
+
+/**
+ * Receives the converted pictures, in order, and writes them to one or more video files.
+ * The timestamp of a picture is the index of the frame since the start of the recording.
+ */
+interface FrameOutput {
+
+    void encode(MediaPicture picture);
+
+    /**
+     * Write the frames still buffered by the encoder.
+     */
+    void flush();
+
+    /**
+     * Finalise the video files. No more pictures can be encoded afterwards.
+     *
+     * @throws IOException if a file could not be finalised
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,174 @@
+package tdl.record.screen.video;
+
+import io.humble.video.MediaPicture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tdl.record.screen.utils.ImageConversion;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Runs the colour conversion and the encoding of frames on dedicated threads.
+ * <p>
+ * The capture thread reads each screen into a free slot of the {@link FrameRing} and moves on to the next frame.
+ * The conversion thread turns captured slots into pictures and the encoding thread writes them to the muxer.
+ * A slow encode will only delay the capture if the ring is full and the policy is {@link BackpressurePolicy#BLOCK}.
+ */
+class FramePipeline {
+    private static final Logger log = LoggerFactory.getLogger(FramePipeline.class);
+    private final FrameRing frameRing;
+    private final PictureConverter converter;
+    private final Consumer<MediaPicture> pictureEncoder;
+    private final DuplicateFrameDetector duplicateFrameDetector;
+    private final LongConsumer elidedFrameHandler;
+    private final AtomicReference<Throwable> failure;
+    private final Thread conversionThread;
+    private final Thread encodingThread;
+    private volatile long lastConversionNanos;
+    private volatile long lastEncodingNanos;
+
+    /**
+     * @param duplicateFrameDetector optional, if present the conversion stage skips frames identical to the previous one
+     * @param elidedFrameHandler     notified with the index of every skipped frame
+     */
+    FramePipeline(FrameRing frameRing, PictureConverter converter, Consumer<MediaPicture> pictureEncoder,
+                  DuplicateFrameDetector duplicateFrameDetector, LongConsumer elidedFrameHandler) {
+        this.frameRing = frameRing;
+        this.converter = converter;
+        this.pictureEncoder = pictureEncoder;
+        this.duplicateFrameDetector = duplicateFrameDetector;
+        this.elidedFrameHandler = elidedFrameHandler;
+        this.failure = new AtomicReference<>();
+        this.conversionThread = new Thread(this::runConversion, "recorder-conversion");
+        this.encodingThread = new Thread(this::runEncoding, "recorder-encoding");
+    }
+
+    void start() {
+        conversionThread.start();
+        encodingThread.start();
+    }
+
+    /**
+     * Reserve a slot to capture the next frame into.
+     *
+     * @param frameIndex the index of the frame, used as the timestamp of the picture
+     * @return the slot, or null if the frame has been dropped
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    FrameSlot acquire(long frameIndex) throws InterruptedException {
+        rethrowFailure();
+        return frameRing.acquireForCapture(frameIndex);
+    }
+
+    /**
+     * Hand a captured frame over to the conversion stage.
+     *
+     * @param slot   the slot returned by {@link #acquire(long)}
+     * @param screen the captured image, copied into the slot if the input did not draw into the slot directly
+     */
+    void submit(FrameSlot slot, BufferedImage screen) {
+        if (screen != slot.image) {
+            ImageConversion.copy(screen, slot.image);
+        }
+        frameRing.publishCaptured(slot);
+    }
+
+    /**
+     * @return the time the slowest of the conversion and encoding stages spent on its last frame, in nanoseconds.
+     * The stages run in parallel with the capture, the slowest one sets the pace of the recording.
+     */
+    long getSlowestStageNanos() {
+        return Math.max(lastConversionNanos, lastEncodingNanos);
+    }
+
+    /**
+     * Give back a slot that could not be filled.
+     */
+    void cancel(FrameSlot slot) {
+        frameRing.release(slot);
+    }
+
+    /**
+     * Wait for the frames still in the ring to be encoded, then stop the stage threads.
+     */
+    void finish() {
+        frameRing.close();
+        try {
+            conversionThread.join();
+            encodingThread.join();
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for the pipeline to drain", e);
+            frameRing.abort();
+            Thread.currentThread().interrupt();
+        }
+        rethrowFailure();
+    }
+
+    //~~~~~~~~~~ Stages
+
+    /*
+      A skipped duplicate is kept until the next frame arrives. If the recording ends on a duplicate,
+      it gets encoded after all so that the video lasts until the last captured frame.
+      This is why a pipeline with duplicate detection needs at least two slots.
+     */
+    private void runConversion() {
+        try {
+            FrameSlot slot;
+            FrameSlot lastDuplicate = null;
+            while ((slot = frameRing.takeCaptured()) != null) {
+                if (lastDuplicate != null) {
+                    frameRing.discardCaptured(lastDuplicate);
+                    lastDuplicate = null;
+                }
+
+                if (duplicateFrameDetector != null && duplicateFrameDetector.isDuplicate(slot.image)) {
+                    elidedFrameHandler.accept(slot.frameIndex);
+                    lastDuplicate = slot;
+                    continue;
+                }
+
+                long conversionStart = System.nanoTime();
+                converter.toPicture(slot.picture, slot.image, slot.frameIndex);
+                lastConversionNanos = System.nanoTime() - conversionStart;
+                frameRing.publishConverted(slot);
+            }
+
+            if (lastDuplicate != null) {
+                converter.toPicture(lastDuplicate.picture, lastDuplicate.image, lastDuplicate.frameIndex);
+                frameRing.publishConverted(lastDuplicate);
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void runEncoding() {
+        try {
+            FrameSlot slot;
+            while ((slot = frameRing.takeConverted()) != null) {
+                long encodingStart = System.nanoTime();
+                pictureEncoder.accept(slot.picture);
+                lastEncodingNanos = System.nanoTime() - encodingStart;
+                frameRing.release(slot);
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable e) {
+        log.error("Recording pipeline stage failed", e);
+        failure.compareAndSet(null, e);
+        frameRing.abort();
+    }
+
+    private void rethrowFailure() {
+        Throwable cause = failure.get();
+        if (cause != null) {
+            throw new IllegalStateException("Recording pipeline stopped", cause);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package tdl.record.screen.video;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+/**
+ * A bounded ring of preallocated frame slots shared by the capture, conversion and encoding stages.
+ * <p>
+ * Every slot moves through the same cycle: free -> captured -> converted -> free.
+ * No memory is allocated once the ring has been created, the stages only exchange slot references.
+ * The dropped frames are reported outside the lock.
+ */
+class FrameRing {
+    private final BackpressurePolicy backpressurePolicy;
+    private final LongConsumer droppedFrameHandler;
+    private final SlotQueue free;
+    private final SlotQueue captured;
+    private final SlotQueue converted;
+    private final ReentrantLock lock;
+    private final Condition slotReleased;
+    private final Condition slotPublished;
+    private int slotsInConversion;
+    private boolean closed;
+    private boolean aborted;
+
+    FrameRing(FrameSlot[] slots, BackpressurePolicy backpressurePolicy, LongConsumer droppedFrameHandler) {
+        this.backpressurePolicy = backpressurePolicy;
+        this.droppedFrameHandler = droppedFrameHandler;
+        this.free = new SlotQueue(slots.length);
+        this.captured = new SlotQueue(slots.length);
+        this.converted = new SlotQueue(slots.length);
+        this.lock = new ReentrantLock();
+        this.slotReleased = lock.newCondition();
+        this.slotPublished = lock.newCondition();
+        this.slotsInConversion = 0;
+        this.closed = false;
+        this.aborted = false;
+        for (FrameSlot slot : slots) {
+            free.add(slot);
+        }
+    }
+
+    //~~~~~~~~~~ Capture stage
+
+    /**
+     * @param frameIndex the index of the frame about to be captured
+     * @return a slot to capture into, or null if the frame has to be dropped
+     * @throws InterruptedException if interrupted while waiting for a slot
+     */
+    FrameSlot acquireForCapture(long frameIndex) throws InterruptedException {
+        // The drops are reported once the lock is released, so that a slow handler does not hold up the other stages
+        long droppedOldestIndex = -1;
+        FrameSlot slot = null;
+        lock.lock();
+        try {
+            if (free.isEmpty()) {
+                switch (backpressurePolicy) {
+                    case BLOCK:
+                        while (free.isEmpty() && !closed) {
+                            slotReleased.await();
+                        }
+                        break;
+                    case DROP_OLDEST:
+                        if (!captured.isEmpty()) {
+                            FrameSlot oldest = captured.poll();
+                            droppedOldestIndex = oldest.frameIndex;
+                            free.add(oldest);
+                        }
+                        break;
+                    case DROP_NEWEST:
+                        break;
+                }
+            }
+
+            if (!free.isEmpty() && !closed) {
+                slot = free.poll();
+                slot.frameIndex = frameIndex;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (droppedOldestIndex >= 0) {
+            droppedFrameHandler.accept(droppedOldestIndex);
+        }
+        if (slot == null) {
+            droppedFrameHandler.accept(frameIndex);
+        }
+        return slot;
+    }
+
+    void publishCaptured(FrameSlot slot) {
+        lock.lock();
+        try {
+            captured.add(slot);
+            slotPublished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //~~~~~~~~~~ Conversion stage
+
+    FrameSlot takeCaptured() throws InterruptedException {
+        lock.lock();
+        try {
+            while (captured.isEmpty() && !closed && !aborted) {
+                slotPublished.await();
+            }
+            if (aborted) {
+                return null;
+            }
+            FrameSlot slot = captured.poll();
+            if (slot != null) {
+                slotsInConversion++;
+            }
+            return slot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void publishConverted(FrameSlot slot) {
+        lock.lock();
+        try {
+            slotsInConversion--;
+            converted.add(slot);
+            slotPublished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Give a captured slot back without converting it, used to skip frames.
+     */
+    void discardCaptured(FrameSlot slot) {
+        lock.lock();
+        try {
+            slotsInConversion--;
+            slot.frameIndex = -1;
+            free.add(slot);
+            slotReleased.signalAll();
+            slotPublished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //~~~~~~~~~~ Encoding stage
+
+    FrameSlot takeConverted() throws InterruptedException {
+        lock.lock();
+        try {
+            while (converted.isEmpty() && !isConversionDrained() && !aborted) {
+                slotPublished.await();
+            }
+            if (aborted) {
+                return null;
+            }
+            return converted.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(FrameSlot slot) {
+        lock.lock();
+        try {
+            slot.frameIndex = -1;
+            free.add(slot);
+            slotReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting new frames. The frames already in the ring are still handed to the consumers.
+     * The conversion stage sees the end of the ring first, the encoding stage only once conversion has been drained.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            slotReleased.signalAll();
+            slotPublished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop all the stages immediately, the frames still in the ring are discarded.
+     * Used when one of the stages has failed.
+     */
+    void abort() {
+        lock.lock();
+        try {
+            closed = true;
+            aborted = true;
+            slotReleased.signalAll();
+            slotPublished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //~~~~~~~~~~ Helpers
+
+    /*
+      Once closed, no more frames reach the encoding stage after the converter
+      has emptied the captured queue and handed back the slot it was working on.
+     */
+    private boolean isConversionDrained() {
+        return closed && captured.isEmpty() && slotsInConversion == 0;
+    }
+
+    /**
+     * Fixed capacity circular queue of slots. Not thread safe, guarded by the ring lock.
+     */
+    private static class SlotQueue {
+        private final FrameSlot[] elements;
+        private int head;
+        private int size;
+
+        SlotQueue(int capacity) {
+            this.elements = new FrameSlot[capacity];
+            this.head = 0;
+            this.size = 0;
+        }
+
+        void add(FrameSlot slot) {
+            elements[(head + size) % elements.length] = slot;
+            size++;
+        }
+
+        FrameSlot poll() {
+            if (size == 0) {
+                return null;
+            }
+            FrameSlot slot = elements[head];
+            elements[head] = null;
+            head = (head + 1) % elements.length;
+            size--;
+            return slot;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package tdl.record.screen.video;
+
+import io.humble.video.MediaPicture;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Preallocated storage for one frame travelling through the recording pipeline.
+ * The image holds the captured pixels, the picture holds the same frame after colour conversion.
+ */
+class FrameSlot {
+    final BufferedImage image;
+    final MediaPicture picture;
+    long frameIndex;
+
+    FrameSlot(BufferedImage image, MediaPicture picture) {
+        this.image = image;
+        this.picture = picture;
+        this.frameIndex = -1;
+    }
+}
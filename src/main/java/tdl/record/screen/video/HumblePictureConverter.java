@@ -0,0 +1,35 @@
+package tdl.record.screen.video;
+
+import io.humble.video.MediaPicture;
+import io.humble.video.awt.MediaPictureConverter;
+import io.humble.video.awt.MediaPictureConverterFactory;
+import tdl.record.screen.utils.ImageConversion;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Delegates to the generic converter of humble-video.
+ * <p>
+ * The humble converter reads the whole data buffer of the image, so it cannot work on a view into a larger image.
+ * Such views are first copied into a compact buffer, allocated once.
+ */
+class HumblePictureConverter implements PictureConverter {
+    private final MediaPictureConverter converter;
+    private BufferedImage compactImage;
+
+    HumblePictureConverter(BufferedImage sampleImage, MediaPicture samplePicture) {
+        this.converter = MediaPictureConverterFactory.createConverter(sampleImage, samplePicture);
+    }
+
+    @Override
+    public void toPicture(MediaPicture picture, BufferedImage image, long timestamp) {
+        if (!ImageConversion.isCompactBgr(image)) {
+            if (compactImage == null) {
+                compactImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+            }
+            ImageConversion.copy(image, compactImage);
+            image = compactImage;
+        }
+        converter.toPicture(picture, image, timestamp);
+    }
+}
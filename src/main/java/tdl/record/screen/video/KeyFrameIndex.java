@@ -0,0 +1,134 @@
+package tdl.record.screen.video;
+
+import io.humble.video.Demuxer;
+import io.humble.video.DemuxerStream;
+import io.humble.video.MediaPacket;
+import io.humble.video.Rational;
+import tdl.record.screen.mp4.ChunkedFileReader;
+import tdl.record.screen.mp4.FragmentIndex;
+import tdl.record.screen.mp4.FragmentedMp4;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * The decode timestamps of the key frames of a video stream, in the time base of the stream.
+ * A seek starts decoding from the last key frame before the target, the frames before it are never decoded.
+ */
+class KeyFrameIndex {
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    private final long[] timestamps;
+
+    private KeyFrameIndex(long[] timestamps) {
+        this.timestamps = timestamps;
+    }
+
+    /**
+     * Read, without decoding, every packet of the stream up to the end.
+     * Reading the whole video also lets the demuxer learn where each fragment is, so it can seek to any of them.
+     * Only needed for a video that is not a complete fragmented MP4, see {@link #readFragments}.
+     */
+    static KeyFrameIndex scan(Demuxer demuxer, DemuxerStream stream) throws IOException, InterruptedException {
+        Builder builder = new Builder(stream.getStartTime());
+        MediaPacket packet = MediaPacket.make();
+        while (demuxer.read(packet) >= 0) {
+            if (packet.getStreamIndex() == stream.getIndex() && packet.isKeyPacket() && packet.getDts() != NO_TIMESTAMP) {
+                builder.add(packet.getDts());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Take the fragments starting with a key frame from the moof boxes of the video.
+     * Only the box headers and the small moov and moof boxes are read, the media data is skipped, see {@link FragmentedMp4}.
+     * The demuxer finds the fragments through the mfra box at the end of the video, so it can seek to any of them.
+     *
+     * @return the index, or empty if the video is not a complete fragmented MP4, for example a recording cut short
+     */
+    static Optional<KeyFrameIndex> readFragments(Path video, DemuxerStream stream) throws IOException {
+        FragmentedMp4 mp4;
+        try (FileChannel channel = FileChannel.open(video, READ)) {
+            mp4 = FragmentedMp4.scan(new ChunkedFileReader(channel));
+        }
+        if (!mp4.isComplete() || mp4.getTrackTimescale() == 0) {
+            return Optional.empty();
+        }
+
+        Builder builder = new Builder(stream.getStartTime());
+        Rational trackTimeBase = Rational.make(1, (int) mp4.getTrackTimescale());
+        // The samples stored with the moov play from the start of the video
+        builder.add(stream.getTimeBase().rescale(0, trackTimeBase));
+        for (FragmentedMp4.Fragment fragment : mp4.getFragments()) {
+            if (fragment.startsWithKeyFrame()) {
+                builder.add(stream.getTimeBase().rescale(fragment.getBaseDecodeTime(), trackTimeBase));
+            }
+        }
+        return Optional.of(builder.build());
+    }
+
+    /**
+     * Take the fragments starting with a key frame from the index written while recording.
+     */
+    static KeyFrameIndex load(FragmentIndex fragmentIndex, DemuxerStream stream) throws IOException {
+        Builder builder = new Builder(stream.getStartTime());
+        Rational indexTimeBase = Rational.make(1, (int) fragmentIndex.getTimescale());
+        for (int i = 0; i < fragmentIndex.size(); i++) {
+            FragmentIndex.Entry entry = fragmentIndex.get(i);
+            if (entry.startsWithKeyFrame()) {
+                builder.add(stream.getTimeBase().rescale(entry.getDecodeTime(), indexTimeBase));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the last key frame at or before the timestamp, or the first key frame if the timestamp is before it
+     */
+    long floor(long timestamp) {
+        int found = Arrays.binarySearch(timestamps, timestamp);
+        if (found >= 0) {
+            return timestamps[found];
+        }
+        int insertionPoint = -found - 1;
+        return timestamps[Math.max(insertionPoint - 1, 0)];
+    }
+
+    int size() {
+        return timestamps.length;
+    }
+
+    private static class Builder {
+        private final long streamStartTime;
+        private long[] timestamps;
+        private int size;
+
+        Builder(long streamStartTime) {
+            this.streamStartTime = streamStartTime;
+            this.timestamps = new long[64];
+            this.size = 0;
+        }
+
+        void add(long timestamp) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+            }
+            timestamps[size++] = timestamp;
+        }
+
+        KeyFrameIndex build() {
+            if (size == 0) {
+                // Without any key frame known, every seek decodes from the start of the stream
+                add(streamStartTime);
+            }
+            long[] sorted = Arrays.copyOf(timestamps, size);
+            Arrays.sort(sorted);
+            return new KeyFrameIndex(Arrays.stream(sorted).distinct().toArray());
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package tdl.record.screen.video;
+
+import io.humble.video.Rational;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tdl.record.screen.image.input.EnsureEvenHeightAndWidth;
+import tdl.record.screen.image.input.ImageInput;
+import tdl.record.screen.image.input.InputImageGenerationException;
+import tdl.record.screen.metrics.VideoRecordingListener;
+import tdl.record.screen.metrics.VideoRecordingMetricsCollector;
+import tdl.record.screen.sink.VideoSink;
+import tdl.record.screen.time.FrameScheduler;
+import tdl.record.screen.time.SystemTimeSource;
+import tdl.record.screen.time.TimeSource;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Records several screens at once, one video file per screen.
+ * <p>
+ * A single frame clock drives all the screens. When a frame is due, every screen is captured at the same time
+ * on its own capture thread, and the spread between the times the captures end is reported as the skew of the frame.
+ * The captured frames are converted and encoded on a bounded pool of workers shared by all the screens,
+ * rather than a full recording thread per screen.
+ */
+public class MultiScreenRecorder {
+    private static final Logger log = LoggerFactory.getLogger(MultiScreenRecorder.class);
+    static final int FRAME_SLOTS_PER_SCREEN = 3;
+    private final List<ScreenChannel> channels;
+    private final TimeSource timeSource;
+    private final VideoRecordingListener videoRecordingListener;
+    private final StageTimer stageTimer;
+    private final long fragmentationMicros;
+    private final int encodingWorkers;
+    private final ColourConversion colourConversion;
+    private final EncodingProfile encodingProfile;
+    private final VideoSink sink;
+    private final boolean fragmentIndex;
+    private final AtomicReference<Throwable> failure;
+    private final AtomicBoolean shouldStopJob = new AtomicBoolean(false);
+    private ExecutorService capturePool;
+    private ExecutorService encodingPool;
+    private CyclicBarrier captureStart;
+    private List<Callable<Long>> captureTasks;
+    private long capturingFrameIndex;
+    private RecordingClock recordingClock;
+    private Rational videoFrameRate;
+    private Rational inputFrameRate;
+    private String destinationFilename;
+
+    private MultiScreenRecorder(List<ImageInput> screens, TimeSource timeSource,
+                                VideoRecordingListener videoRecordingListener, long fragmentationMicros,
+                                int encodingWorkers, BackpressurePolicy backpressurePolicy,
+                                ColourConversion colourConversion, EncodingProfile encodingProfile,
+                                VideoSink sink, boolean fragmentIndex) {
+        this.failure = new AtomicReference<>();
+        this.stageTimer = new StageTimer(videoRecordingListener, timeSource);
+        this.channels = new ArrayList<>();
+        for (ImageInput screen : screens) {
+            channels.add(new ScreenChannel(new EnsureEvenHeightAndWidth(screen), backpressurePolicy, stageTimer,
+                    frameIndex -> videoRecordingListener.notifyFrameDropped(
+                            timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, frameIndex),
+                    this::fail));
+        }
+        this.timeSource = timeSource;
+        this.videoRecordingListener = videoRecordingListener;
+        this.fragmentationMicros = fragmentationMicros;
+        this.encodingWorkers = encodingWorkers;
+        this.colourConversion = colourConversion;
+        this.encodingProfile = encodingProfile;
+        this.sink = sink;
+        this.fragmentIndex = fragmentIndex;
+    }
+
+    @SuppressWarnings("SameParameterValue")
+    public static class Builder {
+        private final List<ImageInput> bScreens;
+        private TimeSource bTimeSource;
+        private VideoRecordingListener bVideoRecordingListener;
+        private long bFragmentationMicros;
+        private int bEncodingWorkers;
+        private BackpressurePolicy bBackpressurePolicy;
+        private ColourConversion bColourConversion;
+        private EncodingProfile bEncodingProfile;
+        private VideoSink bSink;
+        private boolean bFragmentIndex;
+
+        public Builder(List<ImageInput> screens) {
+            if (screens.isEmpty()) {
+                throw new IllegalArgumentException("At least one screen is needed");
+            }
+            bScreens = screens;
+            bTimeSource = new SystemTimeSource();
+            bVideoRecordingListener = new VideoRecordingMetricsCollector();
+            bFragmentationMicros = TimeUnit.MINUTES.toMicros(5);
+            bEncodingWorkers = Math.max(1, Math.min(screens.size(), Runtime.getRuntime().availableProcessors() / 2));
+            bBackpressurePolicy = BackpressurePolicy.BLOCK;
+            bColourConversion = ColourConversion.HUMBLE;
+            bEncodingProfile = EncodingProfile.PLATFORM_DEFAULT;
+            bSink = null;
+            bFragmentIndex = false;
+        }
+
+        public Builder withTimeSource(TimeSource timeSource) {
+            this.bTimeSource = timeSource;
+            return this;
+        }
+
+        /**
+         * The listener follows the shared frame clock. A frame is rendered once all the screens have captured it.
+         * Dropped frames are reported for each screen.
+         *
+         * @param videoRecordingListener the listener, it also receives the capture skew of every frame
+         * @return the builder
+         */
+        public Builder withRecordingListener(VideoRecordingListener videoRecordingListener) {
+            this.bVideoRecordingListener = videoRecordingListener;
+            return this;
+        }
+
+        public Builder withFragmentation(int fragmentation, TimeUnit timeUnit) {
+            this.bFragmentationMicros = timeUnit.toMicros(fragmentation);
+            return this;
+        }
+
+        /**
+         * @param encodingWorkers the number of threads converting and encoding the frames of all the screens,
+         *                        by default one per screen up to half the processors
+         * @return the builder
+         */
+        public Builder withEncodingWorkers(int encodingWorkers) {
+            if (encodingWorkers < 1) {
+                throw new IllegalArgumentException("At least one encoding worker is needed");
+            }
+            this.bEncodingWorkers = encodingWorkers;
+            return this;
+        }
+
+        /**
+         * @param backpressurePolicy what a screen does with new frames when all its slots are waiting to be encoded.
+         *                           Blocking delays the capture of that screen only, which shows as skew
+         * @return the builder
+         */
+        public Builder withBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+            this.bBackpressurePolicy = backpressurePolicy;
+            return this;
+        }
+
+        public Builder withColourConversion(ColourConversion colourConversion) {
+            this.bColourConversion = colourConversion;
+            return this;
+        }
+
+        public Builder withEncodingProfile(EncodingProfile encodingProfile) {
+            this.bEncodingProfile = encodingProfile;
+            return this;
+        }
+
+        /**
+         * Hand the bytes of the videos to a sink, see {@link VideoRecorder.Builder#withSink(VideoSink)}.
+         *
+         * @return the builder
+         */
+        public Builder withSink(VideoSink sink) {
+            this.bSink = sink;
+            return this;
+        }
+
+        /**
+         * Write a sidecar index next to the video of each screen, see {@link VideoRecorder.Builder#withFragmentIndex()}.
+         *
+         * @return the builder
+         */
+        public Builder withFragmentIndex() {
+            this.bFragmentIndex = true;
+            return this;
+        }
+
+        public MultiScreenRecorder build() {
+            return new MultiScreenRecorder(bScreens, bTimeSource, bVideoRecordingListener, bFragmentationMicros,
+                    bEncodingWorkers, bBackpressurePolicy, bColourConversion, bEncodingProfile, bSink, bFragmentIndex);
+        }
+    }
+
+    /**
+     * Open every screen and its video file.
+     *
+     * @param filename the screens are recorded next to it, recording.mp4 gives recording-screen1.mp4, recording-screen2.mp4, ...
+     */
+    public void open(String filename, int snapsPerSecond, int timeSpeedUpFactor) throws VideoRecorderException {
+        stageTimer.recorderOpening();
+        destinationFilename = filename;
+        inputFrameRate = Rational.make(1, snapsPerSecond);
+        videoFrameRate = Rational.make(1, timeSpeedUpFactor * snapsPerSecond);
+        recordingClock = fragmentIndex ? new RecordingClock(snapsPerSecond, timeSpeedUpFactor) : null;
+
+        for (int i = 0; i < channels.size(); i++) {
+            ScreenChannel channel = channels.get(i);
+            ImageInput imageInput = channel.getImageInput();
+            log.info("Open the input stream of screen {}", i + 1);
+            try {
+                imageInput.open();
+            } catch (InputImageGenerationException e) {
+                throw new VideoRecorderException("Could not open input source of screen " + (i + 1), e);
+            }
+
+            EncodingSession session = EncodingSession.open(screenFilename(i), imageInput.getWidth(), imageInput.getHeight(),
+                    videoFrameRate, fragmentationMicros, encodingProfile, stageTimer, sink, recordingClock, null);
+            channel.open(session, colourConversion, videoFrameRate);
+        }
+
+        capturePool = Executors.newFixedThreadPool(channels.size(), namedThreads("recorder-capture-"));
+        captureStart = new CyclicBarrier(channels.size());
+        captureTasks = new ArrayList<>();
+        for (ScreenChannel channel : channels) {
+            captureTasks.add(() -> {
+                captureStart.await();
+                return channel.capture(capturingFrameIndex, encodingPool);
+            });
+        }
+        encodingPool = Executors.newFixedThreadPool(encodingWorkers, namedThreads("recorder-encoding-"));
+    }
+
+    public String screenFilename(int screenIndex) {
+        return OutputFilenames.withSuffix(destinationFilename, "-screen" + (screenIndex + 1));
+    }
+
+    public void start(Duration duration) throws VideoRecorderException {
+        record(inputFrameRate.rescale(duration.getSeconds(), Rational.make(1)));
+    }
+
+    /**
+     * Record until {@link #stop()} is called.
+     *
+     * @throws VideoRecorderException if the recording had to be stopped
+     */
+    public void startContinuous() throws VideoRecorderException {
+        record(Double.POSITIVE_INFINITY);
+    }
+
+    private void record(double totalNumberOfFrames) throws VideoRecorderException {
+        try {
+            videoRecordingListener.notifyRecordingStart(destinationFilename, inputFrameRate, videoFrameRate);
+            if (recordingClock != null) {
+                recordingClock.start(Instant.now());
+            }
+            recordFrames(totalNumberOfFrames);
+        } catch (RuntimeException e) {
+            throw new VideoRecorderException("Fatal exception while recording", e);
+        } finally {
+            finishEncoding();
+            videoRecordingListener.notifyRecordingEnd();
+        }
+    }
+
+    private void recordFrames(double totalNumberOfFrames) {
+        FrameScheduler frameScheduler = new FrameScheduler(timeSource, inputFrameRate.getDenominator());
+        frameScheduler.start();
+        long frameIndex = 0;
+        while (frameIndex < totalNumberOfFrames) {
+            rethrowFailure();
+            videoRecordingListener.notifyFrameRenderingStart(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, frameIndex);
+
+            try {
+                captureAllScreens(frameIndex);
+            } catch (InputImageGenerationException e) {
+                log.error("Failed to acquire image", e);
+                break;
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while capturing the screens", e);
+                break;
+            }
+
+            videoRecordingListener.notifyFrameRenderingEnd(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, frameIndex);
+
+            // Allow a different thread to stop the recording
+            if (shouldStopJob.get()) {
+                break;
+            }
+
+            // Same as a single screen, deadlines are anchored to the start and the slots that have passed are skipped
+            long nextFrameIndex = frameScheduler.nextFrameIndex(frameIndex);
+            if (nextFrameIndex < totalNumberOfFrames) {
+                long skippedSlots = nextFrameIndex - frameIndex - 1;
+                if (skippedSlots > 0) {
+                    videoRecordingListener.notifyFrameSlotsSkipped(
+                            timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, frameIndex + 1, skippedSlots);
+                }
+                try {
+                    long latenessNanos = frameScheduler.awaitDeadline(nextFrameIndex);
+                    videoRecordingListener.notifyFrameLateness(
+                            timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, nextFrameIndex, latenessNanos);
+                } catch (InterruptedException e) {
+                    log.debug("Interrupted while sleeping", e);
+                }
+            }
+            frameIndex = nextFrameIndex;
+        }
+    }
+
+    /*
+      Each capture task runs on the thread of its screen and waits at the barrier until all the others have started,
+      so that they are released together. The skew is the spread of the times the screens finished reading the frame.
+     */
+    private void captureAllScreens(long frameIndex) throws InputImageGenerationException, InterruptedException {
+        // Published to the capture threads by the submission of the tasks
+        capturingFrameIndex = frameIndex;
+        long firstCapture = Long.MAX_VALUE;
+        long lastCapture = Long.MIN_VALUE;
+        for (Future<Long> capture : capturePool.invokeAll(captureTasks)) {
+            Long captureTimestamp;
+            try {
+                captureTimestamp = capture.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof InputImageGenerationException) {
+                    throw (InputImageGenerationException) e.getCause();
+                }
+                throw new IllegalStateException("Screen capture failed", e.getCause());
+            }
+            if (captureTimestamp >= 0) {
+                firstCapture = Math.min(firstCapture, captureTimestamp);
+                lastCapture = Math.max(lastCapture, captureTimestamp);
+            }
+        }
+
+        if (firstCapture <= lastCapture) {
+            videoRecordingListener.notifyCaptureSkew(
+                    timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, frameIndex, lastCapture - firstCapture);
+        }
+    }
+
+    /*
+      Wait for the frames still queued, then flush the encoders. The pools are not needed after this.
+      Nothing was recorded if the recorder did not open.
+     */
+    private void finishEncoding() {
+        if (capturePool == null) {
+            return;
+        }
+        capturePool.shutdown();
+        try {
+            for (ScreenChannel channel : channels) {
+                channel.awaitEncoded();
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for the frames to be encoded", e);
+            Thread.currentThread().interrupt();
+        }
+        encodingPool.shutdown();
+
+        log.info("Flushing remaining frames");
+        for (ScreenChannel channel : channels) {
+            channel.getOutput().flush();
+        }
+    }
+
+    public void stop() {
+        if (!shouldStopJob.get()) {
+            log.info("Stopping recording");
+            shouldStopJob.set(true);
+        } else {
+            log.info("Recording already stopping");
+        }
+    }
+
+    /**
+     * Close every screen and its video file, even if closing one of them fails.
+     * The screens that did not open have no video file.
+     */
+    public void close() {
+        log.info("Closing the video streams");
+        IOException closeFailure = null;
+        for (ScreenChannel channel : channels) {
+            channel.getImageInput().close();
+            if (channel.getOutput() == null) {
+                continue;
+            }
+            try {
+                channel.getOutput().close();
+            } catch (IOException e) {
+                if (closeFailure == null) {
+                    closeFailure = e;
+                } else {
+                    closeFailure.addSuppressed(e);
+                }
+            }
+        }
+        if (closeFailure != null) {
+            throw new RuntimeException("Can't finalise the video file.", closeFailure);
+        }
+    }
+
+    private void fail(Throwable e) {
+        log.error("Encoding of a screen failed", e);
+        failure.compareAndSet(null, e);
+    }
+
+    private void rethrowFailure() {
+        Throwable cause = failure.get();
+        if (cause != null) {
+            throw new IllegalStateException("Encoding stopped", cause);
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        return runnable -> new Thread(runnable, prefix + threadNumber.getAndIncrement());
+    }
+}
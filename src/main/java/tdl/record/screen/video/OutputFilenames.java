@@ -0,0 +1,30 @@
+package tdl.record.screen.video;
+
+/**
+ * Names of the files derived from the destination of a recording, recording.mp4 gives recording-00001.mp4 and so on.
+ */
+final class OutputFilenames {
+
+    private OutputFilenames() {
+    }
+
+    /**
+     * @return the filename with the suffix inserted before the extension
+     */
+    static String withSuffix(String filename, String suffix) {
+        return baseName(filename) + suffix + extension(filename);
+    }
+
+    /**
+     * @return the filename without its extension
+     */
+    static String baseName(String filename) {
+        return filename.substring(0, filename.length() - extension(filename).length());
+    }
+
+    private static String extension(String filename) {
+        int extensionStart = filename.lastIndexOf('.');
+        int nameStart = Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\'));
+        return extensionStart > nameStart ? filename.substring(extensionStart) : "";
+    }
+}
@@ -0,0 +1,155 @@
+package tdl.record.screen.video;
+
+import io.humble.ferry.Buffer;
+import io.humble.video.MediaPicture;
+import io.humble.video.PixelFormat;
+import tdl.record.screen.utils.ImageConversion;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts TYPE_3BYTE_BGR frames to YUV420P pictures without going through the generic AWT path.
+ * <p>
+ * The BGR bytes are read straight from the raster and the Y, U and V planes are written straight into the picture buffers.
+ * The coefficients are the BT.601 limited range ones used by ffmpeg, scaled by 256 so that only integer arithmetic is needed.
+ * Each chroma sample is computed from the average of the 2x2 block of pixels it covers.
+ * <p>
+ * The frame is split in horizontal stripes of whole chroma rows, converted in parallel on a ForkJoin pool.
+ */
+class ParallelYuv420pConverter implements PictureConverter {
+    private static final int MIN_CHROMA_ROWS_PER_STRIPE = 16;
+    private final ForkJoinPool pool;
+
+    ParallelYuv420pConverter(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void toPicture(MediaPicture picture, BufferedImage image, long timestamp) {
+        if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            throw new IllegalArgumentException("Only TYPE_3BYTE_BGR images can be converted, got type " + image.getType());
+        }
+        if (picture.getFormat() != PixelFormat.Type.PIX_FMT_YUV420P) {
+            throw new IllegalArgumentException("Only YUV420P pictures can be filled, got " + picture.getFormat());
+        }
+        if (picture.getWidth() != image.getWidth() || picture.getHeight() != image.getHeight()) {
+            throw new IllegalArgumentException("The picture and the image must have the same size");
+        }
+
+        Buffer yData = picture.getData(0);
+        Buffer uData = picture.getData(1);
+        Buffer vData = picture.getData(2);
+        try {
+            Frame frame = new Frame(image,
+                    yData.getByteBuffer(0, picture.getDataPlaneSize(0)), picture.getLineSize(0),
+                    uData.getByteBuffer(0, picture.getDataPlaneSize(1)), picture.getLineSize(1),
+                    vData.getByteBuffer(0, picture.getDataPlaneSize(2)), picture.getLineSize(2));
+            pool.invoke(new StripeConversion(frame, 0, image.getHeight() / 2));
+        } finally {
+            yData.delete();
+            uData.delete();
+            vData.delete();
+        }
+
+        picture.setTimeStamp(timestamp);
+        picture.setComplete(true);
+    }
+
+    /*
+      The source raster can be a view into a larger image, so rows are addressed through the sample model.
+     */
+    private static class Frame {
+        final byte[] bgr;
+        final int firstPixelOffset;
+        final int scanlineStride;
+        final int width;
+        final ByteBuffer y;
+        final int yLineSize;
+        final ByteBuffer u;
+        final int uLineSize;
+        final ByteBuffer v;
+        final int vLineSize;
+
+        Frame(BufferedImage image,
+              ByteBuffer y, int yLineSize, ByteBuffer u, int uLineSize, ByteBuffer v, int vLineSize) {
+            Raster raster = image.getRaster();
+            this.bgr = ((DataBufferByte) raster.getDataBuffer()).getData();
+            this.scanlineStride = ImageConversion.scanlineStride(raster);
+            this.firstPixelOffset = ImageConversion.firstPixelOffset(raster);
+            this.width = image.getWidth();
+            this.y = y;
+            this.yLineSize = yLineSize;
+            this.u = u;
+            this.uLineSize = uLineSize;
+            this.v = v;
+            this.vLineSize = vLineSize;
+        }
+    }
+
+    private static class StripeConversion extends RecursiveAction {
+        private final Frame frame;
+        private final int firstChromaRow;
+        private final int endChromaRow;
+
+        StripeConversion(Frame frame, int firstChromaRow, int endChromaRow) {
+            this.frame = frame;
+            this.firstChromaRow = firstChromaRow;
+            this.endChromaRow = endChromaRow;
+        }
+
+        @Override
+        protected void compute() {
+            int chromaRows = endChromaRow - firstChromaRow;
+            if (chromaRows > MIN_CHROMA_ROWS_PER_STRIPE) {
+                int middle = firstChromaRow + chromaRows / 2;
+                invokeAll(new StripeConversion(frame, firstChromaRow, middle),
+                        new StripeConversion(frame, middle, endChromaRow));
+                return;
+            }
+
+            for (int chromaRow = firstChromaRow; chromaRow < endChromaRow; chromaRow++) {
+                convertRowPair(chromaRow);
+            }
+        }
+
+        private void convertRowPair(int chromaRow) {
+            byte[] bgr = frame.bgr;
+            ByteBuffer y = frame.y;
+            int top = frame.firstPixelOffset + 2 * chromaRow * frame.scanlineStride;
+            int bottom = top + frame.scanlineStride;
+            int yTop = 2 * chromaRow * frame.yLineSize;
+            int yBottom = yTop + frame.yLineSize;
+            int uIndex = chromaRow * frame.uLineSize;
+            int vIndex = chromaRow * frame.vLineSize;
+
+            for (int x = 0; x < frame.width; x += 2) {
+                int b0 = bgr[top] & 0xff, g0 = bgr[top + 1] & 0xff, r0 = bgr[top + 2] & 0xff;
+                int b1 = bgr[top + 3] & 0xff, g1 = bgr[top + 4] & 0xff, r1 = bgr[top + 5] & 0xff;
+                int b2 = bgr[bottom] & 0xff, g2 = bgr[bottom + 1] & 0xff, r2 = bgr[bottom + 2] & 0xff;
+                int b3 = bgr[bottom + 3] & 0xff, g3 = bgr[bottom + 4] & 0xff, r3 = bgr[bottom + 5] & 0xff;
+                top += 6;
+                bottom += 6;
+
+                y.put(yTop + x, luma(r0, g0, b0));
+                y.put(yTop + x + 1, luma(r1, g1, b1));
+                y.put(yBottom + x, luma(r2, g2, b2));
+                y.put(yBottom + x + 1, luma(r3, g3, b3));
+
+                int r = (r0 + r1 + r2 + r3 + 2) >> 2;
+                int g = (g0 + g1 + g2 + g3 + 2) >> 2;
+                int b = (b0 + b1 + b2 + b3 + 2) >> 2;
+                frame.u.put(uIndex++, (byte) (((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128));
+                frame.v.put(vIndex++, (byte) (((112 * r - 94 * g - 18 * b + 128) >> 8) + 128));
+            }
+        }
+
+        private static byte luma(int r, int g, int b) {
+            return (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+        }
+    }
+}
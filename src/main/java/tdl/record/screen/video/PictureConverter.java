@@ -0,0 +1,18 @@
+package tdl.record.screen.video;
+
+import io.humble.video.MediaPicture;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Converts a captured TYPE_3BYTE_BGR frame into the picture passed to the encoder.
+ */
+interface PictureConverter {
+
+    /**
+     * @param picture   the picture to fill, with the same size as the image
+     * @param image     the captured frame
+     * @param timestamp the timestamp of the picture, in the time base of the picture
+     */
+    void toPicture(MediaPicture picture, BufferedImage image, long timestamp);
+}
@@ -0,0 +1,122 @@
+package tdl.record.screen.video;
+
+import io.humble.video.Encoder;
+import io.humble.video.MediaPacket;
+import io.humble.video.MediaPicture;
+import io.humble.video.PixelFormat;
+import io.humble.video.Rational;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Does the one-off work of the first recording on a background thread, while the application looks for the screens.
+ * <p>
+ * The native libraries of humble-video are loaded, the MP4 codec is resolved and cached for the encoders to come,
+ * and a small encoder is opened with the profile of the recording, which initialises the codec libraries.
+ * Optionally, a throwaway frame goes through the colour conversion and the encoder.
+ * The size of the screen is not known yet, so the encoder of the recording is still opened by {@link VideoRecorder#open};
+ * the warm-up only removes the first time costs from it.
+ * <p>
+ * Call {@link #await()} before opening the recorder, it reports the failures of the warm-up,
+ * a missing native library for example, like {@link VideoRecorder#runSanityCheck()} would.
+ */
+public class RecorderWarmUp {
+    private static final Logger log = LoggerFactory.getLogger(RecorderWarmUp.class);
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 64;
+    private static final int VIDEO_FRAMES_PER_SECOND = 16;
+    private final EncodingProfile encodingProfile;
+    private final boolean encodeThrowawayFrame;
+    private final FutureTask<Duration> task;
+
+    private RecorderWarmUp(EncodingProfile encodingProfile, boolean encodeThrowawayFrame) {
+        this.encodingProfile = encodingProfile;
+        this.encodeThrowawayFrame = encodeThrowawayFrame;
+        this.task = new FutureTask<>(this::warmUp);
+    }
+
+    /**
+     * @param encodingProfile      the profile the recording will use
+     * @param encodeThrowawayFrame whether to also convert and encode a frame, which takes longer but primes more of the codec
+     */
+    public static RecorderWarmUp start(EncodingProfile encodingProfile, boolean encodeThrowawayFrame) {
+        RecorderWarmUp warmUp = new RecorderWarmUp(encodingProfile, encodeThrowawayFrame);
+        Thread thread = new Thread(warmUp.task, "recorder-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+        return warmUp;
+    }
+
+    /**
+     * Wait for the warm-up to finish.
+     *
+     * @return the time the warm-up took on its thread
+     * @throws VideoRecorderException if the encoder cannot be used, the recording would fail too
+     */
+    public Duration await() throws VideoRecorderException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            throw new VideoRecorderException("Could not warm up the recorder", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VideoRecorderException("Interrupted while warming up the recorder", e);
+        }
+    }
+
+    public boolean isDone() {
+        return task.isDone();
+    }
+
+    private Duration warmUp() {
+        long start = System.nanoTime();
+        VideoRecorder.runSanityCheck();
+
+        // Created here rather than in a constant, it would load the native libraries on the thread using the class
+        Rational videoFrameRate = Rational.make(1, VIDEO_FRAMES_PER_SECOND);
+        Encoder encoder = Encoder.make(EncodingSession.getMP4Codec());
+        encoder.setWidth(WIDTH);
+        encoder.setHeight(HEIGHT);
+        encoder.setPixelFormat(PixelFormat.Type.PIX_FMT_YUV420P);
+        encoder.setTimeBase(videoFrameRate);
+        try {
+            encoder.open(encodingProfile.toCodecOptions(videoFrameRate), null);
+            if (encodeThrowawayFrame) {
+                encodeThrowawayFrame(encoder, videoFrameRate);
+            }
+        } finally {
+            encoder.delete();
+        }
+
+        Duration duration = Duration.ofNanos(System.nanoTime() - start);
+        log.info("Recorder warmed up in {} ms", duration.toMillis());
+        return duration;
+    }
+
+    /*
+      Frames are always read into TYPE_3BYTE_BGR buffers, the same conversion as the recording
+     */
+    private static void encodeThrowawayFrame(Encoder encoder, Rational videoFrameRate) {
+        MediaPicture picture = MediaPicture.make(WIDTH, HEIGHT, PixelFormat.Type.PIX_FMT_YUV420P);
+        picture.setTimeBase(videoFrameRate);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        new HumblePictureConverter(image, picture).toPicture(picture, image, 0);
+
+        MediaPacket packet = MediaPacket.make();
+        encode(encoder, packet, picture);
+        encode(encoder, packet, null);
+        packet.delete();
+        picture.delete();
+    }
+
+    private static void encode(Encoder encoder, MediaPacket packet, MediaPicture picture) {
+        do {
+            encoder.encode(packet, picture);
+        } while (packet.isComplete());
+    }
+}
@@ -0,0 +1,40 @@
+package tdl.record.screen.video;
+
+import tdl.record.screen.mp4.FragmentIndexWriter;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Ties the frames of a recording to the wall clock. Frame n is captured n snaps after the start of the recording,
+ * as the frame deadlines are anchored to the start.
+ */
+class RecordingClock {
+    private final int snapsPerSecond;
+    private final int videoFramesPerSecond;
+    private volatile long startEpochMillis;
+
+    RecordingClock(int snapsPerSecond, int timeSpeedUpFactor) {
+        this.snapsPerSecond = snapsPerSecond;
+        this.videoFramesPerSecond = snapsPerSecond * timeSpeedUpFactor;
+        this.startEpochMillis = System.currentTimeMillis();
+    }
+
+    void start(Instant start) {
+        this.startEpochMillis = start.toEpochMilli();
+    }
+
+    long toEpochMillis(long frameIndex) {
+        return startEpochMillis + TimeUnit.SECONDS.toMillis(frameIndex) / snapsPerSecond;
+    }
+
+    /**
+     * @param firstFrameIndex the frame at the start of the video, for a video that is one segment of the recording.
+     *                        Read when a time is mapped, the video may be opened before its first frame is known.
+     */
+    FragmentIndexWriter.WallClock forVideoStartingAt(LongSupplier firstFrameIndex) {
+        return (decodeTime, timescale) ->
+                toEpochMillis(firstFrameIndex.getAsLong() + decodeTime * videoFramesPerSecond / timescale);
+    }
+}
@@ -0,0 +1,281 @@
+package tdl.record.screen.video;
+
+import io.humble.video.MediaPicture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tdl.record.screen.mp4.FragmentIndex;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Splits the recording into consecutive segment files, so that a recording can run all day.
+ * <p>
+ * A new segment is started when the current one reaches the maximum duration or size.
+ * The next segment is opened ahead of time on a background thread, the rotation only swaps it in,
+ * then the previous one is flushed and closed on the same background thread, so the capture carries on during the rotation.
+ * The segment opened ahead of time for a rotation that never came is deleted on close.
+ * <p>
+ * When the segments on disk exceed the quota, the oldest complete segments are deleted.
+ * The segments on disk are listed in a {@link SegmentManifest} next to them, started with the capture time of the first frame.
+ * The manifest is only written by the background thread.
+ */
+class RollingSegments implements FrameOutput {
+    private static final Logger log = LoggerFactory.getLogger(RollingSegments.class);
+    private final String destinationFilename;
+    private final SegmentOpener segmentOpener;
+    private final RecordingClock recordingClock;
+    private final long maxSegmentFrames;
+    private final long maxSegmentBytes;
+    private final long diskQuotaBytes;
+    private final int snapsPerSecond;
+    private final Path manifestPath;
+    private final ExecutorService finaliser;
+    private final AtomicReference<Throwable> finaliserFailure;
+    private SegmentManifest manifest;
+    private EncodingSession current;
+    private Future<EncodingSession> next;
+    private long firstFrameIndex;
+    private boolean rotateOnNextFrame;
+    private int nextSegmentNumber;
+
+    interface SegmentOpener {
+        EncodingSession open(String filename) throws VideoRecorderException;
+    }
+
+    private RollingSegments(String destinationFilename, SegmentOpener segmentOpener, RecordingClock recordingClock,
+                            long maxSegmentFrames, long maxSegmentBytes, long diskQuotaBytes, int snapsPerSecond) {
+        this.destinationFilename = destinationFilename;
+        this.segmentOpener = segmentOpener;
+        this.recordingClock = recordingClock;
+        this.maxSegmentFrames = maxSegmentFrames;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.diskQuotaBytes = diskQuotaBytes;
+        this.snapsPerSecond = snapsPerSecond;
+        this.manifestPath = Paths.get(OutputFilenames.baseName(destinationFilename) + ".segments");
+        this.finaliser = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "recorder-segment-finaliser"));
+        this.finaliserFailure = new AtomicReference<>();
+        this.firstFrameIndex = -1;
+        this.nextSegmentNumber = 0;
+    }
+
+    /**
+     * Open the first segment, and start opening the second one in the background.
+     *
+     * @param destinationFilename the segments are named after it, recording.mp4 gives recording-00000.mp4, recording-00001.mp4, ...
+     * @param recordingClock      gives the capture time of the first frame, written at the top of the manifest
+     * @param maxSegmentFrames    the number of captured frames after which a new segment is started, 0 for no limit
+     * @param maxSegmentBytes     the size after which a new segment is started, 0 for no limit
+     * @param diskQuotaBytes      the total size of the segments to keep on disk, 0 for no limit
+     */
+    static RollingSegments open(String destinationFilename, SegmentOpener segmentOpener, RecordingClock recordingClock,
+                                long maxSegmentFrames, long maxSegmentBytes, long diskQuotaBytes, int snapsPerSecond)
+            throws VideoRecorderException {
+        RollingSegments rollingSegments = new RollingSegments(destinationFilename, segmentOpener, recordingClock,
+                maxSegmentFrames, maxSegmentBytes, diskQuotaBytes, snapsPerSecond);
+        rollingSegments.current = rollingSegments.openSegment();
+        rollingSegments.next = rollingSegments.finaliser.submit(rollingSegments::openSegment);
+        return rollingSegments;
+    }
+
+    @Override
+    public void encode(MediaPicture picture) {
+        long frameIndex = picture.getTimeStamp();
+        if (firstFrameIndex < 0) {
+            start(frameIndex);
+        } else if (rotateOnNextFrame || isFull(current, frameIndex)) {
+            rotateOnNextFrame = false;
+            rotate(frameIndex);
+        }
+        current.encode(picture);
+    }
+
+    /**
+     * Start a new segment at the next frame, for frames of a new size. Call once the recording has started.
+     * The next segment is opened again with the new size, the one opened ahead of time at the old size is discarded.
+     */
+    void startNewSegment() {
+        Future<EncodingSession> unused = next;
+        finaliser.execute(() -> discard(unused));
+        next = finaliser.submit(this::openSegment);
+        rotateOnNextFrame = true;
+    }
+
+    @Override
+    public void flush() {
+        current.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        Future<EncodingSession> unused = next;
+        finaliser.execute(() -> discard(unused));
+        finaliser.shutdown();
+        try {
+            if (!finaliser.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Previous segments still being finalised");
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for the previous segments to be finalised", e);
+            Thread.currentThread().interrupt();
+        }
+
+        if (manifest != null) {
+            finalise(current, toMillis(current.getLastFrameIndex() + 1));
+            enforceDiskQuota();
+        } else {
+            current.close();
+        }
+
+        Throwable failure = finaliserFailure.get();
+        if (failure != null) {
+            throw new IOException("Could not finalise a segment", failure);
+        }
+    }
+
+    //~~~~~~~~~~ Rotation
+
+    private boolean isFull(EncodingSession session, long frameIndex) {
+        if (session.getLastFrameIndex() < session.getFirstFrameIndex()) {
+            return false;
+        }
+        return (maxSegmentFrames > 0 && frameIndex - session.getFirstFrameIndex() >= maxSegmentFrames)
+                || (maxSegmentBytes > 0 && session.getBytesWritten() >= maxSegmentBytes);
+    }
+
+    /*
+      The manifest is created once the time of the first frame is known
+     */
+    private void start(long frameIndex) {
+        firstFrameIndex = frameIndex;
+        current.startAt(frameIndex);
+        EncodingSession first = current;
+        Instant recordingStart = Instant.ofEpochMilli(recordingClock.toEpochMillis(frameIndex));
+        finaliser.execute(() -> {
+            manifest = new SegmentManifest(manifestPath, recordingStart);
+            manifest.add(Paths.get(first.getFilename()), 0);
+        });
+    }
+
+    private void rotate(long frameIndex) {
+        EncodingSession previous = current;
+        current = takeNextSegment();
+        current.startAt(frameIndex);
+        log.info("Started segment {}", current.getFilename());
+        EncodingSession started = current;
+        long rotationMillis = toMillis(frameIndex);
+        finaliser.execute(() -> {
+            manifest.add(Paths.get(started.getFilename()), rotationMillis);
+            try {
+                previous.flush();
+                finalise(previous, rotationMillis);
+                enforceDiskQuota();
+            } catch (IOException | RuntimeException e) {
+                log.error("Could not finalise segment " + previous.getFilename(), e);
+                finaliserFailure.compareAndSet(null, e);
+            }
+        });
+        next = finaliser.submit(this::openSegment);
+    }
+
+    /*
+      The next segment is normally open long before the rotation, waiting only happens if the finaliser is behind
+     */
+    private EncodingSession takeNextSegment() {
+        try {
+            return next.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not open the next segment", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while opening the next segment", e);
+        }
+    }
+
+    private EncodingSession openSegment() throws VideoRecorderException {
+        return segmentOpener.open(segmentFilename(nextSegmentNumber++));
+    }
+
+    private void finalise(EncodingSession session, long endMillis) throws IOException {
+        session.close();
+        Path path = Paths.get(session.getFilename());
+        manifest.complete(path, endMillis, session.getFileSize());
+    }
+
+    /*
+      Runs on the finaliser, after the task opening the segment
+     */
+    private static void discard(Future<EncodingSession> unused) {
+        EncodingSession session;
+        try {
+            session = unused.get();
+        } catch (ExecutionException | InterruptedException e) {
+            log.debug("The next segment was never opened, nothing to discard", e);
+            return;
+        }
+        Path path = Paths.get(session.getFilename());
+        try {
+            session.close();
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(FragmentIndex.indexFileOf(path));
+        } catch (IOException e) {
+            log.warn("Could not delete the unused segment " + path, e);
+        }
+    }
+
+    /*
+      The newest segment is never deleted, even if it alone exceeds the quota.
+      A segment takes the space of its video and of its fragment index, they are deleted together.
+     */
+    private synchronized void enforceDiskQuota() throws IOException {
+        if (diskQuotaBytes <= 0) {
+            return;
+        }
+
+        List<SegmentManifest.Segment> segments = manifest.getSegments();
+        long[] segmentBytes = new long[segments.size()];
+        long totalBytes = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            segmentBytes[i] = sizeOf(segments.get(i).path) + sizeOf(FragmentIndex.indexFileOf(segments.get(i).path));
+            totalBytes += segmentBytes[i];
+        }
+        for (int i = 0; i < segments.size() - 1; i++) {
+            if (totalBytes <= diskQuotaBytes) {
+                break;
+            }
+            SegmentManifest.Segment segment = segments.get(i);
+            if (segment.isComplete()) {
+                log.info("Deleting segment {} to stay within the disk quota", segment.path);
+                Files.deleteIfExists(segment.path);
+                Files.deleteIfExists(FragmentIndex.indexFileOf(segment.path));
+                manifest.remove(segment.path);
+                totalBytes -= segmentBytes[i];
+            }
+        }
+    }
+
+    private static long sizeOf(Path path) throws IOException {
+        return Files.exists(path) ? Files.size(path) : 0;
+    }
+
+    private String segmentFilename(int segmentNumber) {
+        return OutputFilenames.withSuffix(destinationFilename, String.format("-%05d", segmentNumber));
+    }
+
+    /*
+      Times in the manifest start from the first frame
+     */
+    private long toMillis(long frameIndex) {
+        return TimeUnit.SECONDS.toMillis(frameIndex - firstFrameIndex) / snapsPerSecond;
+    }
+}
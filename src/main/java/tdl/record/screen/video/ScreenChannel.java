@@ -0,0 +1,225 @@
+package tdl.record.screen.video;
+
+import io.humble.video.MediaPicture;
+import io.humble.video.PixelFormat;
+import io.humble.video.Rational;
+import tdl.record.screen.image.input.ImageInput;
+import tdl.record.screen.image.input.InputImageGenerationException;
+import tdl.record.screen.utils.ImageConversion;
+
+import java.awt.image.BufferedImage;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * One screen of a {@link MultiScreenRecorder}: its input, its video file and a few frame slots.
+ * <p>
+ * Captures run on the thread of the screen. The conversion and encoding of the captured frames run on a pool shared
+ * by all the screens, one frame at a time for a given screen so that the frames reach the encoder in order.
+ * When all the slots are waiting to be encoded, the {@link BackpressurePolicy} decides which frame is lost, if any.
+ */
+class ScreenChannel {
+    private static final long FREE_SLOT_POLL_MILLIS = 100;
+    private final ImageInput imageInput;
+    private final BlockingQueue<FrameSlot> freeSlots;
+    private final Queue<FrameSlot> capturedSlots;
+    private final AtomicBoolean drainScheduled;
+    private final Consumer<Throwable> failureHandler;
+    private final BackpressurePolicy backpressurePolicy;
+    private final StageTimer stageTimer;
+    private final StageTimer.ScalingSteps scalingSteps;
+    private final LongConsumer droppedFrameHandler;
+    private final Object encodingLock;
+    private int pendingFrames;
+    private boolean failed;
+    private PictureConverter converter;
+    private FrameOutput output;
+
+    ScreenChannel(ImageInput imageInput, BackpressurePolicy backpressurePolicy, StageTimer stageTimer,
+                  LongConsumer droppedFrameHandler, Consumer<Throwable> failureHandler) {
+        this.imageInput = imageInput;
+        this.backpressurePolicy = backpressurePolicy;
+        this.stageTimer = stageTimer;
+        this.scalingSteps = stageTimer.scalingSteps();
+        this.droppedFrameHandler = droppedFrameHandler;
+        this.failureHandler = failureHandler;
+        this.capturedSlots = new ConcurrentLinkedQueue<>();
+        this.drainScheduled = new AtomicBoolean(false);
+        this.freeSlots = new ArrayBlockingQueue<>(MultiScreenRecorder.FRAME_SLOTS_PER_SCREEN);
+        this.encodingLock = new Object();
+        this.pendingFrames = 0;
+        this.failed = false;
+        imageInput.setScalingListener(scalingSteps);
+    }
+
+    ImageInput getImageInput() {
+        return imageInput;
+    }
+
+    /**
+     * Allocate the frame slots, once the input is open and its size known.
+     */
+    void open(FrameOutput output, ColourConversion colourConversion, Rational videoFrameRate) {
+        this.output = output;
+        for (int i = 0; i < MultiScreenRecorder.FRAME_SLOTS_PER_SCREEN; i++) {
+            MediaPicture picture = MediaPicture.make(
+                    imageInput.getWidth(),
+                    imageInput.getHeight(),
+                    PixelFormat.Type.PIX_FMT_YUV420P);
+            picture.setTimeBase(videoFrameRate);
+            BufferedImage image = new BufferedImage(
+                    imageInput.getWidth(),
+                    imageInput.getHeight(),
+                    BufferedImage.TYPE_3BYTE_BGR);
+            freeSlots.add(new FrameSlot(image, picture));
+        }
+        FrameSlot sample = freeSlots.peek();
+        converter = stageTimer.timed(colourConversion == ColourConversion.PARALLEL_FIXED_POINT
+                ? new ParallelYuv420pConverter(ForkJoinPool.commonPool())
+                : new HumblePictureConverter(sample.image, sample.picture));
+    }
+
+    /**
+     * Capture the frame into a free slot and queue it for encoding.
+     *
+     * @return when the screen had been read, from {@link System#nanoTime()},
+     * or -1 if the frame was dropped because all the slots of this screen are waiting to be encoded
+     * @throws InputImageGenerationException if the screen could not be captured
+     * @throws InterruptedException          if interrupted while waiting for a free slot
+     */
+    long capture(long frameIndex, ExecutorService encodingPool)
+            throws InputImageGenerationException, InterruptedException {
+        FrameSlot slot = acquireSlot(frameIndex);
+        if (slot == null) {
+            return -1;
+        }
+
+        long readEnd;
+        try {
+            long readStart = stageTimer.imageReadStarted(frameIndex);
+            scalingSteps.reading(frameIndex);
+            BufferedImage screen = imageInput.readImage(slot.image);
+            readEnd = System.nanoTime();
+            stageTimer.imageRead(frameIndex, readStart, imageInput.getLastScalingNanos());
+            if (screen != slot.image) {
+                ImageConversion.copy(screen, slot.image);
+            }
+        } catch (InputImageGenerationException | RuntimeException e) {
+            freeSlots.add(slot);
+            throw e;
+        }
+        slot.frameIndex = frameIndex;
+        synchronized (encodingLock) {
+            pendingFrames++;
+        }
+        capturedSlots.add(slot);
+        scheduleDrain(encodingPool);
+        return readEnd;
+    }
+
+    private FrameSlot acquireSlot(long frameIndex) throws InterruptedException {
+        FrameSlot slot = freeSlots.poll();
+        if (slot != null) {
+            return slot;
+        }
+
+        switch (backpressurePolicy) {
+            case BLOCK:
+                while ((slot = freeSlots.poll(FREE_SLOT_POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                    if (hasFailed()) {
+                        throw new IllegalStateException("The encoding of the screen has stopped");
+                    }
+                }
+                return slot;
+            case DROP_OLDEST:
+                // A slot still in the queue has not been picked up by the encoding, so it can be taken back
+                FrameSlot oldest = capturedSlots.poll();
+                if (oldest != null) {
+                    droppedFrameHandler.accept(oldest.frameIndex);
+                    frameEncoded();
+                    return oldest;
+                }
+                droppedFrameHandler.accept(frameIndex);
+                return null;
+            default:
+                droppedFrameHandler.accept(frameIndex);
+                return null;
+        }
+    }
+
+    /**
+     * Wait until every captured frame has been encoded, or the encoding has failed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void awaitEncoded() throws InterruptedException {
+        synchronized (encodingLock) {
+            while (pendingFrames > 0 && !failed) {
+                encodingLock.wait();
+            }
+        }
+    }
+
+    FrameOutput getOutput() {
+        return output;
+    }
+
+    //~~~~~~~~~~ Encoding
+
+    private void frameEncoded() {
+        synchronized (encodingLock) {
+            pendingFrames--;
+            encodingLock.notifyAll();
+        }
+    }
+
+    private boolean hasFailed() {
+        synchronized (encodingLock) {
+            return failed;
+        }
+    }
+
+    /*
+      At most one drain task per screen is queued on the shared pool, which keeps the frames of a screen in order
+      without dedicating a thread to it.
+     */
+    private void scheduleDrain(ExecutorService encodingPool) {
+        if (drainScheduled.compareAndSet(false, true)) {
+            encodingPool.execute(() -> drain(encodingPool));
+        }
+    }
+
+    private void drain(ExecutorService encodingPool) {
+        try {
+            FrameSlot slot;
+            while ((slot = capturedSlots.poll()) != null) {
+                converter.toPicture(slot.picture, slot.image, slot.frameIndex);
+                output.encode(slot.picture);
+                freeSlots.add(slot);
+                frameEncoded();
+            }
+        } catch (RuntimeException e) {
+            failureHandler.accept(e);
+            synchronized (encodingLock) {
+                failed = true;
+                encodingLock.notifyAll();
+            }
+            return;
+        } finally {
+            drainScheduled.set(false);
+        }
+
+        // A frame may have been queued after the last poll but before the flag was cleared
+        if (!capturedSlots.isEmpty()) {
+            scheduleDrain(encodingPool);
+        }
+    }
+}
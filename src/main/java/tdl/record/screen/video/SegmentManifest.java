@@ -0,0 +1,122 @@
+package tdl.record.screen.video;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * The list of segment files currently on disk, oldest first, with the part of the recording each one covers.
+ * <p>
+ * The manifest is a tab separated text file, rewritten through a temporary file on every change so that
+ * a reader never sees it half written. Times are in milliseconds since the start of the recording:
+ * <pre>
+ * # recording started 2017-03-01T10:15:30Z
+ * # file	start_ms	end_ms	bytes
+ * recording-00000.mp4	0	1800000	73400320
+ * recording-00001.mp4	1800000	-	-
+ * </pre>
+ * The segment still being written has no end and no size.
+ */
+class SegmentManifest {
+    private static final Logger log = LoggerFactory.getLogger(SegmentManifest.class);
+    private final Path path;
+    private final Instant recordingStart;
+    private final List<Segment> segments;
+
+    static class Segment {
+        final Path path;
+        final long startMillis;
+        long endMillis;
+        long bytes;
+
+        Segment(Path path, long startMillis) {
+            this.path = path;
+            this.startMillis = startMillis;
+            this.endMillis = -1;
+            this.bytes = -1;
+        }
+
+        boolean isComplete() {
+            return endMillis >= 0;
+        }
+    }
+
+    SegmentManifest(Path path, Instant recordingStart) {
+        this.path = path;
+        this.recordingStart = recordingStart;
+        this.segments = new ArrayList<>();
+    }
+
+    synchronized void add(Path segment, long startMillis) {
+        segments.add(new Segment(segment, startMillis));
+        write();
+    }
+
+    synchronized void complete(Path segment, long endMillis, long bytes) {
+        for (Segment candidate : segments) {
+            if (candidate.path.equals(segment)) {
+                candidate.endMillis = endMillis;
+                candidate.bytes = bytes;
+            }
+        }
+        write();
+    }
+
+    synchronized void remove(Path segment) {
+        for (Iterator<Segment> iterator = segments.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().path.equals(segment)) {
+                iterator.remove();
+            }
+        }
+        write();
+    }
+
+    /**
+     * @return a copy of the segments, oldest first
+     */
+    synchronized List<Segment> getSegments() {
+        List<Segment> copy = new ArrayList<>();
+        for (Segment segment : segments) {
+            Segment segmentCopy = new Segment(segment.path, segment.startMillis);
+            segmentCopy.endMillis = segment.endMillis;
+            segmentCopy.bytes = segment.bytes;
+            copy.add(segmentCopy);
+        }
+        return copy;
+    }
+
+    /*
+      The manifest only describes the recording, failing to update it must not stop the capture.
+     */
+    private void write() {
+        StringBuilder content = new StringBuilder();
+        content.append("# recording started ").append(recordingStart).append('\n');
+        content.append("# file\tstart_ms\tend_ms\tbytes\n");
+        for (Segment segment : segments) {
+            content.append(segment.path.getFileName()).append('\t')
+                    .append(segment.startMillis).append('\t')
+                    .append(segment.isComplete() ? String.valueOf(segment.endMillis) : "-").append('\t')
+                    .append(segment.isComplete() ? String.valueOf(segment.bytes) : "-").append('\n');
+        }
+
+        Path temporaryPath = Paths.get(path + ".tmp");
+        try {
+            Files.write(temporaryPath, content.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporaryPath, path, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not update the segment manifest " + path, e);
+        }
+    }
+}
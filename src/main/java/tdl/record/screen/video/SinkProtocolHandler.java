@@ -0,0 +1,150 @@
+package tdl.record.screen.video;
+
+import io.humble.video.customio.IURLProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tdl.record.screen.mp4.BoxSplitter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Lets the native muxer write a video to a channel of a {@link tdl.record.screen.sink.VideoSink},
+ * through the custom I/O of humble-video.
+ * <p>
+ * The native code only sees return codes, so the failures are logged here and reported as -1,
+ * which makes the muxer fail the write.
+ * <p>
+ * The bytes written can also be followed box by box, see {@link #tap}, to index the fragments or to stream the video live.
+ * A tap is a convenience: a failure stops the tap but not the recording.
+ */
+class SinkProtocolHandler implements IURLProtocolHandler {
+    private static final Logger log = LoggerFactory.getLogger(SinkProtocolHandler.class);
+    private final String filename;
+    private final SeekableByteChannel channel;
+    private final List<Tap> taps;
+    private long position;
+    private long size;
+
+    SinkProtocolHandler(String filename, SeekableByteChannel channel) {
+        this.filename = filename;
+        this.channel = channel;
+        this.taps = new ArrayList<>();
+        this.position = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Hand the boxes of the video to the consumer as they are written. Call before the muxer writes anything.
+     *
+     * @param purpose what the consumer does, for the logs
+     */
+    void tap(String purpose, BoxSplitter.Consumer consumer) {
+        taps.add(new Tap(purpose, new BoxSplitter(consumer)));
+    }
+
+    /**
+     * @return the size of the video, still known once the channel is closed
+     */
+    long getSize() {
+        return size;
+    }
+
+    @Override
+    public int open(String url, int flags) {
+        return flags == URL_RDONLY_MODE ? -1 : 0;
+    }
+
+    @Override
+    public int read(byte[] buffer, int length) {
+        return -1;
+    }
+
+    @Override
+    public int write(byte[] buffer, int length) {
+        try {
+            ByteBuffer source = ByteBuffer.wrap(buffer, 0, length);
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not write to " + filename, e);
+            return -1;
+        }
+        feedTaps(buffer, length);
+        position += length;
+        size = Math.max(size, position);
+        return length;
+    }
+
+    private void feedTaps(byte[] buffer, int length) {
+        Iterator<Tap> iterator = taps.iterator();
+        while (iterator.hasNext()) {
+            Tap tap = iterator.next();
+            try {
+                tap.splitter.write(position, buffer, 0, length);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not follow " + filename + " for the " + tap.purpose + " any more", e);
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public long seek(long offset, int whence) {
+        long newPosition;
+        switch (whence) {
+            case SEEK_SET:
+                newPosition = offset;
+                break;
+            case SEEK_CUR:
+                newPosition = position + offset;
+                break;
+            case SEEK_END:
+                newPosition = size + offset;
+                break;
+            case SEEK_SIZE:
+                return size;
+            default:
+                return -1;
+        }
+        try {
+            channel.position(newPosition);
+            position = newPosition;
+            return position;
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not move to byte " + newPosition + " of " + filename, e);
+            return -1;
+        }
+    }
+
+    @Override
+    public int close() {
+        try {
+            channel.close();
+            return 0;
+        } catch (IOException e) {
+            log.error("Could not close " + filename, e);
+            return -1;
+        }
+    }
+
+    @Override
+    public boolean isStreamed(String url, int flags) {
+        return false;
+    }
+
+    private static final class Tap {
+        private final String purpose;
+        private final BoxSplitter splitter;
+
+        Tap(String purpose, BoxSplitter splitter) {
+            this.purpose = purpose;
+            this.splitter = splitter;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package tdl.record.screen.video;
+
+import tdl.record.screen.image.input.ScalingListener;
+import tdl.record.screen.metrics.RecordingStage;
+import tdl.record.screen.metrics.VideoRecordingListener;
+import tdl.record.screen.time.TimeSource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reports the time each stage spends on a frame to the recording listener.
+ * <p>
+ * The durations are measured with {@link System#nanoTime()}, whatever the time source of the recording,
+ * as they are about the work done rather than the schedule of the frames. The events are timestamped by the time source.
+ * The time to the first frame is measured from the opening of the recorder, once per recorder whatever the number of files.
+ */
+class StageTimer {
+    private final VideoRecordingListener videoRecordingListener;
+    private final TimeSource timeSource;
+    private final AtomicBoolean firstFrameEncoded;
+    private volatile long recorderOpenStartNanos;
+
+    StageTimer(VideoRecordingListener videoRecordingListener, TimeSource timeSource) {
+        this.videoRecordingListener = videoRecordingListener;
+        this.timeSource = timeSource;
+        this.firstFrameEncoded = new AtomicBoolean(false);
+    }
+
+    void recorderOpening() {
+        recorderOpenStartNanos = System.nanoTime();
+        firstFrameEncoded.set(false);
+        videoRecordingListener.notifyRecorderOpening(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Only the first frame encoded after {@link #recorderOpening()} is reported, later calls cost a read.
+     */
+    void frameEncoded(long frameIndex) {
+        if (!firstFrameEncoded.get() && firstFrameEncoded.compareAndSet(false, true)) {
+            videoRecordingListener.notifyFirstFrameEncoded(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS,
+                    frameIndex, System.nanoTime() - recorderOpenStartNanos);
+        }
+    }
+
+    void stepStarted(RecordingStage stage, long frameIndex) {
+        videoRecordingListener.notifyStageStepStarted(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, frameIndex, stage);
+    }
+
+    void stepEnded(RecordingStage stage, long frameIndex) {
+        videoRecordingListener.notifyStageStepEnded(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, frameIndex, stage);
+    }
+
+    /**
+     * @return when the read started, from {@link System#nanoTime()}, to give to {@link #imageRead}
+     */
+    long imageReadStarted(long frameIndex) {
+        stepStarted(RecordingStage.CAPTURE, frameIndex);
+        return System.nanoTime();
+    }
+
+    /**
+     * @return the scaling steps of the images read by one input, give it the frame read with {@link ScalingSteps#reading}
+     */
+    ScalingSteps scalingSteps() {
+        return new ScalingSteps();
+    }
+
+    /**
+     * Reports the scaling done inside an input as steps of the frame being read.
+     * The total is reported with the capture, see {@link #imageRead}.
+     */
+    class ScalingSteps implements ScalingListener {
+        private long frameIndex;
+
+        void reading(long frameIndex) {
+            this.frameIndex = frameIndex;
+        }
+
+        @Override
+        public void scalingStarted() {
+            stepStarted(RecordingStage.SCALE, frameIndex);
+        }
+
+        @Override
+        public void scalingEnded() {
+            stepEnded(RecordingStage.SCALE, frameIndex);
+        }
+    }
+
+    void stageTook(RecordingStage stage, long frameIndex, long durationNanos) {
+        videoRecordingListener.notifyStageCompleted(
+                timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, frameIndex, stage, durationNanos);
+    }
+
+    /**
+     * Split the time spent reading an image between the capture and the scaling done by the input.
+     */
+    void imageRead(long frameIndex, long startNanos, long scalingNanos) {
+        long readNanos = System.nanoTime() - startNanos;
+        stepEnded(RecordingStage.CAPTURE, frameIndex);
+        stageTook(RecordingStage.CAPTURE, frameIndex, Math.max(readNanos - scalingNanos, 0));
+        if (scalingNanos > 0) {
+            stageTook(RecordingStage.SCALE, frameIndex, scalingNanos);
+        }
+    }
+
+    void bytesWritten(long frameIndex, long bytes) {
+        videoRecordingListener.notifyBytesWritten(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, frameIndex, bytes);
+    }
+
+    void keyFrameEncoded(long frameIndex) {
+        videoRecordingListener.notifyKeyFrameEncoded(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, frameIndex);
+    }
+
+    void fragmentFlushing(String filename) {
+        videoRecordingListener.notifyFragmentFlushing(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, filename);
+    }
+
+    void fragmentFlushed(String filename, long byteOffset, long bytes) {
+        videoRecordingListener.notifyFragmentFlushed(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS,
+                filename, byteOffset, bytes);
+    }
+
+    /**
+     * @return when the opening started, from {@link System#nanoTime()}, to give to {@link #videoOpened}
+     */
+    long videoOpening(String filename) {
+        videoRecordingListener.notifyVideoOpening(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, filename);
+        return System.nanoTime();
+    }
+
+    /**
+     * @param startNanos when the opening started, from {@link System#nanoTime()}
+     */
+    void videoOpened(String filename, int width, int height, long startNanos) {
+        videoRecordingListener.notifyVideoOpened(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS,
+                filename, width, height, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return when the closing started, from {@link System#nanoTime()}, to give to {@link #videoClosed}
+     */
+    long videoClosing(String filename) {
+        videoRecordingListener.notifyVideoClosing(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, filename);
+        return System.nanoTime();
+    }
+
+    /**
+     * @param startNanos when the closing started, from {@link System#nanoTime()}
+     */
+    void videoClosed(String filename, long bytesWritten, long startNanos) {
+        videoRecordingListener.notifyVideoClosed(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS,
+                filename, bytesWritten, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the converter, timing every conversion as the {@link RecordingStage#COLOUR_CONVERSION} of the frame
+     */
+    PictureConverter timed(PictureConverter converter) {
+        return (picture, image, timestamp) -> {
+            stepStarted(RecordingStage.COLOUR_CONVERSION, timestamp);
+            long startNanos = System.nanoTime();
+            converter.toPicture(picture, image, timestamp);
+            long durationNanos = System.nanoTime() - startNanos;
+            stepEnded(RecordingStage.COLOUR_CONVERSION, timestamp);
+            stageTook(RecordingStage.COLOUR_CONVERSION, timestamp, durationNanos);
+        };
+    }
+}
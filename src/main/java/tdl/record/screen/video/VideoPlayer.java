@@ -7,27 +7,57 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tdl.record.screen.image.output.ImageOutput;
 import tdl.record.screen.image.output.ImageOutputException;
+import tdl.record.screen.mp4.FragmentIndex;
 import tdl.record.screen.time.SystemTimeSource;
 import tdl.record.screen.time.TimeSource;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Plays a recorded video into an {@link ImageOutput}, in real time or from any point of the video.
+ * <p>
+ * A seek jumps to the last key frame before the target and only decodes the frames from there,
+ * so the cost of a seek does not depend on how far into the video the target is.
+ * The key frames are indexed when the video is opened: taken from the fragment index written while recording,
+ * when there is one, otherwise from the moof boxes of a complete fragmented MP4, and only as a last resort
+ * found by reading the packets of the whole video once.
+ */
 public class VideoPlayer {
     private static final Logger log = LoggerFactory.getLogger(VideoPlayer.class);
+    private static final long NO_TIMESTAMP = -1;
     private final ImageOutput imageOutput;
     private final TimeSource timeSource;
+    private String filename;
     private Demuxer demuxer;
     private DemuxerStream videoStream;
+    private Decoder videoDecoder;
     private MediaPicture picture;
     private MediaPictureConverter converter;
+    private BufferedImage image;
     private Rational streamTimebase;
     private Rational systemTimeBase;
+    private KeyFrameIndex keyFrameIndex;
     private long previousStreamEndTime;
+    private long previousSeekTarget;
+
+    /**
+     * Decides what to do with each picture decoded.
+     */
+    private interface PictureHandler {
+        /**
+         * @return false to stop decoding after this picture
+         */
+        boolean onPicture(MediaPicture picture) throws InterruptedException;
+    }
 
     public VideoPlayer(ImageOutput imageOutput) {
         this(imageOutput, new SystemTimeSource());
@@ -39,6 +69,7 @@ public class VideoPlayer {
     }
 
     public void open(String filename) throws VideoPlayerException {
+        this.filename = filename;
         try {
             imageOutput.open();
         } catch (ImageOutputException e) {
@@ -65,7 +96,7 @@ public class VideoPlayer {
         int videoStreamId = videoStream.getIndex();
         log.debug("videoStreamId {}",videoStreamId);
         log.debug("stream.getIndex() {}",videoStream.getIndex());
-        Decoder videoDecoder = videoStream.getDecoder();
+        videoDecoder = videoStream.getDecoder();
 
         /*
          * Now we have found the video stream in this file.  Let's open up our decoder so it can
@@ -85,6 +116,7 @@ public class VideoPlayer {
         converter = MediaPictureConverterFactory.createConverter(
                 outputSample,
                 picture);
+        image = null;
 
 
         /*
@@ -106,8 +138,15 @@ public class VideoPlayer {
         long systemVideoDuration = systemTimeBase.rescale(streamVideoDuration, streamTimebase);
         log.debug("systemVideoDuration {}",systemVideoDuration);
 
+        try {
+            keyFrameIndex = buildKeyFrameIndex();
+        } catch (InterruptedException | IOException e) {
+            throw new VideoPlayerException("Failed to index the key frames of " + filename, e);
+        }
+
         // Reset time counters
-        previousStreamEndTime = -1;
+        previousStreamEndTime = NO_TIMESTAMP;
+        previousSeekTarget = Long.MAX_VALUE;
     }
 
     public Duration getDuration() {
@@ -129,50 +168,57 @@ public class VideoPlayer {
         return picture.getHeight();
     }
 
-    //TODO Fix the duplication between this method and play
+    /**
+     * Show the first frame at or after the given time of the video, forwards or backwards.
+     * A following {@link #play()} carries on from that frame.
+     */
     public void seekTo(long timestamp, TimeUnit timeUnit) throws IOException, InterruptedException {
-        BufferedImage image = null;
-
         long targetStreamTimestamp = streamTimebase.rescale(timeUnit.toNanos(timestamp), systemTimeBase);
 
+        // Between two frames, the frame on display is still the one to show
+        if (previousSeekTarget < targetStreamTimestamp && targetStreamTimestamp <= previousStreamEndTime) {
+            imageOutput.writeImage(image);
+            previousSeekTarget = targetStreamTimestamp;
+            return;
+        }
+
         /*
-          One important thing to bare in mind is that the objects are being reused for performance reasons.
-          This packet and the picture will be reset whenever we have new data.
+          Decoding from where the previous frame was is cheaper than a seek, as long as no key frame is passed.
+          Otherwise, the demuxer jumps to the key frame and the decoder drops what it was holding.
          */
-        final MediaPacket packet = MediaPacket.make();
-        boolean foundKeyFrame = false;
-        while (!foundKeyFrame && demuxer.read(packet) >= 0) {
-            // Check if the packet belongs to the video stream
-            if (packet.getStreamIndex() == videoStream.getIndex()) {
-                int offset = 0;
-                int bytesRead = 0;
-
-                // Consume all the frames in the current packet
-                do {
-                    bytesRead += videoStream.getDecoder().decode(picture, packet, offset);
-                    if (picture.isComplete()) {
-                        if (picture.getTimeStamp() > targetStreamTimestamp) {
-                            image = converter.toImage(image, picture);
-                            imageOutput.writeImage(image);
-
-                            previousStreamEndTime = picture.getTimeStamp();
+        long keyFrameTimestamp = keyFrameIndex.floor(targetStreamTimestamp);
+        if (targetStreamTimestamp <= previousStreamEndTime
+                || keyFrameTimestamp > previousStreamEndTime) {
+            log.debug("Seek to the key frame {} for {}", keyFrameTimestamp, targetStreamTimestamp);
+            int result = demuxer.seek(videoStream.getIndex(), Long.MIN_VALUE, keyFrameTimestamp, keyFrameTimestamp, 0);
+            if (result < 0) {
+                throw new IOException("Failed to seek to " + keyFrameTimestamp + " in " + filename + ", error " + result);
+            }
+            videoDecoder.flush();
+            previousStreamEndTime = NO_TIMESTAMP;
+        }
 
-                            foundKeyFrame = true;
-                        }
-                    }
-                    offset += bytesRead;
-                } while (offset < packet.getSize());
+        boolean found = decode(picture -> {
+            previousStreamEndTime = picture.getTimeStamp();
+            if (picture.getTimeStamp() < targetStreamTimestamp) {
+                return true;
             }
+            image = converter.toImage(image, picture);
+            imageOutput.writeImage(image);
+            return false;
+        });
+        if (found) {
+            previousSeekTarget = targetStreamTimestamp;
+        } else {
+            log.debug("{} is past the end of {}", targetStreamTimestamp, filename);
+            previousSeekTarget = Long.MAX_VALUE;
         }
     }
 
     public void play() throws InterruptedException, IOException {
-
-        BufferedImage image = null;
-
         // Calculate the time BEFORE we start playing.
         long streamStartTime;
-        if (previousStreamEndTime > -1) {
+        if (previousStreamEndTime > NO_TIMESTAMP) {
             streamStartTime = previousStreamEndTime;
         } else {
             streamStartTime = videoStream.getStartTime();
@@ -180,7 +226,29 @@ public class VideoPlayer {
 
         long systemStartTime = timeSource.currentTimeNano();
 
+        decode(picture -> {
+            displayVideoAtCorrectTime(streamStartTime, picture, systemStartTime);
+            previousStreamEndTime = picture.getTimeStamp();
+            return true;
+        });
+        previousSeekTarget = Long.MAX_VALUE;
+    }
 
+    public void close()  {
+        try {
+            imageOutput.close();
+            demuxer.close();
+        } catch (InterruptedException | IOException e) {
+            log.warn("Failed to close video", e);
+        }
+    }
+
+    /**
+     * The decoding loop shared by play and seek, from the current position of the demuxer.
+     *
+     * @return false if the video ended before the handler asked to stop
+     */
+    private boolean decode(PictureHandler pictureHandler) throws IOException, InterruptedException {
         /*
           One important thing to bare in mind is that the objects are being reused for performance reasons.
           This packet and the picture will be reset whenever we have new data.
@@ -190,16 +258,15 @@ public class VideoPlayer {
             // Check if the packet belongs to the video stream
             if (packet.getStreamIndex() == videoStream.getIndex()) {
                 int offset = 0;
-                int bytesRead = 0;
 
                 // Consume all the frames in the current packet
                 do {
-                    bytesRead += videoStream.getDecoder().decode(picture, packet, offset);
-                    if (picture.isComplete()) {
-                        image = displayVideoAtCorrectTime(streamStartTime, picture,
-                                converter, image, imageOutput, systemStartTime, systemTimeBase,
-                                streamTimebase);
-                        previousStreamEndTime = picture.getTimeStamp();
+                    int bytesRead = videoDecoder.decode(picture, packet, offset);
+                    if (picture.isComplete() && !pictureHandler.onPicture(picture)) {
+                        return true;
+                    }
+                    if (bytesRead <= 0) {
+                        break;
                     }
                     offset += bytesRead;
                 } while (offset < packet.getSize());
@@ -207,31 +274,45 @@ public class VideoPlayer {
         }
 
         /*
-          Flush the encoder by reading data until we get a new (incomplete) picture
+          Flush the decoder by reading data until we get a new (incomplete) picture
          */
         do {
-            videoStream.getDecoder().decode(picture, null, 0);
-            if (picture.isComplete()) {
-                image = displayVideoAtCorrectTime(streamStartTime, picture, converter,
-                        image, imageOutput, systemStartTime, systemTimeBase, streamTimebase);
-                previousStreamEndTime = picture.getTimeStamp();
+            videoDecoder.decode(picture, null, 0);
+            if (picture.isComplete() && !pictureHandler.onPicture(picture)) {
+                return true;
             }
         } while (picture.isComplete());
+        return false;
     }
 
-    public void close()  {
-        try {
-            imageOutput.close();
-            demuxer.close();
-        } catch (InterruptedException | IOException e) {
-            log.warn("Failed to close video", e);
+    /*
+      The scan reads the video to the end, the demuxer is then taken back to the first key frame
+     */
+    private KeyFrameIndex buildKeyFrameIndex() throws IOException, InterruptedException {
+        long startTime = System.nanoTime();
+        KeyFrameIndex index;
+        Optional<Path> indexedVideo = getIndexedVideo(filename);
+        if (indexedVideo.isPresent()) {
+            try (FragmentIndex fragmentIndex = FragmentIndex.open(indexedVideo.get())) {
+                index = KeyFrameIndex.load(fragmentIndex, videoStream);
+            }
+        } else {
+            index = readFragments(filename).orElse(null);
+            if (index == null) {
+                index = KeyFrameIndex.scan(demuxer, videoStream);
+                long firstKeyFrame = index.floor(Long.MIN_VALUE);
+                int result = demuxer.seek(videoStream.getIndex(), Long.MIN_VALUE, firstKeyFrame, firstKeyFrame, 0);
+                if (result < 0) {
+                    throw new IOException("Failed to go back to the start of " + filename + ", error " + result);
+                }
+            }
         }
+        log.debug("Indexed {} key frames of {} in {} ms", index.size(), filename,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        return index;
     }
 
-    private BufferedImage displayVideoAtCorrectTime(long streamStartTime,
-                                                    final MediaPicture picture, final MediaPictureConverter converter,
-                                                    BufferedImage image, ImageOutput imageOutput, long systemStartTime,
-                                                    final Rational systemTimeBase, final Rational streamTimebase)
+    private void displayVideoAtCorrectTime(long streamStartTime, final MediaPicture picture, long systemStartTime)
             throws InterruptedException {
         long streamTimestamp = picture.getTimeStamp();
         log.debug("streamStartTime: {}", Long.toString(streamStartTime));
@@ -249,7 +330,29 @@ public class VideoPlayer {
         // Convert the image from Humble format into Java images.
         image = converter.toImage(image, picture);
         imageOutput.writeImage(image);
-        return image;
+    }
+
+    /*
+      The key frames of a local file, read from its moof boxes
+     */
+    private Optional<KeyFrameIndex> readFragments(String filename) throws IOException {
+        try {
+            return KeyFrameIndex.readFragments(Paths.get(filename), videoStream);
+        } catch (InvalidPathException e) {
+            return Optional.empty();
+        }
+    }
+
+    /*
+      The video, if it is a local file recorded with a fragment index next to it
+     */
+    private static Optional<Path> getIndexedVideo(String filename) {
+        try {
+            Path video = Paths.get(filename);
+            return Files.isRegularFile(FragmentIndex.indexFileOf(video)) ? Optional.of(video) : Optional.empty();
+        } catch (InvalidPathException e) {
+            return Optional.empty();
+        }
     }
 
     private static Optional<DemuxerStream> getFirstVideoStreamFrom(Demuxer demuxer) throws InterruptedException, IOException {
@@ -1,40 +1,57 @@
 package tdl.record.screen.video;
 
 import io.humble.video.*;
-import io.humble.video.awt.MediaPictureConverter;
-import io.humble.video.awt.MediaPictureConverterFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import tdl.record.screen.governor.RecordingAdjustment;
+import tdl.record.screen.governor.RecordingGovernor;
 import tdl.record.screen.image.input.EnsureEvenHeightAndWidth;
 import tdl.record.screen.image.input.ImageInput;
 import tdl.record.screen.image.input.InputImageGenerationException;
 import tdl.record.screen.metrics.VideoRecordingListener;
 import tdl.record.screen.metrics.VideoRecordingMetricsCollector;
+import tdl.record.screen.sink.VideoSink;
+import tdl.record.screen.stream.LiveStream;
+import tdl.record.screen.time.FrameScheduler;
 import tdl.record.screen.time.SystemTimeSource;
 import tdl.record.screen.time.TimeSource;
+import tdl.record.screen.utils.ImageConversion;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import static java.nio.file.StandardOpenOption.CREATE;
-
 public class VideoRecorder {
     private static final Logger log = LoggerFactory.getLogger(VideoRecorder.class);
     private final ImageInput imageInput;
     private final TimeSource timeSource;
     private final VideoRecordingListener videoRecordingListener;
+    private final StageTimer stageTimer;
+    private final StageTimer.ScalingSteps scalingSteps;
+    private final int pipelineFrameSlots;
+    private final BackpressurePolicy backpressurePolicy;
+    private final int maxConsecutiveElidedFrames;
+    private final RecordingGovernor recordingGovernor;
+    private final ColourConversion colourConversion;
+    private final EncodingProfile encodingProfile;
+    private final Duration maxSegmentDuration;
+    private final long maxSegmentBytes;
+    private final long diskQuotaBytes;
+    private final VideoSink sink;
+    private final boolean fragmentIndex;
+    private final LiveStream liveStream;
     private long fragmentationMicros;
-    private Muxer muxer;
-    private Encoder encoder;
+    private FrameOutput output;
+    private RollingSegments rollingSegments;
+    private int videoParts;
+    private FrameStages stages;
+    private RecordingClock recordingClock;
     private Rational videoFrameRate;
     private Rational inputFrameRate;
-    private MediaPacket packet;
     private String destinationFilename;
     private final AtomicBoolean shouldStopJob = new AtomicBoolean(false);
 
@@ -50,11 +67,31 @@ public class VideoRecorder {
 
     private VideoRecorder(ImageInput imageInput,
                           TimeSource timeSource,
-                          VideoRecordingListener videoRecordingListener, long bFragmentationMicros) {
+                          VideoRecordingListener videoRecordingListener, long bFragmentationMicros,
+                          int pipelineFrameSlots, BackpressurePolicy backpressurePolicy,
+                          int maxConsecutiveElidedFrames, RecordingGovernor recordingGovernor,
+                          ColourConversion colourConversion, EncodingProfile encodingProfile,
+                          Duration maxSegmentDuration, long maxSegmentBytes, long diskQuotaBytes,
+                          VideoSink sink, boolean fragmentIndex, LiveStream liveStream) {
         this.imageInput = new EnsureEvenHeightAndWidth(imageInput);
         this.timeSource = timeSource;
         this.videoRecordingListener = videoRecordingListener;
+        this.stageTimer = new StageTimer(videoRecordingListener, timeSource);
+        this.scalingSteps = stageTimer.scalingSteps();
+        this.imageInput.setScalingListener(scalingSteps);
         this.fragmentationMicros = bFragmentationMicros;
+        this.pipelineFrameSlots = pipelineFrameSlots;
+        this.backpressurePolicy = backpressurePolicy;
+        this.maxConsecutiveElidedFrames = maxConsecutiveElidedFrames;
+        this.recordingGovernor = recordingGovernor;
+        this.colourConversion = colourConversion;
+        this.encodingProfile = encodingProfile;
+        this.maxSegmentDuration = maxSegmentDuration;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.diskQuotaBytes = diskQuotaBytes;
+        this.sink = sink;
+        this.fragmentIndex = fragmentIndex;
+        this.liveStream = liveStream;
     }
 
     @SuppressWarnings("SameParameterValue")
@@ -63,12 +100,36 @@ public class VideoRecorder {
         private TimeSource bTimeSource;
         private VideoRecordingListener bVideoRecordingListener;
         private long bFragmentationMicros;
+        private int bPipelineFrameSlots;
+        private BackpressurePolicy bBackpressurePolicy;
+        private int bMaxConsecutiveElidedFrames;
+        private RecordingGovernor bRecordingGovernor;
+        private ColourConversion bColourConversion;
+        private EncodingProfile bEncodingProfile;
+        private Duration bMaxSegmentDuration;
+        private long bMaxSegmentBytes;
+        private long bDiskQuotaBytes;
+        private VideoSink bSink;
+        private boolean bFragmentIndex;
+        private LiveStream bLiveStream;
 
         public Builder(ImageInput imageInput) {
             bImageInput = imageInput;
             bTimeSource = new SystemTimeSource();
             bVideoRecordingListener = new VideoRecordingMetricsCollector();
             bFragmentationMicros = TimeUnit.MINUTES.toMicros(5);
+            bPipelineFrameSlots = 0;
+            bBackpressurePolicy = BackpressurePolicy.BLOCK;
+            bMaxConsecutiveElidedFrames = 0;
+            bRecordingGovernor = null;
+            bColourConversion = ColourConversion.HUMBLE;
+            bEncodingProfile = EncodingProfile.PLATFORM_DEFAULT;
+            bMaxSegmentDuration = null;
+            bMaxSegmentBytes = 0;
+            bDiskQuotaBytes = 0;
+            bSink = null;
+            bFragmentIndex = false;
+            bLiveStream = null;
         }
 
         public Builder withTimeSource(TimeSource timeSource) {
@@ -86,12 +147,146 @@ public class VideoRecorder {
             return this;
         }
 
+        /**
+         * Run the capture, the colour conversion and the encoding on separate threads.
+         * The stages exchange frames through a ring of preallocated slots.
+         *
+         * @param frameSlots         the number of frames that can be in flight between capture and encoding
+         * @param backpressurePolicy what to do with new frames when all the slots are in use
+         * @return the builder
+         */
+        public Builder withPipelining(int frameSlots, BackpressurePolicy backpressurePolicy) {
+            if (frameSlots < 1) {
+                throw new IllegalArgumentException("The pipeline needs at least one frame slot");
+            }
+            this.bPipelineFrameSlots = frameSlots;
+            this.bBackpressurePolicy = backpressurePolicy;
+            return this;
+        }
+
+        /**
+         * Skip the conversion and encoding of frames identical to the previous one.
+         * The next frame that differs keeps its own timestamp, so the video has a variable frame rate
+         * and idle periods cost close to nothing.
+         *
+         * @param maxConsecutiveElidedFrames after this many skipped frames in a row, one frame is encoded anyway
+         * @return the builder
+         */
+        public Builder withDuplicateFrameElision(int maxConsecutiveElidedFrames) {
+            if (maxConsecutiveElidedFrames < 1) {
+                throw new IllegalArgumentException("At least one frame needs to be elided in a row");
+            }
+            this.bMaxConsecutiveElidedFrames = maxConsecutiveElidedFrames;
+            return this;
+        }
+
+        /**
+         * Let a governor adjust the recording at runtime when processing the frames gets too expensive.
+         * Every change is reported through {@link VideoRecordingListener#notifyRecordingAdjusted}.
+         *
+         * @param recordingGovernor decides the adjustments, for example a {@link tdl.record.screen.governor.CpuBudgetGovernor}
+         * @return the builder
+         */
+        public Builder withGovernor(RecordingGovernor recordingGovernor) {
+            this.bRecordingGovernor = recordingGovernor;
+            return this;
+        }
+
+        /**
+         * Choose how the captured frames are converted to the pixel format of the encoder.
+         *
+         * @param colourConversion the converter, {@link ColourConversion#HUMBLE} by default
+         * @return the builder
+         */
+        public Builder withColourConversion(ColourConversion colourConversion) {
+            this.bColourConversion = colourConversion;
+            return this;
+        }
+
+        /**
+         * Choose the codec options used to encode the video.
+         *
+         * @param encodingProfile the options, {@link EncodingProfile#PLATFORM_DEFAULT} by default
+         * @return the builder
+         */
+        public Builder withEncodingProfile(EncodingProfile encodingProfile) {
+            this.bEncodingProfile = encodingProfile;
+            return this;
+        }
+
+        /**
+         * Split the recording into consecutive segment files, recording.mp4 becomes recording-00000.mp4, recording-00001.mp4, ...
+         * The segments currently on disk and the part of the recording they cover are listed in recording.segments
+         *
+         * @param maxSegmentDuration start a new segment after this much recording time, {@link Duration#ZERO} for no limit
+         * @param maxSegmentBytes    start a new segment once it reaches this size, 0 for no limit
+         * @param diskQuotaBytes     delete the oldest segments when all of them take more space than this, 0 for no limit
+         * @return the builder
+         */
+        public Builder withRollingSegments(Duration maxSegmentDuration, long maxSegmentBytes, long diskQuotaBytes) {
+            if (maxSegmentDuration.isZero() && maxSegmentBytes <= 0) {
+                throw new IllegalArgumentException("Segments need a maximum duration or a maximum size");
+            }
+            this.bMaxSegmentDuration = maxSegmentDuration;
+            this.bMaxSegmentBytes = maxSegmentBytes;
+            this.bDiskQuotaBytes = diskQuotaBytes;
+            return this;
+        }
+
+        /**
+         * Hand the bytes of the videos to a sink instead of letting the muxer write the files,
+         * for example a {@link tdl.record.screen.sink.BufferedFileSink} to write them in large aligned blocks,
+         * or an {@link tdl.record.screen.sink.InMemorySink} in tests.
+         * Wrap it in a {@link tdl.record.screen.sink.MeasuredVideoSink} to count and time the writes.
+         *
+         * @param sink opens a channel for each video
+         * @return the builder
+         */
+        public Builder withSink(VideoSink sink) {
+            this.bSink = sink;
+            return this;
+        }
+
+        /**
+         * Write a sidecar index next to each video, recording.mp4.idx, with the capture time and byte offset of every
+         * fragment. Tools can then jump to a point of the session without demuxing the video from the top.
+         * The index is only as fine as the fragmentation, see {@link #withFragmentation}.
+         *
+         * @return the builder
+         */
+        public Builder withFragmentIndex() {
+            this.bFragmentIndex = true;
+            return this;
+        }
+
+        /**
+         * Publish the video to a live stream while it is written, the init segment then each fragment as soon as
+         * the muxer completes it. Serve the stream with a {@link tdl.record.screen.stream.LiveStreamServer}.
+         * Viewers are as far behind as the length of a fragment, which is up to the next key frame,
+         * so a profile with a short key frame interval keeps them closer.
+         * The stream is ended when the recorder is closed.
+         *
+         * @param liveStream the stream to publish to
+         * @return the builder
+         */
+        public Builder withLiveStream(LiveStream liveStream) {
+            this.bLiveStream = liveStream;
+            return this;
+        }
+
         public VideoRecorder build() {
-            return new VideoRecorder(bImageInput, bTimeSource, bVideoRecordingListener, bFragmentationMicros);
+            if (bMaxConsecutiveElidedFrames > 0 && bPipelineFrameSlots == 1) {
+                throw new IllegalArgumentException("Duplicate frame elision needs at least two pipeline frame slots");
+            }
+            return new VideoRecorder(bImageInput, bTimeSource, bVideoRecordingListener, bFragmentationMicros,
+                    bPipelineFrameSlots, bBackpressurePolicy, bMaxConsecutiveElidedFrames, bRecordingGovernor,
+                    bColourConversion, bEncodingProfile, bMaxSegmentDuration, bMaxSegmentBytes, bDiskQuotaBytes,
+                    bSink, bFragmentIndex, bLiveStream);
         }
     }
 
     public void open(String filename, int snapsPerSecond, int timeSpeedUpFactor) throws VideoRecorderException {
+        stageTimer.recorderOpening();
         destinationFilename = filename;
 
         /*
@@ -101,6 +296,7 @@ public class VideoRecorder {
          */
         inputFrameRate = Rational.make(1, snapsPerSecond);
         videoFrameRate = Rational.make(1, timeSpeedUpFactor * snapsPerSecond);
+        recordingClock = new RecordingClock(snapsPerSecond, timeSpeedUpFactor);
 
 
         // Prime the image input
@@ -111,152 +307,332 @@ public class VideoRecorder {
             throw new VideoRecorderException("Could not open input source", e);
         }
 
-        // A muxer is responsible for combining multiple streams (video, audio, subtitle)
-        muxer = createMP4MuxerWithFragmentation(filename, fragmentationMicros);
-
-        // An encoder is responsible for putting together all the frames from one stream
-        encoder = Encoder.make(getMP4Codec());
-        encoder.setWidth(imageInput.getWidth());
-        encoder.setHeight(imageInput.getHeight());
-        encoder.setPixelFormat(PixelFormat.Type.PIX_FMT_YUV420P);
-        encoder.setTimeBase(videoFrameRate);
-
-        // For extra safety, some formats need global rather than per-stream headers
-        if (this.muxer.getFormat().getFlag(MuxerFormat.Flag.GLOBAL_HEADER)) {
-            encoder.setFlag(Encoder.Flag.FLAG_GLOBAL_HEADER, true);
+        // Open the destination, either a single file or a series of segments
+        videoParts = 1;
+        if (maxSegmentDuration == null) {
+            output = openSession(filename);
+        } else {
+            long maxSegmentFrames = maxSegmentDuration.toMillis() * snapsPerSecond / 1000;
+            rollingSegments = RollingSegments.open(filename, this::openSession, recordingClock,
+                    maxSegmentFrames, maxSegmentBytes, diskQuotaBytes, snapsPerSecond);
+            output = rollingSegments;
         }
+    }
 
-        // Open the stream and the muxer
-        encoder.open(null, null);
-        this.muxer.addNewStream(encoder);
-
-        //create *.lock file
-        Path lockFilePath = Paths.get(filename + ".lock");
-        try {
-            Files.write(lockFilePath, new byte[0], CREATE);
-
-            this.muxer.open(null, null);
-        } catch (InterruptedException | IOException e) {
-            throw new VideoRecorderException("Failed to open destination", e);
-        }
+    private EncodingSession openSession(String filename) throws VideoRecorderException {
+        return EncodingSession.open(filename, imageInput.getWidth(), imageInput.getHeight(), videoFrameRate,
+                fragmentationMicros, encodingProfile, stageTimer, sink, fragmentIndex ? recordingClock : null, liveStream);
+    }
 
-        // Create the packet to be re-used for encoding
-        packet = MediaPacket.make();
+    public void start(Duration duration) throws VideoRecorderException {
+        record(inputFrameRate.rescale(duration.getSeconds(), Rational.make(1)));
     }
 
     /**
-     * The mov/mp4/ismv muxer supports fragmentation. Normally, a MOV/MP4
-     * file has all the metadata about all packets stored in one location at the end.
-     * A fragmented file consists of a number of fragments, where packets and metadata
-     * about these packets are stored together. Writing a fragmented
-     * file has the advantage that the file is decodable even if the
-     * writing is interrupted (while a normal MOV/MP4 is undecodable if
-     * it is not properly finished), and it requires less memory when writing
-     * very long files (since writing normal MOV/MP4 files stores info about
-     * every single packet in memory until the file is closed). The downside
-     * is that it is less compatible with other applications.*
-     * <p>
-     * We are going to enable fragmentation, this will write moof/mdat pairs:
-     * -movflags frag_keyframe*
-     * <p>
-     * We are going to split the fragment by duration:
-     * -frag_duration @var{duration}
-     * Create fragments that are @var{duration} microseconds long.*
-     * <p>
-     * To inspect the moov atoms you can use:
-     * qtfaststart -l recording.mp4
+     * Record until {@link #stop()} is called. Best combined with {@link Builder#withRollingSegments}.
+     *
+     * @throws VideoRecorderException if the recording had to be stopped
      */
-    private static Muxer createMP4MuxerWithFragmentation(String destinationFilename, long fragmentationMicros) {
-        Muxer muxer = Muxer.make(destinationFilename, null, "mp4");
-        muxer.setProperty("movflags", "frag_keyframe");
-        muxer.setProperty("frag_duration", fragmentationMicros);
-        return muxer;
-    }
-
-    private static Codec getMP4Codec() {
-        // We are using the default format, which right on OSX defaults to CODEC_ID_H264
-        // WARNING! The coded selection is system dependent and will use JNI to retrieve the local codec
-        final MuxerFormat format = MuxerFormat.guessFormat("mp4", null, null);
-        return Codec.findEncodingCodec(format.getDefaultVideoCodecId());
+    public void startContinuous() throws VideoRecorderException {
+        record(Double.POSITIVE_INFINITY);
     }
 
-    public void start(Duration duration) throws VideoRecorderException {
+    private void record(double totalNumberOfFrames) throws VideoRecorderException {
         try {
             videoRecordingListener.notifyRecordingStart(destinationFilename, inputFrameRate, videoFrameRate);
-            doRecord(duration);
+            recordingClock.start(Instant.now());
+            doRecord(totalNumberOfFrames);
         } catch (RuntimeException e) {
             throw new VideoRecorderException("Fatal exception while recording", e);
         } finally {
-            flush();
+            output.flush();
             videoRecordingListener.notifyRecordingEnd();
         }
     }
 
-    private void doRecord(Duration duration) throws VideoRecorderException {
-        /*
-          Care must be taken so that the picture is encoded using the same format as Encoder.
-          The images must be converted so that the match.
-         */
-        final MediaPicture picture = MediaPicture.make(
-                encoder.getWidth(),
-                encoder.getHeight(),
-                encoder.getPixelFormat());
-        picture.setTimeBase(videoFrameRate);
-        BufferedImage sampleImage;
+    private void doRecord(double totalNumberOfFrames) {
+        stages = new FrameStages();
         try {
-            sampleImage = imageInput.getSampleImage();
-        } catch (InputImageGenerationException e) {
-            throw new VideoRecorderException("Could not get sample image from input source", e);
+            recordFrames(totalNumberOfFrames);
+        } finally {
+            stages.finish();
         }
-        MediaPictureConverter converter = MediaPictureConverterFactory
-                .createConverter(sampleImage, picture);
+    }
 
+    private void recordFrames(double totalNumberOfFrames) {
         /*
           One important thing to bare in mind is that the objects are being reused for performance reasons.
           This packet and the picture will be reset whenever we have new data.
          */
-        double totalNumberOfFrames = inputFrameRate.rescale(duration.getSeconds(), Rational.make(1));
-        double timeBetweenFramesMillis = inputFrameRate.getValue() * 1000;
-        for (long frameIndex = 0; frameIndex < totalNumberOfFrames; frameIndex++) {
+        long lastFrameIndex = (long) Math.ceil(totalNumberOfFrames) - 1;
+        FrameScheduler frameScheduler = new FrameScheduler(timeSource, inputFrameRate.getDenominator());
+        RecordingAdjustment adjustment = RecordingAdjustment.NONE;
+        BufferedImage lastElidedScreen = null;
+        long lastElidedFrameIndex = -1;
+        long lastCapturedFrameIndex = -1;
+        frameScheduler.start();
+        long frameIndex = 0;
+        while (frameIndex < totalNumberOfFrames) {
             long timestampBeforeProcessing = timeSource.currentTimeNano();
-            videoRecordingListener.notifyFrameRenderingStart(timestampBeforeProcessing, TimeUnit.NANOSECONDS, frameIndex);
 
-            final BufferedImage screen;
-            try {
-                screen = imageInput.readImage();
-            } catch (InputImageGenerationException e) {
-                log.error("Failed to acquire image", e);
-                break;
+            // The governor may capture fewer frames, the last one is always captured to keep the duration
+            if (adjustment.shouldCapture(frameIndex, lastCapturedFrameIndex) || frameIndex == lastFrameIndex) {
+                videoRecordingListener.notifyFrameRenderingStart(timestampBeforeProcessing, TimeUnit.NANOSECONDS, frameIndex);
+
+                try {
+                    // The frames of the old size are all encoded before the video of the new size starts
+                    if (lastCapturedFrameIndex >= 0 && imageInput.updateSize()) {
+                        if (lastElidedScreen != null) {
+                            stages.converter.toPicture(stages.picture, lastElidedScreen, lastElidedFrameIndex);
+                            output.encode(stages.picture);
+                            lastElidedScreen = null;
+                        }
+                        stages.finish();
+                        startVideoAtNewSize(frameIndex);
+                        stages = new FrameStages();
+                    }
+                    lastCapturedFrameIndex = frameIndex;
+
+                    if (stages.pipeline != null) {
+                        captureIntoPipeline(stages.pipeline, frameIndex);
+                    } else {
+                        BufferedImage screen = readFrame(stages.frameBuffer, frameIndex);
+                        if (stages.duplicateFrameDetector != null && stages.duplicateFrameDetector.isDuplicate(screen)) {
+                            notifyFrameElided(frameIndex);
+                            lastElidedScreen = screen;
+                            lastElidedFrameIndex = frameIndex;
+                        } else {
+                            lastElidedScreen = null;
+                            stages.converter.toPicture(stages.picture, screen, frameIndex);
+                            output.encode(stages.picture);
+                        }
+                    }
+                } catch (InputImageGenerationException e) {
+                    log.error("Failed to acquire image", e);
+                    break;
+                } catch (InterruptedException e) {
+                    log.warn("Interrupted while waiting for a free frame slot", e);
+                    break;
+                }
+
+                long timestampAfterProcessing = timeSource.currentTimeNano();
+                videoRecordingListener.notifyFrameRenderingEnd(timestampAfterProcessing, TimeUnit.NANOSECONDS, frameIndex);
+                if (recordingGovernor != null) {
+                    long processingTimeNanos = timestampAfterProcessing - timestampBeforeProcessing;
+                    if (stages.pipeline != null) {
+                        processingTimeNanos = Math.max(processingTimeNanos, stages.pipeline.getSlowestStageNanos());
+                    }
+                    adjustment = applyGovernor(adjustment, processingTimeNanos,
+                            frameScheduler.getFrameIntervalNanos(), frameIndex);
+                }
             }
-            converter.toPicture(picture, screen, frameIndex);
-
-            // Flush the packet, the convention is to write until we get a new (incomplete) packet
-            do {
-                encoder.encode(packet, picture);
-                if (packet.isComplete())
-                    muxer.write(packet, false);
-            } while (packet.isComplete());
 
+            // Allow a different thread to stop the recording
+            if (shouldStopJob.get()) {
+                break;
+            }
 
             /*
               With recordings, the biggest challenge is to maintain the requested frameRate.
               We need to trigger the read the next image at exactly the right time.
              */
-            videoRecordingListener.notifyFrameRenderingEnd(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, frameIndex);
-            long nextTimestamp = timestampBeforeProcessing + TimeUnit.MILLISECONDS.toNanos((long) timeBetweenFramesMillis);
-            try {
-                timeSource.wakeUpAt(nextTimestamp, TimeUnit.NANOSECONDS);
-            } catch (InterruptedException e) {
-                log.debug("Interrupted while sleeping", e);
+            frameIndex = waitForNextFrame(frameScheduler, frameIndex, totalNumberOfFrames);
+        }
+
+        // A recording ending on skipped frames still needs to last until the last captured frame
+        if (lastElidedScreen != null) {
+            stages.converter.toPicture(stages.picture, lastElidedScreen, lastElidedFrameIndex);
+            output.encode(stages.picture);
+        }
+    }
+
+    /*
+      A video cannot change size. With segments, the next segment starts at the new size.
+      Otherwise the recording carries on in a new file, recording.mp4 is followed by recording-part2.mp4, ...
+     */
+    private void startVideoAtNewSize(long frameIndex) {
+        log.info("The input is now {}x{}, starting a new video", imageInput.getWidth(), imageInput.getHeight());
+        if (rollingSegments != null) {
+            rollingSegments.startNewSegment();
+            return;
+        }
+
+        try {
+            output.flush();
+            output.close();
+            videoParts++;
+            EncodingSession session = openSession(OutputFilenames.withSuffix(destinationFilename, "-part" + videoParts));
+            session.startAt(frameIndex);
+            output = session;
+        } catch (IOException | VideoRecorderException e) {
+            throw new IllegalStateException("Could not start a video at the new size", e);
+        }
+    }
+
+    /*
+      Deadlines are anchored to the start of the recording, so an overrun never delays the frames after it.
+      Slots that have passed while processing are skipped rather than captured late.
+     */
+    private long waitForNextFrame(FrameScheduler frameScheduler, long frameIndex, double totalNumberOfFrames) {
+        long nextFrameIndex = frameScheduler.nextFrameIndex(frameIndex);
+        if (nextFrameIndex >= totalNumberOfFrames) {
+            return nextFrameIndex;
+        }
+
+        long skippedSlots = nextFrameIndex - frameIndex - 1;
+        if (skippedSlots > 0) {
+            videoRecordingListener.notifyFrameSlotsSkipped(
+                    timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, frameIndex + 1, skippedSlots);
+        }
+        try {
+            long latenessNanos = frameScheduler.awaitDeadline(nextFrameIndex);
+            videoRecordingListener.notifyFrameLateness(
+                    timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, nextFrameIndex, latenessNanos);
+        } catch (InterruptedException e) {
+            log.debug("Interrupted while sleeping", e);
+        }
+        return nextFrameIndex;
+    }
+
+    private RecordingAdjustment applyGovernor(RecordingAdjustment current, long processingTimeNanos,
+                                              long timeBetweenFramesNanos, long frameIndex) {
+        RecordingAdjustment next = recordingGovernor.onFrameProcessed(processingTimeNanos, timeBetweenFramesNanos);
+        if (!next.equals(current)) {
+            imageInput.setScalingQuality(next.getScalingQuality());
+            videoRecordingListener.notifyRecordingAdjusted(
+                    timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, frameIndex, next);
+        }
+        return next;
+    }
+
+    private void notifyFrameElided(long frameIndex) {
+        videoRecordingListener.notifyFrameElided(timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, frameIndex);
+    }
+
+    /*
+      Inputs that ignore the frame buffer may return images of a different type, these are copied into the buffer.
+     */
+    private BufferedImage readFrame(BufferedImage frameBuffer, long frameIndex) throws InputImageGenerationException {
+        long readStart = stageTimer.imageReadStarted(frameIndex);
+        scalingSteps.reading(frameIndex);
+        BufferedImage screen = imageInput.readImage(frameBuffer);
+        stageTimer.imageRead(frameIndex, readStart, imageInput.getLastScalingNanos());
+        if (screen != frameBuffer && screen.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            ImageConversion.copy(screen, frameBuffer);
+            return frameBuffer;
+        }
+        return screen;
+    }
+
+    private void captureIntoPipeline(FramePipeline pipeline, long frameIndex)
+            throws InterruptedException, InputImageGenerationException {
+        FrameSlot slot = pipeline.acquire(frameIndex);
+        if (slot == null) {
+            return;
+        }
+
+        boolean submitted = false;
+        try {
+            long readStart = stageTimer.imageReadStarted(frameIndex);
+            scalingSteps.reading(frameIndex);
+            BufferedImage screen = imageInput.readImage(slot.image);
+            stageTimer.imageRead(frameIndex, readStart, imageInput.getLastScalingNanos());
+            pipeline.submit(slot, screen);
+            submitted = true;
+        } finally {
+            if (!submitted) {
+                pipeline.cancel(slot);
             }
+        }
+    }
 
-            // Allow a different thread to stop the recording
-            if (shouldStopJob.get()) {
-                break;
+    /*
+      In pipelined mode each slot gets its own frame buffer and picture, allocated once for each size of the input.
+      The input reads straight into the slot, so a frame is never copied between the stages.
+     */
+    private FramePipeline createPipeline(MediaPicture firstPicture, BufferedImage firstFrameBuffer,
+                                         DuplicateFrameDetector duplicateFrameDetector) {
+        FrameSlot[] slots = new FrameSlot[pipelineFrameSlots];
+        slots[0] = new FrameSlot(firstFrameBuffer, firstPicture);
+        for (int i = 1; i < slots.length; i++) {
+            MediaPicture slotPicture = createPicture();
+            BufferedImage slotImage = new BufferedImage(
+                    imageInput.getWidth(),
+                    imageInput.getHeight(),
+                    BufferedImage.TYPE_3BYTE_BGR);
+            slots[i] = new FrameSlot(slotImage, slotPicture);
+        }
+
+        FrameRing frameRing = new FrameRing(slots, backpressurePolicy,
+                frameIndex -> videoRecordingListener.notifyFrameDropped(
+                        timeSource.currentTimeNano(), TimeUnit.NANOSECONDS, frameIndex));
+        PictureConverter converter = createConverter(slots[0].image, firstPicture);
+        return new FramePipeline(frameRing, converter, output::encode,
+                duplicateFrameDetector, this::notifyFrameElided);
+    }
+
+    /**
+     * The frame buffers and the stages of the recording, sized for the input. They are created again when its size changes.
+     */
+    private class FrameStages {
+        private final MediaPicture picture;
+        private final BufferedImage frameBuffer;
+        private final PictureConverter converter;
+        private final DuplicateFrameDetector duplicateFrameDetector;
+        private final FramePipeline pipeline;
+        private boolean finished;
+
+        /*
+          Care must be taken so that the picture is encoded using the same format as Encoder.
+          The images must be converted so that the match.
+          Frames are always read into TYPE_3BYTE_BGR buffers, so the converter is created for that format.
+         */
+        FrameStages() {
+            picture = createPicture();
+            frameBuffer = new BufferedImage(
+                    imageInput.getWidth(),
+                    imageInput.getHeight(),
+                    BufferedImage.TYPE_3BYTE_BGR);
+            converter = createConverter(frameBuffer, picture);
+            duplicateFrameDetector = maxConsecutiveElidedFrames > 0
+                    ? new DuplicateFrameDetector(maxConsecutiveElidedFrames)
+                    : null;
+
+            if (pipelineFrameSlots > 0) {
+                pipeline = createPipeline(picture, frameBuffer, duplicateFrameDetector);
+                pipeline.start();
+            } else {
+                pipeline = null;
+            }
+        }
+
+        /**
+         * Wait for the frames still in the pipeline to be encoded.
+         */
+        void finish() {
+            if (pipeline != null && !finished) {
+                finished = true;
+                pipeline.finish();
             }
         }
     }
 
+    private PictureConverter createConverter(BufferedImage sampleImage, MediaPicture samplePicture) {
+        if (colourConversion == ColourConversion.PARALLEL_FIXED_POINT) {
+            return stageTimer.timed(new ParallelYuv420pConverter(ForkJoinPool.commonPool()));
+        }
+        return stageTimer.timed(new HumblePictureConverter(sampleImage, samplePicture));
+    }
+
+    private MediaPicture createPicture() {
+        MediaPicture picture = MediaPicture.make(
+                imageInput.getWidth(),
+                imageInput.getHeight(),
+                PixelFormat.Type.PIX_FMT_YUV420P);
+        picture.setTimeBase(videoFrameRate);
+        return picture;
+    }
+
     public void stop() {
         if (!shouldStopJob.get()) {
             log.info("Stopping recording");
@@ -270,24 +646,13 @@ public class VideoRecorder {
         try {
             log.info("Closing the video stream");
             imageInput.close();
-            muxer.close();
-            //delete lock file after closing writing
-            Path lockFilePath = Paths.get(muxer.getURL() + ".lock");
-            Files.delete(lockFilePath);
+            output.close();
         } catch (IOException e) {
-            throw new RuntimeException("Can't delete *.lock file.", e);
+            throw new RuntimeException("Can't finalise the video file.", e);
+        } finally {
+            if (liveStream != null) {
+                liveStream.end();
+            }
         }
     }
-
-    /*
-      Flush the encoder by writing data until we get a new (incomplete) packet
-     */
-    private void flush() {
-        log.info("Flushing remaining frames");
-        do {
-            encoder.encode(packet, null);
-            if (packet.isComplete())
-                muxer.write(packet, false);
-        } while (packet.isComplete());
-    }
 }
@@ -11,12 +11,18 @@ import tdl.record.screen.image.input.InputFromErrorProneSource;
 import tdl.record.screen.image.input.InputFromFreezingSource;
 import tdl.record.screen.image.input.InputFromStreamOfBarcodes;
 import tdl.record.screen.image.output.OutputToInMemoryBuffer;
+import tdl.record.screen.recovery.RecordingLock;
+import tdl.record.screen.recovery.RecordingRecovery;
 import tdl.record.screen.time.FakeTimeSource;
 import tdl.record.screen.time.TimeSource;
 import tdl.record.screen.video.VideoPlayer;
 import tdl.record.screen.video.VideoRecorder;
 import tdl.record.screen.video.VideoRecorderException;
 
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.concurrent.ExecutorService;
@@ -26,6 +32,9 @@ import java.util.concurrent.TimeUnit;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 public class CanHandleFailuresTest {
 
@@ -94,4 +103,34 @@ public class CanHandleFailuresTest {
         videoPlayer.open(destinationVideo);
         assertThat("Video duration is not as expected", videoPlayer.getDuration(), is(Duration.of(2, ChronoUnit.SECONDS)));
     }
+
+    @Test
+    public void interrupted_recording_should_be_recovered_up_to_its_last_complete_fragment() throws Exception {
+        String destinationVideo = "build/recording_recovered_after_interruption.mp4";
+        TimeSource recordTimeSource = new FakeTimeSource();
+        ImageInput imageInput = new InputFromStreamOfBarcodes(BarcodeFormat.CODE_39, 300, 150, recordTimeSource);
+        VideoRecorder videoRecorder = new VideoRecorder
+                .Builder(imageInput)
+                .withFragmentation(1, TimeUnit.SECONDS)
+                .withTimeSource(recordTimeSource).build();
+        videoRecorder.open(destinationVideo, 5, 1);
+        videoRecorder.start(Duration.of(20, ChronoUnit.SECONDS));
+        videoRecorder.close();
+
+        // Simulate a recording killed part way: the end of the file is missing and the lock is left behind
+        Path video = Paths.get(destinationVideo);
+        try (FileChannel channel = FileChannel.open(video, WRITE)) {
+            channel.truncate(channel.size() * 2 / 3);
+        }
+        Files.createFile(RecordingLock.lockFileOf(video));
+
+        RecordingRecovery.Result result = RecordingRecovery.recover(video);
+        assertThat(result.getOutcome(), is(RecordingRecovery.Outcome.REPAIRED));
+        assertFalse(Files.exists(RecordingLock.lockFileOf(video)));
+
+        VideoPlayer videoPlayer = new VideoPlayer(new OutputToInMemoryBuffer(), recordTimeSource);
+        videoPlayer.open(destinationVideo);
+        assertThat(videoPlayer.getDuration(), greaterThan(Duration.of(5, ChronoUnit.SECONDS)));
+        assertThat(videoPlayer.getDuration(), lessThan(Duration.of(20, ChronoUnit.SECONDS)));
+    }
 }
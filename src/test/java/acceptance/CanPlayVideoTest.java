@@ -1,11 +1,27 @@
 package acceptance;
 
+import com.google.zxing.BarcodeFormat;
+import org.hamcrest.Matcher;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import tdl.record.screen.image.input.ImageInput;
+import tdl.record.screen.image.input.InputFromStreamOfBarcodes;
+import tdl.record.screen.image.output.OutputToBarcodeReader;
 import tdl.record.screen.image.output.OutputToScreen;
+import tdl.record.screen.time.FakeTimeSource;
+import tdl.record.screen.time.TimeSource;
 import tdl.record.screen.video.VideoPlayer;
+import tdl.record.screen.video.VideoRecorder;
 
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.contains;
 
 public class CanPlayVideoTest {
 
@@ -22,5 +38,58 @@ public class CanPlayVideoTest {
         videoPlayer.close();
     }
 
+    @Test
+    public void can_seek_backwards_and_forwards() throws Exception {
+        String destinationVideo = "build/recording_to_seek.mp4";
+        recordBarcodes(new VideoRecorder.Builder(barcodes()), destinationVideo);
+
+        assertThat(barcodesSeenWhenSeeking(destinationVideo), seenAtTheRecordingTimes());
+    }
+
+    @Test
+    public void can_seek_using_the_fragment_index() throws Exception {
+        String destinationVideo = "build/recording_to_seek_with_index.mp4";
+        recordBarcodes(new VideoRecorder.Builder(barcodes()).withFragmentIndex(), destinationVideo);
+
+        assertThat(barcodesSeenWhenSeeking(destinationVideo), seenAtTheRecordingTimes());
+    }
+
+    //~~~~~~~~~~~~~ Helpers
+
+    private final TimeSource recordTimeSource = new FakeTimeSource();
 
-}
\ No newline at end of file
+    private ImageInput barcodes() {
+        return new InputFromStreamOfBarcodes(BarcodeFormat.CODE_39, 300, 150, recordTimeSource);
+    }
+
+    private void recordBarcodes(VideoRecorder.Builder builder, String destinationVideo) throws Exception {
+        VideoRecorder videoRecorder = builder.withTimeSource(recordTimeSource).build();
+        videoRecorder.open(destinationVideo, 5, 4);
+        videoRecorder.start(Duration.of(12, ChronoUnit.SECONDS));
+        videoRecorder.close();
+    }
+
+    private static List<Double> barcodesSeenWhenSeeking(String destinationVideo) throws Exception {
+        OutputToBarcodeReader barcodeReader = new OutputToBarcodeReader(new FakeTimeSource(), BarcodeFormat.CODE_39);
+        VideoPlayer videoPlayer = new VideoPlayer(barcodeReader);
+        videoPlayer.open(destinationVideo);
+        videoPlayer.seekTo(2500, TimeUnit.MILLISECONDS);
+        videoPlayer.seekTo(500, TimeUnit.MILLISECONDS);
+        videoPlayer.seekTo(1000, TimeUnit.MILLISECONDS);
+        videoPlayer.close();
+
+        return barcodeReader.getDecodedBarcodes().stream()
+                .map(timestampPair -> (double) timestampPair.barcodeTimestamp)
+                .collect(Collectors.toList());
+    }
+
+    // Recorded at 4x, one frame every 200ms of recording
+    @SuppressWarnings("unchecked")
+    private static Matcher<Iterable<? extends Double>> seenAtTheRecordingTimes() {
+        double oneFrame = TimeUnit.MILLISECONDS.toNanos(200);
+        return contains(
+                closeTo(TimeUnit.SECONDS.toNanos(10), oneFrame),
+                closeTo(TimeUnit.SECONDS.toNanos(2), oneFrame),
+                closeTo(TimeUnit.SECONDS.toNanos(4), oneFrame));
+    }
+}
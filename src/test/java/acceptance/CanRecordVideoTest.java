@@ -10,15 +10,27 @@ import org.junit.jupiter.api.Test;
 import tdl.record.screen.image.input.*;
 import tdl.record.screen.image.output.OutputToBarcodeReader;
 import tdl.record.screen.image.output.OutputToInMemoryBuffer;
+import tdl.record.screen.metrics.RecordingStage;
 import tdl.record.screen.metrics.VideoRecordingMetricsCollector;
 import tdl.record.screen.metrics.VideoRecordingListener;
+import tdl.record.screen.mp4.FragmentIndex;
+import tdl.record.screen.recovery.RecordingLock;
+import tdl.record.screen.sink.BufferedFileSink;
+import tdl.record.screen.sink.InMemorySink;
+import tdl.record.screen.sink.MeasuredVideoSink;
 import tdl.record.screen.time.FakeTimeSource;
 import tdl.record.screen.time.SystemTimeSource;
 import tdl.record.screen.time.TimeSource;
 import tdl.record.screen.utils.ImageQualityHint;
+import tdl.record.screen.video.BackpressurePolicy;
+import tdl.record.screen.video.ColourConversion;
+import tdl.record.screen.video.EncodingProfile;
+import tdl.record.screen.video.MultiScreenRecorder;
+import tdl.record.screen.video.RecorderWarmUp;
 import tdl.record.screen.video.VideoPlayer;
 import tdl.record.screen.video.VideoRecorder;
 
+import java.awt.Rectangle;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -26,8 +38,10 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 
 import static java.lang.Math.abs;
@@ -35,6 +49,8 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -54,9 +70,36 @@ public class CanRecordVideoTest {
     }
 
     @Test
-    @Disabled("Manual acceptance")
-    public void multiple_screens() {
-        //TODO Try the recording when you have multiple screens
+    public void can_record_multiple_screens_from_a_single_clock() throws Exception {
+        TimeSource recordTimeSource = new FakeTimeSource();
+        List<ImageInput> screens = Arrays.asList(
+                new InputFromStreamOfBarcodes(BarcodeFormat.CODE_39, 300, 150, new FakeTimeSource()),
+                new InputFromStreamOfBarcodes(BarcodeFormat.CODE_39, 400, 200, new FakeTimeSource()),
+                new InputFromStreamOfBarcodes(BarcodeFormat.CODE_39, 200, 100, new FakeTimeSource()));
+        VideoRecordingMetricsCollector metrics = new VideoRecordingMetricsCollector();
+        MultiScreenRecorder multiScreenRecorder = new MultiScreenRecorder.Builder(screens)
+                .withTimeSource(recordTimeSource)
+                .withRecordingListener(metrics)
+                .withEncodingWorkers(2)
+                .build();
+
+        // Capture video
+        multiScreenRecorder.open("build/recording_multiple_screens.mp4", 5, 4);
+        multiScreenRecorder.start(Duration.of(12, ChronoUnit.SECONDS));
+        multiScreenRecorder.close();
+
+        // Every screen gets its own video, covering the whole recording
+        int[] expectedWidths = {300, 400, 200};
+        for (int i = 0; i < expectedWidths.length; i++) {
+            VideoPlayer videoPlayer = new VideoPlayer(new OutputToInMemoryBuffer());
+            videoPlayer.open("build/recording_multiple_screens-screen" + (i + 1) + ".mp4");
+            assertThat("Video duration is not as expected", videoPlayer.getDuration(), is(Duration.of(3, ChronoUnit.SECONDS)));
+            assertThat(videoPlayer.getWidth(), is(expectedWidths[i]));
+            videoPlayer.close();
+        }
+        assertThat(metrics.getDroppedFrames(), is(0L));
+        // The screens are captured together, well within a frame interval of each other
+        assertThat(metrics.getMaxCaptureSkewNanos(), lessThan(TimeUnit.SECONDS.toNanos(1) / 5));
     }
 
     @Test
@@ -91,6 +134,224 @@ public class CanRecordVideoTest {
         assertThat(decodedBarcodes, areConsistentWith(4));
     }
 
+    @Test
+    public void can_record_video_with_pipelined_stages() throws Exception {
+        String destinationVideo = "build/recording_from_barcode_pipelined.mp4";
+        TimeSource recordTimeSource = new FakeTimeSource();
+        ImageInput imageInput = new InputFromStreamOfBarcodes(BarcodeFormat.CODE_39, 300, 150, recordTimeSource);
+        VideoRecordingMetricsCollector metrics = new VideoRecordingMetricsCollector();
+        VideoRecorder videoRecorder = new VideoRecorder.Builder(imageInput)
+                .withTimeSource(recordTimeSource)
+                .withRecordingListener(metrics)
+                .withPipelining(3, BackpressurePolicy.BLOCK)
+                .withColourConversion(ColourConversion.PARALLEL_FIXED_POINT)
+                .build();
+
+        // Capture video
+        videoRecorder.open(destinationVideo, 5, 4);
+        videoRecorder.start(Duration.of(12, ChronoUnit.SECONDS));
+        videoRecorder.close();
+
+        // Read recorded video parameters
+        TimeSource replayTimeSource = new FakeTimeSource();
+        OutputToBarcodeReader barcodeReader = new OutputToBarcodeReader(replayTimeSource, BarcodeFormat.CODE_39);
+        VideoPlayer videoPlayer = new VideoPlayer(barcodeReader, replayTimeSource);
+        videoPlayer.open(destinationVideo);
+        assertThat("Video duration is not as expected", videoPlayer.getDuration(), is(Duration.of(3, ChronoUnit.SECONDS)));
+        assertThat(metrics.getDroppedFrames(), is(0L));
+        for (RecordingStage stage : Arrays.asList(RecordingStage.CAPTURE, RecordingStage.COLOUR_CONVERSION,
+                RecordingStage.ENCODE, RecordingStage.MUX_WRITE)) {
+            assertThat(stage + " is not timed", metrics.getStageLatency(stage).getCount(), greaterThan(0L));
+        }
+        assertThat(metrics.getBytesWritten(), greaterThan(0L));
+
+        // Play the recorded video and read the barcodes
+        videoPlayer.play();
+        videoPlayer.close();
+
+        // Assert on timestamps
+        List<OutputToBarcodeReader.TimestampPair> decodedBarcodes = barcodeReader.getDecodedBarcodes();
+        assertThat(decodedBarcodes.isEmpty(), is(false));
+        assertThat(decodedBarcodes, areConsistentWith(4));
+    }
+
+    @Test
+    public void can_record_video_through_a_sink() throws Exception {
+        String destinationVideo = "build/recording_through_a_sink.mp4";
+        TimeSource recordTimeSource = new FakeTimeSource();
+        ImageInput imageInput = new InputFromStreamOfBarcodes(BarcodeFormat.CODE_39, 300, 150, recordTimeSource);
+        BufferedFileSink fileSink = new BufferedFileSink(64 * 1024);
+        MeasuredVideoSink measuredSink = new MeasuredVideoSink(fileSink);
+        VideoRecorder videoRecorder = new VideoRecorder.Builder(imageInput)
+                .withTimeSource(recordTimeSource)
+                .withSink(measuredSink)
+                .build();
+
+        // Capture video
+        videoRecorder.open(destinationVideo, 5, 4);
+        videoRecorder.start(Duration.of(12, ChronoUnit.SECONDS));
+        videoRecorder.close();
+
+        // The small writes of the muxer reach the file as fewer, larger ones
+        assertThat(measuredSink.getBytesWritten(), greaterThanOrEqualTo(Files.size(Paths.get(destinationVideo))));
+        assertThat(measuredSink.getWriteLatency().getCount(), is(measuredSink.getWriteCalls()));
+        assertThat(measuredSink.getWriteCalls(), greaterThan(fileSink.getFileWrites()));
+
+        // Play the recorded video and read the barcodes
+        TimeSource replayTimeSource = new FakeTimeSource();
+        OutputToBarcodeReader barcodeReader = new OutputToBarcodeReader(replayTimeSource, BarcodeFormat.CODE_39);
+        VideoPlayer videoPlayer = new VideoPlayer(barcodeReader, replayTimeSource);
+        videoPlayer.open(destinationVideo);
+        assertThat("Video duration is not as expected", videoPlayer.getDuration(), is(Duration.of(3, ChronoUnit.SECONDS)));
+        videoPlayer.play();
+        videoPlayer.close();
+        assertThat(barcodeReader.getDecodedBarcodes(), areConsistentWith(4));
+    }
+
+    @Test
+    public void can_record_video_in_memory() throws Exception {
+        String destinationVideo = "build/recording_in_memory.mp4";
+        Files.deleteIfExists(Paths.get(destinationVideo));
+        TimeSource recordTimeSource = new FakeTimeSource();
+        ImageInput imageInput = new InputFromStreamOfBarcodes(BarcodeFormat.CODE_39, 300, 150, recordTimeSource);
+        InMemorySink memorySink = new InMemorySink();
+        VideoRecorder videoRecorder = new VideoRecorder.Builder(imageInput)
+                .withTimeSource(recordTimeSource)
+                .withSink(memorySink)
+                .withFragmentIndex()
+                .build();
+
+        // Capture video
+        videoRecorder.open(destinationVideo, 5, 4);
+        videoRecorder.start(Duration.of(12, ChronoUnit.SECONDS));
+        videoRecorder.close();
+        assertFalse(Files.exists(Paths.get(destinationVideo)), "The video should not be written to disk");
+        assertFalse(Files.exists(RecordingLock.lockFileOf(Paths.get(destinationVideo))), "The video should not be locked on disk");
+        assertThat(memorySink.getBytes(destinationVideo + FragmentIndex.INDEX_SUFFIX).length, greaterThan(0));
+
+        // The bytes kept in memory make the same video
+        Path copy = Paths.get("build/recording_in_memory_copy.mp4");
+        Files.write(copy, memorySink.getBytes(destinationVideo));
+        TimeSource replayTimeSource = new FakeTimeSource();
+        OutputToBarcodeReader barcodeReader = new OutputToBarcodeReader(replayTimeSource, BarcodeFormat.CODE_39);
+        VideoPlayer videoPlayer = new VideoPlayer(barcodeReader, replayTimeSource);
+        videoPlayer.open(copy.toString());
+        assertThat("Video duration is not as expected", videoPlayer.getDuration(), is(Duration.of(3, ChronoUnit.SECONDS)));
+        videoPlayer.play();
+        videoPlayer.close();
+        assertThat(barcodeReader.getDecodedBarcodes(), areConsistentWith(4));
+    }
+
+    @Test
+    public void can_record_video_after_a_warm_up() throws Exception {
+        String destinationVideo = "build/recording_after_warm_up.mp4";
+        RecorderWarmUp warmUp = RecorderWarmUp.start(EncodingProfile.LOW_CPU_REALTIME, true);
+        TimeSource recordTimeSource = new FakeTimeSource();
+        ImageInput imageInput = new InputFromStreamOfBarcodes(BarcodeFormat.CODE_39, 300, 150, recordTimeSource);
+        VideoRecordingMetricsCollector metrics = new VideoRecordingMetricsCollector();
+        VideoRecorder videoRecorder = new VideoRecorder.Builder(imageInput)
+                .withTimeSource(recordTimeSource)
+                .withRecordingListener(metrics)
+                .withEncodingProfile(EncodingProfile.LOW_CPU_REALTIME)
+                .build();
+
+        // Capture video
+        assertThat(warmUp.await(), greaterThan(Duration.ZERO));
+        videoRecorder.open(destinationVideo, 5, 4);
+        videoRecorder.start(Duration.of(12, ChronoUnit.SECONDS));
+        videoRecorder.close();
+        assertThat(metrics.getTimeToFirstFrameNanos(), greaterThan(0L));
+
+        // Play the recorded video and read the barcodes
+        TimeSource replayTimeSource = new FakeTimeSource();
+        OutputToBarcodeReader barcodeReader = new OutputToBarcodeReader(replayTimeSource, BarcodeFormat.CODE_39);
+        VideoPlayer videoPlayer = new VideoPlayer(barcodeReader, replayTimeSource);
+        videoPlayer.open(destinationVideo);
+        assertThat("Video duration is not as expected", videoPlayer.getDuration(), is(Duration.of(3, ChronoUnit.SECONDS)));
+        videoPlayer.play();
+        videoPlayer.close();
+        assertThat(barcodeReader.getDecodedBarcodes(), areConsistentWith(4));
+    }
+
+    @Test
+    public void long_recordings_should_be_split_into_segments() throws Exception {
+        deleteSegments("build/recording_in_segments");
+        TimeSource recordTimeSource = new FakeTimeSource();
+        ImageInput imageInput = new InputFromStreamOfBarcodes(BarcodeFormat.CODE_39, 300, 150, recordTimeSource);
+        VideoRecorder videoRecorder = new VideoRecorder.Builder(imageInput)
+                .withTimeSource(recordTimeSource)
+                .withRollingSegments(Duration.of(4, ChronoUnit.SECONDS), 0, 0)
+                .build();
+
+        // Capture video
+        videoRecorder.open("build/recording_in_segments.mp4", 5, 4);
+        videoRecorder.start(Duration.of(12, ChronoUnit.SECONDS));
+        videoRecorder.close();
+
+        // Each segment holds 4 seconds of recording, played back in 1 second
+        for (int i = 0; i < 3; i++) {
+            String segment = "build/recording_in_segments-0000" + i + ".mp4";
+            VideoPlayer videoPlayer = new VideoPlayer(new OutputToInMemoryBuffer());
+            videoPlayer.open(segment);
+            assertThat("Video duration is not as expected", videoPlayer.getDuration(), is(Duration.of(1, ChronoUnit.SECONDS)));
+            videoPlayer.close();
+            assertFalse(Files.exists(Paths.get(segment + ".lock")));
+        }
+        // The segment opened ahead of a fourth rotation is not left behind
+        assertFalse(Files.exists(Paths.get("build/recording_in_segments-00003.mp4")));
+        List<String> manifest = Files.readAllLines(Paths.get("build/recording_in_segments.segments"));
+        assertThat(manifest.get(2), is("recording_in_segments-00000.mp4\t0\t4000\t" + segmentSize(0)));
+        assertThat(manifest.get(4), is("recording_in_segments-00002.mp4\t8000\t12000\t" + segmentSize(2)));
+    }
+
+    @Test
+    public void oldest_segments_should_be_deleted_when_over_the_disk_quota() throws Exception {
+        deleteSegments("build/recording_in_segments_with_quota");
+        TimeSource recordTimeSource = new FakeTimeSource();
+        ImageInput imageInput = new InputFromStreamOfBarcodes(BarcodeFormat.CODE_39, 300, 150, recordTimeSource);
+        VideoRecorder videoRecorder = new VideoRecorder.Builder(imageInput)
+                .withTimeSource(recordTimeSource)
+                .withRollingSegments(Duration.of(2, ChronoUnit.SECONDS), 0, 1)
+                .build();
+
+        // Capture video
+        videoRecorder.open("build/recording_in_segments_with_quota.mp4", 5, 4);
+        videoRecorder.start(Duration.of(12, ChronoUnit.SECONDS));
+        videoRecorder.close();
+
+        // Only the newest segment is kept
+        assertFalse(Files.exists(Paths.get("build/recording_in_segments_with_quota-00004.mp4")));
+        assertTrue(Files.exists(Paths.get("build/recording_in_segments_with_quota-00005.mp4")));
+        List<String> manifest = Files.readAllLines(Paths.get("build/recording_in_segments_with_quota.segments"));
+        assertThat(manifest.size(), is(3));
+    }
+
+    @Test
+    public void identical_frames_should_be_skipped_without_shortening_the_video() throws Exception {
+        String referenceImage = "src/test/resources/odd_width_and_height.jpg";
+        String destinationVideo = "build/recording_from_static_image_with_elision.mp4";
+        TimeSource recordTimeSource = new FakeTimeSource();
+        ImageInput imageInput = new EnsureEvenHeightAndWidth(new InputFromStaticImage(referenceImage));
+        VideoRecordingMetricsCollector metrics = new VideoRecordingMetricsCollector();
+        VideoRecorder videoRecorder = new VideoRecorder.Builder(imageInput)
+                .withTimeSource(recordTimeSource)
+                .withRecordingListener(metrics)
+                .withDuplicateFrameElision(20)
+                .build();
+
+        // Capture video
+        videoRecorder.open(destinationVideo, 5, 4);
+        videoRecorder.start(Duration.of(12, ChronoUnit.SECONDS));
+        videoRecorder.close();
+
+        // Only a few frames reach the encoder, the last one keeps the original duration
+        assertThat(metrics.getElidedFrames(), greaterThan(50L));
+        VideoPlayer videoPlayer = new VideoPlayer(new OutputToInMemoryBuffer());
+        videoPlayer.open(destinationVideo);
+        assertThat("Video duration is not as expected", videoPlayer.getDuration(), is(Duration.of(3, ChronoUnit.SECONDS)));
+        videoPlayer.close();
+    }
+
     @Test
     public void size_should_be_kept_small_while_retaining_quality() throws Exception {
         String referenceVideoFile = "src/test/resources/t_reference_recording.mp4";
@@ -167,6 +428,40 @@ public class CanRecordVideoTest {
         videoPlayer.close();
     }
 
+    @Test
+    @Tag("needs_screen")
+    public void a_region_of_a_new_size_should_be_recorded_in_a_new_video_of_that_size() throws Exception {
+        String destinationVideoFile = "build/recording_of_a_resized_region.mp4";
+        InputFromScreenRegion imageInput = new InputFromScreenRegion(new Rectangle(0, 0, 300, 200));
+        VideoRecordingListener resizeAfterOneSecond = new VideoRecordingMetricsCollector() {
+            @Override
+            public void notifyFrameRenderingEnd(long timestamp, TimeUnit unit, long frameIndex) {
+                super.notifyFrameRenderingEnd(timestamp, unit, frameIndex);
+                if (frameIndex == 4) {
+                    imageInput.setRegions(new Rectangle(0, 0, 400, 100));
+                }
+            }
+        };
+        VideoRecorder videoRecorder = new VideoRecorder.Builder(imageInput)
+                .withTimeSource(new FakeTimeSource())
+                .withRecordingListener(resizeAfterOneSecond)
+                .build();
+        videoRecorder.open(destinationVideoFile, 5, 4);
+        videoRecorder.start(Duration.of(3, ChronoUnit.SECONDS));
+        videoRecorder.close();
+
+        VideoPlayer firstVideo = new VideoPlayer(new OutputToInMemoryBuffer());
+        firstVideo.open(destinationVideoFile);
+        assertThat(firstVideo.getWidth(), is(300));
+        assertThat(firstVideo.getHeight(), is(200));
+        firstVideo.close();
+        VideoPlayer secondVideo = new VideoPlayer(new OutputToInMemoryBuffer());
+        secondVideo.open("build/recording_of_a_resized_region-part2.mp4");
+        assertThat(secondVideo.getWidth(), is(400));
+        assertThat(secondVideo.getHeight(), is(100));
+        secondVideo.close();
+    }
+
     /**
      * Frame rate sampling. On large desktops, taking a screenshot could take a lot of time.
      */
@@ -271,6 +566,17 @@ public class CanRecordVideoTest {
 
     //~~~~~~~~~~~~~ Helpers
 
+    private static void deleteSegments(String baseName) throws Exception {
+        for (int i = 0; i < 10; i++) {
+            Files.deleteIfExists(Paths.get(baseName + "-0000" + i + ".mp4"));
+        }
+        Files.deleteIfExists(Paths.get(baseName + ".segments"));
+    }
+
+    private static long segmentSize(int segmentNumber) throws Exception {
+        return Files.size(Paths.get("build/recording_in_segments-0000" + segmentNumber + ".mp4"));
+    }
+
     private Matcher<List<OutputToBarcodeReader.TimestampPair>> areConsistentWith(
             @SuppressWarnings("SameParameterValue") int timeSpeedUpFactor) {
         return new TypeSafeMatcher<List<OutputToBarcodeReader.TimestampPair>>() {
@@ -0,0 +1,56 @@
+package tdl.record.screen.governor;
+
+import org.junit.jupiter.api.Test;
+import tdl.record.screen.utils.ScalingQuality;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CpuBudgetGovernorTest {
+    private static final long FRAME_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Test
+    public void should_keep_full_quality_while_within_budget() {
+        CpuBudgetGovernor governor = new CpuBudgetGovernor(0.8);
+
+        RecordingAdjustment adjustment = processFrames(governor, 100, millis(120));
+
+        assertThat(adjustment, is(RecordingAdjustment.NONE));
+    }
+
+    @Test
+    public void should_make_scaling_cheaper_before_capturing_fewer_frames() {
+        CpuBudgetGovernor governor = new CpuBudgetGovernor(0.8);
+
+        assertThat(processFrames(governor, 3, millis(400)).getScalingQuality(), is(ScalingQuality.BILINEAR));
+        assertThat(processFrames(governor, 3, millis(400)).getScalingQuality(), is(ScalingQuality.NEAREST_NEIGHBOR));
+        RecordingAdjustment adjustment = processFrames(governor, 3, millis(400));
+        assertThat(adjustment.getFrameRateDivisor(), is(2));
+    }
+
+    @Test
+    public void should_recover_one_level_at_a_time_when_load_drops() {
+        CpuBudgetGovernor governor = new CpuBudgetGovernor(0.8);
+        processFrames(governor, 6, millis(300));
+
+        assertThat(processFrames(governor, 29, millis(10)).getScalingQuality(), is(ScalingQuality.NEAREST_NEIGHBOR));
+        assertThat(processFrames(governor, 1, millis(10)).getScalingQuality(), is(ScalingQuality.BILINEAR));
+        assertThat(processFrames(governor, 30, millis(10)), is(RecordingAdjustment.NONE));
+    }
+
+    //~~~~~~~~~~~~~ Helpers
+
+    private static RecordingAdjustment processFrames(CpuBudgetGovernor governor, int frames, long processingTimeNanos) {
+        RecordingAdjustment adjustment = null;
+        for (int i = 0; i < frames; i++) {
+            adjustment = governor.onFrameProcessed(processingTimeNanos, FRAME_INTERVAL_NANOS);
+        }
+        return adjustment;
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,42 @@
+package tdl.record.screen.governor;
+
+import org.junit.jupiter.api.Test;
+import tdl.record.screen.utils.ScalingQuality;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+
+public class RecordingAdjustmentTest {
+
+    @Test
+    public void should_capture_one_slot_out_of_the_divisor() {
+        RecordingAdjustment adjustment = new RecordingAdjustment(3, ScalingQuality.NEAREST_NEIGHBOR);
+
+        assertThat(capturedFrames(adjustment, 0, 1, 2, 3, 4, 5, 6, 7), contains(0L, 3L, 6L));
+    }
+
+    @Test
+    public void slots_skipped_by_the_scheduler_should_count_towards_the_divisor() {
+        RecordingAdjustment adjustment = new RecordingAdjustment(2, ScalingQuality.NEAREST_NEIGHBOR);
+
+        // Slots 2 and 5 passed while processing. Going by the parity of the index would capture 0, 4, 6 and 8
+        assertThat(capturedFrames(adjustment, 0, 1, 3, 4, 6, 7, 8), contains(0L, 3L, 6L, 8L));
+    }
+
+    //~~~~~~~~~~~~~ Helpers
+
+    private static List<Long> capturedFrames(RecordingAdjustment adjustment, long... scheduledSlots) {
+        List<Long> captured = new ArrayList<>();
+        long lastCapturedFrameIndex = -1;
+        for (long frameIndex : scheduledSlots) {
+            if (adjustment.shouldCapture(frameIndex, lastCapturedFrameIndex)) {
+                captured.add(frameIndex);
+                lastCapturedFrameIndex = frameIndex;
+            }
+        }
+        return captured;
+    }
+}
@@ -0,0 +1,78 @@
+package tdl.record.screen.image.input;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Reports the latency of a single capture and of the banded capture, for areas of the usual screen resolutions.
+ * Which is faster depends on the display server, so the numbers are reported rather than compared.
+ * It needs a display. Resolutions larger than the screen are skipped, so run it on a large virtual screen, for example:
+ * <pre>xvfb-run -s "-screen 0 3840x2160x24" ./gradlew benchmarks</pre>
+ */
+@Tag("benchmark")
+public class BandedScreenCaptureBenchmarkTest {
+    private static final Logger log = LoggerFactory.getLogger(BandedScreenCaptureBenchmarkTest.class);
+    private static final Dimension[] RESOLUTIONS = {
+            new Dimension(1280, 720),
+            new Dimension(1920, 1080),
+            new Dimension(2560, 1440),
+            new Dimension(3840, 2160)};
+    private static final int[] BANDS = {1, 2, 4, 8};
+    private static final int WARM_UP_CAPTURES = 10;
+    private static final int MEASURED_CAPTURES = 50;
+
+    @Test
+    public void report_the_capture_latency_by_number_of_bands() throws Exception {
+        GraphicsDevice screenDevice = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
+        Rectangle screenBounds = screenDevice.getDefaultConfiguration().getBounds();
+
+        int measuredResolutions = 0;
+        for (Dimension resolution : RESOLUTIONS) {
+            if (resolution.width > screenBounds.width || resolution.height > screenBounds.height) {
+                log.info("{}x{} skipped, the screen is {}x{}",
+                        resolution.width, resolution.height, screenBounds.width, screenBounds.height);
+                continue;
+            }
+
+            Rectangle area = new Rectangle(screenBounds.x, screenBounds.y, resolution.width, resolution.height);
+            for (int bands : BANDS) {
+                long medianNanos = medianCaptureNanos(screenDevice, area, bands);
+                log.info("{}x{} {} band(s) {} ms/capture",
+                        resolution.width, resolution.height, bands, String.format("%.2f", medianNanos / 1e6));
+            }
+            measuredResolutions++;
+        }
+
+        assumeTrue(measuredResolutions > 0, "The screen is smaller than all the resolutions, nothing was measured");
+    }
+
+    //~~~~~~~~~~~~~ Helpers
+
+    private static long medianCaptureNanos(GraphicsDevice screenDevice, Rectangle area, int bands) throws Exception {
+        BandedScreenCapture capture = new BandedScreenCapture(screenDevice, area, bands);
+        BufferedImage frameBuffer = new BufferedImage(area.width, area.height, BufferedImage.TYPE_3BYTE_BGR);
+        try {
+            for (int i = 0; i < WARM_UP_CAPTURES; i++) {
+                capture.captureInto(frameBuffer);
+            }
+            long[] captureNanos = new long[MEASURED_CAPTURES];
+            for (int i = 0; i < MEASURED_CAPTURES; i++) {
+                long start = System.nanoTime();
+                capture.captureInto(frameBuffer);
+                captureNanos[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(captureNanos);
+            return captureNanos[MEASURED_CAPTURES / 2];
+        } finally {
+            capture.close();
+        }
+    }
+}
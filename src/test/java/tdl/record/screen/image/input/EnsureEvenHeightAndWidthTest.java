@@ -0,0 +1,32 @@
+package tdl.record.screen.image.input;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class EnsureEvenHeightAndWidthTest {
+
+    @Test
+    public void odd_sized_frames_should_be_cropped_without_copying_the_pixels() throws Exception {
+        String referenceImage = "src/test/resources/odd_width_and_height.jpg";
+        ImageInput imageInput = new EnsureEvenHeightAndWidth(new InputFromStaticImage(referenceImage));
+        imageInput.open();
+        BufferedImage frameBuffer = new BufferedImage(
+                imageInput.getWidth(), imageInput.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+
+        BufferedImage firstFrame = imageInput.readImage(frameBuffer);
+        BufferedImage secondFrame = imageInput.readImage(frameBuffer);
+        BufferedImage originalImage = new InputFromStaticImage(referenceImage).readImage();
+        imageInput.close();
+
+        assertThat(firstFrame.getWidth(), is(300));
+        assertThat(firstFrame.getHeight(), is(200));
+        assertThat(firstFrame.getRaster().getParent() != null, is(true));
+        assertThat(secondFrame, sameInstance(firstFrame));
+        assertThat(firstFrame.getRGB(299, 199), is(originalImage.getRGB(299, 199)));
+    }
+}
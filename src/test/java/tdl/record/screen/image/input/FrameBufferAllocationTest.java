@@ -0,0 +1,171 @@
+package tdl.record.screen.image.input;
+
+import io.humble.video.Rational;
+import org.junit.jupiter.api.Test;
+import tdl.record.screen.metrics.VideoRecordingListener;
+import tdl.record.screen.time.FakeTimeSource;
+import tdl.record.screen.utils.ImageQualityHint;
+import tdl.record.screen.video.VideoRecorder;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+public class FrameBufferAllocationTest {
+    private static final int WARM_UP_FRAMES = 500;
+    private static final int MEASURED_FRAMES = 2000;
+    private static final int SCALED_WARM_UP_FRAMES = 50;
+    private static final int SCALED_MEASURED_FRAMES = 200;
+
+    @Test
+    public void steady_state_frame_reads_should_not_allocate() throws Exception {
+        // Robot returns TYPE_INT_RGB captures, odd sizes are common on laptop panels
+        ImageInput imageInput = new EnsureEvenHeightAndWidth(new InputFromPackedIntImage(1367, 769));
+
+        long bytesPerFrame = bytesAllocatedPerRead(imageInput, WARM_UP_FRAMES, MEASURED_FRAMES);
+
+        assertThat("Bytes allocated per frame", bytesPerFrame, lessThan(64L));
+    }
+
+    @Test
+    public void scaled_frame_reads_should_only_allocate_the_scaling_tasks() throws Exception {
+        ImageInput imageInput = new ScaleToOptimalSizeImage(ImageQualityHint.MEDIUM, new InputFromPackedIntImage(1920, 1080));
+
+        long bytesPerFrame = bytesAllocatedPerRead(imageInput, SCALED_WARM_UP_FRAMES, SCALED_MEASURED_FRAMES);
+
+        // The stripes handed to the pool are small objects, a frame buffer would be megabytes
+        long frameBytes = 3L * imageInput.getWidth() * imageInput.getHeight();
+        assertThat("Image should be scaled down", imageInput.getWidth(), lessThan(1920));
+        assertThat("Bytes allocated per frame", bytesPerFrame, lessThan(frameBytes / 100));
+    }
+
+    @Test
+    public void recording_frames_should_not_allocate_frame_buffers() throws Exception {
+        ImageInput imageInput = new InputFromPackedIntImage(1367, 769);
+        AllocationPerFrameListener listener = new AllocationPerFrameListener(WARM_UP_FRAMES / 5);
+        VideoRecorder videoRecorder = new VideoRecorder.Builder(imageInput)
+                .withTimeSource(new FakeTimeSource())
+                .withRecordingListener(listener)
+                .build();
+
+        videoRecorder.open("build/recording_allocations.mp4", 5, 4);
+        videoRecorder.start(Duration.ofSeconds(60));
+        videoRecorder.close();
+
+        // Frames are recorded on the calling thread when not pipelined, the encoder may still create a few handles
+        long frameBytes = 3L * imageInput.getWidth() * imageInput.getHeight();
+        assertThat("Bytes allocated per frame", listener.getBytesPerFrame(), lessThan(frameBytes / 100));
+    }
+
+    //~~~~~~~~~~~~~ Helpers
+
+    private static long bytesAllocatedPerRead(ImageInput imageInput, int warmUpFrames, int measuredFrames)
+            throws InputImageGenerationException {
+        imageInput.open();
+        BufferedImage frameBuffer = new BufferedImage(
+                imageInput.getWidth(), imageInput.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+
+        for (int i = 0; i < warmUpFrames; i++) {
+            imageInput.readImage(frameBuffer);
+        }
+        long allocatedBefore = allocatedBytesOfCurrentThread();
+        for (int i = 0; i < measuredFrames; i++) {
+            imageInput.readImage(frameBuffer);
+        }
+        long allocatedAfter = allocatedBytesOfCurrentThread();
+        imageInput.close();
+        return (allocatedAfter - allocatedBefore) / measuredFrames;
+    }
+
+    private static long allocatedBytesOfCurrentThread() {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static class InputFromPackedIntImage implements ImageInput {
+        private final BufferedImage image;
+
+        InputFromPackedIntImage(int width, int height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = image.createGraphics();
+            graphics.setPaint(Color.ORANGE);
+            graphics.fillRect(0, 0, width / 2, height / 2);
+            graphics.dispose();
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public BufferedImage readImage() {
+            return image;
+        }
+
+        @Override
+        public BufferedImage getSampleImage() {
+            return image;
+        }
+
+        @Override
+        public int getWidth() {
+            return image.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return image.getHeight();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Measures the recording thread between the end of the warm-up frames and the end of the recording.
+     */
+    private static class AllocationPerFrameListener implements VideoRecordingListener {
+        private final long warmUpFrames;
+        private long allocatedAfterWarmUp;
+        private long allocatedAtLastFrame;
+        private long lastFrameIndex;
+
+        AllocationPerFrameListener(long warmUpFrames) {
+            this.warmUpFrames = warmUpFrames;
+        }
+
+        long getBytesPerFrame() {
+            return (allocatedAtLastFrame - allocatedAfterWarmUp) / (lastFrameIndex - warmUpFrames);
+        }
+
+        @Override
+        public void notifyRecordingStart(String destinationFilename, Rational inputFrameRate, Rational videoFrameRate) {
+        }
+
+        @Override
+        public void notifyFrameRenderingStart(long timestamp, TimeUnit unit, long frameIndex) {
+        }
+
+        @Override
+        public void notifyFrameRenderingEnd(long timestamp, TimeUnit unit, long frameIndex) {
+            if (frameIndex == warmUpFrames) {
+                allocatedAfterWarmUp = allocatedBytesOfCurrentThread();
+            } else if (frameIndex > warmUpFrames) {
+                allocatedAtLastFrame = allocatedBytesOfCurrentThread();
+                lastFrameIndex = frameIndex;
+            }
+        }
+
+        @Override
+        public void notifyRecordingEnd() {
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package tdl.record.screen.image.input;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@Tag("needs_screen")
+public class InputFromScreenRegionTest {
+
+    @Test
+    public void regions_should_be_placed_side_by_side_in_one_frame() throws Exception {
+        InputFromScreenRegion imageInput = new InputFromScreenRegion(
+                new Rectangle(0, 0, 200, 100), new Rectangle(50, 50, 300, 150));
+        imageInput.open();
+
+        BufferedImage frame = imageInput.readImage();
+        imageInput.close();
+
+        assertThat(frame.getWidth(), is(500));
+        assertThat(frame.getHeight(), is(150));
+    }
+
+    @Test
+    public void frame_should_keep_its_size_when_the_regions_change() throws Exception {
+        InputFromScreenRegion imageInput = new InputFromScreenRegion(new Rectangle(0, 0, 300, 200));
+        imageInput.open();
+        BufferedImage frameBuffer = new BufferedImage(
+                imageInput.getWidth(), imageInput.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+
+        imageInput.setRegions(new Rectangle(0, 0, 600, 200));
+        BufferedImage frame = imageInput.readImage(frameBuffer);
+        imageInput.close();
+
+        // Scaled down by half to fit, the bottom half is left black
+        assertThat(frame.getWidth(), is(300));
+        assertThat(frame.getHeight(), is(200));
+        assertThat(frame.getRGB(150, 150) & 0xffffff, is(0));
+    }
+}
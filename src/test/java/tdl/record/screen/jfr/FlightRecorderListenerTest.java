@@ -0,0 +1,141 @@
+package tdl.record.screen.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import tdl.record.screen.metrics.RecordingStage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+public class FlightRecorderListenerTest {
+
+    @Test
+    public void should_commit_the_events_enabled_in_the_flight_recording() throws Exception {
+        FlightRecorderListener listener = new FlightRecorderListener();
+        Path dump = Files.createTempFile("stages", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("tdl.record.screen.Encode");
+            recording.enable("tdl.record.screen.VideoOpen");
+            recording.disable("tdl.record.screen.FrameCapture");
+            recording.start();
+            listener.notifyVideoOpening(0, TimeUnit.NANOSECONDS, "recording.mp4");
+            listener.notifyVideoOpened(0, TimeUnit.NANOSECONDS, "recording.mp4", 1280, 720, 5000);
+            listener.notifyStageStepStarted(0, TimeUnit.NANOSECONDS, 7, RecordingStage.ENCODE);
+            TimeUnit.MILLISECONDS.sleep(12);
+            listener.notifyStageStepEnded(0, TimeUnit.NANOSECONDS, 7, RecordingStage.ENCODE);
+            listener.notifyStageStepStarted(0, TimeUnit.NANOSECONDS, 7, RecordingStage.CAPTURE);
+            listener.notifyStageStepEnded(0, TimeUnit.NANOSECONDS, 7, RecordingStage.CAPTURE);
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        Files.delete(dump);
+
+        assertThat(events.size(), is(2));
+        RecordedEvent open = events.get(0);
+        assertThat(open.getEventType().getName(), is("tdl.record.screen.VideoOpen"));
+        assertThat(open.getString("filename"), is("recording.mp4"));
+        assertThat(open.getInt("height"), is(720));
+        RecordedEvent encode = events.get(1);
+        assertThat(encode.getEventType().getName(), is("tdl.record.screen.Encode"));
+        assertThat(encode.getLong("frameIndex"), is(7L));
+        assertThat(encode.getDuration(), greaterThanOrEqualTo(Duration.ofMillis(12)));
+    }
+
+    @Test
+    public void the_scaling_should_be_nested_in_the_capture() throws Exception {
+        FlightRecorderListener listener = new FlightRecorderListener();
+        Path dump = Files.createTempFile("scale", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("tdl.record.screen.FrameCapture");
+            recording.enable("tdl.record.screen.FrameScale");
+            recording.start();
+            listener.notifyStageStepStarted(0, TimeUnit.NANOSECONDS, 5, RecordingStage.CAPTURE);
+            listener.notifyStageStepStarted(0, TimeUnit.NANOSECONDS, 5, RecordingStage.SCALE);
+            TimeUnit.MILLISECONDS.sleep(12);
+            listener.notifyStageStepEnded(0, TimeUnit.NANOSECONDS, 5, RecordingStage.SCALE);
+            listener.notifyStageStepEnded(0, TimeUnit.NANOSECONDS, 5, RecordingStage.CAPTURE);
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        Files.delete(dump);
+
+        assertThat(events.size(), is(2));
+        RecordedEvent scale = events.get(0);
+        assertThat(scale.getEventType().getName(), is("tdl.record.screen.FrameScale"));
+        assertThat(scale.getLong("frameIndex"), is(5L));
+        RecordedEvent capture = events.get(1);
+        assertThat(capture.getEventType().getName(), is("tdl.record.screen.FrameCapture"));
+        assertThat(capture.getStartTime().isAfter(scale.getStartTime()), is(false));
+        assertThat(capture.getDuration(), greaterThanOrEqualTo(scale.getDuration()));
+    }
+
+    @Test
+    public void fragment_flush_should_span_the_writing_of_the_fragment() throws Exception {
+        FlightRecorderListener listener = new FlightRecorderListener();
+        Path dump = Files.createTempFile("fragment", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("tdl.record.screen.FragmentFlush");
+            recording.start();
+            listener.notifyFragmentFlushing(0, TimeUnit.NANOSECONDS, "recording.mp4");
+            TimeUnit.MILLISECONDS.sleep(12);
+            listener.notifyFragmentFlushed(0, TimeUnit.NANOSECONDS, "recording.mp4", 4096, 20480);
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        Files.delete(dump);
+
+        assertThat(events.size(), is(1));
+        RecordedEvent flush = events.get(0);
+        assertThat(flush.getString("filename"), is("recording.mp4"));
+        assertThat(flush.getLong("byteOffset"), is(4096L));
+        assertThat(flush.getLong("bytes"), is(20480L));
+        assertThat(flush.getDuration(), greaterThanOrEqualTo(Duration.ofMillis(12)));
+    }
+
+    @Test
+    public void first_frame_should_span_from_the_opening_of_the_recorder_on_another_thread() throws Exception {
+        FlightRecorderListener listener = new FlightRecorderListener();
+        Path dump = Files.createTempFile("first_frame", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("tdl.record.screen.FirstFrame");
+            recording.start();
+            listener.notifyRecorderOpening(0, TimeUnit.NANOSECONDS);
+            Thread recordingThread = new Thread(() -> {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(12);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                listener.notifyFirstFrameEncoded(0, TimeUnit.NANOSECONDS, 3, 0);
+            });
+            recordingThread.start();
+            recordingThread.join();
+            // Reported once per recorder
+            listener.notifyFirstFrameEncoded(0, TimeUnit.NANOSECONDS, 4, 0);
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        Files.delete(dump);
+
+        assertThat(events.size(), is(1));
+        assertThat(events.get(0).getLong("frameIndex"), is(3L));
+        assertThat(events.get(0).getDuration(), greaterThanOrEqualTo(Duration.ofMillis(12)));
+    }
+}
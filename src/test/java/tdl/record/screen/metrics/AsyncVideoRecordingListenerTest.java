@@ -0,0 +1,137 @@
+package tdl.record.screen.metrics;
+
+import io.humble.video.Rational;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+
+public class AsyncVideoRecordingListenerTest {
+
+    @Test
+    public void should_deliver_the_events_in_order_to_every_listener() {
+        EventLog first = new EventLog();
+        EventLog second = new EventLog();
+        AsyncVideoRecordingListener listener = new AsyncVideoRecordingListener(
+                new CompositeVideoRecordingListener(first, second));
+
+        listener.notifyRecordingStart("recording.mp4", null, null);
+        for (long frameIndex = 0; frameIndex < 100; frameIndex++) {
+            listener.notifyFrameRenderingStart(frameIndex, TimeUnit.NANOSECONDS, frameIndex);
+            listener.notifyStageCompleted(frameIndex, TimeUnit.NANOSECONDS, frameIndex, RecordingStage.ENCODE, 42);
+        }
+        listener.notifyRecordingEnd();
+        listener.close();
+
+        assertThat(first.events.size(), is(202));
+        assertThat(first.events.subList(0, 3), contains("start recording.mp4", "frame 0", "ENCODE 0 took 42"));
+        assertThat(first.events.get(201), is("end"));
+        assertThat(second.events, is(first.events));
+        assertThat(listener.getDeliveredEvents(), is(202L));
+        assertThat(listener.getOverflowedEvents(), is(0L));
+    }
+
+    @Test
+    public void events_sent_from_several_threads_should_all_be_delivered() throws Exception {
+        EventLog eventLog = new EventLog();
+        AsyncVideoRecordingListener listener = new AsyncVideoRecordingListener(eventLog, 8192);
+
+        List<Thread> senders = new ArrayList<>();
+        for (int sender = 0; sender < 4; sender++) {
+            RecordingStage stage = RecordingStage.values()[sender];
+            senders.add(new Thread(() -> {
+                for (long frameIndex = 0; frameIndex < 1000; frameIndex++) {
+                    listener.notifyStageCompleted(0, TimeUnit.NANOSECONDS, frameIndex, stage, 1);
+                }
+            }));
+        }
+        senders.forEach(Thread::start);
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        listener.close();
+
+        assertThat(eventLog.events.size(), is(4000));
+        assertThat(eventLog.events.stream().filter(event -> event.startsWith("MUX_WRITE ")).count(), is(0L));
+        assertThat(eventLog.events.stream().filter(event -> event.startsWith("SCALE 999 ")).count(), is(1L));
+    }
+
+    @Test
+    public void should_count_the_events_that_do_not_fit_while_the_listener_is_busy() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        EventLog slowListener = new EventLog() {
+            @Override
+            public void notifyFrameRenderingStart(long timestamp, TimeUnit unit, long frameIndex) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.notifyFrameRenderingStart(timestamp, unit, frameIndex);
+            }
+        };
+        AsyncVideoRecordingListener listener = new AsyncVideoRecordingListener(slowListener, 4);
+
+        for (long frameIndex = 0; frameIndex < 10; frameIndex++) {
+            listener.notifyFrameRenderingStart(frameIndex, TimeUnit.NANOSECONDS, frameIndex);
+        }
+        release.countDown();
+        listener.close();
+
+        assertThat(slowListener.events, contains("frame 0", "frame 1", "frame 2", "frame 3"));
+        assertThat(listener.getOverflowedEvents(), is(6L));
+    }
+
+    @Test
+    public void a_failing_listener_should_not_stop_the_delivery() {
+        EventLog failingListener = new EventLog() {
+            @Override
+            public void notifyFrameDropped(long timestamp, TimeUnit unit, long frameIndex) {
+                throw new IllegalStateException("Failing on purpose");
+            }
+        };
+        AsyncVideoRecordingListener listener = new AsyncVideoRecordingListener(failingListener, 8);
+
+        listener.notifyFrameDropped(0, TimeUnit.NANOSECONDS, 0);
+        listener.notifyFrameRenderingStart(1, TimeUnit.NANOSECONDS, 1);
+        listener.close();
+
+        assertThat(failingListener.events, contains("frame 1"));
+    }
+
+    //~~~~~~~~~~~~~ Helpers
+
+    private static class EventLog implements VideoRecordingListener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void notifyRecordingStart(String destinationFilename, Rational inputFrameRate, Rational videoFrameRate) {
+            events.add("start " + destinationFilename);
+        }
+
+        @Override
+        public void notifyFrameRenderingStart(long timestamp, TimeUnit unit, long frameIndex) {
+            events.add("frame " + frameIndex);
+        }
+
+        @Override
+        public void notifyFrameRenderingEnd(long timestamp, TimeUnit unit, long frameIndex) {
+        }
+
+        @Override
+        public void notifyStageCompleted(long timestamp, TimeUnit unit, long frameIndex, RecordingStage stage, long duration) {
+            events.add(stage + " " + frameIndex + " took " + duration);
+        }
+
+        @Override
+        public void notifyRecordingEnd() {
+            events.add("end");
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package tdl.record.screen.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class JmxMetricsExportTest {
+
+    @Test
+    public void should_publish_the_collector_until_closed() throws Exception {
+        VideoRecordingMetricsCollector collector = new VideoRecordingMetricsCollector();
+        collector.notifyFrameElided(0, TimeUnit.NANOSECONDS, 7);
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+        JmxMetricsExport export = JmxMetricsExport.register(collector, "recording.mp4");
+        assertThat(mBeanServer.getAttribute(export.getObjectName(), "ElidedFrames"), is(1L));
+        assertThat(mBeanServer.getAttribute(export.getObjectName(), "ScalingQuality"), is("BICUBIC"));
+        assertThat(mBeanServer.invoke(export.getObjectName(), "stageLatencyNanos",
+                new Object[]{"ENCODE", 99.0}, new String[]{String.class.getName(), double.class.getName()}), is(0L));
+
+        export.close();
+        assertThat(mBeanServer.isRegistered(export.getObjectName()), is(false));
+    }
+}
@@ -0,0 +1,63 @@
+package tdl.record.screen.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles_should_be_within_the_precision_of_the_buckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertThat(snapshot.getCount(), is(1000L));
+        assertThat(snapshot.getMaxNanos(), is(TimeUnit.MICROSECONDS.toNanos(1000)));
+        assertThat(snapshot.getMeanNanos(), is(500_500L));
+        assertThat((double) snapshot.getValueAtPercentile(50), closeTo(500_000, 500_000 / 32.0));
+        assertThat((double) snapshot.getValueAtPercentile(99), closeTo(990_000, 990_000 / 32.0));
+        assertThat(snapshot.getValueAtPercentile(100), is(snapshot.getMaxNanos()));
+    }
+
+    @Test
+    public void a_single_slow_frame_should_stay_visible() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 9999; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(2));
+        }
+        histogram.record(TimeUnit.SECONDS.toNanos(3));
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertThat((double) snapshot.getValueAtPercentile(99.9), closeTo(2_000_000, 2_000_000 / 32.0));
+        assertThat(snapshot.getValueAtPercentile(100), is(TimeUnit.SECONDS.toNanos(3)));
+        assertThat(snapshot.getMaxNanos(), is(TimeUnit.SECONDS.toNanos(3)));
+    }
+
+    @Test
+    public void every_value_should_fall_in_a_bucket_that_contains_it() {
+        long[] values = {0, 1, 31, 32, 33, 63, 64, 1_000_000_007L, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertThat(value <= LatencyHistogram.highestValueIn(bucket), is(true));
+            assertThat(bucket == 0 || value > LatencyHistogram.highestValueIn(bucket - 1), is(true));
+        }
+    }
+
+    @Test
+    public void an_empty_histogram_should_report_zero() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+        assertThat(snapshot.getCount(), is(0L));
+        assertThat(snapshot.getValueAtPercentile(99), is(0L));
+        assertThat(snapshot.getMeanNanos(), is(0L));
+    }
+}
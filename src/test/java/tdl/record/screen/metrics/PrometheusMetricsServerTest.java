@@ -0,0 +1,89 @@
+package tdl.record.screen.metrics;
+
+import org.junit.jupiter.api.Test;
+import tdl.record.screen.governor.RecordingAdjustment;
+import tdl.record.screen.utils.ScalingQuality;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.startsWith;
+
+public class PrometheusMetricsServerTest {
+
+    @Test
+    public void should_serve_the_counters_and_gauges_in_the_text_format() throws Exception {
+        VideoRecordingMetricsCollector collector = new VideoRecordingMetricsCollector();
+        collector.notifyFrameDropped(0, TimeUnit.NANOSECONDS, 3);
+        collector.notifyKeyFrameEncoded(0, TimeUnit.NANOSECONDS, 0);
+        collector.notifyKeyFrameEncoded(0, TimeUnit.NANOSECONDS, 10);
+        // The muxer also cuts a fragment when it reaches its duration, so there can be more fragments than key frames
+        collector.notifyFragmentFlushed(0, TimeUnit.NANOSECONDS, "recording.mp4", 1000, 2048);
+        collector.notifyFragmentFlushed(0, TimeUnit.NANOSECONDS, "recording.mp4", 3048, 1024);
+        collector.notifyFragmentFlushed(0, TimeUnit.NANOSECONDS, "recording.mp4", 4072, 1024);
+        collector.notifyBytesWritten(0, TimeUnit.NANOSECONDS, 10, 4096);
+        // Two frames of a first recording, then one of a second, the frame index starts again
+        collector.notifyFrameRenderingEnd(0, TimeUnit.NANOSECONDS, 0);
+        collector.notifyFrameRenderingEnd(0, TimeUnit.NANOSECONDS, 1);
+        collector.notifyFrameRenderingEnd(0, TimeUnit.NANOSECONDS, 0);
+        collector.notifyFirstFrameEncoded(0, TimeUnit.NANOSECONDS, 0, TimeUnit.MILLISECONDS.toNanos(250));
+        collector.notifyRecordingAdjusted(0, TimeUnit.NANOSECONDS, 10, new RecordingAdjustment(2, ScalingQuality.BILINEAR));
+
+        try (PrometheusMetricsServer server = PrometheusMetricsServer.start(collector, 0)) {
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL("http://localhost:" + server.getPort() + "/metrics").openConnection();
+
+            assertThat(connection.getResponseCode(), is(200));
+            assertThat(connection.getContentType(), startsWith("text/plain; version=0.0.4"));
+            List<String> lines = Arrays.asList(read(connection).split("\n"));
+            assertThat(lines, hasItem("# TYPE screen_recorder_dropped_frames_total counter"));
+            assertThat(lines, hasItem("screen_recorder_dropped_frames_total 1"));
+            assertThat(lines, hasItem("screen_recorder_key_frames_total 2"));
+            assertThat(lines, hasItem("screen_recorder_fragments_total 3"));
+            assertThat(lines, hasItem("screen_recorder_frames_total 3"));
+            assertThat(lines, hasItem("screen_recorder_written_bytes_total 4096"));
+            assertThat(lines, hasItem("screen_recorder_frame_rate_divisor 2.0"));
+            assertThat(lines, hasItem("screen_recorder_time_to_first_frame_seconds 0.25"));
+            assertThat(lines, hasItem("screen_recorder_scaling_quality{quality=\"bilinear\"} 1"));
+        }
+    }
+
+    @Test
+    public void stage_durations_should_be_summaries_in_seconds() {
+        VideoRecordingMetricsCollector collector = new VideoRecordingMetricsCollector();
+        collector.notifyStageCompleted(0, TimeUnit.NANOSECONDS, 1, RecordingStage.ENCODE, TimeUnit.MILLISECONDS.toNanos(8));
+        collector.notifyStageCompleted(0, TimeUnit.NANOSECONDS, 2, RecordingStage.ENCODE, TimeUnit.MILLISECONDS.toNanos(8));
+
+        List<String> lines = Arrays.asList(PrometheusMetricsServer.render(collector).split("\n"));
+
+        assertThat(lines, hasItem("# TYPE screen_recorder_stage_duration_seconds summary"));
+        assertThat(lines, hasItem("screen_recorder_stage_duration_seconds{stage=\"encode\",quantile=\"0.5\"} 0.008"));
+        assertThat(lines, hasItem("screen_recorder_stage_duration_seconds_sum{stage=\"encode\"} 0.016"));
+        assertThat(lines, hasItem("screen_recorder_stage_duration_seconds_count{stage=\"encode\"} 2"));
+        assertThat(lines, hasItem("screen_recorder_stage_duration_seconds_count{stage=\"capture\"} 0"));
+    }
+
+    //~~~~~~~~~~~~~ Helpers
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        try (InputStream body = connection.getInputStream()) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+            return new String(content.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package tdl.record.screen.mp4;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static tdl.record.screen.mp4.SyntheticFragmentedMp4.TRACK_TIMESCALE;
+
+public class FragmentIndexTest {
+    private static final int WRITE_SIZE = 100;
+    private static final Path VIDEO = Paths.get("build/fragment_index/recording.mp4");
+    private static final long RECORDING_START_MILLIS = 1_500_000_000_000L;
+    private static final FragmentIndexWriter.WallClock WALL_CLOCK =
+            (decodeTime, timescale) -> RECORDING_START_MILLIS + decodeTime * 1000 / timescale;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        Files.createDirectories(VIDEO.getParent());
+        Files.deleteIfExists(VIDEO);
+        Files.deleteIfExists(FragmentIndex.indexFileOf(VIDEO));
+    }
+
+    @Test
+    public void fragments_should_be_indexed_as_soon_as_they_are_complete() throws Exception {
+        SyntheticFragmentedMp4 recording = new SyntheticFragmentedMp4().withFragments(3).withRandomAccessIndex();
+        byte[] complete = recording.toBytes();
+        FragmentIndexWriter writer = FragmentIndexWriter.open(VIDEO, WALL_CLOCK);
+        BoxSplitter muxerOutput = new BoxSplitter(writer);
+
+        // Nothing to index until the header is complete
+        write(muxerOutput, complete, 0, 40);
+        try (FragmentIndex fragmentIndex = FragmentIndex.open(VIDEO)) {
+            assertThat(fragmentIndex.size(), is(0));
+        }
+
+        // The header and the fragments that are complete, not the one being written
+        byte[] interrupted = new SyntheticFragmentedMp4().withFragments(2).withHalfWrittenFragment().toBytes();
+        write(muxerOutput, interrupted, 40, interrupted.length);
+        try (FragmentIndex fragmentIndex = FragmentIndex.open(VIDEO)) {
+            assertThat(fragmentIndex.size(), is(3));
+            assertThat(fragmentIndex.getTimescale(), is((long) TRACK_TIMESCALE));
+        }
+
+        write(muxerOutput, complete, interrupted.length, complete.length);
+        // A header field patched when the video is closed
+        muxerOutput.write(0, complete, 0, 4);
+        writer.close();
+        try (FragmentIndex fragmentIndex = FragmentIndex.open(VIDEO)) {
+            assertThat(fragmentIndex.size(), is(4));
+            for (int i = 1; i < fragmentIndex.size(); i++) {
+                FragmentIndex.Entry entry = fragmentIndex.get(i);
+                assertThat(entry.getByteOffset(), is(recording.moofOffset(i - 1)));
+                assertThat(entry.getDecodeTime(), is((long) i * TRACK_TIMESCALE));
+                assertThat(entry.getCaptureTime(), is(Instant.ofEpochMilli(RECORDING_START_MILLIS + i * 1000)));
+            }
+        }
+    }
+
+    @Test
+    public void lookups_should_find_the_fragment_covering_the_time() throws Exception {
+        SyntheticFragmentedMp4 recording = new SyntheticFragmentedMp4().withFragments(5).withFragmentsStartingOnNonKeyFrames(2);
+        byte[] video = recording.toBytes();
+        FragmentIndexWriter writer = FragmentIndexWriter.open(VIDEO, WALL_CLOCK);
+        write(new BoxSplitter(writer), video, 0, video.length);
+        writer.close();
+
+        try (FragmentIndex fragmentIndex = FragmentIndex.open(VIDEO)) {
+            FragmentIndex.Entry third = fragmentIndex.findByCaptureTime(Instant.ofEpochMilli(RECORDING_START_MILLIS + 3500));
+            assertThat(third.getPosition(), is(3));
+            assertThat(third.startsWithKeyFrame(), is(false));
+            assertThat(fragmentIndex.findKeyFrameAtOrBefore(third).getPosition(), is(2));
+            assertThat(fragmentIndex.endOffsetOf(third), is(recording.moofOffset(3)));
+
+            assertThat(fragmentIndex.findByDecodeTime(0).getByteOffset(), is(0L));
+            assertThat(fragmentIndex.findByDecodeTime(6 * TRACK_TIMESCALE - 1).getPosition(), is(5));
+            assertThat(fragmentIndex.endOffsetOf(fragmentIndex.get(5)), is(-1L));
+            assertThat(fragmentIndex.findByCaptureTime(Instant.ofEpochMilli(RECORDING_START_MILLIS - 1)), is(nullValue()));
+        }
+    }
+
+    //~~~~~~~~~~~~~ Helpers
+
+    /*
+      The muxer writes in small pieces that do not follow the boxes
+     */
+    private static void write(BoxSplitter muxerOutput, byte[] video, long from, long to) throws IOException {
+        for (long position = from; position < to; position += WRITE_SIZE) {
+            int length = (int) Math.min(WRITE_SIZE, to - position);
+            muxerOutput.write(position, video, (int) position, length);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package tdl.record.screen.mp4;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The boxes the muxer writes for a fragmented recording: a header holding the first second of samples,
+ * then one fragment per second, each with a tfdt and a run of samples of the default duration.
+ */
+public class SyntheticFragmentedMp4 {
+    public static final int MOVIE_TIMESCALE = 1000;
+    public static final int TRACK_TIMESCALE = 16;
+    public static final int SAMPLES_PER_FRAGMENT = 16;
+    private final Set<Integer> fragmentsStartingOnNonKeyFrames = new HashSet<>();
+    private int fragments;
+    private boolean halfWrittenFragment;
+    private boolean randomAccessIndex;
+    private long movieDuration;
+
+    public SyntheticFragmentedMp4 withFragments(int fragments) {
+        this.fragments = fragments;
+        return this;
+    }
+
+    public SyntheticFragmentedMp4 withHalfWrittenFragment() {
+        this.halfWrittenFragment = true;
+        return this;
+    }
+
+    public SyntheticFragmentedMp4 withRandomAccessIndex() {
+        this.randomAccessIndex = true;
+        return this;
+    }
+
+    public SyntheticFragmentedMp4 withFragmentsStartingOnNonKeyFrames(Integer... fragments) {
+        this.fragmentsStartingOnNonKeyFrames.addAll(Arrays.asList(fragments));
+        return this;
+    }
+
+    public SyntheticFragmentedMp4 withMovieDuration(long movieDuration) {
+        this.halfWrittenFragment = false;
+        this.movieDuration = movieDuration;
+        return this;
+    }
+
+    public long moofOffset(int fragment) {
+        long offset = header().length + mdat(SAMPLES_PER_FRAGMENT).length;
+        for (int i = 0; i < fragment; i++) {
+            offset += moof(i + 1, fragmentsStartingOnNonKeyFrames.contains(i)).length + mdat(SAMPLES_PER_FRAGMENT).length;
+        }
+        return offset;
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        write(file, header());
+        write(file, mdat(SAMPLES_PER_FRAGMENT));
+        for (int i = 0; i < fragments; i++) {
+            write(file, moof(i + 1, fragmentsStartingOnNonKeyFrames.contains(i)));
+            write(file, mdat(SAMPLES_PER_FRAGMENT));
+        }
+        if (halfWrittenFragment) {
+            write(file, moof(fragments + 1, false));
+            write(file, Arrays.copyOf(mdat(SAMPLES_PER_FRAGMENT), 20));
+        }
+        if (randomAccessIndex) {
+            write(file, box("mfra", box("mfro", fullBox(0, 0), uint32(16 + 8))));
+        }
+        return file.toByteArray();
+    }
+
+    private byte[] header() {
+        byte[] ftyp = box("ftyp", "isom".getBytes(StandardCharsets.ISO_8859_1), uint32(512));
+        byte[] mvhd = box("mvhd", fullBox(0, 0), uint32(0), uint32(0), uint32(MOVIE_TIMESCALE), uint32(MOVIE_TIMESCALE));
+        byte[] tkhd = box("tkhd", fullBox(0, 3), uint32(0), uint32(0), uint32(1), uint32(0), uint32(MOVIE_TIMESCALE));
+        byte[] mdhd = box("mdhd", fullBox(0, 0), uint32(0), uint32(0), uint32(TRACK_TIMESCALE), uint32(SAMPLES_PER_FRAGMENT));
+        byte[] trak = box("trak", tkhd, box("mdia", mdhd));
+        byte[] mehd = box("mehd", fullBox(0, 0), uint32(movieDuration));
+        byte[] trex = box("trex", fullBox(0, 0), uint32(1), uint32(1), uint32(1), uint32(0), uint32(0));
+        byte[] moov = box("moov", mvhd, trak, box("mvex", mehd, trex));
+        return concat(ftyp, moov);
+    }
+
+    /*
+      A fragment cut on a key frame relies on the default sample flags of the trex, which mark a sync sample.
+     */
+    private static byte[] moof(int sequenceNumber, boolean startsOnNonKeyFrame) {
+        byte[] mfhd = box("mfhd", fullBox(0, 0), uint32(sequenceNumber));
+        byte[] tfhd = box("tfhd", fullBox(0, 0x020000), uint32(1));
+        byte[] tfdt = box("tfdt", fullBox(1, 0), uint64((long) sequenceNumber * SAMPLES_PER_FRAGMENT));
+        byte[][] trun = new byte[2 + SAMPLES_PER_FRAGMENT][];
+        if (startsOnNonKeyFrame) {
+            trun[0] = fullBox(0, 0x205);
+            trun[1] = concat(uint32(SAMPLES_PER_FRAGMENT), uint32(0), uint32(0x10000));
+        } else {
+            trun[0] = fullBox(0, 0x201);
+            trun[1] = concat(uint32(SAMPLES_PER_FRAGMENT), uint32(0));
+        }
+        for (int i = 0; i < SAMPLES_PER_FRAGMENT; i++) {
+            trun[2 + i] = uint32(100);
+        }
+        return box("moof", mfhd, box("traf", tfhd, tfdt, box("trun", trun)));
+    }
+
+    private static byte[] mdat(int samples) {
+        return box("mdat", new byte[samples * 100]);
+    }
+
+    private static byte[] box(String type, byte[]... children) {
+        byte[] content = concat(children);
+        return concat(uint32(8 + content.length), type.getBytes(StandardCharsets.ISO_8859_1), content);
+    }
+
+    private static byte[] fullBox(int version, int flags) {
+        return uint32(((long) version << 24) | flags);
+    }
+
+    private static byte[] uint32(long value) {
+        return ByteBuffer.allocate(4).putInt((int) value).array();
+    }
+
+    private static byte[] uint64(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            write(bytes, part);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream stream, byte[] bytes) {
+        stream.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,115 @@
+package tdl.record.screen.recovery;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tdl.record.screen.mp4.SyntheticFragmentedMp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RecordingRecoveryTest {
+    private static final Path RECOVERY_DIRECTORY = Paths.get("build/recovery");
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        Files.createDirectories(RECOVERY_DIRECTORY);
+        try (Stream<Path> files = Files.list(RECOVERY_DIRECTORY)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void interrupted_recording_should_be_cut_at_the_last_complete_fragment() throws Exception {
+        SyntheticFragmentedMp4 recording = new SyntheticFragmentedMp4().withFragments(3);
+        byte[] complete = recording.toBytes();
+        byte[] interrupted = recording.withHalfWrittenFragment().toBytes();
+        Path video = write("interrupted.mp4", interrupted);
+        Files.createFile(RecordingLock.lockFileOf(video));
+
+        RecordingRecovery.Result result = RecordingRecovery.recover(video);
+
+        assertThat(result.getOutcome(), is(RecordingRecovery.Outcome.REPAIRED));
+        assertThat(result.getFragments(), is(3));
+        assertThat(result.getDuration(), is(Duration.ofSeconds(4)));
+        assertThat(result.getOriginalBytes(), is((long) interrupted.length));
+        assertFalse(Files.exists(RecordingLock.lockFileOf(video)));
+
+        byte[] recovered = Files.readAllBytes(video);
+        assertTrue(Arrays.equals(Arrays.copyOf(recovered, complete.length), recording.withMovieDuration(4000).toBytes()));
+        ByteBuffer mfra = ByteBuffer.wrap(recovered, complete.length, recovered.length - complete.length);
+        assertThat(fourCC(mfra, complete.length + 4), is("mfra"));
+        assertThat(mfra.getInt(recovered.length - 4), is(recovered.length - complete.length));
+        assertThat(mfra.getInt(complete.length + 28), is(3));
+        assertThat(mfra.getLong(complete.length + 32), is((long) SyntheticFragmentedMp4.SAMPLES_PER_FRAGMENT));
+        assertThat(mfra.getLong(complete.length + 40), is(recording.moofOffset(0)));
+    }
+
+    @Test
+    public void closed_recording_should_only_lose_its_lock() throws Exception {
+        byte[] closed = new SyntheticFragmentedMp4().withFragments(2).withRandomAccessIndex().toBytes();
+        Path video = write("closed.mp4", closed);
+        Files.createFile(RecordingLock.lockFileOf(video));
+
+        RecordingRecovery.Result result = RecordingRecovery.recover(video);
+
+        assertThat(result.getOutcome(), is(RecordingRecovery.Outcome.ALREADY_COMPLETE));
+        assertTrue(Arrays.equals(Files.readAllBytes(video), closed));
+        assertFalse(Files.exists(RecordingLock.lockFileOf(video)));
+    }
+
+    @Test
+    public void recording_without_a_header_should_be_left_as_it_is() throws Exception {
+        byte[] headerOnly = Arrays.copyOf(new SyntheticFragmentedMp4().toBytes(), 40);
+        Path video = write("no_header.mp4", headerOnly);
+        Files.createFile(RecordingLock.lockFileOf(video));
+
+        RecordingRecovery.Result result = RecordingRecovery.recover(video);
+
+        assertThat(result.getOutcome(), is(RecordingRecovery.Outcome.NOT_RECOVERABLE));
+        assertTrue(Arrays.equals(Files.readAllBytes(video), headerOnly));
+    }
+
+    @Test
+    public void only_the_locks_nobody_holds_should_be_recovered() throws Exception {
+        Path abandoned = write("abandoned.mp4", new SyntheticFragmentedMp4().withFragments(1).toBytes());
+        Files.createFile(RecordingLock.lockFileOf(abandoned));
+        Path recording = write("recording.mp4", new SyntheticFragmentedMp4().withFragments(1).toBytes());
+        RecordingLock lock = RecordingLock.acquire(recording);
+
+        assertThat(RecordingRecovery.findStaleLocks(RECOVERY_DIRECTORY), contains(RecordingLock.lockFileOf(abandoned)));
+        assertThrows(IOException.class, () -> RecordingRecovery.recover(recording));
+        assertThrows(IOException.class, () -> RecordingLock.acquire(recording));
+
+        lock.release();
+        assertFalse(Files.exists(RecordingLock.lockFileOf(recording)));
+        RecordingRecovery.recoverAll(RECOVERY_DIRECTORY);
+        assertThat(RecordingRecovery.findStaleLocks(RECOVERY_DIRECTORY), is(empty()));
+    }
+
+    //~~~~~~~~~~~~~ Helpers
+
+    private static Path write(String filename, byte[] content) throws IOException {
+        return Files.write(RECOVERY_DIRECTORY.resolve(filename), content);
+    }
+
+    private static String fourCC(ByteBuffer buffer, int index) {
+        return new String(buffer.array(), index, 4, StandardCharsets.ISO_8859_1);
+    }
+}
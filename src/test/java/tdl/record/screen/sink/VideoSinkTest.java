@@ -0,0 +1,78 @@
+package tdl.record.screen.sink;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class VideoSinkTest {
+    private static final int BUFFER_SIZE = 2 * BufferedFileSink.ALIGNMENT;
+
+    @Test
+    public void buffered_files_should_be_written_in_aligned_blocks() throws Exception {
+        Path video = Paths.get("build/video_sink/buffered.mp4");
+        Files.createDirectories(video.getParent());
+        BufferedFileSink sink = new BufferedFileSink(BUFFER_SIZE);
+        byte[] expected = new byte[3 * BUFFER_SIZE + 100];
+
+        try (SeekableByteChannel channel = sink.open(video.toString())) {
+            // Many small appends, the way the muxer writes
+            for (int i = 0; i < expected.length; i += 100) {
+                byte[] chunk = bytes(i, Math.min(100, expected.length - i));
+                System.arraycopy(chunk, 0, expected, i, chunk.length);
+                channel.write(ByteBuffer.wrap(chunk));
+            }
+            assertThat(sink.getFileWrites(), is(3L));
+            assertThat(Files.size(video), is(3L * BUFFER_SIZE));
+            assertThat(channel.size(), is((long) expected.length));
+
+            // Patch the header, then carry on at the end
+            channel.position(8).write(ByteBuffer.wrap(bytes(7, 4)));
+            System.arraycopy(bytes(7, 4), 0, expected, 8, 4);
+            channel.position(channel.size()).write(ByteBuffer.wrap(bytes(1, 10)));
+            expected = Arrays.copyOf(expected, expected.length + 10);
+            System.arraycopy(bytes(1, 10), 0, expected, expected.length - 10, 10);
+        }
+
+        assertThat(Files.readAllBytes(video), is(expected));
+    }
+
+    @Test
+    public void in_memory_videos_should_support_patching() throws Exception {
+        InMemorySink inMemorySink = new InMemorySink();
+        MeasuredVideoSink sink = new MeasuredVideoSink(inMemorySink);
+
+        try (SeekableByteChannel channel = sink.open("recording.mp4")) {
+            channel.write(ByteBuffer.wrap(bytes(0, 100_000)));
+            channel.position(4).write(ByteBuffer.wrap(bytes(50, 2)));
+            channel.position(100_000);
+            channel.write(ByteBuffer.wrap(bytes(3, 6)));
+        }
+
+        byte[] expected = new byte[100_006];
+        System.arraycopy(bytes(0, 100_000), 0, expected, 0, 100_000);
+        System.arraycopy(bytes(50, 2), 0, expected, 4, 2);
+        System.arraycopy(bytes(3, 6), 0, expected, 100_000, 6);
+        assertThat(inMemorySink.getBytes("recording.mp4"), is(expected));
+        assertThat(inMemorySink.getFilenames(), is(Arrays.asList("recording.mp4")));
+        assertThat(sink.getWriteCalls(), is(3L));
+        assertThat(sink.getBytesWritten(), is(100_008L));
+        assertThat(sink.getSeeks(), is(2L));
+        assertThat(sink.getWriteLatency().getCount(), is(3L));
+    }
+
+    private static byte[] bytes(int seed, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (seed + i * 31);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,88 @@
+package tdl.record.screen.stream;
+
+import org.junit.jupiter.api.Test;
+import tdl.record.screen.mp4.BoxSplitter;
+import tdl.record.screen.mp4.SyntheticFragmentedMp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LiveStreamFeedTest {
+    private static final int WRITE_SIZE = 100;
+
+    @Test
+    public void fragments_should_be_published_as_soon_as_they_are_complete() throws Exception {
+        SyntheticFragmentedMp4 recording = new SyntheticFragmentedMp4().withFragments(3).withRandomAccessIndex();
+        byte[] complete = recording.toBytes();
+        byte[] interrupted = new SyntheticFragmentedMp4().withFragments(1).withHalfWrittenFragment().toBytes();
+        LiveStream liveStream = new LiveStream();
+        LiveStream.Subscription subscription = liveStream.subscribe();
+        LiveStreamFeed feed = new LiveStreamFeed(liveStream);
+        BoxSplitter muxerOutput = new BoxSplitter(feed);
+
+        // The samples stored with the moov belong to the init segment, which is complete once a fragment follows
+        write(muxerOutput, complete, 0, recording.moofOffset(0));
+        assertThat(subscription.poll(0, TimeUnit.SECONDS), is(nullValue()));
+
+        write(muxerOutput, interrupted, recording.moofOffset(0), interrupted.length);
+        assertThat(bytesOf(subscription.poll(0, TimeUnit.SECONDS)), is(range(complete, 0, recording.moofOffset(0))));
+        assertThat(bytesOf(subscription.poll(0, TimeUnit.SECONDS)),
+                is(range(complete, recording.moofOffset(0), recording.moofOffset(1))));
+        assertThat(subscription.poll(0, TimeUnit.SECONDS), is(nullValue()));
+
+        write(muxerOutput, complete, interrupted.length, complete.length);
+        // A header field patched when the video is closed, in a box that has already been published
+        muxerOutput.write(0, complete, 0, 4);
+        feed.close();
+        assertThat(bytesOf(subscription.poll(0, TimeUnit.SECONDS)),
+                is(range(complete, recording.moofOffset(1), recording.moofOffset(2))));
+        // The last fragment stops where its mdat does, the index written at the end is not part of the stream
+        assertThat(bytesOf(subscription.poll(0, TimeUnit.SECONDS)),
+                is(range(complete, recording.moofOffset(2), recording.moofOffset(3))));
+        assertThat(subscription.poll(0, TimeUnit.SECONDS), is(nullValue()));
+        assertThat(liveStream.getPublishedFragments(), is(3L));
+    }
+
+    @Test
+    public void a_video_closed_before_its_first_fragment_should_still_publish_its_init_segment() throws Exception {
+        SyntheticFragmentedMp4 recording = new SyntheticFragmentedMp4().withFragments(1);
+        byte[] complete = recording.toBytes();
+        LiveStream liveStream = new LiveStream();
+        LiveStream.Subscription subscription = liveStream.subscribe();
+        LiveStreamFeed feed = new LiveStreamFeed(liveStream);
+
+        write(new BoxSplitter(feed), complete, 0, recording.moofOffset(0));
+        feed.close();
+
+        assertThat(bytesOf(subscription.poll(0, TimeUnit.SECONDS)), is(range(complete, 0, recording.moofOffset(0))));
+        assertThat(liveStream.getPublishedFragments(), is(0L));
+    }
+
+    //~~~~~~~~~~~~~ Helpers
+
+    /*
+      The muxer writes in small pieces that do not follow the boxes
+     */
+    private static void write(BoxSplitter muxerOutput, byte[] video, long from, long to) throws IOException {
+        for (long position = from; position < to; position += WRITE_SIZE) {
+            int length = (int) Math.min(WRITE_SIZE, to - position);
+            muxerOutput.write(position, video, (int) position, length);
+        }
+    }
+
+    private static byte[] bytesOf(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] range(byte[] bytes, long from, long to) {
+        return Arrays.copyOfRange(bytes, (int) from, (int) to);
+    }
+}
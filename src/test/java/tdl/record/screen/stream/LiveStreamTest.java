@@ -0,0 +1,116 @@
+package tdl.record.screen.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LiveStreamTest {
+
+    @Test
+    public void subscribers_should_start_with_the_init_segment_and_a_key_frame() throws Exception {
+        LiveStream liveStream = new LiveStream(4);
+        liveStream.publishInitSegment(segment("init"));
+        liveStream.publishFragment(segment("key-1"), true);
+        liveStream.publishFragment(segment("key-2"), true);
+        liveStream.publishFragment(segment("delta-3"), false);
+
+        LiveStream.Subscription early = liveStream.subscribe();
+        assertThat(next(early), is("init"));
+        assertThat(next(early), is("key-2"));
+        assertThat(next(early), is("delta-3"));
+        assertThat(early.poll(0, TimeUnit.SECONDS), is(nullValue()));
+
+        // Every subscriber reads the same fragment, each from its own position
+        LiveStream.Subscription late = liveStream.subscribe();
+        liveStream.publishFragment(segment("key-4"), true);
+        assertThat(next(late), is("init"));
+        assertThat(next(late), is("key-4"));
+        assertThat(next(early), is("key-4"));
+        assertThat(liveStream.getSubscribers(), is(2));
+    }
+
+    @Test
+    public void slow_subscribers_should_skip_to_the_newest_key_frame() throws Exception {
+        LiveStream liveStream = new LiveStream(4);
+        liveStream.publishInitSegment(segment("init"));
+        LiveStream.Subscription slow = liveStream.subscribe();
+        assertThat(next(slow), is("init"));
+
+        for (int i = 1; i <= 10; i++) {
+            liveStream.publishFragment(segment((i % 3 == 0 ? "key-" : "delta-") + i), i % 3 == 0);
+        }
+
+        assertThat(next(slow), is("key-9"));
+        assertThat(next(slow), is("delta-10"));
+        assertThat(slow.getSkippedFragments(), is(8L));
+    }
+
+    @Test
+    public void a_new_file_should_start_with_its_init_segment() throws Exception {
+        LiveStream liveStream = new LiveStream(4);
+        LiveStream.Subscription subscription = liveStream.subscribe();
+        liveStream.publishInitSegment(segment("init-a"));
+        liveStream.publishFragment(segment("key-a1"), true);
+        liveStream.publishInitSegment(segment("init-b"));
+        liveStream.publishFragment(segment("key-b1"), true);
+        liveStream.end();
+
+        assertThat(next(subscription), is("init-b"));
+        assertThat(next(subscription), is("key-b1"));
+        assertThat(subscription.take(), is(nullValue()));
+
+        LiveStream.Subscription idle = new LiveStream(4).subscribe();
+        assertThat(idle.poll(10, TimeUnit.MILLISECONDS), is(nullValue()));
+    }
+
+    @Test
+    public void the_server_should_stream_the_segments_over_http() throws Exception {
+        LiveStream liveStream = new LiveStream();
+        try (LiveStreamServer server = LiveStreamServer.start(liveStream, 0)) {
+            liveStream.publishInitSegment(segment("init|"));
+            liveStream.publishFragment(segment("key-1|"), true);
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL("http://localhost:" + server.getPort() + "/live.mp4").openConnection();
+
+            assertThat(connection.getResponseCode(), is(200));
+            assertThat(connection.getContentType(), is("video/mp4"));
+            liveStream.publishFragment(segment("delta-2|"), false);
+            liveStream.end();
+            assertThat(read(connection), is("init|key-1|delta-2|"));
+        }
+    }
+
+    private static ByteBuffer segment(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String next(LiveStream.Subscription subscription) throws InterruptedException {
+        ByteBuffer segment = subscription.poll(1, TimeUnit.SECONDS);
+        byte[] bytes = new byte[segment.remaining()];
+        segment.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        try (InputStream body = connection.getInputStream()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = body.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package tdl.record.screen.time;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+public class FrameSchedulerTest {
+
+    @Test
+    public void deadlines_should_be_anchored_to_the_start_without_rounding_drift() {
+        FakeTimeSource timeSource = new FakeTimeSource();
+        FrameScheduler frameScheduler = new FrameScheduler(timeSource, 3);
+        frameScheduler.start();
+        long start = frameScheduler.deadlineOf(0);
+
+        long oneHourOfFrames = 3 * 3600;
+        assertThat(frameScheduler.deadlineOf(oneHourOfFrames) - start, is(TimeUnit.HOURS.toNanos(1)));
+    }
+
+    @Test
+    public void an_overrun_should_not_delay_the_following_frames() throws Exception {
+        FakeTimeSource timeSource = new FakeTimeSource();
+        FrameScheduler frameScheduler = new FrameScheduler(timeSource, 5);
+        frameScheduler.start();
+
+        // Frame 0 takes 150ms out of its 200ms slot
+        timeSource.wakeUpAt(frameScheduler.deadlineOf(0) + millis(150), TimeUnit.NANOSECONDS);
+        long nextFrameIndex = frameScheduler.nextFrameIndex(0);
+        long lateness = frameScheduler.awaitDeadline(nextFrameIndex);
+
+        assertThat(nextFrameIndex, is(1L));
+        assertThat(lateness, lessThan(millis(1)));
+        assertThat(timeSource.currentTimeNano(), lessThan(frameScheduler.deadlineOf(1) + millis(1)));
+    }
+
+    @Test
+    public void missed_slots_should_be_skipped_and_lateness_reported() throws Exception {
+        FakeTimeSource timeSource = new FakeTimeSource();
+        FrameScheduler frameScheduler = new FrameScheduler(timeSource, 5);
+        frameScheduler.start();
+
+        // Frame 0 takes 650ms, the slots of frames 1 and 2 are gone and frame 3 is already 50ms late
+        timeSource.wakeUpAt(frameScheduler.deadlineOf(0) + millis(650), TimeUnit.NANOSECONDS);
+        long nextFrameIndex = frameScheduler.nextFrameIndex(0);
+        long lateness = frameScheduler.awaitDeadline(nextFrameIndex);
+
+        assertThat(nextFrameIndex, is(3L));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(lateness), is(50L));
+
+        // Frame 4 is back on schedule
+        assertThat(frameScheduler.nextFrameIndex(3), is(4L));
+    }
+
+    //~~~~~~~~~~~~~ Helpers
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
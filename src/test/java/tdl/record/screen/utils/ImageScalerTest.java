@@ -0,0 +1,113 @@
+package tdl.record.screen.utils;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class ImageScalerTest {
+    private static BufferedImage wallpaper;
+
+    @BeforeAll
+    public static void loadReferenceImage() throws Exception {
+        BufferedImage image = ImageIO.read(new File("src/test/resources/4k_wallpaper.jpg"));
+        wallpaper = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = wallpaper.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+    }
+
+    @Test
+    public void bicubic_scaling_should_match_the_affine_transform_output() {
+        BufferedImage expected = scaleWithAffineTransform(1600, 900, ScalingQuality.BICUBIC);
+        BufferedImage actual = scaleWithScaler(1600, 900, ScalingQuality.BICUBIC);
+
+        assertThat(meanError(expected, actual), lessThan(0.25));
+        assertThat(maxError(expected, actual), lessThanOrEqualTo(2));
+    }
+
+    @Test
+    public void bilinear_scaling_should_match_the_affine_transform_output() {
+        BufferedImage expected = scaleWithAffineTransform(1517, 853, ScalingQuality.BILINEAR);
+        BufferedImage actual = scaleWithScaler(1517, 853, ScalingQuality.BILINEAR);
+
+        assertThat(meanError(expected, actual), lessThan(0.25));
+        assertThat(maxError(expected, actual), lessThanOrEqualTo(2));
+    }
+
+    @Test
+    public void integer_ratios_should_average_each_block_of_pixels() {
+        BufferedImage actual = scaleWithScaler(1920, 1080, ScalingQuality.BICUBIC);
+
+        BufferedImage expected = new BufferedImage(1920, 1080, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] source = pixels(wallpaper);
+        byte[] target = pixels(expected);
+        int sourceStride = wallpaper.getWidth() * 3;
+        for (int y = 0; y < 1080; y++) {
+            for (int x = 0; x < 1920; x++) {
+                for (int channel = 0; channel < 3; channel++) {
+                    int topLeft = 2 * y * sourceStride + 2 * x * 3 + channel;
+                    int sum = (source[topLeft] & 0xff) + (source[topLeft + 3] & 0xff)
+                            + (source[topLeft + sourceStride] & 0xff) + (source[topLeft + sourceStride + 3] & 0xff);
+                    target[(y * 1920 + x) * 3 + channel] = (byte) ((sum + 2) / 4);
+                }
+            }
+        }
+
+        assertThat(maxError(expected, actual), lessThanOrEqualTo(1));
+    }
+
+    //~~~~~~~~~~~~~ Helpers
+
+    private static BufferedImage scaleWithAffineTransform(int width, int height, ScalingQuality scalingQuality) {
+        AffineTransform scaleDown = AffineTransform.getScaleInstance(
+                width / (double) wallpaper.getWidth(), height / (double) wallpaper.getHeight());
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        new AffineTransformOp(scaleDown, scalingQuality.getInterpolationType()).filter(wallpaper, target);
+        return target;
+    }
+
+    private static BufferedImage scaleWithScaler(int width, int height, ScalingQuality scalingQuality) {
+        ImageScaler scaler = new ImageScaler(wallpaper.getWidth(), wallpaper.getHeight(), width, height,
+                ForkJoinPool.commonPool());
+        scaler.setScalingQuality(scalingQuality);
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        scaler.scale(wallpaper, target);
+        return target;
+    }
+
+    private static double meanError(BufferedImage expected, BufferedImage actual) {
+        byte[] expectedPixels = pixels(expected);
+        byte[] actualPixels = pixels(actual);
+        long sum = 0;
+        for (int i = 0; i < expectedPixels.length; i++) {
+            sum += Math.abs((expectedPixels[i] & 0xff) - (actualPixels[i] & 0xff));
+        }
+        return sum / (double) expectedPixels.length;
+    }
+
+    private static int maxError(BufferedImage expected, BufferedImage actual) {
+        byte[] expectedPixels = pixels(expected);
+        byte[] actualPixels = pixels(actual);
+        int max = 0;
+        for (int i = 0; i < expectedPixels.length; i++) {
+            max = Math.max(max, Math.abs((expectedPixels[i] & 0xff) - (actualPixels[i] & 0xff)));
+        }
+        return max;
+    }
+
+    private static byte[] pixels(BufferedImage image) {
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+}
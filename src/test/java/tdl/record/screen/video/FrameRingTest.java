@@ -0,0 +1,94 @@
+package tdl.record.screen.video;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+
+public class FrameRingTest {
+
+    @Test
+    public void drop_newest_should_discard_the_incoming_frame_when_full() throws Exception {
+        List<Long> droppedFrames = new ArrayList<>();
+        FrameRing frameRing = new FrameRing(slots(2), BackpressurePolicy.DROP_NEWEST, droppedFrames::add);
+
+        frameRing.publishCaptured(frameRing.acquireForCapture(0));
+        frameRing.publishCaptured(frameRing.acquireForCapture(1));
+
+        assertThat(frameRing.acquireForCapture(2), is(nullValue()));
+        assertThat(droppedFrames, contains(2L));
+        assertThat(frameRing.takeCaptured().frameIndex, is(0L));
+    }
+
+    @Test
+    public void drop_oldest_should_reuse_the_slot_of_the_oldest_queued_frame() throws Exception {
+        List<Long> droppedFrames = new ArrayList<>();
+        FrameRing frameRing = new FrameRing(slots(2), BackpressurePolicy.DROP_OLDEST, droppedFrames::add);
+
+        frameRing.publishCaptured(frameRing.acquireForCapture(0));
+        frameRing.publishCaptured(frameRing.acquireForCapture(1));
+        frameRing.publishCaptured(frameRing.acquireForCapture(2));
+
+        assertThat(droppedFrames, contains(0L));
+        assertThat(frameRing.takeCaptured().frameIndex, is(1L));
+        assertThat(frameRing.takeCaptured().frameIndex, is(2L));
+    }
+
+    @Test
+    public void dropped_frames_should_be_reported_without_holding_up_the_other_stages() throws Exception {
+        List<Long> framesTakenDuringTheReport = new ArrayList<>();
+        FrameRing[] frameRing = new FrameRing[1];
+        frameRing[0] = new FrameRing(slots(1), BackpressurePolicy.DROP_NEWEST, frameIndex -> {
+            // A slow listener, the conversion stage carries on meanwhile
+            Thread converter = new Thread(() -> {
+                try {
+                    framesTakenDuringTheReport.add(frameRing[0].takeCaptured().frameIndex);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            converter.start();
+            try {
+                converter.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        frameRing[0].publishCaptured(frameRing[0].acquireForCapture(0));
+        assertThat(frameRing[0].acquireForCapture(1), is(nullValue()));
+
+        assertThat(framesTakenDuringTheReport, contains(0L));
+    }
+
+    @Test
+    public void closing_should_deliver_the_queued_frames_before_ending_each_stage() throws Exception {
+        FrameRing frameRing = new FrameRing(slots(2), BackpressurePolicy.BLOCK, frameIndex -> {});
+
+        frameRing.publishCaptured(frameRing.acquireForCapture(0));
+        frameRing.close();
+
+        FrameSlot slot = frameRing.takeCaptured();
+        assertThat(slot.frameIndex, is(0L));
+        assertThat(frameRing.takeCaptured(), is(nullValue()));
+        frameRing.publishConverted(slot);
+        assertThat(frameRing.takeConverted().frameIndex, is(0L));
+        assertThat(frameRing.takeConverted(), is(nullValue()));
+    }
+
+    //~~~~~~~~~~~~~ Helpers
+
+    private static FrameSlot[] slots(int count) {
+        FrameSlot[] slots = new FrameSlot[count];
+        for (int i = 0; i < count; i++) {
+            slots[i] = new FrameSlot(null, null);
+        }
+        return slots;
+    }
+}
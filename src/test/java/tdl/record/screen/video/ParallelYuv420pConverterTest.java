@@ -0,0 +1,115 @@
+package tdl.record.screen.video;
+
+import io.humble.ferry.Buffer;
+import io.humble.video.MediaPicture;
+import io.humble.video.PixelFormat;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class ParallelYuv420pConverterTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+
+    @Test
+    public void planes_should_match_the_bt601_reference_within_one_level() {
+        BufferedImage image = randomImage(WIDTH, HEIGHT);
+        MediaPicture picture = MediaPicture.make(WIDTH, HEIGHT, PixelFormat.Type.PIX_FMT_YUV420P);
+
+        new ParallelYuv420pConverter(ForkJoinPool.commonPool()).toPicture(picture, image, 42);
+
+        assertThat(picture.getTimeStamp(), is(42L));
+        assertThat(maxLumaError(picture, image), lessThanOrEqualTo(1));
+        assertThat(maxChromaError(picture, image), lessThanOrEqualTo(1));
+    }
+
+    @Test
+    public void should_read_images_that_are_views_into_a_larger_raster() {
+        BufferedImage image = randomImage(WIDTH + 5, HEIGHT + 3).getSubimage(3, 1, WIDTH, HEIGHT);
+        MediaPicture picture = MediaPicture.make(WIDTH, HEIGHT, PixelFormat.Type.PIX_FMT_YUV420P);
+
+        new ParallelYuv420pConverter(ForkJoinPool.commonPool()).toPicture(picture, image, 0);
+
+        assertThat(maxLumaError(picture, image), lessThanOrEqualTo(1));
+        assertThat(maxChromaError(picture, image), lessThanOrEqualTo(1));
+    }
+
+    //~~~~~~~~~~~~~ Helpers
+
+    static BufferedImage randomImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Random random = new Random(1);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static int maxLumaError(MediaPicture picture, BufferedImage image) {
+        ByteBuffer plane = plane(picture, 0);
+        int maxError = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int rgb = image.getRGB(x, y);
+                double expected = 16 + (65.481 * red(rgb) + 128.553 * green(rgb) + 24.966 * blue(rgb)) / 255;
+                int actual = plane.get(y * picture.getLineSize(0) + x) & 0xff;
+                maxError = Math.max(maxError, (int) Math.abs(actual - Math.round(expected)));
+            }
+        }
+        return maxError;
+    }
+
+    private static int maxChromaError(MediaPicture picture, BufferedImage image) {
+        ByteBuffer uPlane = plane(picture, 1);
+        ByteBuffer vPlane = plane(picture, 2);
+        int maxError = 0;
+        for (int y = 0; y < image.getHeight() / 2; y++) {
+            for (int x = 0; x < image.getWidth() / 2; x++) {
+                double r = 0, g = 0, b = 0;
+                for (int dy = 0; dy < 2; dy++) {
+                    for (int dx = 0; dx < 2; dx++) {
+                        int rgb = image.getRGB(2 * x + dx, 2 * y + dy);
+                        r += red(rgb) / 4.0;
+                        g += green(rgb) / 4.0;
+                        b += blue(rgb) / 4.0;
+                    }
+                }
+                double expectedU = 128 + (-37.797 * r - 74.203 * g + 112 * b) / 255;
+                double expectedV = 128 + (112 * r - 93.786 * g - 18.214 * b) / 255;
+                int actualU = uPlane.get(y * picture.getLineSize(1) + x) & 0xff;
+                int actualV = vPlane.get(y * picture.getLineSize(2) + x) & 0xff;
+                maxError = Math.max(maxError, (int) Math.abs(actualU - Math.round(expectedU)));
+                maxError = Math.max(maxError, (int) Math.abs(actualV - Math.round(expectedV)));
+            }
+        }
+        return maxError;
+    }
+
+    private static ByteBuffer plane(MediaPicture picture, int plane) {
+        Buffer data = picture.getData(plane);
+        ByteBuffer byteBuffer = data.getByteBuffer(0, picture.getDataPlaneSize(plane));
+        data.delete();
+        return byteBuffer;
+    }
+
+    private static int red(int rgb) {
+        return (rgb >> 16) & 0xff;
+    }
+
+    private static int green(int rgb) {
+        return (rgb >> 8) & 0xff;
+    }
+
+    private static int blue(int rgb) {
+        return rgb & 0xff;
+    }
+}
@@ -0,0 +1,153 @@
+package tdl.record.screen.video;
+
+import com.google.zxing.BarcodeFormat;
+import io.humble.video.Rational;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tdl.record.screen.image.input.ImageInput;
+import tdl.record.screen.image.input.InputFromStreamOfBarcodes;
+import tdl.record.screen.metrics.VideoRecordingListener;
+import tdl.record.screen.time.FakeTimeSource;
+import tdl.record.screen.time.TimeSource;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the time from the start of the application to the first encoded frame, with and without the warm-up.
+ * How much the warm-up saves depends on the machine and its file cache, so the numbers are reported rather than compared.
+ * <p>
+ * The costs are paid once per JVM, loading the native libraries in particular, so every run is a new JVM.
+ * The JMH benchmarks cannot measure this, they warm up and reuse their forks.
+ * Looking for the screens is played by opening a large stream of barcodes, the warm-up runs meanwhile.
+ */
+@Tag("benchmark")
+public class StartupBenchmarkTest {
+    private static final Logger log = LoggerFactory.getLogger(StartupBenchmarkTest.class);
+    private static final int RUNS = 5;
+    private static final String RESULT_PREFIX = "time to first frame: ";
+
+    @Test
+    public void report_the_time_to_first_frame_with_and_without_the_warm_up() throws Exception {
+        long[] cold = new long[RUNS];
+        long[] warmedUp = new long[RUNS];
+        // Alternate the modes so that both see the same state of the machine, file cache included
+        for (int i = 0; i < RUNS; i++) {
+            cold[i] = runStartup(false);
+            warmedUp[i] = runStartup(true);
+        }
+
+        report("cold", cold);
+        report("warmed up", warmedUp);
+    }
+
+    //~~~~~~~~~~~~~ Helpers
+
+    private static long runStartup(boolean warmUp) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Startup.class.getName(), String.valueOf(warmUp))
+                .redirectErrorStream(true)
+                .start();
+        long timeToFirstFrameNanos = -1;
+        try (BufferedReader output = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (line.startsWith(RESULT_PREFIX)) {
+                    timeToFirstFrameNanos = Long.parseLong(line.substring(RESULT_PREFIX.length()));
+                }
+            }
+        }
+        if (process.waitFor() != 0 || timeToFirstFrameNanos < 0) {
+            throw new IllegalStateException("The startup run failed with exit code " + process.exitValue());
+        }
+        return timeToFirstFrameNanos;
+    }
+
+    private static void report(String name, long[] timesNanos) {
+        long[] sorted = timesNanos.clone();
+        Arrays.sort(sorted);
+        long median = sorted[sorted.length / 2];
+        List<Long> millis = new ArrayList<>();
+        for (long time : timesNanos) {
+            millis.add(TimeUnit.NANOSECONDS.toMillis(time));
+        }
+        log.info("{} median = {} ms, runs = {} ms", name, TimeUnit.NANOSECONDS.toMillis(median), millis);
+    }
+
+    /**
+     * A recording application reduced to its startup, run in a new JVM. Prints the time from its start to the first frame.
+     */
+    public static class Startup {
+
+        public static void main(String[] args) throws Exception {
+            long start = System.nanoTime();
+            boolean warmUp = Boolean.parseBoolean(args[0]);
+            RecorderWarmUp recorderWarmUp = null;
+            if (warmUp) {
+                recorderWarmUp = RecorderWarmUp.start(EncodingProfile.PLATFORM_DEFAULT, true);
+            } else {
+                VideoRecorder.runSanityCheck();
+            }
+
+            // Stands for the screen discovery, which loads and initialises AWT
+            TimeSource timeSource = new FakeTimeSource();
+            ImageInput imageInput = new InputFromStreamOfBarcodes(BarcodeFormat.CODE_39, 1280, 720, timeSource);
+            imageInput.open();
+            imageInput.readImage();
+
+            long[] firstFrameNanos = new long[1];
+            VideoRecorder videoRecorder = new VideoRecorder.Builder(imageInput)
+                    .withTimeSource(timeSource)
+                    .withRecordingListener(new FirstFrameListener(firstFrameNanos))
+                    .build();
+            if (recorderWarmUp != null) {
+                recorderWarmUp.await();
+            }
+            videoRecorder.open("build/startup_benchmark.mp4", 4, 4);
+            videoRecorder.start(Duration.ofSeconds(1));
+            videoRecorder.close();
+            System.out.println(RESULT_PREFIX + (firstFrameNanos[0] - start));
+        }
+    }
+
+    private static class FirstFrameListener implements VideoRecordingListener {
+        private final long[] firstFrameNanos;
+
+        FirstFrameListener(long[] firstFrameNanos) {
+            this.firstFrameNanos = firstFrameNanos;
+        }
+
+        @Override
+        public void notifyRecordingStart(String destinationFilename, Rational inputFrameRate, Rational videoFrameRate) {
+        }
+
+        @Override
+        public void notifyFrameRenderingStart(long timestamp, TimeUnit unit, long frameIndex) {
+        }
+
+        @Override
+        public void notifyFrameRenderingEnd(long timestamp, TimeUnit unit, long frameIndex) {
+        }
+
+        @Override
+        public void notifyFirstFrameEncoded(long timestamp, TimeUnit unit, long frameIndex, long timeToFirstFrame) {
+            firstFrameNanos[0] = System.nanoTime();
+        }
+
+        @Override
+        public void notifyRecordingEnd() {
+        }
+    }
+}